@@ -0,0 +1,24 @@
+package android.content;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+/**
+ * Minimal stand-in for android.content.Context so the library compiles on a
+ * desktop JVM for benchmarking. Only the methods used by SiriJacksonConfig's
+ * cache are declared.
+ */
+public abstract class Context {
+
+	public static final int MODE_PRIVATE = 0x0000;
+
+	public abstract FileInputStream openFileInput(String name)
+			throws FileNotFoundException;
+
+	public abstract FileOutputStream openFileOutput(String name, int mode)
+			throws FileNotFoundException;
+
+	public abstract File getFileStreamPath(String name);
+}
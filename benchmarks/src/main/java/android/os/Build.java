@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * Minimal stand-in for android.os.Build so the library can run on a desktop
+ * JVM for benchmarking. Reports the library's target platform (API 15).
+ */
+public final class Build {
+
+	private Build() {
+	}
+
+	public static class VERSION {
+		public static final int SDK_INT = VERSION_CODES.ICE_CREAM_SANDWICH_MR1;
+	}
+
+	public static class VERSION_CODES {
+		public static final int FROYO = 8;
+		public static final int GINGERBREAD = 9;
+		public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+	}
+}
@@ -0,0 +1,58 @@
+package android.util;
+
+/**
+ * Minimal stand-in for android.util.Log so the library can run on a desktop
+ * JVM for benchmarking. Log output is dropped, so it doesn't skew the results.
+ */
+public final class Log {
+
+	private Log() {
+	}
+
+	public static int v(String tag, String msg) {
+		return 0;
+	}
+
+	public static int v(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int d(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return 0;
+	}
+
+	public static int i(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return 0;
+	}
+
+	public static int w(String tag, Throwable tr) {
+		return 0;
+	}
+
+	public static int e(String tag, String msg) {
+		System.err.println(tag + ": " + msg);
+		return 0;
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		System.err.println(tag + ": " + msg);
+		tr.printStackTrace();
+		return 0;
+	}
+}
@@ -0,0 +1,285 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.usf.cutr.siri.android.client.config.SiriJacksonConfig;
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+
+/**
+ * A local stand-in for a RESTful SIRI server (e.g., MTA BusTime), serving
+ * recorded responses from the "fixtures" folder on the classpath.
+ * 
+ * Requests to /api/siri/vehicle-monitoring.json are answered with
+ * fixtures/vehicle-monitoring.json, and so on, so a SiriRestClient can be
+ * pointed at getBaseUrl() + "vehicle-monitoring". Query parameters are
+ * ignored. All fixtures are loaded into memory up front, so serving a response
+ * costs as little as possible.
+ * 
+ * There are no Smile or CBOR fixture files - vehicle-monitoring.smile and so on
+ * are the JSON fixtures re-encoded with the binary format when the server is
+ * created.
+ */
+public class FixtureServer {
+
+	/**
+	 * Path that fixtures are served under
+	 */
+	public static final String CONTEXT_PATH = "/api/siri/";
+
+	private static final String FIXTURE_FOLDER = "fixtures/";
+
+	private static final String[] FIXTURE_NAMES = { "vehicle-monitoring.json",
+			"vehicle-monitoring.xml", "stop-monitoring.json",
+			"stop-monitoring.xml" };
+
+	private final Map<String, byte[]> fixtures = new HashMap<String, byte[]>();
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	/**
+	 * Creates a new server and loads all fixtures. Call start() to begin
+	 * serving requests.
+	 * 
+	 * @throws IOException
+	 *             if a fixture couldn't be loaded
+	 */
+	public FixtureServer() throws IOException {
+		ObjectMapper smileMapper = SiriJacksonConfig.createSmileMapper();
+		ObjectMapper cborMapper = SiriJacksonConfig.createCborMapper();
+
+		for (String name : FIXTURE_NAMES) {
+			byte[] fixture = loadFixture(name);
+			fixtures.put(name, fixture);
+
+			if (name.endsWith(".json")) {
+				String baseName = name.substring(0, name.length() - 5);
+				fixtures.put(baseName + ".smile", transcode(fixture, smileMapper));
+				fixtures.put(baseName + ".cbor", transcode(fixture, cborMapper));
+			}
+		}
+	}
+
+	/**
+	 * Starts the server on a free port on the loopback interface
+	 * 
+	 * @throws IOException
+	 *             if the server couldn't be started
+	 */
+	public void start() throws IOException {
+		// Otherwise Nagle's algorithm and delayed ACKs add ~40ms to each
+		// response, which would swamp the differences being measured
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+		server.createContext(CONTEXT_PATH, new FixtureHandler());
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stops the server
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Returns the base URL for SIRI requests to this server, ending with "/"
+	 * 
+	 * @return the base URL for SIRI requests to this server (e.g.,
+	 *         http://127.0.0.1:54321/api/siri/)
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort()
+				+ CONTEXT_PATH;
+	}
+
+	/**
+	 * Returns the contents of a fixture
+	 * 
+	 * @param name
+	 *            file name of the fixture (e.g., "vehicle-monitoring.json")
+	 * @return the contents of the fixture
+	 */
+	public byte[] getFixture(String name) {
+		return fixtures.get(name);
+	}
+
+	/**
+	 * Returns the shared mapper a SiriRestClient uses to parse responses in
+	 * the given format, for benchmarks with a "format" parameter
+	 * 
+	 * @param format
+	 *            "JSON", "XML", "SMILE", or "CBOR"
+	 * @return the shared SiriJacksonConfig mapper for the format
+	 */
+	static ObjectMapper mapperFor(String format) {
+		if (format.equals("JSON")) {
+			return SiriJacksonConfig.getObjectMapperInstance();
+		} else if (format.equals("XML")) {
+			return SiriJacksonConfig.getXmlMapperInstance();
+		} else if (format.equals("SMILE")) {
+			return SiriJacksonConfig.getSmileMapperInstance();
+		} else if (format.equals("CBOR")) {
+			return SiriJacksonConfig.getCborMapperInstance();
+		}
+		throw new IllegalArgumentException("Unknown format: " + format);
+	}
+
+	/**
+	 * Returns the SiriRestClientConfig.RESPONSE_TYPE_* constant for a format
+	 * 
+	 * @param format
+	 *            "JSON", "XML", "SMILE", or "CBOR"
+	 * @return the response type for the format
+	 */
+	static int responseTypeFor(String format) {
+		if (format.equals("JSON")) {
+			return SiriRestClientConfig.RESPONSE_TYPE_JSON;
+		} else if (format.equals("XML")) {
+			return SiriRestClientConfig.RESPONSE_TYPE_XML;
+		} else if (format.equals("SMILE")) {
+			return SiriRestClientConfig.RESPONSE_TYPE_SMILE;
+		} else if (format.equals("CBOR")) {
+			return SiriRestClientConfig.RESPONSE_TYPE_CBOR;
+		}
+		throw new IllegalArgumentException("Unknown format: " + format);
+	}
+
+	/**
+	 * Returns a fixture in the given format, for benchmarks that parse
+	 * fixtures without a server. Smile and CBOR fixtures are the JSON fixture
+	 * re-encoded, as the server does.
+	 * 
+	 * @param format
+	 *            "JSON", "XML", "SMILE", or "CBOR"
+	 * @param name
+	 *            name of the fixture without the extension (e.g.,
+	 *            "vehicle-monitoring")
+	 * @return the contents of the fixture
+	 * @throws IOException
+	 *             if the fixture couldn't be read
+	 */
+	static byte[] fixtureFor(String format, String name) throws IOException {
+		if (format.equals("JSON")) {
+			return loadFixture(name + ".json");
+		} else if (format.equals("XML")) {
+			return loadFixture(name + ".xml");
+		}
+		return transcode(loadFixture(name + ".json"), mapperFor(format));
+	}
+
+	/**
+	 * Reads a fixture from the classpath, for benchmarks that parse fixtures
+	 * without a server
+	 * 
+	 * @param name
+	 *            file name of the fixture (e.g., "vehicle-monitoring.json")
+	 * @return the contents of the fixture
+	 * @throws IOException
+	 *             if the fixture couldn't be read
+	 */
+	static byte[] loadFixture(String name) throws IOException {
+		InputStream in = FixtureServer.class.getClassLoader()
+				.getResourceAsStream(FIXTURE_FOLDER + name);
+		if (in == null) {
+			throw new FileNotFoundException("Missing fixture " + FIXTURE_FOLDER
+					+ name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Re-encodes a JSON fixture in a binary format, keeping the same
+	 * structure and property names
+	 * 
+	 * @param json
+	 *            contents of a JSON fixture
+	 * @param binaryMapper
+	 *            mapper for the binary format (e.g., from
+	 *            SiriJacksonConfig.createSmileMapper())
+	 * @return the fixture in the binary format
+	 * @throws IOException
+	 *             if the fixture couldn't be re-encoded
+	 */
+	static byte[] transcode(byte[] json, ObjectMapper binaryMapper)
+			throws IOException {
+		return binaryMapper.writeValueAsBytes(new ObjectMapper().readTree(json));
+	}
+
+	/**
+	 * Returns the Content-Type for a fixture, based on its extension
+	 */
+	private static String getContentType(String path) {
+		if (path.endsWith(".xml")) {
+			return "application/xml;charset=UTF-8";
+		} else if (path.endsWith(".smile")) {
+			return "application/x-jackson-smile";
+		} else if (path.endsWith(".cbor")) {
+			return "application/cbor";
+		}
+		return "application/json;charset=UTF-8";
+	}
+
+	private class FixtureHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String path = exchange.getRequestURI().getPath();
+				byte[] body = fixtures.get(path.substring(path.lastIndexOf('/') + 1));
+
+				if (body == null) {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+
+				exchange.getResponseHeaders().set("Content-Type",
+						getContentType(path));
+				exchange.sendResponseHeaders(200, body.length);
+
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.siri.siri.Siri;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares parsing the vehicle monitoring and stop monitoring fixtures in each
+ * response type - JSON, XML, Smile, and CBOR - from memory (no server), with
+ * the same mappers a SiriRestClient uses for that response type.
+ *
+ * The Smile and CBOR payloads are the JSON fixtures re-encoded, so all four
+ * formats hold the same data. The payload size of each fixture is listed in
+ * the benchmarks README, so the results can be read with both sides of the
+ * trade-off: bytes to download, and time to parse them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SiriBinaryFormatBenchmark {
+
+	/**
+	 * Response type
+	 */
+	@Param({ "JSON", "XML", "SMILE", "CBOR" })
+	public String format;
+
+	private ObjectMapper mapper;
+
+	private byte[] vehicleMonitoring;
+
+	private byte[] stopMonitoring;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mapper = FixtureServer.mapperFor(format);
+		vehicleMonitoring = FixtureServer.fixtureFor(format, "vehicle-monitoring");
+		stopMonitoring = FixtureServer.fixtureFor(format, "stop-monitoring");
+
+		// Make sure both payloads parse before measuring them
+		if (vehicleMonitoring().getServiceDelivery() == null
+				|| stopMonitoring().getServiceDelivery() == null) {
+			throw new IllegalStateException("Fixtures didn't parse for "
+					+ format);
+		}
+	}
+
+	/**
+	 * Parses the vehicle monitoring fixture for all vehicles
+	 */
+	@Benchmark
+	public Siri vehicleMonitoring() throws IOException {
+		return mapper.readValue(new ByteArrayInputStream(vehicleMonitoring),
+				Siri.class);
+	}
+
+	/**
+	 * Parses the stop monitoring fixture for a single stop
+	 */
+	@Benchmark
+	public Siri stopMonitoring() throws IOException {
+		return mapper.readValue(new ByteArrayInputStream(stopMonitoring),
+				Siri.class);
+	}
+}
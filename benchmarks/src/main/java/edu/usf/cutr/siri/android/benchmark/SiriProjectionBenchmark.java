@@ -0,0 +1,119 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.VehicleActivity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import edu.usf.cutr.siri.android.client.stream.SiriElementListener;
+import edu.usf.cutr.siri.android.client.stream.SiriProjection;
+import edu.usf.cutr.siri.android.client.stream.SiriStreamingParser;
+
+/**
+ * Compares parsing a VehicleMonitoring response (already in memory, so no
+ * network time is included) three ways, for JSON and XML:
+ * 
+ * fullBind - the whole Siri object tree, as makeVehicleMonRequest() does
+ * streaming - one VehicleActivity POJO at a time, as streamVehicleMonRequest()
+ * does
+ * projection - only SiriProjection.VEHICLE_POSITION of each VehicleActivity,
+ * skipping OnwardCalls, MonitoredCall, SituationRef, etc. at the token level
+ * 
+ * Run with "-prof gc" to compare the bytes allocated per parse
+ * (gc.alloc.rate.norm) as well as the time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SiriProjectionBenchmark {
+
+	/**
+	 * Response type
+	 */
+	@Param({ "JSON", "XML" })
+	public String format;
+
+	private byte[] response;
+
+	private ObjectReader siriReader;
+
+	private SiriStreamingParser streamingParser;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ObjectMapper mapper = FixtureServer.mapperFor(format);
+		response = FixtureServer.fixtureFor(format, "vehicle-monitoring");
+		siriReader = mapper.reader(Siri.class);
+		streamingParser = new SiriStreamingParser(mapper);
+
+		// Make sure the projection actually finds the vehicles
+		final int[] positions = new int[1];
+		streamingParser.readProjectedVehicleActivities(
+				new ByteArrayInputStream(response),
+				SiriProjection.VEHICLE_POSITION,
+				new SiriElementListener<Map<String, String>>() {
+					public boolean onElement(Map<String, String> element) {
+						if (element.containsKey("MonitoredVehicleJourney.VehicleLocation.Latitude")) {
+							positions[0]++;
+						}
+						return true;
+					}
+				});
+		if (positions[0] == 0) {
+			throw new IllegalStateException("No vehicle positions in "
+					+ format + " fixture");
+		}
+	}
+
+	@Benchmark
+	public Siri fullBind() throws IOException {
+		return siriReader.readValue(new ByteArrayInputStream(response));
+	}
+
+	@Benchmark
+	public int streaming(final Blackhole blackhole) throws IOException {
+		return streamingParser.readVehicleActivities(new ByteArrayInputStream(
+				response), new SiriElementListener<VehicleActivity>() {
+			public boolean onElement(VehicleActivity element) {
+				blackhole.consume(element);
+				return true;
+			}
+		});
+	}
+
+	@Benchmark
+	public int projection(final Blackhole blackhole) throws IOException {
+		return streamingParser.readProjectedVehicleActivities(
+				new ByteArrayInputStream(response),
+				SiriProjection.VEHICLE_POSITION,
+				new SiriElementListener<Map<String, String>>() {
+					public boolean onElement(Map<String, String> element) {
+						blackhole.consume(element);
+						return true;
+					}
+				});
+	}
+}
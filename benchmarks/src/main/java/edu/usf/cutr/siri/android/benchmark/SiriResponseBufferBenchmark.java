@@ -0,0 +1,117 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.siri.siri.Siri;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import edu.usf.cutr.siri.android.client.http.CountingInputStream;
+import edu.usf.cutr.siri.android.client.http.SiriBufferPool;
+import edu.usf.cutr.siri.android.client.http.SiriResponseBuffer;
+
+/**
+ * Compares the two ways a SiriRestClient can parse a response body it has
+ * opened itself (the Android HttpURLConnection and pooled connection types):
+ * 
+ * STREAM - Jackson parses straight from the response stream (the default)
+ * BUFFERED - the body is read into a pooled buffer sized from the
+ * Content-Length, and Jackson parses the byte[] (response buffering enabled)
+ * BUFFERED_NO_LENGTH - as BUFFERED, for a server that doesn't send a
+ * Content-Length, so the first buffer may be too small and has to grow
+ * 
+ * The vehicle monitoring fixture is read from memory, through the same
+ * byte-counting stream wrappers the client uses, so the difference comes from
+ * reading and parsing alone. Run with "-prof gc" to compare the bytes
+ * allocated per response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SiriResponseBufferBenchmark {
+
+	/**
+	 * Response type
+	 */
+	@Param({ "JSON", "XML" })
+	public String format;
+
+	/**
+	 * How the response body is read
+	 */
+	@Param({ "STREAM", "BUFFERED", "BUFFERED_NO_LENGTH" })
+	public String mode;
+
+	private ObjectReader reader;
+
+	private byte[] vehicleMonitoring;
+
+	private SiriBufferPool pool;
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong bytesDecoded = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// Same as SiriJacksonConfig.getObjectReaderInstance() for JSON
+		reader = FixtureServer.mapperFor(format).reader(Siri.class);
+		vehicleMonitoring = FixtureServer.fixtureFor(format, "vehicle-monitoring");
+		if (!mode.equals("STREAM") && !mode.equals("BUFFERED")
+				&& !mode.equals("BUFFERED_NO_LENGTH")) {
+			throw new IllegalArgumentException("Unknown mode: " + mode);
+		}
+
+		// Same defaults as SiriRestClientConfig
+		pool = new SiriBufferPool(4, 1024 * 1024);
+
+		// Make sure the payload parses before measuring it
+		if (vehicleMonitoring().getServiceDelivery() == null) {
+			throw new IllegalStateException("Fixture didn't parse for "
+					+ format);
+		}
+	}
+
+	/**
+	 * Parses the vehicle monitoring fixture for all vehicles
+	 */
+	@Benchmark
+	public Siri vehicleMonitoring() throws IOException {
+		// Received and decoded counters, as in SiriRestClient.fetchRequest()
+		InputStream in = new CountingInputStream(new CountingInputStream(
+				new ByteArrayInputStream(vehicleMonitoring), bytesReceived),
+				bytesDecoded);
+
+		if (mode.equals("STREAM")) {
+			return reader.readValue(in);
+		}
+
+		SiriResponseBuffer body = pool.readFully(in,
+				mode.equals("BUFFERED") ? vehicleMonitoring.length : -1);
+		try {
+			return reader.readValue(body.getArray(), 0, body.getLength());
+		} finally {
+			body.release();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.siri.siri.Siri;
+import edu.usf.cutr.siri.android.client.SiriRestClient;
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+
+/**
+ * Benchmarks a full SiriRestClient request (connect, download, and parse)
+ * for each combination of response type, HTTP connection type, and Jackson
+ * object type discussed in SiriRestClient.executeRequest():
+ * 
+ * JSON - Jackson HTTP connection + ObjectReader
+ * JSON - Jackson HTTP connection + ObjectMapper
+ * JSON - Android HttpURLConnection + ObjectReader
+ * JSON - Android HttpURLConnection + ObjectMapper
+ * XML - Jackson HTTP connection + XmlMapper
+ * XML - Android HttpURLConnection + XmlMapper
+ * Smile - Android HttpURLConnection + Smile ObjectMapper
+ * CBOR - Android HttpURLConnection + CBOR ObjectMapper
+ * JSON - Android HttpURLConnection + ObjectReader, buffered
+ * XML - Android HttpURLConnection + XmlMapper, buffered
+ * 
+ * (For XML, the Jackson object type isn't used, since XmlMapper is the only
+ * option, so there are six JSON and XML combinations and not eight. The
+ * binary formats are only run with the Android connection, to compare against
+ * JSON_ANDROID_READER and XML_ANDROID. The "BUFFERED" combinations read each
+ * response into a pooled buffer and parse the byte[] - see
+ * SiriRestClientConfig.setResponseBufferingEnabled() - and are compared
+ * against the same combinations without the suffix.)
+ * 
+ * Requests go to a FixtureServer on the loopback interface, so network time is
+ * small and stable, and differences come from the connection handling and
+ * parsing. Throughput and average time are reported for each combination - run
+ * with "-prof gc" to also report the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SiriRestClientBenchmark {
+
+	// Parameters for the requests - the FixtureServer ignores them, but they
+	// go through the same URL building as a real request
+	private static final String DEV_KEY = "benchmark";
+	private static final String OPERATOR_REF = "MTA NYCT";
+	private static final String MONITORING_REF = "308209";
+
+	/**
+	 * Response type, HTTP connection type, and Jackson object type, separated
+	 * by "_"
+	 */
+	@Param({ "JSON_JACKSON_READER", "JSON_JACKSON_MAPPER",
+			"JSON_ANDROID_READER", "JSON_ANDROID_MAPPER", "XML_JACKSON",
+			"XML_ANDROID", "SMILE_ANDROID", "CBOR_ANDROID",
+			"JSON_ANDROID_READER_BUFFERED", "XML_ANDROID_BUFFERED" })
+	public String combination;
+
+	private FixtureServer server;
+
+	private SiriRestClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		server = new FixtureServer();
+		server.start();
+
+		client = new SiriRestClient(server.getBaseUrl() + "vehicle-monitoring",
+				server.getBaseUrl() + "stop-monitoring", createConfig(combination));
+
+		// Make sure the combination actually works before measuring it, since
+		// the client returns null instead of throwing on a failed request
+		if (vehicleMonitoring() == null || stopMonitoring() == null) {
+			tearDown();
+			throw new IllegalStateException("Requests failed for "
+					+ combination);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.shutdown();
+		server.stop();
+	}
+
+	/**
+	 * Full VehicleMonitoring request for all vehicles
+	 */
+	@Benchmark
+	public Siri vehicleMonitoring() {
+		return client.makeVehicleMonRequest(DEV_KEY, OPERATOR_REF, "", "", -1,
+				"", -1);
+	}
+
+	/**
+	 * Full StopMonitoring request for a single stop
+	 */
+	@Benchmark
+	public Siri stopMonitoring() {
+		return client.makeStopMonRequest(DEV_KEY, OPERATOR_REF,
+				MONITORING_REF, "", -1, "", -1);
+	}
+
+	/**
+	 * Creates the client configuration for a benchmark combination
+	 * 
+	 * @param combination
+	 *            response type, HTTP connection type, (for JSON) Jackson
+	 *            object type, and optionally "BUFFERED", separated by "_"
+	 * @return the configuration for the combination
+	 */
+	static SiriRestClientConfig createConfig(String combination) {
+		String[] parts = combination.split("_");
+		boolean buffered = parts[parts.length - 1].equals("BUFFERED");
+		if (buffered) {
+			String[] unbuffered = new String[parts.length - 1];
+			System.arraycopy(parts, 0, unbuffered, 0, unbuffered.length);
+			parts = unbuffered;
+		}
+
+		SiriRestClientConfig config;
+		if (parts[0].equals("JSON")) {
+			config = new SiriRestClientConfig(
+					SiriRestClientConfig.RESPONSE_TYPE_JSON);
+		} else if (parts[0].equals("XML")) {
+			config = new SiriRestClientConfig(
+					SiriRestClientConfig.RESPONSE_TYPE_XML);
+		} else if (parts[0].equals("SMILE")) {
+			config = new SiriRestClientConfig(
+					SiriRestClientConfig.RESPONSE_TYPE_SMILE);
+		} else if (parts[0].equals("CBOR")) {
+			config = new SiriRestClientConfig(
+					SiriRestClientConfig.RESPONSE_TYPE_CBOR);
+		} else {
+			throw new IllegalArgumentException("Unknown response type: "
+					+ combination);
+		}
+
+		if (parts[1].equals("JACKSON")) {
+			config.setHttpConnectionType(SiriRestClientConfig.HTTP_CONNECTION_TYPE_JACKSON);
+		} else if (parts[1].equals("ANDROID")) {
+			config.setHttpConnectionType(SiriRestClientConfig.HTTP_CONNECTION_TYPE_ANDROID);
+		} else {
+			throw new IllegalArgumentException("Unknown HTTP connection type: "
+					+ combination);
+		}
+
+		if (parts.length > 2) {
+			if (parts[2].equals("READER")) {
+				config.setJacksonObjectType(SiriRestClientConfig.JACKSON_OBJECT_TYPE_READER);
+			} else if (parts[2].equals("MAPPER")) {
+				config.setJacksonObjectType(SiriRestClientConfig.JACKSON_OBJECT_TYPE_MAPPER);
+			} else {
+				throw new IllegalArgumentException("Unknown Jackson object type: "
+						+ combination);
+			}
+		}
+
+		config.setResponseBufferingEnabled(buffered);
+
+		return config;
+	}
+}
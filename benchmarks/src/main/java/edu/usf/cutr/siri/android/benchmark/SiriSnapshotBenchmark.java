@@ -0,0 +1,145 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.siri.siri.Siri;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.usf.cutr.siri.android.client.cache.SiriSnapshot;
+import edu.usf.cutr.siri.android.client.cache.SiriSnapshotStore;
+
+/**
+ * Compares loading the last good VehicleMonitoring response at startup from a
+ * SiriSnapshotStore (Smile) with re-parsing the original JSON or XML response
+ * saved to a file:
+ * 
+ * reparse - read the saved JSON/XML response and parse it
+ * loadSnapshot - create a SiriSnapshotStore and load its snapshot with
+ * loadAll(), as an app would on startup
+ * decodeSnapshot - decode the Smile payload from memory, to separate decoding
+ * from file access
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SiriSnapshotBenchmark {
+
+	private static final String KEY = "vehicle-monitoring";
+
+	/**
+	 * Format of the original response
+	 */
+	@Param({ "JSON", "XML" })
+	public String format;
+
+	private ObjectMapper mapper;
+
+	private File directory;
+
+	private File responseFile;
+
+	private byte[] smile;
+
+	private SiriSnapshotStore decoder;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, InterruptedException {
+		mapper = FixtureServer.mapperFor(format);
+		byte[] response = FixtureServer.fixtureFor(format, "vehicle-monitoring");
+
+		directory = File.createTempFile("siri-snapshots", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Couldn't create " + directory);
+		}
+
+		// The original response, as it would have to be saved to re-parse it
+		responseFile = new File(directory, "response." + format.toLowerCase());
+		OutputStream out = new FileOutputStream(responseFile);
+		try {
+			out.write(response);
+		} finally {
+			out.close();
+		}
+
+		Siri siri = mapper.readValue(response, Siri.class);
+		SiriSnapshotStore store = new SiriSnapshotStore(directory, 0);
+		store.put(KEY, siri);
+		if (!store.shutdown(10000)) {
+			throw new IllegalStateException("Snapshot wasn't written");
+		}
+
+		decoder = new SiriSnapshotStore(directory, 0);
+		smile = decoder.encode(siri);
+
+		// Make sure the snapshot loads
+		if (loadSnapshot() == null) {
+			throw new IllegalStateException("Snapshot didn't load");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Reads and parses the original response
+	 */
+	@Benchmark
+	public Siri reparse() throws IOException {
+		InputStream in = new FileInputStream(responseFile);
+		try {
+			return mapper.readValue(in, Siri.class);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the snapshot as an app would on startup
+	 */
+	@Benchmark
+	public SiriSnapshot loadSnapshot() {
+		SiriSnapshotStore store = new SiriSnapshotStore(directory, 0);
+		store.loadAll();
+		return store.get(KEY);
+	}
+
+	/**
+	 * Decodes the Smile snapshot from memory
+	 */
+	@Benchmark
+	public Siri decodeSnapshot() throws IOException {
+		return decoder.decode(smile, 0, smile.length);
+	}
+}
@@ -0,0 +1,179 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.VehicleActivity;
+import edu.usf.cutr.siri.android.client.config.SiriJacksonConfig;
+import edu.usf.cutr.siri.android.client.delta.SiriVehicleChange;
+import edu.usf.cutr.siri.android.client.state.SiriSpatialIndex;
+
+/**
+ * Benchmarks nearest-vehicle and bounding-box queries on a SiriSpatialIndex,
+ * and applying a new VehicleMonitoring snapshot to it, for synthetic fleets
+ * spread over an area the size of New York City.
+ * 
+ * Query points are random points in the same area, and bounding boxes are
+ * about 4 km x 4 km (a zoomed-in map viewport). For the update benchmark, a
+ * third of the vehicles move between two alternating snapshots.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SiriSpatialIndexBenchmark {
+
+	// Area covered by the fleet
+	private static final double MIN_LATITUDE = 40.50;
+	private static final double MAX_LATITUDE = 40.90;
+	private static final double MIN_LONGITUDE = -74.25;
+	private static final double MAX_LONGITUDE = -73.70;
+
+	// Half the size of a bounding box, in degrees
+	private static final double BOX_HALF_SIZE = 0.02;
+
+	private static final int QUERY_COUNT = 1024;
+
+	/**
+	 * Number of vehicles in the fleet
+	 */
+	@Param({ "1000", "10000", "50000" })
+	public int fleetSize;
+
+	private SiriSpatialIndex index;
+
+	private final double[] queryLatitudes = new double[QUERY_COUNT];
+	private final double[] queryLongitudes = new double[QUERY_COUNT];
+	private int query = 0;
+
+	// Two snapshots of the same fleet, applied alternately by update()
+	private Siri[] snapshots;
+	private int snapshot = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+
+		double[] latitudes = new double[fleetSize];
+		double[] longitudes = new double[fleetSize];
+		for (int i = 0; i < fleetSize; i++) {
+			latitudes[i] = randomBetween(random, MIN_LATITUDE, MAX_LATITUDE);
+			longitudes[i] = randomBetween(random, MIN_LONGITUDE,
+					MAX_LONGITUDE);
+		}
+
+		snapshots = new Siri[2];
+		snapshots[0] = parseFleet(latitudes, longitudes);
+		for (int i = 0; i < fleetSize; i += 3) {
+			// About 100 m
+			latitudes[i] += 0.001;
+			longitudes[i] += 0.001;
+		}
+		snapshots[1] = parseFleet(latitudes, longitudes);
+
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			queryLatitudes[i] = randomBetween(random, MIN_LATITUDE,
+					MAX_LATITUDE);
+			queryLongitudes[i] = randomBetween(random, MIN_LONGITUDE,
+					MAX_LONGITUDE);
+		}
+
+		index = new SiriSpatialIndex();
+		index.update(snapshots[0]);
+		if (index.size() != fleetSize) {
+			throw new IllegalStateException("Indexed " + index.size()
+					+ " of " + fleetSize + " vehicles");
+		}
+	}
+
+	/**
+	 * The 10 vehicles nearest to a point ("buses near me")
+	 */
+	@Benchmark
+	public List<VehicleActivity> nearest10() {
+		int q = nextQuery();
+		return index.getNearestVehicles(queryLatitudes[q],
+				queryLongitudes[q], 10, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * All vehicles in a map viewport
+	 */
+	@Benchmark
+	public List<VehicleActivity> boundingBox() {
+		int q = nextQuery();
+		return index.getVehiclesInBoundingBox(queryLatitudes[q]
+				- BOX_HALF_SIZE, queryLongitudes[q] - BOX_HALF_SIZE,
+				queryLatitudes[q] + BOX_HALF_SIZE, queryLongitudes[q]
+						+ BOX_HALF_SIZE);
+	}
+
+	/**
+	 * Applying a snapshot where a third of the fleet moved, including finding
+	 * the changes
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<SiriVehicleChange> update() {
+		snapshot ^= 1;
+		return index.update(snapshots[snapshot]);
+	}
+
+	private int nextQuery() {
+		query = (query + 1) & (QUERY_COUNT - 1);
+		return query;
+	}
+
+	private static double randomBetween(Random random, double min, double max) {
+		return min + random.nextDouble() * (max - min);
+	}
+
+	/**
+	 * Builds and parses a VehicleMonitoring response for the fleet, so the
+	 * vehicles are the same objects a real response would produce
+	 */
+	private static Siri parseFleet(double[] latitudes, double[] longitudes)
+			throws IOException {
+		StringBuilder sb = new StringBuilder(latitudes.length * 200);
+		sb.append("{\"Siri\":{\"ServiceDelivery\":{\"VehicleMonitoringDelivery\":[{\"VehicleActivity\":[");
+		for (int i = 0; i < latitudes.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"MonitoredVehicleJourney\":{");
+			sb.append("\"LineRef\":\"MTA NYCT_L").append(i % 200).append("\",");
+			sb.append("\"DirectionRef\":\"").append(i % 2).append("\",");
+			sb.append("\"FramedVehicleJourneyRef\":{\"DataFrameRef\":\"2014-08-11\",\"DatedVehicleJourneyRef\":\"T")
+					.append(i).append("\"},");
+			sb.append("\"VehicleLocation\":{\"Longitude\":")
+					.append(String.format(Locale.US, "%.6f", longitudes[i]))
+					.append(",\"Latitude\":")
+					.append(String.format(Locale.US, "%.6f", latitudes[i]))
+					.append("},");
+			sb.append("\"VehicleRef\":\"MTA NYCT_").append(i).append("\"}}");
+		}
+		sb.append("]}]}}}");
+
+		return SiriJacksonConfig.getObjectReaderInstance().readValue(
+				sb.toString());
+	}
+}
@@ -0,0 +1,85 @@
+package edu.usf.cutr.siri.android.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.siri.siri.Siri;
+
+import edu.usf.cutr.siri.android.client.config.SiriJacksonReaders;
+import edu.usf.cutr.siri.android.client.config.SiriJacksonWarmup;
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+
+/**
+ * Measures the parse time of the first VehicleMonitoring response in a fresh
+ * JVM, with and without a SiriJacksonWarmup beforehand.
+ * 
+ * Each fork parses the response exactly once (single shot, no JMH warm-up
+ * iterations), so the time includes building the Jackson deserializers unless
+ * the warm-up already did. The difference between warmup=false and
+ * warmup=true is the first-request latency the warm-up saves.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class SiriWarmupBenchmark {
+
+	/**
+	 * Response type
+	 */
+	@Param({ "JSON", "XML" })
+	public String format;
+
+	/**
+	 * True to run a SiriJacksonWarmup before the first request
+	 */
+	@Param({ "false", "true" })
+	public boolean warmup;
+
+	private byte[] response;
+
+	private SiriJacksonReaders readers;
+
+	private int responseType;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		responseType = FixtureServer.responseTypeFor(format);
+		response = FixtureServer.fixtureFor(format, "vehicle-monitoring");
+
+		// New mappers, so nothing is shared with other benchmarks
+		readers = SiriJacksonReaders.create();
+
+		if (warmup) {
+			new SiriJacksonWarmup(readers, new SiriRestClientConfig(
+					responseType)).run();
+		}
+	}
+
+	/**
+	 * First full VehicleMonitoring parse, as the first makeVehicleMonRequest()
+	 * would do
+	 */
+	@Benchmark
+	public Siri firstRequest() throws IOException {
+		if (responseType == SiriRestClientConfig.RESPONSE_TYPE_JSON) {
+			return readers.getObjectReader().readValue(response);
+		}
+		return readers.getXmlMapper().readValue(response, Siri.class);
+	}
+}
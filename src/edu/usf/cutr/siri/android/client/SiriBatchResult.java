@@ -0,0 +1,56 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * Holds the results of a batch of requests made by the SiriRestClient (e.g.,
+ * makeStopMonRequests()), keyed by the ID each request was made for (e.g., the
+ * MonitoringRef). Each ID appears in either the results or the errors, in the
+ * same order the IDs were given.
+ */
+public class SiriBatchResult {
+
+	private final Map<String, Siri> results = new LinkedHashMap<String, Siri>();
+	private final Map<String, Exception> errors = new LinkedHashMap<String, Exception>();
+
+	void putResult(String id, Siri siri) {
+		results.put(id, siri);
+	}
+
+	void putError(String id, Exception e) {
+		errors.put(id, e);
+	}
+
+	/**
+	 * Returns the parsed responses for the requests that succeeded
+	 * 
+	 * @return the parsed responses for the requests that succeeded, keyed by
+	 *         ID
+	 */
+	public Map<String, Siri> getResults() {
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * Returns the errors for the requests that failed
+	 * 
+	 * @return the errors for the requests that failed, keyed by ID
+	 */
+	public Map<String, Exception> getErrors() {
+		return Collections.unmodifiableMap(errors);
+	}
+
+	/**
+	 * Returns true if every request in the batch succeeded
+	 * 
+	 * @return true if every request in the batch succeeded, false if at least
+	 *         one failed
+	 */
+	public boolean isSuccessful() {
+		return errors.isEmpty();
+	}
+}
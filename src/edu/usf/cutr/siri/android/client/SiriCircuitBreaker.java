@@ -0,0 +1,350 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.util.List;
+
+import android.util.Log;
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+
+import static edu.usf.cutr.siri.android.client.SiriRestClient.TAG;
+
+/**
+ * Circuit breaker for the requests to one SIRI server base URL (e.g., the
+ * vehicle monitoring or stop monitoring endpoint).
+ *
+ * While the breaker is closed, the outcome of the last requests is kept in a
+ * sliding window. Once there are enough requests in the window, and either the
+ * percentage of failed requests or the percentage of slow requests reaches its
+ * threshold, the breaker opens. While open, requests fail fast (or are answered
+ * from the last cached response) instead of waiting for a server that isn't
+ * answering. After the open duration, the breaker is half-open and lets a few
+ * trial requests through - if they all succeed in time it closes again,
+ * otherwise it opens for another open duration.
+ *
+ * The settings are taken from SiriRestClientConfig (see
+ * setCircuitBreakerEnabled()). This class is thread-safe.
+ */
+public class SiriCircuitBreaker {
+
+	/**
+	 * Requests are sent, and their outcomes are counted
+	 */
+	public static final int STATE_CLOSED = 0;
+
+	/**
+	 * Requests are rejected without contacting the server
+	 */
+	public static final int STATE_OPEN = 1;
+
+	/**
+	 * A few trial requests are sent to decide whether to close or open again
+	 */
+	public static final int STATE_HALF_OPEN = 2;
+
+	private static final String[] STATE_NAMES = { "closed", "open",
+			"half-open" };
+
+	private final String baseUrl;
+
+	private final int minimumCalls;
+	private final int failureRateThreshold;
+	private final int slowCallRateThreshold;
+	private final long slowCallDuration; // nanoseconds
+	private final long openDuration; // nanoseconds
+	private final int halfOpenCalls;
+
+	private final List<SiriCircuitBreakerListener> listeners;
+
+	// Outcomes of the last requests while closed, as a ring buffer
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int next = 0;
+	private int calls = 0;
+	private int failures = 0;
+	private int slowCalls = 0;
+
+	private int state = STATE_CLOSED;
+
+	// Incremented on every state change, so outcomes of requests that were
+	// let through in an earlier state are ignored
+	private long generation = 0;
+
+	private long openedAt = 0; // System.nanoTime()
+
+	// Trial requests let through, and succeeded, while half-open
+	private int halfOpenPermitted = 0;
+	private int halfOpenSucceeded = 0;
+
+	private long rejectedCount = 0;
+
+	/**
+	 * Creates a closed circuit breaker
+	 *
+	 * @param baseUrl
+	 *            the base URL the breaker is for
+	 * @param config
+	 *            configuration with the circuit breaker settings
+	 * @param listeners
+	 *            listeners to notify of state changes (shared with the client,
+	 *            and iterated without locking)
+	 */
+	SiriCircuitBreaker(String baseUrl, SiriRestClientConfig config,
+			List<SiriCircuitBreakerListener> listeners) {
+		int windowSize = Math.max(1, config.getCircuitBreakerWindowSize());
+		this.baseUrl = baseUrl;
+		this.minimumCalls = Math.max(1,
+				Math.min(windowSize, config.getCircuitBreakerMinimumCalls()));
+		this.failureRateThreshold = config.getCircuitBreakerFailureRateThreshold();
+		this.slowCallRateThreshold = config.getCircuitBreakerSlowCallRateThreshold();
+		this.slowCallDuration = config.getCircuitBreakerSlowCallDuration() * 1000000L;
+		this.openDuration = config.getCircuitBreakerOpenDuration() * 1000000L;
+		this.halfOpenCalls = Math.max(1, config.getCircuitBreakerHalfOpenCalls());
+		this.listeners = listeners;
+		this.failed = new boolean[windowSize];
+		this.slow = new boolean[windowSize];
+	}
+
+	/**
+	 * Returns the base URL this breaker is for
+	 *
+	 * @return the base URL this breaker is for
+	 */
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * Returns the current state of the breaker. An open breaker whose open
+	 * duration has passed is still reported as open until the next request
+	 * makes it half-open.
+	 *
+	 * @return STATE_CLOSED, STATE_OPEN, or STATE_HALF_OPEN
+	 */
+	public synchronized int getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the percentage of failed requests in the sliding window
+	 *
+	 * @return the percentage of failed requests, or -1 if there haven't been
+	 *         enough requests since the breaker last closed
+	 */
+	public synchronized int getFailureRate() {
+		return calls < minimumCalls ? -1 : failures * 100 / calls;
+	}
+
+	/**
+	 * Returns the percentage of slow requests in the sliding window
+	 *
+	 * @return the percentage of slow requests, or -1 if there haven't been
+	 *         enough requests since the breaker last closed
+	 */
+	public synchronized int getSlowCallRate() {
+		return calls < minimumCalls ? -1 : slowCalls * 100 / calls;
+	}
+
+	/**
+	 * Returns the number of requests that were rejected because the breaker
+	 * was open (or half-open with all trial requests in flight)
+	 *
+	 * @return the number of requests rejected by this breaker
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Closes the breaker and forgets the outcome of earlier requests, e.g.
+	 * after the app switched to a different network
+	 */
+	public void reset() {
+		int oldState;
+		synchronized (this) {
+			oldState = state;
+			if (oldState != STATE_CLOSED) {
+				changeState(STATE_CLOSED);
+			} else {
+				clearWindow();
+			}
+		}
+		if (oldState != STATE_CLOSED) {
+			notifyListeners(oldState, STATE_CLOSED);
+		}
+	}
+
+	/**
+	 * Asks for permission to send a request to the server
+	 *
+	 * @return a token to pass to onSuccess(), onError(), or
+	 *         releasePermission() when the request finishes, or -1 if the
+	 *         request must not be sent
+	 */
+	long tryAcquirePermission() {
+		int oldState = -1;
+		long token;
+		synchronized (this) {
+			if (state == STATE_OPEN
+					&& System.nanoTime() - openedAt >= openDuration) {
+				oldState = state;
+				changeState(STATE_HALF_OPEN);
+			}
+			if (state == STATE_CLOSED
+					|| (state == STATE_HALF_OPEN && halfOpenPermitted < halfOpenCalls)) {
+				if (state == STATE_HALF_OPEN) {
+					halfOpenPermitted++;
+				}
+				token = generation;
+			} else {
+				rejectedCount++;
+				token = -1;
+			}
+		}
+		if (oldState != -1) {
+			notifyListeners(oldState, STATE_HALF_OPEN);
+		}
+		return token;
+	}
+
+	/**
+	 * Records a request that got a response from the server
+	 *
+	 * @param token
+	 *            the token returned by tryAcquirePermission()
+	 * @param duration
+	 *            time the request took (in nanoseconds)
+	 */
+	void onSuccess(long token, long duration) {
+		onResult(token, false, duration >= slowCallDuration);
+	}
+
+	/**
+	 * Records a request that failed because the server couldn't be reached or
+	 * returned an error
+	 *
+	 * @param token
+	 *            the token returned by tryAcquirePermission()
+	 * @param duration
+	 *            time the request took (in nanoseconds)
+	 */
+	void onError(long token, long duration) {
+		onResult(token, true, duration >= slowCallDuration);
+	}
+
+	/**
+	 * Gives back the permission for a request that didn't finish (e.g., it was
+	 * cancelled), without counting it
+	 *
+	 * @param token
+	 *            the token returned by tryAcquirePermission()
+	 */
+	synchronized void releasePermission(long token) {
+		if (token == generation && state == STATE_HALF_OPEN) {
+			halfOpenPermitted--;
+		}
+	}
+
+	private void onResult(long token, boolean isFailure, boolean isSlow) {
+		int oldState = -1;
+		int newState = -1;
+		synchronized (this) {
+			if (token != generation) {
+				// Let through before the last state change
+				return;
+			}
+			if (state == STATE_HALF_OPEN) {
+				if (isFailure || isSlow) {
+					oldState = state;
+					newState = STATE_OPEN;
+				} else if (++halfOpenSucceeded >= halfOpenCalls) {
+					oldState = state;
+					newState = STATE_CLOSED;
+				}
+			} else if (state == STATE_CLOSED) {
+				if (calls == failed.length) {
+					// Drop the oldest outcome
+					if (failed[next]) {
+						failures--;
+					}
+					if (slow[next]) {
+						slowCalls--;
+					}
+				} else {
+					calls++;
+				}
+				failed[next] = isFailure;
+				slow[next] = isSlow;
+				if (isFailure) {
+					failures++;
+				}
+				if (isSlow) {
+					slowCalls++;
+				}
+				next = (next + 1) % failed.length;
+
+				if (calls >= minimumCalls
+						&& (failures * 100 >= failureRateThreshold * calls || slowCalls * 100 >= slowCallRateThreshold
+								* calls)) {
+					oldState = state;
+					newState = STATE_OPEN;
+				}
+			}
+			if (newState != -1) {
+				changeState(newState);
+			}
+		}
+		if (newState != -1) {
+			notifyListeners(oldState, newState);
+		}
+	}
+
+	/**
+	 * Changes the state and resets the counters for it. Must be called while
+	 * holding the lock.
+	 */
+	private void changeState(int newState) {
+		state = newState;
+		generation++;
+		halfOpenPermitted = 0;
+		halfOpenSucceeded = 0;
+		if (newState == STATE_OPEN) {
+			openedAt = System.nanoTime();
+		}
+		clearWindow();
+	}
+
+	private void clearWindow() {
+		for (int i = 0; i < failed.length; i++) {
+			failed[i] = false;
+			slow[i] = false;
+		}
+		next = 0;
+		calls = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+
+	private void notifyListeners(int oldState, int newState) {
+		Log.d(TAG, "Circuit breaker for " + baseUrl + " changed from "
+				+ getStateName(oldState) + " to " + getStateName(newState));
+		for (SiriCircuitBreakerListener listener : listeners) {
+			listener.onStateChanged(this, oldState, newState);
+		}
+	}
+
+	/**
+	 * Returns a name for a breaker state, for logging
+	 *
+	 * @param state
+	 *            STATE_CLOSED, STATE_OPEN, or STATE_HALF_OPEN
+	 * @return "closed", "open", or "half-open"
+	 */
+	public static String getStateName(int state) {
+		return STATE_NAMES[state];
+	}
+
+	@Override
+	public String toString() {
+		return "SiriCircuitBreaker[" + baseUrl + ", "
+				+ getStateName(getState()) + "]";
+	}
+}
@@ -0,0 +1,26 @@
+package edu.usf.cutr.siri.android.client;
+
+/**
+ * Listener for state changes of the circuit breakers in a SiriRestClient (see
+ * SiriRestClientConfig.setCircuitBreakerEnabled())
+ * 
+ * Methods are called on the thread of the request that caused the state
+ * change, after the breaker has changed state. Android apps should post the
+ * change to a Handler before touching any views (e.g., to show that arrival
+ * times may be out of date while a breaker is open).
+ */
+public interface SiriCircuitBreakerListener {
+
+	/**
+	 * Called when a circuit breaker changes state
+	 * 
+	 * @param breaker
+	 *            the circuit breaker, with the base URL it's for
+	 * @param oldState
+	 *            the previous state (SiriCircuitBreaker.STATE_*)
+	 * @param newState
+	 *            the new state (SiriCircuitBreaker.STATE_*)
+	 */
+	public void onStateChanged(SiriCircuitBreaker breaker, int oldState,
+			int newState);
+}
@@ -0,0 +1,38 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown (or passed to SiriResponseListener.onError()) when a request isn't
+ * sent because the circuit breaker for its base URL is open, and there is no
+ * cached response to fall back on
+ */
+public class SiriCircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String baseUrl;
+
+	/**
+	 * Creates an exception for a request rejected by an open circuit breaker
+	 * 
+	 * @param baseUrl
+	 *            the base URL the circuit breaker is for
+	 * @param url
+	 *            the full URL of the rejected request
+	 */
+	public SiriCircuitOpenException(String baseUrl, String url) {
+		super("Circuit breaker for " + baseUrl + " is open, request not sent: "
+				+ url);
+		this.baseUrl = baseUrl;
+	}
+
+	/**
+	 * Returns the base URL whose circuit breaker is open
+	 * 
+	 * @return the base URL whose circuit breaker is open
+	 */
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+}
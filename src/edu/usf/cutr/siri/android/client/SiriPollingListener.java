@@ -0,0 +1,36 @@
+package edu.usf.cutr.siri.android.client;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * Listener for the results of subscriptions polled by a SiriPollingScheduler
+ * 
+ * Methods are called on the polling thread. Android apps should post the
+ * result to a Handler before touching any views, and listeners should return
+ * quickly since the polling thread can't start other requests until they do.
+ */
+public interface SiriPollingListener {
+
+	/**
+	 * Called when a poll returned a new response for the subscription. The
+	 * Siri object may be shared with other listeners and must not be
+	 * modified.
+	 * 
+	 * @param subscription
+	 *            the subscription that was polled
+	 * @param siri
+	 *            the parsed response from the server
+	 */
+	public void onResponse(SiriSubscription subscription, Siri siri);
+
+	/**
+	 * Called when a poll failed or the response couldn't be parsed. The
+	 * subscription keeps being polled, with a longer interval.
+	 * 
+	 * @param subscription
+	 *            the subscription that was polled
+	 * @param e
+	 *            the cause of the failure
+	 */
+	public void onError(SiriSubscription subscription, Exception e);
+}
@@ -0,0 +1,500 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.StopMonitoringDelivery;
+import uk.org.siri.siri.VehicleMonitoringDelivery;
+import android.util.Log;
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+import edu.usf.cutr.siri.android.util.SiriUtils;
+
+import static edu.usf.cutr.siri.android.client.SiriRestClient.TAG;
+
+/**
+ * Polls a set of vehicle monitoring and stop monitoring subscriptions through
+ * a SiriRestClient, and passes each new response to the registered
+ * SiriPollingListeners.
+ * 
+ * Instead of polling every subscription on a fixed timer, each subscription
+ * is polled again when its last response stops being valid, based on the
+ * ValidUntil and ResponseTimestamp in the response (or the default polling
+ * interval if the server doesn't send them). Intervals are then adjusted per
+ * subscription:
+ * 
+ * - Subscriptions with no vehicles in the response (e.g., a line that isn't
+ * running overnight) double their interval on each empty response, until
+ * vehicles show up again
+ * 
+ * - Subscriptions whose requests are slow are polled less often, so that no
+ * subscription spends more than a quarter of its time being fetched
+ * 
+ * - Failed requests are retried with an exponential backoff, starting from the
+ * minimum polling interval
+ * 
+ * - Each interval is randomly lengthened or shortened by up to the polling
+ * jitter, so subscriptions with the same interval spread out over time
+ * instead of all hitting the server at the same moment
+ * 
+ * All intervals are kept between the minimum and maximum polling intervals
+ * from the client's SiriRestClientConfig. Polls run on a fixed pool of
+ * SiriRestClientConfig.getPollingThreadCount() daemon threads.
+ * 
+ * A response is only passed to listeners if it's a different object than the
+ * last response for the subscription, so responses served again from the
+ * client's response cache aren't reported twice.
+ * 
+ * This class is thread-safe.
+ */
+public class SiriPollingScheduler {
+
+	// Maximum number of times an interval is doubled for empty responses or
+	// failed requests
+	private static final int MAX_BACKOFF_SHIFT = 5;
+
+	// A subscription may spend up to 1/SLOW_POLL_FACTOR of its interval being
+	// fetched before it's polled less often
+	private static final int SLOW_POLL_FACTOR = 4;
+
+	private final SiriRestClient client;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final ConcurrentMap<SiriSubscription, PollState> subscriptions = new ConcurrentHashMap<SiriSubscription, PollState>();
+
+	private final List<SiriPollingListener> listeners = new CopyOnWriteArrayList<SiriPollingListener>();
+
+	private final Random random = new Random();
+
+	/**
+	 * Creates a new scheduler that polls subscriptions with the given client.
+	 * The number of polling threads is taken from the client's config when the
+	 * scheduler is created, and the polling intervals each time a
+	 * subscription is scheduled.
+	 * 
+	 * @param client
+	 *            the client used to make requests
+	 */
+	public SiriPollingScheduler(SiriRestClient client) {
+		this.client = client;
+
+		final AtomicInteger threadNumber = new AtomicInteger(1);
+		executor = new ScheduledThreadPoolExecutor(client.getConfig()
+				.getPollingThreadCount(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, TAG + "-poll-"
+						+ threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// Don't make any more polls once we've been shut down
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Adds a listener that is called with the results of every subscription
+	 * 
+	 * @param listener
+	 *            listener to be called on the polling thread
+	 */
+	public void addListener(SiriPollingListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added with addListener()
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(SiriPollingListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts polling a subscription. The first poll is made right away.
+	 * 
+	 * @param subscription
+	 *            the subscription to poll
+	 * @return true if the subscription was added, or false if it was already
+	 *         being polled
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             of the subscription is invalid
+	 * @throws RejectedExecutionException
+	 *             if the scheduler has been shut down
+	 */
+	public boolean subscribe(SiriSubscription subscription)
+			throws IllegalArgumentException, RejectedExecutionException {
+		return subscribe(subscription, 0);
+	}
+
+	/**
+	 * Starts polling several subscriptions. The first polls are spread evenly
+	 * over the minimum polling interval, so that adding many subscriptions at
+	 * once doesn't send all of their requests at the same time.
+	 * 
+	 * @param subscriptions
+	 *            the subscriptions to poll
+	 * @return the number of subscriptions that were added (subscriptions that
+	 *         were already being polled aren't counted)
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             of a subscription is invalid. Subscriptions before the
+	 *             invalid one are still added.
+	 * @throws RejectedExecutionException
+	 *             if the scheduler has been shut down
+	 */
+	public int subscribeAll(Collection<SiriSubscription> subscriptions)
+			throws IllegalArgumentException, RejectedExecutionException {
+		if (subscriptions.isEmpty()) {
+			return 0;
+		}
+
+		long spacing = client.getConfig().getMinPollingInterval()
+				/ subscriptions.size();
+		int added = 0;
+		int i = 0;
+		for (SiriSubscription subscription : subscriptions) {
+			if (subscribe(subscription, i * spacing)) {
+				added++;
+			}
+			i++;
+		}
+		return added;
+	}
+
+	/**
+	 * Stops polling a subscription. A poll that is already in progress is
+	 * allowed to finish, but its result isn't passed to the listeners.
+	 * 
+	 * @param subscription
+	 *            the subscription to stop polling
+	 * @return true if the subscription was being polled
+	 */
+	public boolean unsubscribe(SiriSubscription subscription) {
+		PollState state = subscriptions.remove(subscription);
+		if (state == null) {
+			return false;
+		}
+		state.cancel();
+		executor.purge();
+		return true;
+	}
+
+	/**
+	 * Returns the subscriptions that are currently being polled
+	 * 
+	 * @return the subscriptions that are currently being polled
+	 */
+	public Set<SiriSubscription> getSubscriptions() {
+		return Collections.unmodifiableSet(new HashSet<SiriSubscription>(
+				subscriptions.keySet()));
+	}
+
+	/**
+	 * Returns the interval (in milliseconds, before jitter) until the next
+	 * poll of a subscription, as it was calculated after the last poll
+	 * 
+	 * @param subscription
+	 *            a subscription that is being polled
+	 * @return the current polling interval of the subscription, 0 if it hasn't
+	 *         been polled yet, or -1 if it isn't being polled
+	 */
+	public long getPollingInterval(SiriSubscription subscription) {
+		PollState state = subscriptions.get(subscription);
+		return state == null ? -1 : state.interval;
+	}
+
+	/**
+	 * Returns the last response that was passed to the listeners for a
+	 * subscription
+	 * 
+	 * @param subscription
+	 *            a subscription that is being polled
+	 * @return the last response for the subscription, or null if there hasn't
+	 *         been a successful poll yet or it isn't being polled
+	 */
+	public Siri getLastResponse(SiriSubscription subscription) {
+		PollState state = subscriptions.get(subscription);
+		return state == null ? null : state.lastResponse;
+	}
+
+	/**
+	 * Stops polling all subscriptions and stops the polling threads. Polls
+	 * already in progress are allowed to finish, but their results aren't
+	 * passed to the listeners.
+	 */
+	public void shutdown() {
+		for (SiriSubscription subscription : new ArrayList<SiriSubscription>(
+				subscriptions.keySet())) {
+			unsubscribe(subscription);
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns true if shutdown() has been called
+	 * 
+	 * @return true if shutdown() has been called
+	 */
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	private boolean subscribe(SiriSubscription subscription, long initialDelay)
+			throws IllegalArgumentException, RejectedExecutionException {
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("Scheduler has been shut down");
+		}
+
+		// Fail on the calling thread if the parameters are invalid
+		subscription.buildUrl(client);
+
+		PollState state = new PollState(subscription);
+		if (subscriptions.putIfAbsent(subscription, state) != null) {
+			return false;
+		}
+		state.schedule(initialDelay);
+		return true;
+	}
+
+	/**
+	 * Calculates the interval (in milliseconds) until the next poll after a
+	 * successful response
+	 * 
+	 * @param siri
+	 *            the response
+	 * @param pollTime
+	 *            time (in milliseconds) the request took
+	 * @param emptyCount
+	 *            number of empty responses in a row, including this one
+	 */
+	private long getInterval(Siri siri, long pollTime, int emptyCount) {
+		SiriRestClientConfig config = client.getConfig();
+
+		long interval = config.getDefaultPollingInterval();
+
+		/*
+		 * Use how long the server says the response is valid for, rather than
+		 * comparing ValidUntil to our own clock, since the device clock may
+		 * be off by more than the interval.
+		 */
+		long validUntil = SiriUtils.getValidUntil(siri);
+		long responseTimestamp = SiriUtils.getResponseTimestamp(siri);
+		if (validUntil != -1 && responseTimestamp != -1
+				&& validUntil > responseTimestamp) {
+			interval = validUntil - responseTimestamp;
+		}
+
+		interval = Math.max(interval, config.getMinPollingInterval());
+
+		// Back off lines that don't have any vehicles right now
+		interval <<= Math.min(emptyCount, MAX_BACKOFF_SHIFT);
+
+		// Back off lines where the request itself is slow
+		interval = Math.max(interval, pollTime * SLOW_POLL_FACTOR);
+
+		return Math.min(interval, config.getMaxPollingInterval());
+	}
+
+	/**
+	 * Calculates the interval (in milliseconds) until the next poll after a
+	 * failed request
+	 * 
+	 * @param errorCount
+	 *            number of failed requests in a row, including this one
+	 */
+	private long getErrorInterval(int errorCount) {
+		SiriRestClientConfig config = client.getConfig();
+		// Start from the minimum interval after the first failure
+		long interval = config.getMinPollingInterval() << Math.min(
+				errorCount - 1, MAX_BACKOFF_SHIFT);
+		return Math.min(interval, config.getMaxPollingInterval());
+	}
+
+	/**
+	 * Randomly lengthens or shortens the interval by up to the polling jitter
+	 */
+	private long addJitter(long interval) {
+		int jitterPercent = client.getConfig().getPollingJitterPercent();
+		if (jitterPercent <= 0) {
+			return interval;
+		}
+		double jitter;
+		synchronized (random) {
+			jitter = random.nextDouble() * 2 - 1;
+		}
+		return Math.max(0, interval
+				+ (long) (interval * jitter * jitterPercent / 100));
+	}
+
+	/**
+	 * Returns the number of VehicleActivity and MonitoredStopVisit elements
+	 * in the response
+	 */
+	private static int countVehicles(Siri siri) {
+		if (siri == null || siri.getServiceDelivery() == null) {
+			return 0;
+		}
+
+		int count = 0;
+
+		List<VehicleMonitoringDelivery> listVMD = siri.getServiceDelivery()
+				.getVehicleMonitoringDelivery();
+		if (listVMD != null) {
+			for (VehicleMonitoringDelivery vmd : listVMD) {
+				if (vmd.getVehicleActivity() != null) {
+					count += vmd.getVehicleActivity().size();
+				}
+			}
+		}
+
+		List<StopMonitoringDelivery> listSMD = siri.getServiceDelivery()
+				.getStopMonitoringDelivery();
+		if (listSMD != null) {
+			for (StopMonitoringDelivery smd : listSMD) {
+				if (smd.getMonitoredStopVisit() != null) {
+					count += smd.getMonitoredStopVisit().size();
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Polls a single subscription, and schedules its next poll when it's done.
+	 * Only one poll of a subscription runs at a time, so the counters are only
+	 * touched by one thread at a time.
+	 */
+	private class PollState implements Runnable {
+
+		final SiriSubscription subscription;
+
+		private volatile boolean cancelled = false;
+
+		private volatile ScheduledFuture<?> future;
+
+		// Interval calculated after the last poll, before jitter
+		volatile long interval = 0;
+
+		volatile Siri lastResponse = null;
+
+		private int errorCount = 0;
+
+		private int emptyCount = 0;
+
+		PollState(SiriSubscription subscription) {
+			this.subscription = subscription;
+		}
+
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+
+			long startTime = System.nanoTime();
+			Siri siri = null;
+			Exception error = null;
+			try {
+				siri = client.executeRequest(subscription.buildUrl(client),
+						subscription.getRequest().getDevKey(),
+						subscription.getEndpoint());
+			} catch (IOException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			long pollTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- startTime);
+
+			if (cancelled) {
+				return;
+			}
+
+			if (error != null) {
+				errorCount++;
+				interval = getErrorInterval(errorCount);
+				Log.d(TAG, "Poll of " + subscription + " failed (" + error
+						+ "), retrying in " + interval + "ms");
+			} else {
+				errorCount = 0;
+				if (countVehicles(siri) == 0) {
+					emptyCount++;
+				} else {
+					emptyCount = 0;
+				}
+				interval = getInterval(siri, pollTime, emptyCount);
+			}
+
+			if (error != null) {
+				notifyError(error);
+			} else if (siri != lastResponse) {
+				lastResponse = siri;
+				notifyResponse(siri);
+			}
+
+			// Schedule the next poll last, so it can't start while the
+			// listeners for this one are still running
+			if (cancelled) {
+				return;
+			}
+			try {
+				schedule(addJitter(interval));
+			} catch (RejectedExecutionException e) {
+				// Shut down while we were polling
+			}
+		}
+
+		void schedule(long delay) {
+			future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+		void cancel() {
+			cancelled = true;
+			ScheduledFuture<?> f = future;
+			if (f != null) {
+				f.cancel(false);
+			}
+		}
+
+		private void notifyResponse(Siri siri) {
+			for (SiriPollingListener listener : listeners) {
+				try {
+					listener.onResponse(subscription, siri);
+				} catch (RuntimeException e) {
+					// Don't let one listener stop the others or the polling
+					Log.e(TAG, "Polling listener failed: " + e);
+				}
+			}
+		}
+
+		private void notifyError(Exception error) {
+			for (SiriPollingListener listener : listeners) {
+				try {
+					listener.onError(subscription, error);
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Polling listener failed: " + e);
+				}
+			}
+		}
+	}
+}
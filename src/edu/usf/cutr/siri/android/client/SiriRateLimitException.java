@@ -0,0 +1,39 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown (or passed to SiriResponseListener.onError()) when a request isn't
+ * sent because it's over the rate limit for its developer key and endpoint
+ * (see SiriRestClientConfig.setRateLimitEnabled())
+ */
+public class SiriRateLimitException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfter;
+
+	/**
+	 * Creates an exception for a request that is over the rate limit
+	 * 
+	 * @param url
+	 *            the full URL of the rejected request
+	 * @param retryAfter
+	 *            time (in milliseconds) until a token is available
+	 */
+	public SiriRateLimitException(String url, long retryAfter) {
+		super("Rate limit reached, request not sent (next token in "
+				+ retryAfter + " ms): " + url);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) until a token was available when the
+	 * request was rejected
+	 * 
+	 * @return the time (in milliseconds) until a token is available
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,233 @@
+package edu.usf.cutr.siri.android.client;
+
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+
+/**
+ * Token-bucket rate limiter for the requests made with one developer key to
+ * one endpoint.
+ * 
+ * The bucket holds up to SiriRestClientConfig.getRateLimitBurst() tokens and
+ * is refilled at getRateLimitRequestsPerSecond(). Every request sent to the
+ * server takes a token. When the bucket is empty, a request reserves the next
+ * token that will be added and waits for it, so waiting requests are sent in
+ * the order they arrived, spaced out at exactly the allowed rate - the most
+ * throughput possible without going over the quota. Requests that would have
+ * to wait longer than the maximum wait (or at all, with
+ * RATE_LIMIT_POLICY_SHED) are rejected instead.
+ * 
+ * This class only keeps the tokens; the SiriRestClient does the waiting. This
+ * class is thread-safe.
+ */
+public class SiriRateLimiter {
+
+	private final String devKey;
+
+	private final int endpoint;
+
+	private final double tokensPerNano;
+
+	private final double capacity;
+
+	private final int policy;
+
+	private final long maxWait; // nanoseconds
+
+	// Tokens in the bucket - negative when tokens have been reserved by
+	// waiting requests
+	private double tokens;
+
+	private long lastRefill; // System.nanoTime()
+
+	private long grantedCount = 0;
+	private long queuedCount = 0;
+	private long shedCount = 0;
+	private long totalWait = 0; // nanoseconds
+	private int maxQueueLength = 0;
+
+	/**
+	 * Creates a rate limiter with a full bucket
+	 * 
+	 * @param devKey
+	 *            the developer key the limiter is for, or an empty string
+	 * @param endpoint
+	 *            SiriRequestMetrics.ENDPOINT_* the limiter is for
+	 * @param config
+	 *            configuration with the rate limit settings
+	 */
+	SiriRateLimiter(String devKey, int endpoint, SiriRestClientConfig config) {
+		this.devKey = devKey;
+		this.endpoint = endpoint;
+		this.tokensPerNano = config.getRateLimitRequestsPerSecond() / 1e9;
+		this.capacity = config.getRateLimitBurst();
+		this.policy = config.getRateLimitPolicy();
+		this.maxWait = config.getRateLimitMaxWait() * 1000000L;
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Returns the developer key this limiter is for
+	 * 
+	 * @return the developer key, or an empty string if requests are made
+	 *         without one
+	 */
+	public String getDevKey() {
+		return devKey;
+	}
+
+	/**
+	 * Returns the endpoint this limiter is for
+	 * 
+	 * @return SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING or
+	 *         SiriRequestMetrics.ENDPOINT_STOP_MONITORING
+	 */
+	public int getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Takes a token for a request, or reserves the next token if the bucket
+	 * is empty
+	 * 
+	 * @return the time (in nanoseconds) the request must wait before it's
+	 *         sent (0 if a token was available), or -1 if the request must be
+	 *         rejected
+	 */
+	synchronized long reserve() {
+		long now = System.nanoTime();
+		refill(now);
+
+		long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens)
+				/ tokensPerNano);
+		if (wait > 0
+				&& (policy == SiriRestClientConfig.RATE_LIMIT_POLICY_SHED || wait > maxWait)) {
+			shedCount++;
+			return -1;
+		}
+
+		tokens -= 1;
+		grantedCount++;
+		if (wait > 0) {
+			queuedCount++;
+			totalWait += wait;
+			maxQueueLength = Math.max(maxQueueLength, countWaiting());
+		}
+		return wait;
+	}
+
+	/**
+	 * Takes a token if one is available right away, without waiting or
+	 * counting a rejection (e.g., for a hedged request, which is only worth
+	 * sending if it fits in the rate limit)
+	 * 
+	 * @return true if a token was taken
+	 */
+	synchronized boolean tryAcquire() {
+		refill(System.nanoTime());
+		if (tokens < 1) {
+			return false;
+		}
+		tokens -= 1;
+		grantedCount++;
+		return true;
+	}
+
+	/**
+	 * Gives back a token taken by reserve() or tryAcquire() for a request
+	 * that wasn't sent (e.g., it was cancelled while waiting)
+	 */
+	synchronized void release() {
+		refill(System.nanoTime());
+		tokens = Math.min(capacity, tokens + 1);
+		grantedCount--;
+	}
+
+	/**
+	 * Returns the time (in nanoseconds) until the bucket has a free token
+	 * 
+	 * @return the time (in nanoseconds) until a token is available, or 0 if
+	 *         one is available now
+	 */
+	public synchronized long getTimeUntilToken() {
+		refill(System.nanoTime());
+		return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+	}
+
+	/**
+	 * Returns the number of requests currently waiting for a token
+	 * 
+	 * @return the number of requests waiting for a token
+	 */
+	public synchronized int getQueueLength() {
+		refill(System.nanoTime());
+		return countWaiting();
+	}
+
+	/**
+	 * Returns the largest number of requests that have waited for a token at
+	 * the same time
+	 * 
+	 * @return the largest number of requests waiting for a token at once
+	 */
+	public synchronized int getMaxQueueLength() {
+		return maxQueueLength;
+	}
+
+	/**
+	 * Returns the number of requests that got a token
+	 * 
+	 * @return the number of requests that got a token, including those that
+	 *         had to wait for it
+	 */
+	public synchronized long getGrantedCount() {
+		return grantedCount;
+	}
+
+	/**
+	 * Returns the number of requests that had to wait for a token
+	 * 
+	 * @return the number of requests that had to wait for a token
+	 */
+	public synchronized long getQueuedCount() {
+		return queuedCount;
+	}
+
+	/**
+	 * Returns the number of requests that were rejected because they were
+	 * over the rate limit
+	 * 
+	 * @return the number of requests rejected by this limiter
+	 */
+	public synchronized long getShedCount() {
+		return shedCount;
+	}
+
+	/**
+	 * Returns the total time (in milliseconds) requests have waited for a
+	 * token
+	 * 
+	 * @return the total time (in milliseconds) requests have waited
+	 */
+	public synchronized long getTotalWaitTime() {
+		return totalWait / 1000000L;
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+	}
+
+	/**
+	 * Returns the number of reserved tokens that haven't been added to the
+	 * bucket yet, which is the number of requests still waiting. Must be
+	 * called while holding the lock, after refill().
+	 */
+	private int countWaiting() {
+		return tokens >= 0 ? 0 : (int) Math.ceil(-tokens);
+	}
+
+	@Override
+	public String toString() {
+		return "SiriRateLimiter[" + devKey + ", endpoint " + endpoint + "]";
+	}
+}
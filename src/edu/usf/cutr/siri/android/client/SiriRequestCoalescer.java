@@ -0,0 +1,122 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * Makes sure that only one request for a given URL is in flight at a time
+ * ("single-flight"). The first caller for a URL executes the request on its
+ * own thread, and any caller that asks for the same URL while it's executing
+ * waits for it and gets the same Siri object, or the same error. If the
+ * first caller is cancelled (its thread is interrupted), the callers waiting
+ * for it aren't - one of them starts the request again.
+ * 
+ * Once the request finishes, the next caller for that URL starts a new
+ * request, so results are never reused after the fact (that's what the
+ * SiriResponseCache is for).
+ * 
+ * This class is thread-safe.
+ */
+class SiriRequestCoalescer {
+
+	private final ConcurrentMap<String, FutureTask<Siri>> inFlight = new ConcurrentHashMap<String, FutureTask<Siri>>();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Executes the request, or waits for an identical request that is already
+	 * in flight
+	 * 
+	 * @param url
+	 *            final URL of the request, which identifies identical requests
+	 * @param request
+	 *            executes the request if there isn't one in flight for the URL
+	 * @return the parsed response
+	 * @throws IOException
+	 *             if the request failed, or the calling thread was
+	 *             interrupted while waiting for another caller's request
+	 */
+	Siri execute(String url, Callable<Siri> request) throws IOException {
+		while (true) {
+			FutureTask<Siri> task = new FutureTask<Siri>(request);
+			FutureTask<Siri> existing = inFlight.putIfAbsent(url, task);
+
+			if (existing == null) {
+				try {
+					task.run();
+				} finally {
+					inFlight.remove(url, task);
+				}
+				return getResult(task);
+			}
+
+			// Someone else is already fetching this URL
+			coalescedCount.incrementAndGet();
+			try {
+				return getResult(existing);
+			} catch (InterruptedIOException e) {
+				if (!isCancellation(e) || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				// The leader was cancelled, but this caller wasn't - don't
+				// inherit its cancellation, and fetch the URL again instead
+				inFlight.remove(url, existing);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of requests that shared another caller's fetch
+	 * instead of making their own
+	 * 
+	 * @return the number of requests that shared another caller's fetch
+	 */
+	long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Returns true if the error means the thread running the request was
+	 * interrupted, and not that the request itself timed out
+	 */
+	private static boolean isCancellation(InterruptedIOException e) {
+		return !(e instanceof SocketTimeoutException);
+	}
+
+	/**
+	 * Waits for the task and returns its result, passing on any errors as
+	 * they were thrown by the request
+	 */
+	private static Siri getResult(FutureTask<Siri> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while waiting for an in-flight request");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			IOException ioe = new IOException("Request failed: " + cause);
+			ioe.initCause(cause);
+			throw ioe;
+		}
+	}
+}
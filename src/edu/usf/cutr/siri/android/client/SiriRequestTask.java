@@ -0,0 +1,76 @@
+package edu.usf.cutr.siri.android.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * A request that is run on the executor of a SiriRestClient. Holds one permit
+ * of the client's in-flight request limit from submission until the request
+ * finishes (or is cancelled before it started), and notifies the listener
+ * unless the request was cancelled.
+ */
+class SiriRequestTask extends FutureTask<Siri> {
+
+	private final SiriResponseListener listener;
+	private final Semaphore permits;
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	private final AtomicBoolean permitReleased = new AtomicBoolean(false);
+
+	SiriRequestTask(final SiriRestClient client, final String url,
+			final String devKey, final int endpoint,
+			SiriResponseListener listener,
+			Semaphore permits) {
+		super(new Callable<Siri>() {
+			public Siri call() throws Exception {
+				return client.executeRequest(url, devKey, endpoint);
+			}
+		});
+		this.listener = listener;
+		this.permits = permits;
+	}
+
+	@Override
+	public void run() {
+		started.set(true);
+		try {
+			super.run();
+		} finally {
+			releasePermit();
+		}
+	}
+
+	@Override
+	protected void done() {
+		if (!started.get()) {
+			// Cancelled before it was executed, so run() will never release
+			// the permit
+			releasePermit();
+		}
+
+		if (listener == null || isCancelled()) {
+			return;
+		}
+
+		try {
+			listener.onResponse(get());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			listener.onError(cause instanceof Exception ? (Exception) cause
+					: e);
+		} catch (InterruptedException e) {
+			// get() doesn't block in done()
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void releasePermit() {
+		if (permitReleased.compareAndSet(false, true)) {
+			permits.release();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package edu.usf.cutr.siri.android.client;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * Listener for the results of asynchronous requests made through the
+ * SiriRestClient (e.g., makeVehicleMonRequestAsync())
+ * 
+ * Methods are called on the thread that executed the request, not the thread
+ * that made the request. Android apps should post the result to a Handler
+ * before touching any views.
+ */
+public interface SiriResponseListener {
+
+	/**
+	 * Called when the response from the server has been parsed
+	 * 
+	 * @param siri
+	 *            the parsed response from the server
+	 */
+	public void onResponse(Siri siri);
+
+	/**
+	 * Called when the request failed or the response couldn't be parsed
+	 * 
+	 * @param e
+	 *            the cause of the failure
+	 */
+	public void onError(Exception e);
+}
@@ -1,14 +1,71 @@
 package edu.usf.cutr.siri.android.client;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import uk.org.siri.siri.MonitoredStopVisit;
 import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.VehicleActivity;
 import android.os.Build;
 import android.util.Log;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.usf.cutr.siri.android.client.cache.SiriCacheEntry;
+import edu.usf.cutr.siri.android.client.cache.SiriResponseCache;
+import edu.usf.cutr.siri.android.client.cache.SiriSnapshot;
+import edu.usf.cutr.siri.android.client.cache.SiriSnapshotStore;
 import edu.usf.cutr.siri.android.client.config.SiriJacksonConfig;
+import edu.usf.cutr.siri.android.client.config.SiriJacksonReaders;
+import edu.usf.cutr.siri.android.client.config.SiriJacksonWarmup;
 import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+import edu.usf.cutr.siri.android.client.http.ContentEncoding;
+import edu.usf.cutr.siri.android.client.http.SiriBufferPool;
+import edu.usf.cutr.siri.android.client.http.CountingInputStream;
+import edu.usf.cutr.siri.android.client.http.PooledHttpResponse;
+import edu.usf.cutr.siri.android.client.http.SiriConnectionPool;
+import edu.usf.cutr.siri.android.client.http.SiriAbortHandle;
+import edu.usf.cutr.siri.android.client.http.SiriHttpResponse;
+import edu.usf.cutr.siri.android.client.http.SiriResponseBuffer;
+import edu.usf.cutr.siri.android.client.http.UrlConnectionHttpResponse;
+import edu.usf.cutr.siri.android.client.metrics.SiriLatencyHistogram;
+import edu.usf.cutr.siri.android.client.metrics.SiriRequestMetrics;
+import edu.usf.cutr.siri.android.client.request.SiriMonitoringRequest;
+import edu.usf.cutr.siri.android.client.request.StopMonitoringRequest;
+import edu.usf.cutr.siri.android.client.request.VehicleMonitoringRequest;
+import edu.usf.cutr.siri.android.client.stream.SiriElementListener;
+import edu.usf.cutr.siri.android.client.stream.SiriProjection;
+import edu.usf.cutr.siri.android.client.stream.SiriStreamingParser;
 
 /**
  * This class is used to make a request to a RESTful SIRI API server, parse the
@@ -21,8 +78,9 @@ public class SiriRestClient {
 	
 	public static final String TAG = "SiriRestClient";
 
-	//Config settings for server
-	SiriRestClientConfig config;
+	//Config settings for server - volatile, since it's read by the executor,
+	//hedging, batch, and polling threads
+	volatile SiriRestClientConfig config;
 
 	// Base URL for vehicle monitoring requests
 	String vehMonBaseUrl;
@@ -30,9 +88,73 @@ public class SiriRestClient {
 	// Base URL for stop monitoring requests
 	String stopMonBaseUrl;
 	
-	//Used to time response and parsing
-	long requestStartTime = 0;
-	long requestEndTime = 0;
+	// Jackson objects used to parse responses
+	private final SiriJacksonReaders readers;
+	
+	// Time the last request/response/parsing took (in nanoseconds), or 0 if it failed
+	private volatile long lastRequestTime = 0;
+	
+	// Per-phase latencies and counters for all requests made by this client
+	private final SiriRequestMetrics metrics = new SiriRequestMetrics();
+	
+	// Keep-alive connections for HTTP_CONNECTION_TYPE_POOLED, created on first use
+	private SiriConnectionPool connectionPool = null;
+	
+	// Reusable buffers for reading response bodies, if response buffering is
+	// enabled, created on first use
+	private SiriBufferPool bufferPool = null;
+	
+	// Parsed responses, if the response cache is enabled, created on first use
+	private SiriResponseCache responseCache = null;
+	
+	// Last successful response for each request, kept in local storage, or null
+	private volatile SiriSnapshotStore snapshotStore = null;
+	
+	// Shares one fetch between concurrent requests for the same URL
+	private final SiriRequestCoalescer coalescer = new SiriRequestCoalescer();
+	
+	// Parse one element at a time for streaming requests, created on first use
+	private SiriStreamingParser jsonStreamingParser = null;
+	private SiriStreamingParser xmlStreamingParser = null;
+	private SiriStreamingParser smileStreamingParser = null;
+	private SiriStreamingParser cborStreamingParser = null;
+	
+	// Bytes of response bodies received from the server, and after decompression
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong bytesDecoded = new AtomicLong();
+	
+	// Executor for asynchronous requests, created on first use unless the app
+	// provides its own
+	private ExecutorService executor = null;
+	private boolean usingDefaultExecutor = false;
+	
+	// Runs both copies of a hedged request, created on first use.  Bounded
+	// by SiriRestClientConfig.getMaxAsyncRequests(), and requests that don't
+	// fit aren't hedged.
+	private ExecutorService hedgingExecutor = null;
+	
+	// Runs the requests of batches (e.g., makeStopMonRequests()), created on
+	// first use with SiriRestClientConfig.getMaxConcurrentBatchRequests()
+	// threads, so batches don't queue behind (or starve) single asynchronous
+	// requests on the executor
+	private ExecutorService batchExecutor = null;
+	
+	// Number of recent request times needed before requests are hedged, so
+	// the hedging delay isn't based on a handful of samples
+	static final int HEDGING_MIN_SAMPLES = 20;
+	
+	// Jitter for retry backoffs
+	private final Random retryRandom = new Random();
+	
+	// Circuit breaker for each base URL, created on first use
+	private final Map<String, SiriCircuitBreaker> circuitBreakers = new HashMap<String, SiriCircuitBreaker>();
+	private final List<SiriCircuitBreakerListener> circuitBreakerListeners = new CopyOnWriteArrayList<SiriCircuitBreakerListener>();
+	
+	// Rate limiter for each developer key and endpoint, created on first use
+	private final Map<String, SiriRateLimiter> rateLimiters = new HashMap<String, SiriRateLimiter>();
+	
+	// Limits the number of asynchronous requests that are queued or executing
+	private Semaphore asyncPermits = null;
 	
 	/**
 	 * Creates a new SiriRestClient object that can make vehicle monitoring and
@@ -53,19 +175,72 @@ public class SiriRestClient {
 	 */
 	public SiriRestClient(String vehMonBaseUrl, String stopMonBaseUrl,
 			SiriRestClientConfig config) {		
+		this(vehMonBaseUrl, stopMonBaseUrl, config, SiriJacksonReaders.getDefault());
+	}
+	
+	/**
+	 * Creates a new SiriRestClient object that parses responses with its own
+	 * Jackson objects, instead of the shared static instances in
+	 * SiriJacksonConfig.  This allows clients to use different deserialization
+	 * settings.
+	 * 
+	 * @param vehMonBaseUrl
+	 *            the entire URL up to the file extension for vehicle monitoring
+	 *            (e.g., http://bustime.mta.info/api/siri/vehicle-monitoring),
+	 *            or empty string if vehicle monitoring is not supported
+	 * @param stopMonBaseUrl
+	 *            the entire URL up to the file extension for stop monitoring
+	 *            (e.g., http://bustime.mta.info/api/siri/stop-monitoring), or
+	 *            empty string if stop monitoring is not supported
+	 * @param config
+	 *            configuration for requests to be made to the server
+	 * @param readers
+	 *            Jackson objects used to parse responses
+	 */
+	public SiriRestClient(String vehMonBaseUrl, String stopMonBaseUrl,
+			SiriRestClientConfig config, SiriJacksonReaders readers) {
+		if (readers == null) {
+			throw new IllegalArgumentException("Readers must not be null");
+		}
 		this.vehMonBaseUrl = vehMonBaseUrl;
 		this.stopMonBaseUrl = stopMonBaseUrl;
 		this.config = config;
+		this.readers = readers;
+		
+		// The config may be null here, and set later with setConfig()
+		if (config != null && config.isWarmupEnabled()) {
+			warmUp();
+		}
+	}
+
+	/**
+	 * Starts warming up the Jackson deserializers this client uses for the
+	 * configured response type on a background thread, so the first real
+	 * request doesn't pay for building them.  Apps should call this at
+	 * startup, or turn on SiriRestClientConfig.setWarmupEnabled() to have it
+	 * called when the client is created.
+	 * 
+	 * @return a Future that completes with the warm-up, which reports how long
+	 *         it took and the estimated savings for the first request
+	 */
+	public Future<SiriJacksonWarmup> warmUp() {
+		return new SiriJacksonWarmup(readers, config).start();
 	}
 
 	/**
-	 * Sets the configuration for requests to be made to the server
+	 * Sets the configuration for requests to be made to the server.  If the
+	 * client was created without a configuration and warm-up is enabled in
+	 * this one, the warm-up is started now.
 	 * 
 	 * @param config
 	 *            the configuration for requests to be made to the server
 	 */
 	public void setConfig(SiriRestClientConfig config) {
+		SiriRestClientConfig oldConfig = this.config;
 		this.config = config;
+		if (oldConfig == null && config != null && config.isWarmupEnabled()) {
+			warmUp();
+		}
 	}
 
 	/**
@@ -77,292 +252,1947 @@ public class SiriRestClient {
 		return config;
 	}
 	
+	/**
+	 * Returns the Jackson objects used by this client to parse responses
+	 * 
+	 * @return the Jackson objects used by this client to parse responses
+	 */
+	public SiriJacksonReaders getReaders() {
+		return readers;
+	}
+	
 	/**
 	 * Returns a benchmark of the amount of time the last request/response/parsing took (in nanoseconds)
+	 * 
+	 * When requests are made from several threads, this is whichever request finished last.  Use
+	 * getMetrics() for latencies across all requests, broken down by phase.
 	 *  
 	 * @return a benchmark of the amount of time the last request/response/parsing took (in nanoseconds)
 	 */
 	public long getLastRequestTime(){
-		return requestEndTime - requestStartTime;
+		return lastRequestTime;
+	}
+	
+	/**
+	 * Returns the metrics registry for this client, with latency histograms
+	 * for each phase of a request (URL build, connect, time to first byte,
+	 * parse, and cache write) per endpoint and response format, and counters
+	 * for requests, errors, and bytes received
+	 * 
+	 * @return the metrics registry for this client
+	 */
+	public SiriRequestMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Returns the pool of keep-alive connections used when the connection type
+	 * is SiriRestClientConfig.HTTP_CONNECTION_TYPE_POOLED, creating it if
+	 * necessary. The pool can be used to check hit/miss counts.
+	 * 
+	 * The pool size, keep-alive duration, and timeouts are taken from the
+	 * config the first time this method is called.
+	 * 
+	 * @return the pool of keep-alive connections used by this client
+	 */
+	public synchronized SiriConnectionPool getConnectionPool() {
+		if (connectionPool == null) {
+			connectionPool = new SiriConnectionPool(
+					config.getMaxIdleConnectionsPerHost(),
+					config.getKeepAliveDuration(), config.getConnectTimeout(),
+					config.getReadTimeout());
+		}
+		return connectionPool;
 	}
 		
 	/**
-	 * Makes the HTTP request to the SIRI VehicleMonitoring REST API on the
-	 * server, parses the response, and returns a Siri object containing the
-	 * response
+	 * Returns the pool of buffers that response bodies are read into when
+	 * SiriRestClientConfig.isResponseBufferingEnabled() is true, creating it
+	 * if necessary. The pool can be used to check hit/miss counts.
 	 * 
-	 * For options fields in request (i.e., DirectionRef,
-	 * StopMonitoringDetailLevel, MaximumNumberOfCallsOnwards), pass in an empty
-	 * string if they aren't being used.
+	 * The pool size and largest pooled buffer size are taken from the config
+	 * the first time this method is called.
+	 * 
+	 * @return the pool of response buffers used by this client
+	 */
+	public synchronized SiriBufferPool getBufferPool() {
+		if (bufferPool == null) {
+			bufferPool = new SiriBufferPool(config.getResponseBufferPoolSize(),
+					config.getMaxPooledResponseBufferSize());
+		}
+		return bufferPool;
+	}
+		
+	/**
+	 * Returns the total number of response body bytes received from the
+	 * server, before decompression. Only counted for the Android
+	 * HttpURLConnection and pooled connection types.
+	 * 
+	 * @return the total number of response body bytes received from the server
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+	
+	/**
+	 * Returns the total number of response body bytes after decompression
+	 * (the same as getBytesReceived() for uncompressed responses). Only
+	 * counted for the Android HttpURLConnection and pooled connection types.
+	 * 
+	 * @return the total number of response body bytes after decompression
+	 */
+	public long getBytesDecoded() {
+		return bytesDecoded.get();
+	}
+	
+	/**
+	 * Returns the in-memory cache of parsed responses used when
+	 * SiriRestClientConfig.isResponseCacheEnabled() is true, creating it if
+	 * necessary. The cache can be used to check hit/miss counts.
+	 * 
+	 * The TTL and size of the cache are taken from the config the first time
+	 * this method is called.
+	 * 
+	 * @return the in-memory cache of parsed responses used by this client
+	 */
+	public synchronized SiriResponseCache getResponseCache() {
+		if (responseCache == null) {
+			responseCache = new SiriResponseCache(
+					config.getResponseCacheTtl(),
+					config.getResponseCacheMaxEntries());
+		}
+		return responseCache;
+	}
+	
+	/**
+	 * Sets the store that keeps the last successful response for each request
+	 * in local storage.  Every response this client parses from now on is
+	 * saved to it, and getVehicleMonSnapshot() / getStopMonSnapshot() read
+	 * from it.
+	 * 
+	 * @param snapshotStore
+	 *            the snapshot store, or null to stop saving responses
+	 */
+	public void setSnapshotStore(SiriSnapshotStore snapshotStore) {
+		this.snapshotStore = snapshotStore;
+	}
+	
+	/**
+	 * Returns the store that keeps the last successful response for each
+	 * request in local storage
+	 * 
+	 * @return the snapshot store, or null if one hasn't been set
+	 */
+	public SiriSnapshotStore getSnapshotStore() {
+		return snapshotStore;
+	}
+	
+	/**
+	 * Returns the key for a request in the snapshot store - the request URL
+	 * without the developer API key, so the key is never written to local
+	 * storage
+	 * 
+	 * @param urlString
+	 *            the request URL
+	 * @return the URL without its "key" parameter
+	 */
+	static String getSnapshotKey(String urlString) {
+		int query = urlString.indexOf('?');
+		if (query == -1) {
+			return urlString;
+		}
+		StringBuilder sb = new StringBuilder(urlString.length());
+		sb.append(urlString, 0, query + 1);
+		boolean first = true;
+		int start = query + 1;
+		while (start < urlString.length()) {
+			int end = urlString.indexOf('&', start);
+			if (end == -1) {
+				end = urlString.length();
+			}
+			if (end > start && !urlString.startsWith("key=", start)) {
+				if (!first) {
+					sb.append('&');
+				}
+				sb.append(urlString, start, end);
+				first = false;
+			}
+			start = end + 1;
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns the last successful response for a VehicleMonitoring request
+	 * with the same parameters as makeVehicleMonRequest(), without contacting
+	 * the server.  Apps can show it while the fresh request is in flight, e.g.
+	 * on startup.
 	 * 
 	 * @param devKey
 	 *            a developer API key
 	 * @param operatorRef
 	 *            the GTFS agency ID to be monitored
 	 * @param vehicleRef
-	 *            the ID of the vehicle to be monitored (optional). This is the
-	 *            4-digit number painted on the side of the bus, for example
-	 *            7560. Response will include all buses if not included.
+	 *            the ID of the vehicle to be monitored (optional)
 	 * @param lineRef
-	 *            a filter by GTFS route ID (optional).
+	 *            a filter by GTFS route ID (optional)
 	 * @param directionRef
 	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
 	 *            if not to be used.
 	 * @param vehicleMonitoringDetailLevel
-	 *            Determines whether or not the response will include the stops
-	 *            ("calls" in SIRI-speak) each vehicle is going to make
-	 *            (optional). To get calls data, use value calls, otherwise use
-	 *            value normal (default is normal).
+	 *            "calls" or "normal" (optional)
 	 * @param maximumNumberOfCallsOnwards
 	 *            Limit on the number of OnwardCall elements for each vehicle
 	 *            when VehicleMonitoringDetailLevel=calls, or -1 not to limit
-	 * @return a Siri object containing the parsed VehicleMonRequest response
-	 *         from the server
+	 * @return the snapshot (stale if it was saved by an earlier run of the
+	 *         app), or null if there is no snapshot store or no snapshot for
+	 *         the request
 	 * @throws IllegalArgumentException
 	 *             if the required parameters aren't provided or any parameter
 	 *             is invalid
 	 */
-	public Siri makeVehicleMonRequest(String devKey, String operatorRef,
+	public SiriSnapshot getVehicleMonSnapshot(String devKey, String operatorRef,
 			String vehicleRef, String lineRef, int directionRef,
 			String vehicleMonitoringDetailLevel, int maximumNumberOfCallsOnwards) throws IllegalArgumentException {
-
-		StringBuffer sb = new StringBuffer();
-
-		sb.append(vehMonBaseUrl); // Base URL for veh mon request
-
-		sb.append("." + getResponseTypeFileExtension()); // .json or .xml
-
-		sb.append("?");
-
-		if (!devKey.equals("")) {
-			sb.append("key=" + devKey + "&");
+		SiriSnapshotStore store = snapshotStore;
+		if (store == null) {
+			return null;
 		}
-
-		if (!operatorRef.equals("")) {
-			sb.append("OperatorRef=" + operatorRef + "&");
-		} else {
-			throw new IllegalArgumentException(
-					"OperatorRef is a required paramater and cannot be an emptry string");
-		}
-
-		if (!vehicleRef.equals("")) {
-			sb.append("VehicleRef=" + vehicleRef + "&");
-		}
-
-		if (!lineRef.equals("")) {
-			sb.append("LineRef=" + lineRef + "&");
-		}
-
-		if (directionRef != -1) {
-			if (directionRef == 0 || directionRef == 1) {
-				sb.append("DirectionRef=" + directionRef + "&");
-			} else {
-				throw new IllegalArgumentException(
-						"DirectionRef must be 0 or 1, or -1 if not to be used");
-			}
-		}
-
-		if (!vehicleMonitoringDetailLevel.equals("")) {
-			if (vehicleMonitoringDetailLevel.equalsIgnoreCase("calls")
-					|| vehicleMonitoringDetailLevel.equalsIgnoreCase("normal")) {
-				sb.append("VehicleMonitoringDetailLevel="
-						+ vehicleMonitoringDetailLevel + "&");
-			} else {
-				throw new IllegalArgumentException(
-						"VehicleMonitoringDetailLevel  must be 'calls' or 'normal'");
-			}
-		} else {
-			// Set default
-			sb.append("VehicleMonitoringDetailLevel=normal");
-		}
-
-		if (maximumNumberOfCallsOnwards != -1) {
-			if (maximumNumberOfCallsOnwards >= 1) {
-				sb.append("MaximumNumberOfCallsOnwards="
-						+ maximumNumberOfCallsOnwards + "&");
-			} else {
-				throw new IllegalArgumentException(
-						"MaximumNumberOfCallsOnwards must be 1 or greater, or -1 if not to be used");
-			}
-		}
-		
-		//Clean up string to create final URL
-		String url = cleanUpUrl(sb.toString());
-
-		// Make actual HTTP call to server using parameters string we just
-		// built, pre-fixed with the base URL and correct response type
-		// extension
-		return makeRequest(url);
-
+		return store.get(getSnapshotKey(buildVehicleMonUrl(devKey,
+				operatorRef, vehicleRef, lineRef, directionRef,
+				vehicleMonitoringDetailLevel, maximumNumberOfCallsOnwards)));
 	}
-
+	
 	/**
-	 * Makes the HTTP request to the SIRI Stop Monitoring REST API on the
-	 * server, parses the response, and returns a Siri object containing the
-	 * response.
-	 * 
-	 * For options fields in request (i.e., DirectionRef,
-	 * StopMonitoringDetailLevel, MaximumNumberOfCallsOnwards), pass in an empty
-	 * string if they aren't being used.
+	 * Returns the last successful response for a StopMonitoring request with
+	 * the same parameters as makeStopMonRequest(), without contacting the
+	 * server.  Apps can show it while the fresh request is in flight, e.g. on
+	 * startup.
 	 * 
 	 * @param devKey
 	 *            a developer API key (optional in some SIRI implementations)
 	 * @param operatorRef
 	 *            the GTFS agency ID to be monitored (required)
 	 * @param monitoringRef
-	 *            the GTFS stop ID of the stop to be monitored (required). For
-	 *            example, 308214 for the stop at 5th Avenue and Union St
-	 *            towards Bay Ridge.
+	 *            the GTFS stop ID of the stop to be monitored (required)
 	 * @param lineRef
 	 *            a filter by GTFS route ID (optional)
 	 * @param directionRef
 	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
 	 *            if not to be used.
 	 * @param stopMonitoringDetailLevel
-	 *            Determines whether or not the response will include the stops
-	 *            ("calls" in SIRI-speak) each vehicle is going to make after it
-	 *            serves the selected stop (optional). To get calls data, use
-	 *            value calls, otherwise use value normal (default is normal).
+	 *            "calls" or "normal" (optional)
 	 * @param maximumNumberOfCallsOnwards
 	 *            Limit on the number of OnwardCall elements for each vehicle
-	 *            when CtopMonitoringDetailLevel=calls, or -1 not to limit
-	 * @return a Siri object containing the parsed StopMonRequest response from
-	 *         the server
+	 *            when StopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @return the snapshot (stale if it was saved by an earlier run of the
+	 *         app), or null if there is no snapshot store or no snapshot for
+	 *         the request
 	 * @throws IllegalArgumentException
 	 *             if the required parameters aren't provided or any parameter
 	 *             is invalid
 	 */
-	public Siri makeStopMonRequest(String devKey, String operatorRef,
+	public SiriSnapshot getStopMonSnapshot(String devKey, String operatorRef,
 			String monitoringRef, String lineRef, int directionRef,
 			String stopMonitoringDetailLevel, int maximumNumberOfCallsOnwards)
 			throws IllegalArgumentException {
+		SiriSnapshotStore store = snapshotStore;
+		if (store == null) {
+			return null;
+		}
+		return store.get(getSnapshotKey(buildStopMonUrl(devKey, operatorRef,
+				monitoringRef, lineRef, directionRef,
+				stopMonitoringDetailLevel, maximumNumberOfCallsOnwards)));
+	}
+	
+	/**
+	 * Returns the circuit breaker for the base URL of an endpoint, creating it
+	 * if necessary. If both endpoints have the same base URL, they share a
+	 * breaker.
+	 * 
+	 * @param endpoint
+	 *            SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING or
+	 *            SiriRequestMetrics.ENDPOINT_STOP_MONITORING
+	 * @return the circuit breaker for the endpoint, or null if
+	 *         SiriRestClientConfig.isCircuitBreakerEnabled() is false
+	 */
+	public synchronized SiriCircuitBreaker getCircuitBreaker(int endpoint) {
+		if (!config.isCircuitBreakerEnabled()) {
+			return null;
+		}
+		String baseUrl = endpoint == SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING ? vehMonBaseUrl
+				: stopMonBaseUrl;
+		SiriCircuitBreaker breaker = circuitBreakers.get(baseUrl);
+		if (breaker == null) {
+			breaker = new SiriCircuitBreaker(baseUrl, config,
+					circuitBreakerListeners);
+			circuitBreakers.put(baseUrl, breaker);
+		}
+		return breaker;
+	}
+	
+	/**
+	 * Adds a listener that is called when the circuit breaker for either
+	 * endpoint changes state
+	 * 
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addCircuitBreakerListener(SiriCircuitBreakerListener listener) {
+		circuitBreakerListeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener added with addCircuitBreakerListener()
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeCircuitBreakerListener(
+			SiriCircuitBreakerListener listener) {
+		circuitBreakerListeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the rate limiter for a developer key and endpoint, creating it if
+	 * necessary. The limiter can be used to check the queue length and the
+	 * number of requests that waited or were rejected.
+	 * 
+	 * @param devKey
+	 *            a developer API key, or an empty string for requests made
+	 *            without one
+	 * @param endpoint
+	 *            SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING or
+	 *            SiriRequestMetrics.ENDPOINT_STOP_MONITORING
+	 * @return the rate limiter for the developer key and endpoint, or null if
+	 *         SiriRestClientConfig.isRateLimitEnabled() is false
+	 */
+	public synchronized SiriRateLimiter getRateLimiter(String devKey,
+			int endpoint) {
+		if (!config.isRateLimitEnabled()) {
+			return null;
+		}
+		if (devKey == null) {
+			devKey = "";
+		}
+		String key = endpoint + ":" + devKey;
+		SiriRateLimiter limiter = rateLimiters.get(key);
+		if (limiter == null) {
+			limiter = new SiriRateLimiter(devKey, endpoint, config);
+			rateLimiters.put(key, limiter);
+		}
+		return limiter;
+	}
+	
+	/**
+	 * Returns the number of requests that shared the fetch of an identical
+	 * request already in flight instead of contacting the server, when
+	 * SiriRestClientConfig.isRequestCoalescingEnabled() is true
+	 * 
+	 * @return the number of requests that shared another request's fetch
+	 */
+	public long getCoalescedRequestCount() {
+		return coalescer.getCoalescedCount();
+	}
+	
+	/**
+	 * Sets the executor used to run asynchronous requests (e.g.,
+	 * makeVehicleMonRequestAsync()). The executor is not shut down by this
+	 * client. If no executor is set, a fixed thread pool with
+	 * SiriRestClientConfig.getAsyncThreadCount() threads is created on the
+	 * first asynchronous request.
+	 * 
+	 * Regardless of the executor, no more than
+	 * SiriRestClientConfig.getMaxAsyncRequests() asynchronous requests are
+	 * submitted to it at once.
+	 * 
+	 * @param executor
+	 *            the executor used to run asynchronous requests
+	 */
+	public synchronized void setExecutor(ExecutorService executor) {
+		if (usingDefaultExecutor && this.executor != null) {
+			this.executor.shutdown();
+		}
+		this.executor = executor;
+		usingDefaultExecutor = false;
+	}
+	
+	/**
+	 * Returns the executor used to run asynchronous requests, creating the
+	 * default executor if necessary
+	 * 
+	 * @return the executor used to run asynchronous requests
+	 */
+	public synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger(1);
+			ThreadPoolExecutor defaultExecutor = new ThreadPoolExecutor(
+					config.getAsyncThreadCount(), config.getAsyncThreadCount(),
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, TAG + "-"
+									+ threadNumber.getAndIncrement());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			// Don't keep idle threads around between bursts of requests
+			defaultExecutor.allowCoreThreadTimeOut(true);
+			executor = defaultExecutor;
+			usingDefaultExecutor = true;
+		}
+		return executor;
+	}
+	
+	/**
+	 * Returns the executor used to run both copies of a hedged request,
+	 * creating it if necessary. It has no queue and at most
+	 * SiriRestClientConfig.getMaxAsyncRequests() threads, so when it is full
+	 * the request is made without hedging instead of waiting.
+	 * 
+	 * @return the executor used to run hedged requests
+	 */
+	private synchronized ExecutorService getHedgingExecutor() {
+		if (hedgingExecutor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger(1);
+			hedgingExecutor = new ThreadPoolExecutor(0,
+					config.getMaxAsyncRequests(), 60L, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, TAG + "-hedge-"
+									+ threadNumber.getAndIncrement());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+		return hedgingExecutor;
+	}
+	
+	/**
+	 * Returns the executor used to run the requests of batches, creating it if
+	 * necessary. It has SiriRestClientConfig.getMaxConcurrentBatchRequests()
+	 * threads, so a single batch can run that many requests at once no matter
+	 * how many threads the executor for asynchronous requests has.
+	 * 
+	 * @return the executor used to run the requests of batches
+	 */
+	private synchronized ExecutorService getBatchExecutor() {
+		if (batchExecutor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger(1);
+			ThreadPoolExecutor e = new ThreadPoolExecutor(
+					config.getMaxConcurrentBatchRequests(),
+					config.getMaxConcurrentBatchRequests(), 60L,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, TAG + "-batch-"
+									+ threadNumber.getAndIncrement());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			// Don't keep idle threads around between batches
+			e.allowCoreThreadTimeOut(true);
+			batchExecutor = e;
+		}
+		return batchExecutor;
+	}
+	
+	/**
+	 * Stops the default executor and the executors for hedged and batch
+	 * requests (if they were created), closes any idle pooled
+	 * connections, and drops any idle response buffers. Requests already in
+	 * flight are allowed to finish.
+	 */
+	public synchronized void shutdown() {
+		if (usingDefaultExecutor && executor != null) {
+			executor.shutdown();
+			executor = null;
+			usingDefaultExecutor = false;
+		}
+		if (hedgingExecutor != null) {
+			hedgingExecutor.shutdown();
+			hedgingExecutor = null;
+		}
+		if (batchExecutor != null) {
+			batchExecutor.shutdown();
+			batchExecutor = null;
+		}
+		if (connectionPool != null) {
+			connectionPool.evictAll();
+		}
+		if (bufferPool != null) {
+			bufferPool.evictAll();
+		}
+	}
+	
+	/**
+	 * Submits a request for the given URL to the executor
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the maximum number of asynchronous requests are already
+	 *             in flight, or the executor rejected the request
+	 */
+	private Future<Siri> submitRequest(String url, String devKey, int endpoint,
+			SiriResponseListener listener) throws RejectedExecutionException {
+		Semaphore permits;
+		ExecutorService e;
+		synchronized (this) {
+			if (asyncPermits == null) {
+				asyncPermits = new Semaphore(config.getMaxAsyncRequests());
+			}
+			permits = asyncPermits;
+			e = getExecutor();
+		}
 
-		StringBuffer sb = new StringBuffer();
-
-		sb.append(stopMonBaseUrl); // Base URL for stop mon request
-
-		sb.append("." + getResponseTypeFileExtension()); // .json or .xml
-
-		sb.append("?"); // parameters
+		if (!permits.tryAcquire()) {
+			throw new RejectedExecutionException("Too many asynchronous requests in flight (max "
+					+ config.getMaxAsyncRequests() + ")");
+		}
 
-		if (!devKey.equals("")) {
-			sb.append("key=" + devKey + "&");
+		SiriRequestTask task = new SiriRequestTask(this, url, devKey, endpoint,
+				listener, permits);
+		try {
+			e.execute(task);
+		} catch (RejectedExecutionException ex) {
+			// Never ran, so give back the permit
+			task.cancel(false);
+			throw ex;
+		}
+		return task;
+	}
+		
+	/**
+	 * Makes the HTTP request to the SIRI VehicleMonitoring REST API on the
+	 * server, parses the response, and returns a Siri object containing the
+	 * response
+	 * 
+	 * For options fields in request (i.e., DirectionRef,
+	 * StopMonitoringDetailLevel, MaximumNumberOfCallsOnwards), pass in an empty
+	 * string if they aren't being used.
+	 * 
+	 * @param devKey
+	 *            a developer API key
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored
+	 * @param vehicleRef
+	 *            the ID of the vehicle to be monitored (optional). This is the
+	 *            4-digit number painted on the side of the bus, for example
+	 *            7560. Response will include all buses if not included.
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional).
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param vehicleMonitoringDetailLevel
+	 *            Determines whether or not the response will include the stops
+	 *            ("calls" in SIRI-speak) each vehicle is going to make
+	 *            (optional). To get calls data, use value calls, otherwise use
+	 *            value normal (default is normal).
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when VehicleMonitoringDetailLevel=calls, or -1 not to limit
+	 * @return a Siri object containing the parsed VehicleMonRequest response
+	 *         from the server
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 */
+	public Siri makeVehicleMonRequest(String devKey, String operatorRef,
+			String vehicleRef, String lineRef, int directionRef,
+			String vehicleMonitoringDetailLevel, int maximumNumberOfCallsOnwards) throws IllegalArgumentException {
+
+		String url = buildVehicleMonUrl(devKey, operatorRef, vehicleRef,
+				lineRef, directionRef, vehicleMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		// Make actual HTTP call to server using parameters string we just
+		// built, pre-fixed with the base URL and correct response type
+		// extension
+		return makeRequest(url, devKey, SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING);
+	}
+
+	/**
+	 * Asynchronous version of makeVehicleMonRequest(). The request is run on
+	 * this client's executor (see setExecutor()), and the result is returned
+	 * via the Future and the listener.
+	 * 
+	 * Parameters are validated before this method returns, so invalid
+	 * parameters still throw an IllegalArgumentException on the calling thread.
+	 * 
+	 * @param devKey
+	 *            a developer API key
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored
+	 * @param vehicleRef
+	 *            the ID of the vehicle to be monitored (optional)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param vehicleMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when VehicleMonitoringDetailLevel=calls, or -1 not to limit
+	 * @param listener
+	 *            listener to be called on the executor thread when the request
+	 *            finishes, or null if only the Future will be used
+	 * @return a Future for the Siri object containing the parsed
+	 *         VehicleMonRequest response from the server. Cancelling the
+	 *         Future interrupts the request and the listener will not be
+	 *         called.
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 * @throws RejectedExecutionException
+	 *             if the maximum number of asynchronous requests are already
+	 *             in flight
+	 */
+	public Future<Siri> makeVehicleMonRequestAsync(String devKey,
+			String operatorRef, String vehicleRef, String lineRef,
+			int directionRef, String vehicleMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards, SiriResponseListener listener)
+			throws IllegalArgumentException, RejectedExecutionException {
+
+		String url = buildVehicleMonUrl(devKey, operatorRef, vehicleRef,
+				lineRef, directionRef, vehicleMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		return submitRequest(url, devKey,
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING, listener);
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI VehicleMonitoring REST API on the
+	 * server, and passes each VehicleActivity in the response to the listener
+	 * as soon as it has been parsed, instead of building the entire Siri
+	 * object. Memory use stays constant no matter how many vehicles are in the
+	 * response, and the first vehicle is available sooner.  Works for both
+	 * JSON and XML responses.
+	 * 
+	 * This method blocks until the whole response has been parsed (or the
+	 * listener stops parsing). The response cache isn't used. If the
+	 * config uses the Jackson HTTP connection, the Android HttpURLConnection
+	 * is used instead, since the response must be read as a stream.
+	 * 
+	 * Parameters are the same as makeVehicleMonRequest().
+	 * 
+	 * @param devKey
+	 *            a developer API key
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored
+	 * @param vehicleRef
+	 *            the ID of the vehicle to be monitored (optional)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param vehicleMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when VehicleMonitoringDetailLevel=calls, or -1 not to limit
+	 * @param listener
+	 *            listener that receives each VehicleActivity, on the calling
+	 *            thread
+	 * @return the number of VehicleActivity elements passed to the listener
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamVehicleMonRequest(String devKey, String operatorRef,
+			String vehicleRef, String lineRef, int directionRef,
+			String vehicleMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards,
+			SiriElementListener<VehicleActivity> listener)
+			throws IllegalArgumentException, IOException {
+
+		String url = buildVehicleMonUrl(devKey, operatorRef, vehicleRef,
+				lineRef, directionRef, vehicleMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		return streamRequest(url, devKey,
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING,
+				SiriStreamingParser.VEHICLE_ACTIVITY, VehicleActivity.class,
+				listener);
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI VehicleMonitoring REST API on the
+	 * server, and passes only the fields in the projection of each
+	 * VehicleActivity to the listener, as a map from path to value (see
+	 * SiriStreamingParser.readProjectedElements()). Everything else in the
+	 * response (e.g., OnwardCalls, MonitoredCall, SituationRef) is skipped
+	 * while parsing instead of being bound to POJOs, which is much faster and
+	 * allocates much less when only a few fields are needed (e.g., vehicle
+	 * positions for a map). Works for both JSON and XML responses.
+	 * 
+	 * Otherwise the same as streamVehicleMonRequest().
+	 * 
+	 * @param devKey
+	 *            a developer API key
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored
+	 * @param vehicleRef
+	 *            the ID of the vehicle to be monitored (optional)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param vehicleMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when VehicleMonitoringDetailLevel=calls, or -1 not to limit
+	 * @param projection
+	 *            the fields to keep, relative to VehicleActivity (e.g.,
+	 *            SiriProjection.VEHICLE_POSITION)
+	 * @param listener
+	 *            listener that receives the fields of each VehicleActivity,
+	 *            on the calling thread
+	 * @return the number of VehicleActivity elements passed to the listener
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamVehicleMonRequest(String devKey, String operatorRef,
+			String vehicleRef, String lineRef, int directionRef,
+			String vehicleMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards, SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IllegalArgumentException, IOException {
+
+		String url = buildVehicleMonUrl(devKey, operatorRef, vehicleRef,
+				lineRef, directionRef, vehicleMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		return streamProjectedRequest(url, devKey,
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING,
+				SiriStreamingParser.VEHICLE_ACTIVITY, projection, listener);
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI VehicleMonitoring REST API on the
+	 * server, parses the response, and returns a Siri object containing the
+	 * response.  Same as makeVehicleMonRequest() with positional parameters,
+	 * but the query string of the request is only encoded once, no matter how
+	 * many times the request object is used.
+	 * 
+	 * @param request
+	 *            the VehicleMonitoring request
+	 * @return a Siri object containing the parsed VehicleMonRequest response
+	 *         from the server
+	 */
+	public Siri makeVehicleMonRequest(VehicleMonitoringRequest request) {
+		return makeRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING);
+	}
+
+	/**
+	 * Asynchronous version of makeVehicleMonRequest(VehicleMonitoringRequest).
+	 * See makeVehicleMonRequestAsync() with positional parameters for details.
+	 * 
+	 * @param request
+	 *            the VehicleMonitoring request
+	 * @param listener
+	 *            listener to be called on the executor thread when the request
+	 *            finishes, or null if only the Future will be used
+	 * @return a Future for the Siri object containing the parsed
+	 *         VehicleMonRequest response from the server
+	 * @throws RejectedExecutionException
+	 *             if the maximum number of asynchronous requests are already
+	 *             in flight
+	 */
+	public Future<Siri> makeVehicleMonRequestAsync(
+			VehicleMonitoringRequest request, SiriResponseListener listener)
+			throws RejectedExecutionException {
+		return submitRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING, listener);
+	}
+
+	/**
+	 * Streaming version of makeVehicleMonRequest(VehicleMonitoringRequest).
+	 * See streamVehicleMonRequest() with positional parameters for details.
+	 * 
+	 * @param request
+	 *            the VehicleMonitoring request
+	 * @param listener
+	 *            listener that receives each VehicleActivity, on the calling
+	 *            thread
+	 * @return the number of VehicleActivity elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamVehicleMonRequest(VehicleMonitoringRequest request,
+			SiriElementListener<VehicleActivity> listener) throws IOException {
+		return streamRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING,
+				SiriStreamingParser.VEHICLE_ACTIVITY, VehicleActivity.class,
+				listener);
+	}
+
+	/**
+	 * Projected streaming version of
+	 * makeVehicleMonRequest(VehicleMonitoringRequest).  See the projected
+	 * streamVehicleMonRequest() with positional parameters for details.
+	 * 
+	 * @param request
+	 *            the VehicleMonitoring request
+	 * @param projection
+	 *            the fields to keep, relative to VehicleActivity (e.g.,
+	 *            SiriProjection.VEHICLE_POSITION)
+	 * @param listener
+	 *            listener that receives the fields of each VehicleActivity,
+	 *            on the calling thread
+	 * @return the number of VehicleActivity elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamVehicleMonRequest(VehicleMonitoringRequest request,
+			SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IOException {
+		return streamProjectedRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING,
+				SiriStreamingParser.VEHICLE_ACTIVITY, projection, listener);
+	}
+
+	/**
+	 * Returns the last successful response for a VehicleMonitoring request,
+	 * without contacting the server.  See getVehicleMonSnapshot() with
+	 * positional parameters for details.
+	 * 
+	 * @param request
+	 *            the VehicleMonitoring request
+	 * @return the snapshot, or null if there is no snapshot store or no
+	 *         snapshot for the request
+	 */
+	public SiriSnapshot getVehicleMonSnapshot(VehicleMonitoringRequest request) {
+		SiriSnapshotStore store = snapshotStore;
+		if (store == null) {
+			return null;
+		}
+		return store.get(getSnapshotKey(buildUrl(request)));
+	}
+
+	/**
+	 * Builds the URL for a SIRI VehicleMonitoring request.  See makeVehicleMonRequest() for
+	 * parameter details.
+	 * 
+	 * @return the URL for a SIRI VehicleMonitoring request
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 */
+	String buildVehicleMonUrl(String devKey, String operatorRef,
+			String vehicleRef, String lineRef, int directionRef,
+			String vehicleMonitoringDetailLevel, int maximumNumberOfCallsOnwards) throws IllegalArgumentException {
+
+		long startTime = System.nanoTime();
+		
+		VehicleMonitoringRequest request = new VehicleMonitoringRequest.Builder()
+				.setDevKey(devKey).setOperatorRef(operatorRef)
+				.setVehicleRef(vehicleRef).setLineRef(lineRef)
+				.setDirectionRef(directionRef)
+				.setVehicleMonitoringDetailLevel(vehicleMonitoringDetailLevel)
+				.setMaximumNumberOfCallsOnwards(maximumNumberOfCallsOnwards)
+				.build();
+		
+		return buildUrl(request, startTime);
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI Stop Monitoring REST API on the
+	 * server, parses the response, and returns a Siri object containing the
+	 * response.
+	 * 
+	 * For options fields in request (i.e., DirectionRef,
+	 * StopMonitoringDetailLevel, MaximumNumberOfCallsOnwards), pass in an empty
+	 * string if they aren't being used.
+	 * 
+	 * @param devKey
+	 *            a developer API key (optional in some SIRI implementations)
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored (required)
+	 * @param monitoringRef
+	 *            the GTFS stop ID of the stop to be monitored (required). For
+	 *            example, 308214 for the stop at 5th Avenue and Union St
+	 *            towards Bay Ridge.
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param stopMonitoringDetailLevel
+	 *            Determines whether or not the response will include the stops
+	 *            ("calls" in SIRI-speak) each vehicle is going to make after it
+	 *            serves the selected stop (optional). To get calls data, use
+	 *            value calls, otherwise use value normal (default is normal).
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when CtopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @return a Siri object containing the parsed StopMonRequest response from
+	 *         the server
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 */
+	public Siri makeStopMonRequest(String devKey, String operatorRef,
+			String monitoringRef, String lineRef, int directionRef,
+			String stopMonitoringDetailLevel, int maximumNumberOfCallsOnwards)
+			throws IllegalArgumentException {
+
+		String url = buildStopMonUrl(devKey, operatorRef, monitoringRef,
+				lineRef, directionRef, stopMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		// Make actual HTTP call to server using parameters string we just
+		// built, pre-fixed with the base URL and correct response type
+		// extension
+		return makeRequest(url, devKey, SiriRequestMetrics.ENDPOINT_STOP_MONITORING);
+	}
+
+	/**
+	 * Asynchronous version of makeStopMonRequest(). The request is run on this
+	 * client's executor (see setExecutor()), and the result is returned via
+	 * the Future and the listener.
+	 * 
+	 * Parameters are validated before this method returns, so invalid
+	 * parameters still throw an IllegalArgumentException on the calling thread.
+	 * 
+	 * @param devKey
+	 *            a developer API key (optional in some SIRI implementations)
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored (required)
+	 * @param monitoringRef
+	 *            the GTFS stop ID of the stop to be monitored (required)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param stopMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when StopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @param listener
+	 *            listener to be called on the executor thread when the request
+	 *            finishes, or null if only the Future will be used
+	 * @return a Future for the Siri object containing the parsed
+	 *         StopMonRequest response from the server. Cancelling the Future
+	 *         interrupts the request and the listener will not be called.
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 * @throws RejectedExecutionException
+	 *             if the maximum number of asynchronous requests are already
+	 *             in flight
+	 */
+	public Future<Siri> makeStopMonRequestAsync(String devKey,
+			String operatorRef, String monitoringRef, String lineRef,
+			int directionRef, String stopMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards, SiriResponseListener listener)
+			throws IllegalArgumentException, RejectedExecutionException {
+
+		String url = buildStopMonUrl(devKey, operatorRef, monitoringRef,
+				lineRef, directionRef, stopMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		return submitRequest(url, devKey,
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING, listener);
+	}
+
+	/**
+	 * Makes SIRI StopMonitoring requests for many stops at once. The requests
+	 * are executed concurrently on a separate executor for batches (not the
+	 * one set with setExecutor()), with at most
+	 * SiriRestClientConfig.getMaxConcurrentBatchRequests() in flight, so the
+	 * total time is close to a few round trips instead of one per stop.
+	 * 
+	 * This method blocks until all requests have finished. The other
+	 * parameters are the same as makeStopMonRequest(), and are used for every
+	 * stop.
+	 * 
+	 * @param devKey
+	 *            a developer API key (optional in some SIRI implementations)
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored (required)
+	 * @param monitoringRefs
+	 *            the GTFS stop IDs of the stops to be monitored (required).
+	 *            Duplicate IDs are only requested once.
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param stopMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when StopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @return the parsed response or error for each MonitoringRef
+	 * @throws IllegalArgumentException
+	 *             if a required parameter shared by all requests isn't
+	 *             provided or is invalid. An invalid MonitoringRef is reported
+	 *             in the errors of the result instead.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting. Any
+	 *             unfinished requests are cancelled.
+	 */
+	public SiriBatchResult makeStopMonRequests(String devKey,
+			String operatorRef, Collection<String> monitoringRefs,
+			String lineRef, int directionRef, String stopMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards) throws IllegalArgumentException,
+			InterruptedException {
+
+		SiriBatchResult result = new SiriBatchResult();
+
+		// Build every URL first, so shared parameters are validated before
+		// any request is made
+		Map<String, String> urls = new LinkedHashMap<String, String>();
+		for (String monitoringRef : new LinkedHashSet<String>(monitoringRefs)) {
+			try {
+				urls.put(monitoringRef, buildStopMonUrl(devKey, operatorRef,
+						monitoringRef, lineRef, directionRef,
+						stopMonitoringDetailLevel, maximumNumberOfCallsOnwards));
+			} catch (IllegalArgumentException e) {
+				if (monitoringRef == null || monitoringRef.equals("")) {
+					result.putError(String.valueOf(monitoringRef), e);
+				} else {
+					throw e;
+				}
+			}
+		}
+
+		Map<String, Future<Siri>> futures = executeBatch(urls, devKey,
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING);
+
+		try {
+			for (Map.Entry<String, Future<Siri>> entry : futures.entrySet()) {
+				try {
+					result.putResult(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					result.putError(entry.getKey(),
+							cause instanceof Exception ? (Exception) cause : e);
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<Siri> f : futures.values()) {
+				f.cancel(true);
+			}
+			throw e;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Executes the requests for the given URLs on the executor for batches,
+	 * with at most SiriRestClientConfig.getMaxConcurrentBatchRequests()
+	 * executing at once.
+	 * Blocks the calling thread while waiting for a free slot.
+	 * 
+	 * @param urls
+	 *            request URLs, keyed by ID
+	 * @param devKey
+	 *            developer API key of the requests, for the rate limiter
+	 * @param endpoint
+	 *            SiriRequestMetrics.ENDPOINT_* that the URLs are for
+	 * @return a Future for each request, keyed by ID
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for a
+	 *             slot. Requests already submitted are cancelled.
+	 * @throws RejectedExecutionException
+	 *             if the executor rejected a request. Requests already
+	 *             submitted are cancelled.
+	 */
+	private Map<String, Future<Siri>> executeBatch(Map<String, String> urls,
+			final String devKey, final int endpoint) throws InterruptedException {
+		final Semaphore slots = new Semaphore(
+				config.getMaxConcurrentBatchRequests());
+		ExecutorService e = getBatchExecutor();
+		Map<String, Future<Siri>> futures = new LinkedHashMap<String, Future<Siri>>();
+		boolean submitted = false;
+
+		try {
+			for (Map.Entry<String, String> entry : urls.entrySet()) {
+				final String url = entry.getValue();
+				slots.acquire();
+				FutureTask<Siri> task = new FutureTask<Siri>(
+						new Callable<Siri>() {
+							public Siri call() throws Exception {
+								return executeRequest(url, devKey, endpoint);
+							}
+						}) {
+					@Override
+					protected void done() {
+						slots.release();
+					}
+				};
+				futures.put(entry.getKey(), task);
+				try {
+					e.execute(task);
+				} catch (RejectedExecutionException ex) {
+					task.cancel(false);
+					throw ex;
+				}
+			}
+			submitted = true;
+		} finally {
+			if (!submitted) {
+				// Interrupted or rejected - don't leave part of the batch running
+				for (Future<Siri> f : futures.values()) {
+					f.cancel(true);
+				}
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI StopMonitoring REST API on the server,
+	 * and passes each MonitoredStopVisit in the response to the listener as
+	 * soon as it has been parsed, instead of building the entire Siri object.
+	 * Works for both JSON and XML responses.
+	 * 
+	 * This method blocks until the whole response has been parsed (or the
+	 * listener stops parsing). The response cache isn't used. If the
+	 * config uses the Jackson HTTP connection, the Android HttpURLConnection
+	 * is used instead, since the response must be read as a stream.
+	 * 
+	 * Parameters are the same as makeStopMonRequest().
+	 * 
+	 * @param devKey
+	 *            a developer API key (optional in some SIRI implementations)
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored (required)
+	 * @param monitoringRef
+	 *            the GTFS stop ID of the stop to be monitored (required)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param stopMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when StopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @param listener
+	 *            listener that receives each MonitoredStopVisit, on the
+	 *            calling thread
+	 * @return the number of MonitoredStopVisit elements passed to the listener
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamStopMonRequest(String devKey, String operatorRef,
+			String monitoringRef, String lineRef, int directionRef,
+			String stopMonitoringDetailLevel, int maximumNumberOfCallsOnwards,
+			SiriElementListener<MonitoredStopVisit> listener)
+			throws IllegalArgumentException, IOException {
+
+		String url = buildStopMonUrl(devKey, operatorRef, monitoringRef,
+				lineRef, directionRef, stopMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		return streamRequest(url, devKey,
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING,
+				SiriStreamingParser.MONITORED_STOP_VISIT,
+				MonitoredStopVisit.class, listener);
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI StopMonitoring REST API on the
+	 * server, and passes only the fields in the projection of each
+	 * MonitoredStopVisit to the listener, as a map from path to value. See
+	 * the projected streamVehicleMonRequest() for details.
+	 * 
+	 * Otherwise the same as streamStopMonRequest().
+	 * 
+	 * @param devKey
+	 *            a developer API key (optional in some SIRI implementations)
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored (required)
+	 * @param monitoringRef
+	 *            the GTFS stop ID of the stop to be monitored (required)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param stopMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when StopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @param projection
+	 *            the fields to keep, relative to MonitoredStopVisit (e.g.,
+	 *            "MonitoredVehicleJourney.MonitoredCall.ExpectedArrivalTime")
+	 * @param listener
+	 *            listener that receives the fields of each MonitoredStopVisit,
+	 *            on the calling thread
+	 * @return the number of MonitoredStopVisit elements passed to the listener
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamStopMonRequest(String devKey, String operatorRef,
+			String monitoringRef, String lineRef, int directionRef,
+			String stopMonitoringDetailLevel, int maximumNumberOfCallsOnwards,
+			SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IllegalArgumentException, IOException {
+
+		String url = buildStopMonUrl(devKey, operatorRef, monitoringRef,
+				lineRef, directionRef, stopMonitoringDetailLevel,
+				maximumNumberOfCallsOnwards);
+
+		return streamProjectedRequest(url, devKey,
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING,
+				SiriStreamingParser.MONITORED_STOP_VISIT, projection, listener);
+	}
+
+	/**
+	 * Makes the HTTP request to the SIRI StopMonitoring REST API on the
+	 * server, parses the response, and returns a Siri object containing the
+	 * response.  Same as makeStopMonRequest() with positional parameters, but
+	 * the query string of the request is only encoded once, no matter how
+	 * many times the request object is used.
+	 * 
+	 * @param request
+	 *            the StopMonitoring request
+	 * @return a Siri object containing the parsed StopMonRequest response from
+	 *         the server
+	 */
+	public Siri makeStopMonRequest(StopMonitoringRequest request) {
+		return makeRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING);
+	}
+
+	/**
+	 * Asynchronous version of makeStopMonRequest(StopMonitoringRequest). See
+	 * makeStopMonRequestAsync() with positional parameters for details.
+	 * 
+	 * @param request
+	 *            the StopMonitoring request
+	 * @param listener
+	 *            listener to be called on the executor thread when the request
+	 *            finishes, or null if only the Future will be used
+	 * @return a Future for the Siri object containing the parsed
+	 *         StopMonRequest response from the server
+	 * @throws RejectedExecutionException
+	 *             if the maximum number of asynchronous requests are already
+	 *             in flight
+	 */
+	public Future<Siri> makeStopMonRequestAsync(StopMonitoringRequest request,
+			SiriResponseListener listener) throws RejectedExecutionException {
+		return submitRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING, listener);
+	}
+
+	/**
+	 * Streaming version of makeStopMonRequest(StopMonitoringRequest). See
+	 * streamStopMonRequest() with positional parameters for details.
+	 * 
+	 * @param request
+	 *            the StopMonitoring request
+	 * @param listener
+	 *            listener that receives each MonitoredStopVisit, on the
+	 *            calling thread
+	 * @return the number of MonitoredStopVisit elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamStopMonRequest(StopMonitoringRequest request,
+			SiriElementListener<MonitoredStopVisit> listener)
+			throws IOException {
+		return streamRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING,
+				SiriStreamingParser.MONITORED_STOP_VISIT,
+				MonitoredStopVisit.class, listener);
+	}
+
+	/**
+	 * Projected streaming version of makeStopMonRequest(StopMonitoringRequest).
+	 * See the projected streamStopMonRequest() with positional parameters for
+	 * details.
+	 * 
+	 * @param request
+	 *            the StopMonitoring request
+	 * @param projection
+	 *            the fields to keep, relative to MonitoredStopVisit
+	 * @param listener
+	 *            listener that receives the fields of each MonitoredStopVisit,
+	 *            on the calling thread
+	 * @return the number of MonitoredStopVisit elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	public int streamStopMonRequest(StopMonitoringRequest request,
+			SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IOException {
+		return streamProjectedRequest(buildUrl(request), request.getDevKey(),
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING,
+				SiriStreamingParser.MONITORED_STOP_VISIT, projection, listener);
+	}
+
+	/**
+	 * Returns the last successful response for a StopMonitoring request,
+	 * without contacting the server.  See getStopMonSnapshot() with positional
+	 * parameters for details.
+	 * 
+	 * @param request
+	 *            the StopMonitoring request
+	 * @return the snapshot, or null if there is no snapshot store or no
+	 *         snapshot for the request
+	 */
+	public SiriSnapshot getStopMonSnapshot(StopMonitoringRequest request) {
+		SiriSnapshotStore store = snapshotStore;
+		if (store == null) {
+			return null;
+		}
+		return store.get(getSnapshotKey(buildUrl(request)));
+	}
+
+	/**
+	 * Builds the URL for a SIRI StopMonitoring request.  See makeStopMonRequest() for
+	 * parameter details.
+	 * 
+	 * @return the URL for a SIRI StopMonitoring request
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 */
+	String buildStopMonUrl(String devKey, String operatorRef,
+			String monitoringRef, String lineRef, int directionRef,
+			String stopMonitoringDetailLevel, int maximumNumberOfCallsOnwards)
+			throws IllegalArgumentException {
+
+		long startTime = System.nanoTime();
+		
+		StopMonitoringRequest request = new StopMonitoringRequest.Builder()
+				.setDevKey(devKey).setOperatorRef(operatorRef)
+				.setMonitoringRef(monitoringRef).setLineRef(lineRef)
+				.setDirectionRef(directionRef)
+				.setStopMonitoringDetailLevel(stopMonitoringDetailLevel)
+				.setMaximumNumberOfCallsOnwards(maximumNumberOfCallsOnwards)
+				.build();
+		
+		return buildUrl(request, startTime);
+	}
+
+	/**
+	 * Returns the URL for a request with this client's base URLs and response
+	 * type.  The URL is kept by the request object, so a request that is
+	 * polled repeatedly returns the same URL String (with its hash code
+	 * already computed) for the response cache, request coalescing, and the
+	 * snapshot store.
+	 * 
+	 * @param request
+	 *            the request
+	 * @return the URL for the request
+	 */
+	String buildUrl(SiriMonitoringRequest request) {
+		return buildUrl(request, System.nanoTime());
+	}
+
+	/**
+	 * Returns the URL for a request, recording the time since startTime as the
+	 * URL build time
+	 */
+	private String buildUrl(SiriMonitoringRequest request, long startTime) {
+		int endpoint = request.getEndpoint();
+		String baseUrl = endpoint == SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING ? vehMonBaseUrl
+				: stopMonBaseUrl;
+		
+		String url = request.getUrl(baseUrl, getResponseTypeFileExtension());
+		
+		metrics.recordLatency(endpoint, config.getResponseType(),
+				SiriRequestMetrics.PHASE_URL_BUILD, System.nanoTime() - startTime);
+		
+		return url;
+	}
+
+	/**
+	 * Utility method that takes in a URL string and cleans it up
+	 * 
+	 * @param url url to be cleaned
+	 * @return clean URL
+	 * @deprecated Request URLs are percent-encoded by VehicleMonitoringRequest
+	 *             and StopMonitoringRequest, and the URL they produce is the
+	 *             key for the response cache, request coalescing, and the
+	 *             snapshot store, so this is no longer needed
+	 */
+	@Deprecated
+	public String cleanUpUrl(String url){
+		String cleanUrl = url;
+		
+		//If there is a trailing '&' left over from concatination of variables, remove it
+		 if (url.charAt(url.length()-1)=='&'){
+			 cleanUrl = url.substring(0, url.length()-1);
+		 }
+		 
+		 //Replace any spaces with equivalent characters
+		 cleanUrl = cleanUrl.replace(" ", "%20");
+		 
+		 return cleanUrl;
+	}
+	
+	/**
+	 * Utility method that returns the file extension (e.g., JSON or XML) based
+	 * on response type
+	 * 
+	 * @return "json" if request is JSON, "xml" if request type is XML,
+	 *         "smile" if request type is Smile, or "cbor" if request type is
+	 *         CBOR
+	 */
+	private String getResponseTypeFileExtension() {
+		switch (config.getResponseType()) {
+		case SiriRestClientConfig.RESPONSE_TYPE_JSON:
+			return "json";
+		case SiriRestClientConfig.RESPONSE_TYPE_XML:
+			return "xml";
+		case SiriRestClientConfig.RESPONSE_TYPE_SMILE:
+			return "smile";
+		case SiriRestClientConfig.RESPONSE_TYPE_CBOR:
+			return "cbor";
+		default:
+			return ""; // should never happen
+		}
+	}
+
+	/**
+	 * Internal method to make actual request to server
+	 * 
+	 * @param full
+	 *            url for a JSON or XML request to the server (e.g.,
+	 *            http://bustime
+	 *            .mta.info/api/siri/vehicle-monitoring.json?OperatorRef
+	 *            =MT%20A%20NYCT&DirectionRef=0&LineRef=MTA%20NYCT_S40&)
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @return the parsed response, or null if there was an error
+	 */
+	private Siri makeRequest(String urlString, String devKey, int endpoint) {
+		try {
+			return executeRequest(urlString, devKey, endpoint);
+		} catch (IOException e) {
+			Log.e(TAG, "Error fetching JSON or XML: " + e);
+			e.printStackTrace();
+			//Reset benchmark to show there was an error
+			lastRequestTime = 0;
+			return null;
+		}
+	}
+
+	/**
+	 * Internal method to make actual request to server, which passes any
+	 * errors on to the caller
+	 * 
+	 * @param full
+	 *            url for a JSON or XML request to the server
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @return the parsed response
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	Siri executeRequest(final String urlString, final String devKey,
+			final int endpoint)
+			throws IOException {
+		if (!config.isRequestCoalescingEnabled()) {
+			return fetchWithRetries(urlString, devKey, endpoint);
+		}
+
+		/*
+		 * If an identical request is already in flight (e.g., several
+		 * components polling the same stop), wait for it and share its
+		 * parsed response rather than downloading and parsing it again. The
+		 * URL is the one encoded by the request object, so it includes the
+		 * response type and every request parameter.
+		 */
+		return coalescer.execute(urlString, new Callable<Siri>() {
+			public Siri call() throws IOException {
+				return fetchWithRetries(urlString, devKey, endpoint);
+			}
+		});
+	}
+
+	/**
+	 * Fetches and parses the response for a single request, using the
+	 * response cache if it's enabled, and retrying it after an exponential
+	 * backoff with jitter if it fails and retries are enabled. Each attempt
+	 * goes through the circuit breaker for the endpoint, if it's enabled.
+	 * 
+	 * @param full
+	 *            url for a JSON or XML request to the server
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @return the parsed response
+	 * @throws IOException
+	 *             if the last attempt failed, the request failed with an
+	 *             error that isn't worth retrying, or the circuit breaker is
+	 *             open and there is no cached response to fall back on
+	 */
+	private Siri fetchWithRetries(String urlString, String devKey,
+			int endpoint)
+			throws IOException {
+		if (config.isResponseCacheEnabled()) {
+			Siri cached = getResponseCache().getFresh(urlString,
+					System.currentTimeMillis());
+			if (cached != null) {
+				// Still valid, so we don't need to contact the server
+				Log.d(TAG, "Using cached response for " + urlString);
+				return cached;
+			}
+		}
+		
+		SiriCircuitBreaker breaker = getCircuitBreaker(endpoint);
+		int maxRetries = config.getMaxRetries();
+		for (int retry = 0;; retry++) {
+			long token = 0;
+			if (breaker != null) {
+				token = breaker.tryAcquirePermission();
+				if (token == -1) {
+					return getCircuitOpenFallback(breaker, urlString, endpoint);
+				}
+			}
+			
+			try {
+				acquireRateLimit(urlString, devKey, endpoint);
+			} catch (IOException e) {
+				// Never sent, so it says nothing about the server
+				if (breaker != null) {
+					breaker.releasePermission(token);
+				}
+				throw e;
+			}
+			
+			long startTime = System.nanoTime();
+			try {
+				Siri s = fetchHedged(urlString, devKey, endpoint);
+				if (breaker != null) {
+					breaker.onSuccess(token, System.nanoTime() - startTime);
+				}
+				return s;
+			} catch (IOException e) {
+				if (breaker != null) {
+					recordCircuitBreakerFailure(breaker, token, e,
+							System.nanoTime() - startTime);
+				}
+				if (retry >= maxRetries || !isRetryable(e)) {
+					throw e;
+				}
+				
+				long backoff = getRetryBackoff(retry);
+				metrics.recordRetry(endpoint, config.getResponseType());
+				Log.d(TAG, "Request failed (" + e + "), retry " + (retry + 1)
+						+ " of " + maxRetries + " in " + backoff + " ms");
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					// Cancelled while waiting to retry
+					Thread.currentThread().interrupt();
+					InterruptedIOException iioe = new InterruptedIOException(
+							"Request cancelled: " + urlString);
+					iioe.initCause(e);
+					throw iioe;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for a token from the rate limiter for the developer key
+	 * and the endpoint, if rate limiting is enabled
+	 * 
+	 * @param urlString
+	 *            full URL of the request
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @throws SiriRateLimitException
+	 *             if the request is over the rate limit and must not be sent
+	 * @throws InterruptedIOException
+	 *             if the request was cancelled while waiting
+	 */
+	private void acquireRateLimit(String urlString, String devKey,
+			int endpoint)
+			throws IOException {
+		if (!config.isRateLimitEnabled()) {
+			return;
+		}
+		SiriRateLimiter limiter = getRateLimiter(devKey, endpoint);
+		int format = config.getResponseType();
+		
+		long wait = limiter.reserve();
+		if (wait < 0) {
+			metrics.recordRateLimited(endpoint, format);
+			throw new SiriRateLimitException(urlString,
+					limiter.getTimeUntilToken() / 1000000L);
+		}
+		metrics.recordLatency(endpoint, format,
+				SiriRequestMetrics.PHASE_RATE_LIMIT_WAIT, wait);
+		if (wait == 0) {
+			return;
+		}
+		
+		Log.d(TAG, "Rate limit reached, waiting " + (wait / 1000000L)
+				+ " ms for " + urlString);
+		metrics.addRateLimitQueueLength(endpoint, format, 1);
+		try {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		} catch (InterruptedException e) {
+			// Cancelled while waiting, so the token can go to someone else
+			limiter.release();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request cancelled: " + urlString);
+		} finally {
+			metrics.addRateLimitQueueLength(endpoint, format, -1);
+		}
+	}
+	
+	/**
+	 * Records a failed request with a circuit breaker. Only failures that
+	 * point to a problem with the server count as failures - a 404 Not Found
+	 * or a response that couldn't be parsed still means the server answered,
+	 * and a cancelled request says nothing about the server.
+	 */
+	private static void recordCircuitBreakerFailure(SiriCircuitBreaker breaker,
+			long token, IOException e, long duration) {
+		if (e instanceof FileNotFoundException
+				|| e instanceof JsonProcessingException) {
+			breaker.onSuccess(token, duration);
+		} else if (e instanceof InterruptedIOException
+				&& !(e instanceof SocketTimeoutException)) {
+			breaker.releasePermission(token);
+		} else {
+			breaker.onError(token, duration);
+		}
+	}
+
+	/**
+	 * Returns the last cached response for a request rejected by an open
+	 * circuit breaker, even if it has expired - from the response cache if
+	 * it's enabled, or else from the snapshot store
+	 * 
+	 * @throws SiriCircuitOpenException
+	 *             if the fallback is disabled, or there is no cached response
+	 *             for the URL
+	 */
+	private Siri getCircuitOpenFallback(SiriCircuitBreaker breaker,
+			String urlString, int endpoint) throws SiriCircuitOpenException {
+		metrics.recordShortCircuit(endpoint, config.getResponseType());
+		
+		if (config.isCircuitBreakerFallbackEnabled()) {
+			if (config.isResponseCacheEnabled()) {
+				SiriCacheEntry entry = getResponseCache().getEntry(urlString);
+				if (entry != null) {
+					Log.d(TAG, "Circuit breaker open, using expired cached response for "
+							+ urlString);
+					return entry.getSiri();
+				}
+			}
+			SiriSnapshotStore store = snapshotStore;
+			if (store != null) {
+				SiriSnapshot snapshot = store.get(getSnapshotKey(urlString));
+				if (snapshot != null) {
+					Log.d(TAG, "Circuit breaker open, using snapshot for "
+							+ urlString);
+					return snapshot.getSiri();
+				}
+			}
+		}
+		throw new SiriCircuitOpenException(breaker.getBaseUrl(), urlString);
+	}
+
+	/**
+	 * Returns the time to wait before a retry - the initial backoff, doubled
+	 * for each earlier retry up to the maximum backoff, and then reduced by a
+	 * random amount up to the jitter percentage
+	 * 
+	 * @param retry
+	 *            number of retries already made for the request
+	 * @return the time (in milliseconds) to wait before the retry
+	 */
+	long getRetryBackoff(int retry) {
+		long maxBackoff = config.getRetryMaxBackoff();
+		long backoff = config.getRetryInitialBackoff();
+		for (int i = 0; i < retry && backoff < maxBackoff; i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, maxBackoff);
+		
+		double jitter = config.getRetryJitterPercent() / 100.0;
+		double random;
+		synchronized (retryRandom) {
+			random = retryRandom.nextDouble();
+		}
+		return (long) (backoff * (1 - jitter * random));
+	}
+
+	/**
+	 * Returns true if a request that failed with the given exception may
+	 * succeed if it's tried again. Cancelled requests, 404 Not Found responses,
+	 * and responses that couldn't be parsed aren't retried.
+	 * 
+	 * @param e
+	 *            exception the request failed with
+	 * @return true if the request should be retried
+	 */
+	static boolean isRetryable(IOException e) {
+		if (Thread.currentThread().isInterrupted()) {
+			return false;
+		}
+		if (e instanceof SocketTimeoutException) {
+			return true;
 		}
-
-		if (!operatorRef.equals("")) {
-			sb.append("OperatorRef=" + operatorRef + "&");
-		} else {
-			throw new IllegalArgumentException(
-					"OperatorRef is a required paramater and cannot be an emptry string");
+		if (e instanceof InterruptedIOException
+				|| e instanceof SiriRateLimitException
+				|| e instanceof FileNotFoundException
+				|| e instanceof JsonProcessingException) {
+			return false;
 		}
+		return true;
+	}
 
-		if (!monitoringRef.equals("")) {
-			sb.append("MonitoringRef=" + monitoringRef + "&");
-		} else {
-			throw new IllegalArgumentException(
-					"MonitoringRef is a required paramater and cannot be an emptry string");
+	/**
+	 * Fetches and parses the response for a single request. If hedging is
+	 * enabled and the request takes longer than the hedging percentile of
+	 * recent request times, a second identical request is sent, and whichever
+	 * response arrives first is returned.
+	 * 
+	 * @param full
+	 *            url for a JSON or XML request to the server
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @return the parsed response
+	 * @throws IOException
+	 *             if the request (and the hedged request, if one was sent)
+	 *             failed or the response couldn't be parsed
+	 */
+	private Siri fetchHedged(final String urlString,
+			final String devKey, final int endpoint)
+			throws IOException {
+		int format = config.getResponseType();
+		if (!config.isHedgingEnabled()) {
+			return fetchRequest(urlString, endpoint);
 		}
-
-		if (!lineRef.equals("")) {
-			sb.append("LineRef=" + lineRef + "&");
+		SiriLatencyHistogram totalTimes = metrics.getHistogram(endpoint,
+				format, SiriRequestMetrics.PHASE_TOTAL);
+		if (totalTimes == null || totalTimes.getCount() < HEDGING_MIN_SAMPLES) {
+			return fetchRequest(urlString, endpoint);
 		}
-
-		if (directionRef != -1) {
-			if (directionRef == 0 || directionRef == 1) {
-				sb.append("DirectionRef=" + directionRef + "&");
-			} else {
-				throw new IllegalArgumentException(
-						"DirectionRef must be 0 or 1, or -1 if not to be used");
-			}
+		
+		long hedgingDelay = Math.max(config.getMinHedgingDelay(),
+				metrics.getLatencyAtPercentile(endpoint, format,
+						SiriRequestMetrics.PHASE_TOTAL,
+						config.getHedgingPercentile()) / 1000);
+		
+		CompletionService<Siri> completion = new ExecutorCompletionService<Siri>(
+				getHedgingExecutor());
+		HedgedFetch firstFetch = new HedgedFetch(urlString, endpoint);
+		Future<Siri> first;
+		try {
+			first = completion.submit(firstFetch);
+		} catch (RejectedExecutionException e) {
+			// Too many hedged requests in flight already, so don't hedge this one
+			return fetchRequest(urlString, endpoint);
 		}
-
-		if (!stopMonitoringDetailLevel.equals("")) {
-			if (stopMonitoringDetailLevel.equalsIgnoreCase("calls")
-					|| stopMonitoringDetailLevel.equalsIgnoreCase("normal")) {
-				sb.append("StopMonitoringDetailLevel="
-						+ stopMonitoringDetailLevel + "&");
-			} else {
-				throw new IllegalArgumentException(
-						"StopMonitoringDetailLevel must be 'calls' or 'normal'");
+		HedgedFetch hedgeFetch = null;
+		Future<Siri> hedge = null;
+		try {
+			Future<Siri> done = completion.poll(hedgingDelay,
+					TimeUnit.MILLISECONDS);
+			if (done == null) {
+				// Slower than most recent requests, so send a second one, as
+				// long as it fits in the rate limit without waiting
+				SiriRateLimiter limiter = getRateLimiter(devKey, endpoint);
+				if (limiter == null || limiter.tryAcquire()) {
+					hedgeFetch = new HedgedFetch(urlString, endpoint);
+					try {
+						hedge = completion.submit(hedgeFetch);
+						metrics.recordHedge(endpoint, format);
+						Log.d(TAG, "No response after " + hedgingDelay
+								+ " ms, sending hedged request");
+					} catch (RejectedExecutionException e) {
+						// No thread free for it, so give back the token
+						hedgeFetch = null;
+						if (limiter != null) {
+							limiter.release();
+						}
+					}
+				}
+				done = completion.take();
 			}
-		} else {
-			// Set default
-			sb.append("StopMonitoringDetailLevel=normal");
-		}
-
-		if (maximumNumberOfCallsOnwards != -1) {
-			if (maximumNumberOfCallsOnwards >= 1) {
-				sb.append("MaximumNumberOfCallsOnwards="
-						+ maximumNumberOfCallsOnwards + "&");
-			} else {
-				throw new IllegalArgumentException(
-						"MaximumNumberOfCallsOnwards must be 1 or greater, or -1 if not to be used");
+			
+			try {
+				Siri s = done.get();
+				if (done == hedge) {
+					metrics.recordHedgeWin(endpoint, format);
+				}
+				return s;
+			} catch (ExecutionException e) {
+				if (hedge == null) {
+					throw e;
+				}
+				// One of them failed, so wait for the other
+				done = completion.take();
+				Siri s = done.get();
+				if (done == hedge) {
+					metrics.recordHedgeWin(endpoint, format);
+				}
+				return s;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request cancelled: " + urlString);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			IOException ioe = new IOException("Request failed: " + cause);
+			ioe.initCause(cause);
+			throw ioe;
+		} finally {
+			// Stop whichever request is still running.  Interrupting it
+			// doesn't stop a blocking socket read, so close its connection.
+			first.cancel(true);
+			firstFetch.abort();
+			if (hedge != null) {
+				hedge.cancel(true);
+				hedgeFetch.abort();
 			}
 		}
-
-		//Clean up string to create final URL
-		String url = cleanUpUrl(sb.toString());
-
-		// Make actual HTTP call to server using parameters string we just
-		// built, pre-fixed with the base URL and correct response type
-		// extension
-		return makeRequest(url); 
 	}
 
 	/**
-	 * Utility method that takes in a URL string and cleans it up
-	 * 
-	 * @param url url to be cleaned
-	 * @return clean URL
+	 * One copy of a hedged request, which can be stopped by closing its
+	 * connection once the other copy has finished.  With the Jackson HTTP
+	 * connection the client never sees the connection, so the request runs
+	 * until it finishes or times out.
 	 */
-	public String cleanUpUrl(String url){
-		String cleanUrl = url;
-		
-		//If there is a trailing '&' left over from concatination of variables, remove it
-		 if (url.charAt(url.length()-1)=='&'){
-			 cleanUrl = url.substring(0, url.length()-1);
-		 }
-		 
-		 //Replace any spaces with equivalent characters
-		 cleanUrl = cleanUrl.replace(" ", "%20");
-		 
-		 return cleanUrl;
+	private class HedgedFetch implements Callable<Siri> {
+
+		private final String urlString;
+		private final int endpoint;
+
+		private final SiriAbortHandle abortHandle = new SiriAbortHandle();
+
+		HedgedFetch(String urlString, int endpoint) {
+			this.urlString = urlString;
+			this.endpoint = endpoint;
+		}
+
+		public Siri call() throws IOException {
+			return fetchRequest(urlString, endpoint, abortHandle);
+		}
+
+		/**
+		 * Closes the connection of this request, if it's open, or makes the
+		 * request stop as soon as it opens one
+		 */
+		void abort() {
+			abortHandle.abort();
+		}
 	}
-	
+
 	/**
-	 * Utility method that returns the file extension (e.g., JSON or XML) based
-	 * on response type
+	 * Fetches and parses the response for a single request, sending
+	 * validators for an expired cached response if the response cache is
+	 * enabled
 	 * 
-	 * @return "json" if request is JSON, or "xml" if request type is XML
+	 * @param full
+	 *            url for a JSON or XML request to the server
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @return the parsed response
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
 	 */
-	private String getResponseTypeFileExtension() {
-		switch (config.getResponseType()) {
-		case SiriRestClientConfig.RESPONSE_TYPE_JSON:
-			return "json";
-		case SiriRestClientConfig.RESPONSE_TYPE_XML:
-			return "xml";
-		default:
-			return ""; // should never happen
-		}
+	private Siri fetchRequest(String urlString, int endpoint) throws IOException {
+		return fetchRequest(urlString, endpoint, null);
 	}
 
 	/**
-	 * Internal method to make actual request to server
+	 * Fetches and parses the response for a single request, as
+	 * fetchRequest(String, int)
 	 * 
 	 * @param full
-	 *            url for a JSON or XML request to the server (e.g.,
-	 *            http://bustime
-	 *            .mta.info/api/siri/vehicle-monitoring.json?OperatorRef
-	 *            =MT%20A%20NYCT&DirectionRef=0&LineRef=MTA%20NYCT_S40&)
+	 *            url for a JSON or XML request to the server
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @param abortHandle handle that lets another thread abort the request,
+	 *            or null
+	 * @return the parsed response
+	 * @throws IOException
+	 *             if the request failed, was aborted, or the response
+	 *             couldn't be parsed
 	 */
 	@SuppressWarnings({ "deprecation" })
-	private Siri makeRequest(String urlString) {
+	private Siri fetchRequest(String urlString, int endpoint,
+			SiriAbortHandle abortHandle) throws IOException {
 
 		Siri s = null;
 
 		URL url = null;
 
-		HttpURLConnection urlConnection = null;
+		SiriHttpResponse response = null;
+		
+		CountingInputStream receivedStream = null;
+		
+		InputStream responseStream = null;
+		
+		// Whole response body, if response buffering is enabled
+		SiriResponseBuffer body = null;
+		
+		int format = config.getResponseType();
+		
+		long requestStartTime = 0;
+		long parseStartTime = 0;
+		long parseEndTime = 0;
+
+		if (Thread.currentThread().isInterrupted()) {
+			// An asynchronous request was cancelled before it got started
+			throw new InterruptedIOException("Request cancelled: " + urlString);
+		}
+		
+		SiriResponseCache cache = null;
+		SiriCacheEntry cacheEntry = null;
+		
+		if (config.isResponseCacheEnabled()) {
+			cache = getResponseCache();
+			
+			// Expired entry that may be revalidated with a conditional GET
+			cacheEntry = cache.getEntry(urlString);
+			if (cacheEntry != null && !cacheEntry.hasValidator()) {
+				cacheEntry = null;
+			}
+		}
+
+		metrics.recordRequest(endpoint, format);
 
 		try {
 
@@ -379,7 +2209,7 @@ public class SiriRestClient {
 			 * for 1) requesting JSON or XML data from a server and 2) parsing the 
 			 * response into a Siri object via Jackson data binding.
 			 *  
-			 *  For "#1 - Requesting Data", there are two options:
+			 *  For "#1 - Requesting Data", there are three options:
 			 *  	a. Use embedded Jackson HTTP connection - simply pass the URL into
 			 *  	   the Jackson object (e.g., ObjectMapper, ObjectReader, or XmlMapper)
 			 *  	   and Jackson handles establishing an HTTP connection and retrieving
@@ -397,6 +2227,10 @@ public class SiriRestClient {
 			 *         2.1 Jackson seems to just use the default FileInputStream connection
 			 *         (http://goo.gl/zm7Hs) from the normal Java platform, so it would seem
 			 *         that the Android HttpURLConnection would be more efficient.  
+			 *      c. Use a pooled keep-alive connection - the SiriConnectionPool in this
+			 *         project keeps idle connections open and reuses them for the next
+			 *         request to the same host, so repeated polling of the same server
+			 *         doesn't pay for a new TCP/TLS handshake every time.
 			 *  
 			 * For "#2 - Parsing Response", there are two options for Jackson objects that can
 			 * be used when parsing JSON:
@@ -430,6 +2264,36 @@ public class SiriRestClient {
 			 *  XML - Android HttpURLConnection + XmlMapper
 			 */
 
+			/*
+			 * For the Android HttpURLConnection and pooled keep-alive connection,
+			 * we open the connection ourselves, so we can send validators for a 
+			 * cached response and check the status code before parsing.
+			 */
+			if (config.getHttpConnectionType() != SiriRestClientConfig.HTTP_CONNECTION_TYPE_JACKSON) {
+				requestStartTime= System.nanoTime();
+				response = openResponse(url, cacheEntry, endpoint, abortHandle);
+				
+				if (cacheEntry != null && response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					// Server says our cached response is still current, so skip parsing
+					lastRequestTime = System.nanoTime() - requestStartTime;
+					metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_TOTAL,
+							lastRequestTime);
+					cache.revalidated(cacheEntry, System.currentTimeMillis());
+					Log.d(TAG, "Response not modified, using cached response");
+					return cacheEntry.getSiri();
+				}
+				
+				// Count bytes on the wire and after decompression, if the response is compressed
+				receivedStream = new CountingInputStream(response.getInputStream(), bytesReceived);
+				responseStream = getResponseStream(response, receivedStream);
+				parseStartTime= System.nanoTime();
+				
+				if (config.isResponseBufferingEnabled()) {
+					// Read the whole body into a reusable buffer, and parse it from the byte[] below
+					body = getBufferPool().readFully(responseStream, getContentLength(response));
+				}
+			}
+
 			switch (config.getResponseType()) {
 
 			case SiriRestClientConfig.RESPONSE_TYPE_JSON:
@@ -455,9 +2319,9 @@ public class SiriRestClient {
 						Log.d(TAG,
 								"Using "+ getResponseTypeFileExtension().toUpperCase() + ", ObjectReader Jackson parser, Jackson HTTP Connection");
 						requestStartTime= System.nanoTime();
-						s = SiriJacksonConfig.getObjectReaderInstance()
+						parseStartTime= requestStartTime;
+						s = readers.getObjectReader()
 								.readValue(url);
-						requestEndTime= System.nanoTime();
 					} else {
 						/* Use ObjectMapper, read from URL directly
 						 * ObjectReader should be more efficient than the ObjectMapper.  
@@ -466,52 +2330,49 @@ public class SiriRestClient {
 						Log.v(TAG,
 								"Using "+ getResponseTypeFileExtension().toUpperCase() + ", ObjectMapper Jackson parser, Jackson HTTP Connection");
 						requestStartTime= System.nanoTime();
-						s = SiriJacksonConfig.getObjectMapperInstance()
+						parseStartTime= requestStartTime;
+						s = readers.getObjectMapper()
 								.readValue(url, Siri.class);
-						requestEndTime= System.nanoTime();
 					}
 				} else {
 					/**
-					 * Use Android HttpURLConnection for below two options
+					 * Use Android HttpURLConnection or pooled keep-alive connection
+					 * (opened above) for below two options
 					 */
 					if (config.getJacksonObjectType() == SiriRestClientConfig.JACKSON_OBJECT_TYPE_READER) {
 						/*
-						 *  Use ObjectReader with Android HttpURLConnection
+						 *  Use ObjectReader with Android HttpURLConnection or pooled connection
 						 *  
 						 *  From our analysis of both Android and Jackson docs,
-						 *  this should be the most efficient of the 4 JSON combinations.
+						 *  this should be the most efficient of the 4 JSON combinations
+						 *  that use the Android HttpURLConnection.
 						 */
 						Log.v(TAG,
-								"Using "+ getResponseTypeFileExtension().toUpperCase() + ", ObjectReader Jackson parser, Android HttpURLConnection");
-						requestStartTime= System.nanoTime();
-						// Use Android HttpURLConnection - this should be more efficient than internal JSON HTTP connection
-						urlConnection = (HttpURLConnection) url.openConnection();
-						
-						s = SiriJacksonConfig.getObjectReaderInstance()
-								.readValue(urlConnection.getInputStream());
-						requestEndTime= System.nanoTime();
+								"Using "+ getResponseTypeFileExtension().toUpperCase() + ", ObjectReader Jackson parser, " + getHttpConnectionTypeName());
+						s = body != null ? readers.getObjectReader().<Siri> readValue(
+								body.getArray(), 0, body.getLength()) : readers
+								.getObjectReader().<Siri> readValue(responseStream);
 					} else {
-						/* Use ObjectMapper with Android HttpURLConnection
+						/* Use ObjectMapper with Android HttpURLConnection or pooled connection
 						 * 
 						 * According to Jackson Best Practices (http://wiki.fasterxml.com/JacksonBestPracticesPerformance),
 						 * the ObjectReader should be more efficient than the ObjectMapper.  So, we include this only for
 						 * performance benchmarking tests.
 						 */
 						Log.v(TAG,
-								"Using "+ getResponseTypeFileExtension().toUpperCase() + ", ObjectMapper Jackson parser, Android HttpURLConnection");
-						requestStartTime= System.nanoTime();
-						// Use Android HttpURLConnection - this should be more efficient than internal JSON HTTP connection
-						urlConnection = (HttpURLConnection) url.openConnection();
-						s = SiriJacksonConfig.getObjectMapperInstance()
-								.readValue(urlConnection.getInputStream(),
-										Siri.class);
-						requestEndTime= System.nanoTime();
+								"Using "+ getResponseTypeFileExtension().toUpperCase() + ", ObjectMapper Jackson parser, " + getHttpConnectionTypeName());
+						s = body != null ? readers.getObjectMapper().readValue(
+								body.getArray(), 0, body.getLength(), Siri.class)
+								: readers.getObjectMapper().readValue(
+										responseStream, Siri.class);
 					}
 				}
 				
+				parseEndTime= System.nanoTime();
+				
 				//Write the object that was just used for JSON parsing to the cache, to reduce cold-start times in future runs
 				
-				if(SiriJacksonConfig.isUsingCache()){
+				if(isUsingJacksonCache()){
 					if(config.getJacksonObjectType() == SiriRestClientConfig.JACKSON_OBJECT_TYPE_READER){
 						SiriJacksonConfig.forceCacheWrite(SiriJacksonConfig.getObjectReaderInstance());
 					}else{
@@ -534,49 +2395,518 @@ public class SiriRestClient {
 					
 					// Parse the SIRI XML response					
 					requestStartTime= System.nanoTime();
-					s = SiriJacksonConfig.getXmlMapperInstance().readValue(url,
+					parseStartTime= requestStartTime;
+					s = readers.getXmlMapper().readValue(url,
 							Siri.class);
-					requestEndTime= System.nanoTime();
 
 				} else {
 					/*
-					 *  Use Android HttpURLConnection.  Android docs say this is best, but
-					 *  Jackson Best Practices says integrated HTTP connection is better for normal Java platform.
+					 *  Use Android HttpURLConnection or pooled connection (opened above).  Android docs say 
+					 *  HttpURLConnection is best, but Jackson Best Practices says integrated HTTP connection 
+					 *  is better for normal Java platform.
 					 */
 					Log.v(TAG,
-							"Using "+ getResponseTypeFileExtension().toUpperCase() + ", Android HttpURLConnection");
-					requestStartTime= System.nanoTime();
-					// Use Android HttpURLConnection
-					urlConnection = (HttpURLConnection) url.openConnection();
+							"Using "+ getResponseTypeFileExtension().toUpperCase() + ", " + getHttpConnectionTypeName());
 
 					// Parse the SIRI XML response					
-					s = SiriJacksonConfig.getXmlMapperInstance().readValue(
-							urlConnection.getInputStream(), Siri.class);
-					requestEndTime= System.nanoTime();
+					s = body != null ? readers.getXmlMapper().readValue(
+							body.getArray(), 0, body.getLength(), Siri.class)
+							: readers.getXmlMapper().readValue(responseStream,
+									Siri.class);
 				}
 				
-				if(SiriJacksonConfig.isUsingCache()){
+				parseEndTime= System.nanoTime();
+				
+				if(isUsingJacksonCache()){
 					SiriJacksonConfig.forceCacheWrite(SiriJacksonConfig.getXmlMapperInstance());
 				}
 
 				break;
+				
+			case SiriRestClientConfig.RESPONSE_TYPE_SMILE:
+			case SiriRestClientConfig.RESPONSE_TYPE_CBOR:
+				/*
+				 * Smile or CBOR - binary encodings of the same data model as the
+				 * JSON response, parsed with an ObjectMapper that has the same 
+				 * configuration as the JSON ObjectMapper.  No text to tokenize, and 
+				 * the payload is smaller, so there's less to download and parse.
+				 */
+				ObjectMapper binaryMapper = getBinaryMapper();
+				if (config.getHttpConnectionType() == SiriRestClientConfig.HTTP_CONNECTION_TYPE_JACKSON) {
+					Log.v(TAG,
+							"Using "+ getResponseTypeFileExtension().toUpperCase() + ", Jackson HTTP Connection");
+					requestStartTime= System.nanoTime();
+					parseStartTime= requestStartTime;
+					s = binaryMapper.readValue(url, Siri.class);
+				} else {
+					Log.v(TAG,
+							"Using "+ getResponseTypeFileExtension().toUpperCase() + ", " + getHttpConnectionTypeName());
+					s = body != null ? binaryMapper.readValue(body.getArray(),
+							0, body.getLength(), Siri.class) : binaryMapper
+							.readValue(responseStream, Siri.class);
+				}
+				
+				// The binary mappers aren't kept in the Jackson object cache
+				parseEndTime= System.nanoTime();
+				
+				break;
+			}
+			
+			if (cache != null && s != null) {
+				// Keep the parsed response, along with any validators for a later conditional GET
+				cache.put(urlString, s,
+						response != null ? response.getHeader("ETag") : null,
+						response != null ? response.getHeader("Last-Modified") : null,
+						System.currentTimeMillis());
+			}
+			
+			SiriSnapshotStore store = snapshotStore;
+			if (store != null && s != null) {
+				// Keep it as the last good response, written in the background
+				store.put(getSnapshotKey(urlString), s);
+			}
+			
+			lastRequestTime = parseEndTime - requestStartTime;
+			
+			metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_PARSE,
+					parseEndTime - parseStartTime);
+			if (cache != null || isUsingJacksonCache()) {
+				metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_CACHE_WRITE,
+						System.nanoTime() - parseEndTime);
+			}
+			if (requestStartTime != 0) {
+				metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_TOTAL,
+						System.nanoTime() - requestStartTime);
 			}
 
 		} catch (IOException e) {
-			Log.e(TAG, "Error fetching JSON or XML: " + e);
-			e.printStackTrace();
-			//Reset timestamps to show there was an error
-			requestStartTime = 0;
-			requestEndTime = 0;
+			metrics.recordError(endpoint, format);
+			throw e;
+		} catch (RuntimeException e) {
+			metrics.recordError(endpoint, format);
+			throw e;
 		} finally {
-			if (urlConnection != null) {
-				urlConnection.disconnect();
+			if (body != null) {
+				body.release();
+			}
+			if (responseStream != null) {
+				// Frees the Inflater of a compressed response
+				closeQuietly(responseStream);
+			}
+			if (receivedStream != null) {
+				metrics.addBytesReceived(endpoint, format, receivedStream.getCount());
+			}
+			if (response != null) {
+				// Disconnects the HttpURLConnection, or returns the pooled connection to the pool
+				response.close();
 			}
 		}
 
 		return s;
 	}
 
+	/**
+	 * Internal method to make a request to the server and pass each element
+	 * with the given name to the listener as it is parsed
+	 * 
+	 * @param urlString full URL for the request
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @param elementName name of the elements to parse (e.g., "VehicleActivity")
+	 * @param type SIRI POJO class for the elements
+	 * @param listener listener that receives each element
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	private <T> int streamRequest(String urlString, String devKey,
+			int endpoint,
+			final String elementName, final Class<T> type,
+			final SiriElementListener<T> listener) throws IOException {
+		return streamRequest(urlString, devKey, endpoint, new StreamReader() {
+			int read(SiriStreamingParser parser, InputStream in)
+					throws IOException {
+				return parser.readElements(in, elementName, type, listener);
+			}
+		});
+	}
+
+	/**
+	 * Internal method to make a request to the server and pass only the
+	 * projected fields of each element with the given name to the listener as
+	 * it is parsed
+	 * 
+	 * @param urlString full URL for the request
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @param elementName name of the elements to parse (e.g., "VehicleActivity")
+	 * @param projection the fields to keep, relative to the element
+	 * @param listener listener that receives the fields of each element
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	private int streamProjectedRequest(String urlString, String devKey,
+			int endpoint,
+			final String elementName, final SiriProjection projection,
+			final SiriElementListener<Map<String, String>> listener)
+			throws IOException {
+		return streamRequest(urlString, devKey, endpoint, new StreamReader() {
+			int read(SiriStreamingParser parser, InputStream in)
+					throws IOException {
+				return parser.readProjectedElements(in, elementName,
+						projection, listener);
+			}
+		});
+	}
+
+	/**
+	 * Internal method to make a request to the server and parse the response
+	 * stream with the streaming parser for the response type
+	 * 
+	 * @param urlString full URL for the request
+	 * @param devKey developer API key of the request, for the rate limiter
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @param reader parses the response stream
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the request failed or the response couldn't be parsed
+	 */
+	private int streamRequest(String urlString, String devKey, int endpoint,
+			StreamReader reader) throws IOException {
+		URL url = new URL(urlString);
+		Log.d(TAG, "Streaming URL:");
+		Log.d(TAG, url.toString());
+
+		// There's no parsed response to fall back on, so an open breaker
+		// always fails the request
+		SiriCircuitBreaker breaker = getCircuitBreaker(endpoint);
+		long token = 0;
+		if (breaker != null) {
+			token = breaker.tryAcquirePermission();
+			if (token == -1) {
+				metrics.recordShortCircuit(endpoint, config.getResponseType());
+				throw new SiriCircuitOpenException(breaker.getBaseUrl(), urlString);
+			}
+		}
+		
+		try {
+			acquireRateLimit(urlString, devKey, endpoint);
+		} catch (IOException e) {
+			if (breaker != null) {
+				breaker.releasePermission(token);
+			}
+			throw e;
+		}
+
+		int format = config.getResponseType();
+		metrics.recordRequest(endpoint, format);
+		
+		SiriHttpResponse response = null;
+		CountingInputStream receivedStream = null;
+		InputStream responseStream = null;
+		long requestStartTime= System.nanoTime();
+		boolean breakerRecorded = false;
+		try {
+			// Jackson HTTP connection isn't an option here, since we need the stream
+			response = openResponse(url, null, endpoint, null);
+			// Time until the server answered - parsing includes the time spent
+			// in the listener, which says nothing about the server
+			long responseTime = System.nanoTime() - requestStartTime;
+			receivedStream = new CountingInputStream(response.getInputStream(), bytesReceived);
+			
+			responseStream = getResponseStream(response, receivedStream);
+			
+			long parseStartTime= System.nanoTime();
+			int count = reader.read(getStreamingParser(format), responseStream);
+			long parseEndTime= System.nanoTime();
+			
+			lastRequestTime = parseEndTime - requestStartTime;
+			metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_PARSE,
+					parseEndTime - parseStartTime);
+			if (breaker != null) {
+				breaker.onSuccess(token, responseTime);
+				breakerRecorded = true;
+			}
+			return count;
+		} catch (IOException e) {
+			metrics.recordError(endpoint, format);
+			if (breaker != null) {
+				recordCircuitBreakerFailure(breaker, token, e,
+						System.nanoTime() - requestStartTime);
+				breakerRecorded = true;
+			}
+			throw e;
+		} catch (RuntimeException e) {
+			metrics.recordError(endpoint, format);
+			throw e;
+		} finally {
+			if (breaker != null && !breakerRecorded) {
+				// e.g., the listener threw, which says nothing about the server
+				breaker.releasePermission(token);
+			}
+			if (responseStream != null) {
+				closeQuietly(responseStream);
+			}
+			if (receivedStream != null) {
+				metrics.addBytesReceived(endpoint, format, receivedStream.getCount());
+			}
+			if (response != null) {
+				response.close();
+			}
+		}
+	}
+
+	/**
+	 * Parses a response stream with a streaming parser
+	 */
+	private static abstract class StreamReader {
+		abstract int read(SiriStreamingParser parser, InputStream in)
+				throws IOException;
+	}
+
+	/**
+	 * Returns true if the Jackson objects used to parse responses should be
+	 * written to the Jackson object cache.  Only the shared static instances
+	 * from SiriJacksonConfig are cached.
+	 * 
+	 * @return true if the Jackson objects should be written to the cache
+	 */
+	private boolean isUsingJacksonCache() {
+		return readers.isDefault() && SiriJacksonConfig.isUsingCache();
+	}
+
+	/**
+	 * Returns the streaming parser for the given response type, creating it if
+	 * necessary
+	 * 
+	 * @param responseType
+	 *            RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML,
+	 *            RESPONSE_TYPE_SMILE for Smile, RESPONSE_TYPE_CBOR for CBOR
+	 * @return the streaming parser for the response type
+	 */
+	private synchronized SiriStreamingParser getStreamingParser(int responseType) {
+		switch (responseType) {
+		case SiriRestClientConfig.RESPONSE_TYPE_JSON:
+			if (jsonStreamingParser == null) {
+				jsonStreamingParser = new SiriStreamingParser(
+						readers.getObjectMapper());
+			}
+			return jsonStreamingParser;
+		case SiriRestClientConfig.RESPONSE_TYPE_XML:
+			if (xmlStreamingParser == null) {
+				// XmlMapper parser walks the Aalto StAX stream incrementally
+				xmlStreamingParser = new SiriStreamingParser(
+						readers.getXmlMapper());
+			}
+			return xmlStreamingParser;
+		case SiriRestClientConfig.RESPONSE_TYPE_SMILE:
+			if (smileStreamingParser == null) {
+				smileStreamingParser = new SiriStreamingParser(
+						readers.getSmileMapper());
+			}
+			return smileStreamingParser;
+		case SiriRestClientConfig.RESPONSE_TYPE_CBOR:
+			if (cborStreamingParser == null) {
+				cborStreamingParser = new SiriStreamingParser(
+						readers.getCborMapper());
+			}
+			return cborStreamingParser;
+		default:
+			throw new IllegalStateException("Unsupported response type: " + responseType);
+		}
+	}
+
+	/**
+	 * Returns the ObjectMapper for the configured binary response type
+	 * 
+	 * @return the Smile ObjectMapper if the response type is
+	 *         RESPONSE_TYPE_SMILE, otherwise the CBOR ObjectMapper
+	 */
+	private ObjectMapper getBinaryMapper() {
+		if (config.getResponseType() == SiriRestClientConfig.RESPONSE_TYPE_SMILE) {
+			return readers.getSmileMapper();
+		}
+		return readers.getCborMapper();
+	}
+
+	/**
+	 * Opens a connection using the Android HttpURLConnection or the pooled
+	 * keep-alive connection, depending on the config. If a cached entry is
+	 * given, its validators are sent so the server can answer 304 Not Modified.
+	 * 
+	 * The time taken to connect and to receive the response headers are
+	 * recorded in the metrics.
+	 * 
+	 * @param url URL to request
+	 * @param cacheEntry expired cache entry to revalidate, or null
+	 * @param endpoint SiriRequestMetrics.ENDPOINT_* that the URL is for
+	 * @param abortHandle handle that is given the connection so another
+	 *            thread can abort the request, or null
+	 * @return the response from the server
+	 * @throws IOException
+	 */
+	private SiriHttpResponse openResponse(URL url, SiriCacheEntry cacheEntry,
+			int endpoint, SiriAbortHandle abortHandle) throws IOException {
+		Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+		
+		if (config.isCompressionEnabled()) {
+			/*
+			 * Ask for a compressed response.  Note that setting this header
+			 * ourselves turns off the transparent gzip support in the Android 
+			 * HttpURLConnection, so we always decompress in getResponseStream().
+			 */
+			requestHeaders.put("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+		}
+		
+		// Binary formats are usually negotiated by media type, so ask for them
+		// explicitly in addition to the file extension
+		if (config.getResponseType() == SiriRestClientConfig.RESPONSE_TYPE_SMILE) {
+			requestHeaders.put("Accept", "application/x-jackson-smile");
+		} else if (config.getResponseType() == SiriRestClientConfig.RESPONSE_TYPE_CBOR) {
+			requestHeaders.put("Accept", "application/cbor");
+		}
+		
+		if (cacheEntry != null) {
+			if (cacheEntry.getEtag() != null) {
+				requestHeaders.put("If-None-Match", cacheEntry.getEtag());
+			}
+			if (cacheEntry.getLastModified() != null) {
+				requestHeaders.put("If-Modified-Since", cacheEntry.getLastModified());
+			}
+		}
+		
+		int format = config.getResponseType();
+		long startTime = System.nanoTime();
+		
+		if (config.getHttpConnectionType() == SiriRestClientConfig.HTTP_CONNECTION_TYPE_POOLED) {
+			PooledHttpResponse response = getConnectionPool().get(url,
+					requestHeaders, abortHandle);
+			// The pool reports how long it took to open a new connection (0 if one was reused)
+			long connectTime = response.getConnectTime();
+			metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_CONNECT, connectTime);
+			metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_TIME_TO_FIRST_BYTE,
+					System.nanoTime() - startTime - connectTime);
+			return response;
+		}
+		
+		// Use Android HttpURLConnection - this should be more efficient than internal JSON HTTP connection
+		HttpURLConnection urlConnection = openConnection(url);
+		for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+			urlConnection.setRequestProperty(header.getKey(), header.getValue());
+		}
+		SiriHttpResponse response = new UrlConnectionHttpResponse(urlConnection);
+		try {
+			if (abortHandle != null) {
+				// Before connecting, so it can be aborted while waiting
+				abortHandle.setResponse(response);
+			}
+			urlConnection.connect();
+			long connectedTime = System.nanoTime();
+			metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_CONNECT,
+					connectedTime - startTime);
+			
+			// Sends the request and waits for the status line and headers
+			response.getStatusCode();
+			metrics.recordLatency(endpoint, format, SiriRequestMetrics.PHASE_TIME_TO_FIRST_BYTE,
+					System.nanoTime() - connectedTime);
+		} catch (IOException e) {
+			response.close();
+			throw e;
+		}
+		return response;
+	}
+	
+	/**
+	 * Returns the decompressed response body, counting the bytes after
+	 * decompression
+	 * 
+	 * @param response response from the server
+	 * @param receivedStream the response body as received, which counts the
+	 *            bytes received before decompression
+	 * @return the decompressed response body, which must be closed to free
+	 *         the Inflater of a compressed response
+	 * @throws IOException
+	 */
+	private InputStream getResponseStream(SiriHttpResponse response,
+			CountingInputStream receivedStream) throws IOException {
+		InputStream in = ContentEncoding.decode(receivedStream, response.getHeader("Content-Encoding"));
+		return new CountingInputStream(in, bytesDecoded);
+	}
+	
+	/**
+	 * Closes the stream, logging any error instead of throwing it
+	 * 
+	 * @param in the stream to close
+	 */
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Error closing response stream: " + e);
+		}
+	}
+	
+	/**
+	 * Returns the length of the response body after decompression, if the
+	 * server sent it
+	 * 
+	 * @param response
+	 *            the response from the server
+	 * @return the value of the Content-Length header, or -1 if it wasn't sent,
+	 *         isn't valid, or is the length of a compressed body
+	 */
+	private static int getContentLength(SiriHttpResponse response) {
+		String contentEncoding = response.getHeader("Content-Encoding");
+		if (contentEncoding != null && contentEncoding.trim().length() > 0
+				&& !contentEncoding.trim().equalsIgnoreCase("identity")) {
+			return -1;
+		}
+		String contentLength = response.getHeader("Content-Length");
+		if (contentLength == null) {
+			return -1;
+		}
+		try {
+			long length = Long.parseLong(contentLength.trim());
+			return length >= 0 && length <= Integer.MAX_VALUE ? (int) length : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Returns a name for the current HTTP connection type, for logging
+	 * 
+	 * @return a name for the current HTTP connection type
+	 */
+	private String getHttpConnectionTypeName() {
+		switch (config.getHttpConnectionType()) {
+		case SiriRestClientConfig.HTTP_CONNECTION_TYPE_JACKSON:
+			return "Jackson HTTP Connection";
+		case SiriRestClientConfig.HTTP_CONNECTION_TYPE_ANDROID:
+			return "Android HttpURLConnection";
+		case SiriRestClientConfig.HTTP_CONNECTION_TYPE_POOLED:
+			return "pooled keep-alive connection";
+		default:
+			return ""; // should never happen
+		}
+	}
+
+	/**
+	 * Opens an Android HttpURLConnection for the given URL, using the timeouts
+	 * from the config
+	 * 
+	 * @param url URL to connect to
+	 * @return an HttpURLConnection for the URL
+	 * @throws IOException
+	 */
+	private HttpURLConnection openConnection(URL url) throws IOException {
+		HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+		urlConnection.setConnectTimeout(config.getConnectTimeout());
+		urlConnection.setReadTimeout(config.getReadTimeout());
+		return urlConnection;
+	}
+
 	/**
 	 * Disable HTTP connection reuse which was buggy pre-froyo
 	 */
@@ -0,0 +1,313 @@
+package edu.usf.cutr.siri.android.client;
+
+import edu.usf.cutr.siri.android.client.metrics.SiriRequestMetrics;
+import edu.usf.cutr.siri.android.client.request.SiriMonitoringRequest;
+import edu.usf.cutr.siri.android.client.request.StopMonitoringRequest;
+import edu.usf.cutr.siri.android.client.request.VehicleMonitoringRequest;
+
+/**
+ * A vehicle monitoring or stop monitoring request that is polled repeatedly
+ * by a SiriPollingScheduler. Holds the same parameters as
+ * SiriRestClient.makeVehicleMonRequest() and makeStopMonRequest().
+ * 
+ * Subscriptions are immutable, and two subscriptions with the same endpoint
+ * and parameters are equal, so a subscription can be used as a key to
+ * identify the results for a line or stop.
+ * 
+ * Each poll uses the same VehicleMonitoringRequest or StopMonitoringRequest,
+ * built on the first poll (or passed to forRequest()), so the request URL
+ * isn't rebuilt on every poll.
+ */
+public final class SiriSubscription {
+
+	private final int endpoint;
+	private final String devKey;
+	private final String operatorRef;
+	private final String ref;
+	private final String lineRef;
+	private final int directionRef;
+	private final String detailLevel;
+	private final int maximumNumberOfCallsOnwards;
+
+	private final int hashCode;
+
+	// Request object for the parameters, built on first use.  Building it
+	// more than once in a race is harmless, since it's immutable.
+	private volatile SiriMonitoringRequest request;
+
+	private SiriSubscription(int endpoint, String devKey, String operatorRef,
+			String ref, String lineRef, int directionRef, String detailLevel,
+			int maximumNumberOfCallsOnwards) {
+		if (devKey == null || operatorRef == null || ref == null
+				|| lineRef == null || detailLevel == null) {
+			throw new IllegalArgumentException(
+					"Use an empty string instead of null for parameters that aren't used");
+		}
+		this.endpoint = endpoint;
+		this.devKey = devKey;
+		this.operatorRef = operatorRef;
+		this.ref = ref;
+		this.lineRef = lineRef;
+		this.directionRef = directionRef;
+		this.detailLevel = detailLevel;
+		this.maximumNumberOfCallsOnwards = maximumNumberOfCallsOnwards;
+
+		int h = endpoint;
+		h = 31 * h + devKey.hashCode();
+		h = 31 * h + operatorRef.hashCode();
+		h = 31 * h + ref.hashCode();
+		h = 31 * h + lineRef.hashCode();
+		h = 31 * h + directionRef;
+		h = 31 * h + detailLevel.hashCode();
+		h = 31 * h + maximumNumberOfCallsOnwards;
+		this.hashCode = h;
+	}
+
+	/**
+	 * Creates a subscription to SIRI VehicleMonitoring. See
+	 * SiriRestClient.makeVehicleMonRequest() for parameter details.
+	 * 
+	 * @param devKey
+	 *            a developer API key
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored
+	 * @param vehicleRef
+	 *            the ID of the vehicle to be monitored (optional)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param vehicleMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when VehicleMonitoringDetailLevel=calls, or -1 not to limit
+	 * @return a subscription to SIRI VehicleMonitoring
+	 */
+	public static SiriSubscription forVehicleMonitoring(String devKey,
+			String operatorRef, String vehicleRef, String lineRef,
+			int directionRef, String vehicleMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards) {
+		return new SiriSubscription(
+				SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING, devKey,
+				operatorRef, vehicleRef, lineRef, directionRef,
+				vehicleMonitoringDetailLevel, maximumNumberOfCallsOnwards);
+	}
+
+	/**
+	 * Creates a subscription to SIRI StopMonitoring. See
+	 * SiriRestClient.makeStopMonRequest() for parameter details.
+	 * 
+	 * @param devKey
+	 *            a developer API key (optional in some SIRI implementations)
+	 * @param operatorRef
+	 *            the GTFS agency ID to be monitored (required)
+	 * @param monitoringRef
+	 *            the GTFS stop ID of the stop to be monitored (required)
+	 * @param lineRef
+	 *            a filter by GTFS route ID (optional)
+	 * @param directionRef
+	 *            a filter by GTFS direction ID (optional). Either 0 or 1, or -1
+	 *            if not to be used.
+	 * @param stopMonitoringDetailLevel
+	 *            "calls" or "normal" (optional)
+	 * @param maximumNumberOfCallsOnwards
+	 *            Limit on the number of OnwardCall elements for each vehicle
+	 *            when StopMonitoringDetailLevel=calls, or -1 not to limit
+	 * @return a subscription to SIRI StopMonitoring
+	 */
+	public static SiriSubscription forStopMonitoring(String devKey,
+			String operatorRef, String monitoringRef, String lineRef,
+			int directionRef, String stopMonitoringDetailLevel,
+			int maximumNumberOfCallsOnwards) {
+		return new SiriSubscription(
+				SiriRequestMetrics.ENDPOINT_STOP_MONITORING, devKey,
+				operatorRef, monitoringRef, lineRef, directionRef,
+				stopMonitoringDetailLevel, maximumNumberOfCallsOnwards);
+	}
+
+	/**
+	 * Creates a subscription to SIRI VehicleMonitoring for a request
+	 * 
+	 * @param request
+	 *            the VehicleMonitoring request to poll
+	 * @return a subscription to SIRI VehicleMonitoring
+	 */
+	public static SiriSubscription forRequest(VehicleMonitoringRequest request) {
+		SiriSubscription subscription = forVehicleMonitoring(
+				request.getDevKey(), request.getOperatorRef(),
+				request.getVehicleRef(), request.getLineRef(),
+				request.getDirectionRef(), request.getDetailLevel(),
+				request.getMaximumNumberOfCallsOnwards());
+		subscription.request = request;
+		return subscription;
+	}
+
+	/**
+	 * Creates a subscription to SIRI StopMonitoring for a request
+	 * 
+	 * @param request
+	 *            the StopMonitoring request to poll
+	 * @return a subscription to SIRI StopMonitoring
+	 */
+	public static SiriSubscription forRequest(StopMonitoringRequest request) {
+		SiriSubscription subscription = forStopMonitoring(request.getDevKey(),
+				request.getOperatorRef(), request.getMonitoringRef(),
+				request.getLineRef(), request.getDirectionRef(),
+				request.getDetailLevel(),
+				request.getMaximumNumberOfCallsOnwards());
+		subscription.request = request;
+		return subscription;
+	}
+
+	/**
+	 * Returns the request that is polled
+	 * 
+	 * @return the VehicleMonitoringRequest or StopMonitoringRequest for this
+	 *         subscription
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 */
+	public SiriMonitoringRequest getRequest() throws IllegalArgumentException {
+		SiriMonitoringRequest r = request;
+		if (r == null) {
+			if (endpoint == SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING) {
+				r = new VehicleMonitoringRequest.Builder().setDevKey(devKey)
+						.setOperatorRef(operatorRef).setVehicleRef(ref)
+						.setLineRef(lineRef).setDirectionRef(directionRef)
+						.setVehicleMonitoringDetailLevel(detailLevel)
+						.setMaximumNumberOfCallsOnwards(
+								maximumNumberOfCallsOnwards).build();
+			} else {
+				r = new StopMonitoringRequest.Builder().setDevKey(devKey)
+						.setOperatorRef(operatorRef).setMonitoringRef(ref)
+						.setLineRef(lineRef).setDirectionRef(directionRef)
+						.setStopMonitoringDetailLevel(detailLevel)
+						.setMaximumNumberOfCallsOnwards(
+								maximumNumberOfCallsOnwards).build();
+			}
+			request = r;
+		}
+		return r;
+	}
+
+	/**
+	 * Builds the URL for this subscription with the client's current base URLs
+	 * and response type
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the required parameters aren't provided or any parameter
+	 *             is invalid
+	 */
+	String buildUrl(SiriRestClient client) throws IllegalArgumentException {
+		return client.buildUrl(getRequest());
+	}
+
+	/**
+	 * Returns the endpoint that is polled
+	 * 
+	 * @return SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING or
+	 *         SiriRequestMetrics.ENDPOINT_STOP_MONITORING
+	 */
+	public int getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * Returns the developer API key
+	 * 
+	 * @return the developer API key
+	 */
+	public String getDevKey() {
+		return devKey;
+	}
+
+	/**
+	 * Returns the GTFS agency ID to be monitored
+	 * 
+	 * @return the GTFS agency ID to be monitored
+	 */
+	public String getOperatorRef() {
+		return operatorRef;
+	}
+
+	/**
+	 * Returns the VehicleRef for vehicle monitoring, or the MonitoringRef
+	 * (stop ID) for stop monitoring
+	 * 
+	 * @return the VehicleRef or MonitoringRef, or an empty string if it isn't
+	 *         used
+	 */
+	public String getRef() {
+		return ref;
+	}
+
+	/**
+	 * Returns the GTFS route ID filter
+	 * 
+	 * @return the GTFS route ID filter, or an empty string if it isn't used
+	 */
+	public String getLineRef() {
+		return lineRef;
+	}
+
+	/**
+	 * Returns the GTFS direction ID filter
+	 * 
+	 * @return 0 or 1, or -1 if it isn't used
+	 */
+	public int getDirectionRef() {
+		return directionRef;
+	}
+
+	/**
+	 * Returns the VehicleMonitoringDetailLevel or StopMonitoringDetailLevel
+	 * 
+	 * @return "calls" or "normal", or an empty string if it isn't used
+	 */
+	public String getDetailLevel() {
+		return detailLevel;
+	}
+
+	/**
+	 * Returns the limit on the number of OnwardCall elements for each vehicle
+	 * 
+	 * @return the limit on the number of OnwardCall elements, or -1 if there
+	 *         is no limit
+	 */
+	public int getMaximumNumberOfCallsOnwards() {
+		return maximumNumberOfCallsOnwards;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SiriSubscription)) {
+			return false;
+		}
+		SiriSubscription other = (SiriSubscription) o;
+		return hashCode == other.hashCode && endpoint == other.endpoint
+				&& directionRef == other.directionRef
+				&& maximumNumberOfCallsOnwards == other.maximumNumberOfCallsOnwards
+				&& devKey.equals(other.devKey)
+				&& operatorRef.equals(other.operatorRef)
+				&& ref.equals(other.ref) && lineRef.equals(other.lineRef)
+				&& detailLevel.equals(other.detailLevel);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return SiriRequestMetrics.getEndpointName(endpoint) + "[operatorRef="
+				+ operatorRef + ", ref=" + ref + ", lineRef=" + lineRef
+				+ ", directionRef=" + directionRef + "]";
+	}
+}
@@ -0,0 +1,86 @@
+package edu.usf.cutr.siri.android.client.cache;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * A parsed response held in the SiriResponseCache, along with the validators
+ * (ETag and Last-Modified) the server sent so it can be revalidated with a
+ * conditional GET once it expires.
+ */
+public class SiriCacheEntry {
+
+	private final Siri siri;
+	private final String etag;
+	private final String lastModified;
+	private volatile long expirationTime;
+
+	SiriCacheEntry(Siri siri, String etag, String lastModified,
+			long expirationTime) {
+		this.siri = siri;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.expirationTime = expirationTime;
+	}
+
+	/**
+	 * Returns the parsed response
+	 * 
+	 * @return the parsed response
+	 */
+	public Siri getSiri() {
+		return siri;
+	}
+
+	/**
+	 * Returns the ETag response header sent with this response
+	 * 
+	 * @return the ETag response header, or null if the server didn't send one
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the Last-Modified response header sent with this response
+	 * 
+	 * @return the Last-Modified response header, or null if the server didn't
+	 *         send one
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Returns the time this entry expires
+	 * 
+	 * @return the time this entry expires (in milliseconds since the epoch)
+	 */
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	void setExpirationTime(long expirationTime) {
+		this.expirationTime = expirationTime;
+	}
+
+	/**
+	 * Returns true if this entry can be used without contacting the server
+	 * 
+	 * @param now
+	 *            current time (in milliseconds since the epoch)
+	 * @return true if this entry hasn't expired
+	 */
+	public boolean isFresh(long now) {
+		return now < expirationTime;
+	}
+
+	/**
+	 * Returns true if the server sent a validator, so this entry can be
+	 * revalidated with a conditional GET
+	 * 
+	 * @return true if this entry has an ETag or Last-Modified validator
+	 */
+	public boolean hasValidator() {
+		return etag != null || lastModified != null;
+	}
+}
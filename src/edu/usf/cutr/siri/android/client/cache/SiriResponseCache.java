@@ -0,0 +1,210 @@
+package edu.usf.cutr.siri.android.client.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.org.siri.siri.Siri;
+import edu.usf.cutr.siri.android.util.SiriUtils;
+
+/**
+ * An in-memory cache of parsed SIRI responses, keyed by request URL.
+ * 
+ * An entry is fresh until the earliest ValidUntil time in the response, or
+ * until the time-to-live (TTL) runs out, whichever comes first. A fresh entry
+ * is returned without contacting the server. Once it expires, the entry is
+ * kept so the SiriRestClient can revalidate it with If-None-Match /
+ * If-Modified-Since, and reuse the already-parsed Siri object if the server
+ * answers 304 Not Modified.
+ * 
+ * The cache holds at most maxEntries responses, evicting the least recently
+ * used one when full.
+ * 
+ * This class is thread-safe.
+ */
+public class SiriResponseCache {
+
+	private final long ttl;
+	private final int maxEntries;
+
+	private final LinkedHashMap<String, SiriCacheEntry> entries;
+
+	// Statistics
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long revalidationCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * Creates a new response cache
+	 * 
+	 * @param ttl
+	 *            maximum time (in milliseconds) a response is served without
+	 *            contacting the server
+	 * @param maxEntries
+	 *            maximum number of responses held in the cache
+	 */
+	public SiriResponseCache(long ttl, final int maxEntries) {
+		if (ttl < 0 || maxEntries < 1) {
+			throw new IllegalArgumentException(
+					"TTL cannot be negative and maxEntries must be 1 or greater");
+		}
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+
+		// Access-ordered, so the eldest entry is the least recently used one
+		entries = new LinkedHashMap<String, SiriCacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, SiriCacheEntry> eldest) {
+				if (size() > SiriResponseCache.this.maxEntries) {
+					evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the fresh cached response for the URL, and counts a hit or miss
+	 * 
+	 * @param url
+	 *            request URL
+	 * @param now
+	 *            current time (in milliseconds since the epoch)
+	 * @return the cached response if it hasn't expired, or null
+	 */
+	public synchronized Siri getFresh(String url, long now) {
+		SiriCacheEntry entry = entries.get(url);
+		if (entry != null && entry.isFresh(now)) {
+			hitCount++;
+			return entry.getSiri();
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Returns the cached entry for the URL, even if it has expired. Doesn't
+	 * count as a hit or miss.
+	 * 
+	 * @param url
+	 *            request URL
+	 * @return the cached entry, or null if there isn't one
+	 */
+	public synchronized SiriCacheEntry getEntry(String url) {
+		return entries.get(url);
+	}
+
+	/**
+	 * Adds a response to the cache, replacing any existing entry for the URL
+	 * 
+	 * @param url
+	 *            request URL
+	 * @param siri
+	 *            parsed response
+	 * @param etag
+	 *            ETag response header, or null
+	 * @param lastModified
+	 *            Last-Modified response header, or null
+	 * @param now
+	 *            current time (in milliseconds since the epoch)
+	 * @return the new cache entry
+	 */
+	public synchronized SiriCacheEntry put(String url, Siri siri, String etag,
+			String lastModified, long now) {
+		SiriCacheEntry entry = new SiriCacheEntry(siri, etag, lastModified,
+				getExpirationTime(siri, now));
+		entries.put(url, entry);
+		return entry;
+	}
+
+	/**
+	 * Marks an expired entry as fresh again after the server answered a
+	 * conditional GET with 304 Not Modified
+	 * 
+	 * @param entry
+	 *            the revalidated entry
+	 * @param now
+	 *            current time (in milliseconds since the epoch)
+	 */
+	public synchronized void revalidated(SiriCacheEntry entry, long now) {
+		// The body wasn't sent again, so there's no newer ValidUntil - use
+		// the TTL
+		entry.setExpirationTime(now + ttl);
+		revalidationCount++;
+	}
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of entries in the cache
+	 * 
+	 * @return the number of entries in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of requests served from the cache without contacting
+	 * the server
+	 * 
+	 * @return the number of requests served from the cache without contacting
+	 *         the server
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of requests that couldn't be served from the cache
+	 * without contacting the server
+	 * 
+	 * @return the number of requests that couldn't be served from the cache
+	 *         without contacting the server
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Returns the number of expired entries that the server confirmed were
+	 * still current (304 Not Modified)
+	 * 
+	 * @return the number of expired entries that the server confirmed were
+	 *         still current
+	 */
+	public synchronized long getRevalidationCount() {
+		return revalidationCount;
+	}
+
+	/**
+	 * Returns the number of entries evicted because the cache was full
+	 * 
+	 * @return the number of entries evicted because the cache was full
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Returns when a response expires - the earliest ValidUntil in the
+	 * response, or the TTL, whichever comes first
+	 */
+	private long getExpirationTime(Siri siri, long now) {
+		long expirationTime = now + ttl;
+		long validUntil = SiriUtils.getValidUntil(siri);
+		if (validUntil != -1 && validUntil < expirationTime) {
+			expirationTime = validUntil;
+		}
+		return expirationTime;
+	}
+}
@@ -0,0 +1,75 @@
+package edu.usf.cutr.siri.android.client.cache;
+
+import uk.org.siri.siri.Siri;
+
+/**
+ * The last successful response for a request, held by a SiriSnapshotStore.
+ * 
+ * A snapshot that was loaded from local storage (i.e., saved by an earlier
+ * run of the app) is stale - it can be shown right away on startup, but
+ * should be replaced by a fresh response from the server as soon as one
+ * arrives.
+ */
+public class SiriSnapshot {
+
+	private final String key;
+	private final Siri siri;
+	private final long savedTime;
+	private final boolean stale;
+
+	SiriSnapshot(String key, Siri siri, long savedTime, boolean stale) {
+		this.key = key;
+		this.siri = siri;
+		this.savedTime = savedTime;
+		this.stale = stale;
+	}
+
+	/**
+	 * Returns the request key (e.g., the request URL) this snapshot is for
+	 * 
+	 * @return the request key this snapshot is for
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the response
+	 * 
+	 * @return the response
+	 */
+	public Siri getSiri() {
+		return siri;
+	}
+
+	/**
+	 * Returns the time the response was saved
+	 * 
+	 * @return the time the response was saved (in milliseconds since the
+	 *         epoch)
+	 */
+	public long getSavedTime() {
+		return savedTime;
+	}
+
+	/**
+	 * Returns true if this snapshot was loaded from local storage, and hasn't
+	 * been replaced by a response received since the app started
+	 * 
+	 * @return true if this snapshot was loaded from local storage
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * Returns how old the response is
+	 * 
+	 * @param now
+	 *            current time (in milliseconds since the epoch)
+	 * @return the age of the response (in milliseconds)
+	 */
+	public long getAge(long now) {
+		return now - savedTime;
+	}
+}
@@ -0,0 +1,649 @@
+package edu.usf.cutr.siri.android.client.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import uk.org.siri.siri.Siri;
+import edu.usf.cutr.siri.android.client.config.SiriJacksonConfig;
+import edu.usf.cutr.siri.android.util.SiriUtils;
+
+import android.util.Log;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import static edu.usf.cutr.siri.android.client.SiriRestClient.TAG;
+
+/**
+ * Keeps the last successful response for each request key (e.g., the request
+ * URL) in local storage, so an app can show something right away when it
+ * starts, instead of waiting for the first round trip to the server.
+ * 
+ * Responses are stored as Smile, Jackson's binary JSON encoding, which is
+ * smaller than the JSON or XML the server sent and can be decoded into Siri
+ * objects faster, since no text has to be scanned for numbers, and repeated
+ * names and values are written once and then referred back to.
+ * 
+ * On startup, call loadAll() (ideally off the UI thread) to read every saved
+ * response into memory. Those snapshots are marked stale until put() replaces
+ * them with a response received in this run. Writes are done on a background
+ * thread, with write-temp-then-rename so a crash mid-write never leaves a
+ * corrupt file, and only the newest response for a key is written if several
+ * arrive while a write is pending. A response is only written if its
+ * ResponseTimestamp differs from the last one written for its key, and at
+ * most once per minimum write interval, so polling a request every few
+ * seconds doesn't write (and sync) a file on every poll.
+ * 
+ * This class is thread-safe.
+ */
+public class SiriSnapshotStore {
+
+	private static final String FILE_EXTENSION = ".snapshot";
+	private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	// File header - see writeSnapshot()
+	private static final int MAGIC = 0x53495253; // "SIRS"
+	// Version 1 files could have the developer API key in the request key,
+	// and version 2 files used a separate mapper configuration, so they are
+	// discarded
+	private static final int FORMAT_VERSION = 3;
+
+	/**
+	 * Minimum write interval used if none is given (one minute)
+	 */
+	public static final long DEFAULT_MIN_WRITE_INTERVAL = 60000;
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	// Shared by all stores, since the mapper is thread-safe and keeps the
+	// deserializers it builds for the SIRI classes
+	private static volatile ObjectMapper sharedMapper = null;
+
+	private final File directory;
+	private final long maxAge;
+	private final long minWriteInterval;
+	private final ObjectMapper mapper;
+
+	// Snapshots in memory, keyed by request key
+	private final Map<String, SiriSnapshot> snapshots = new HashMap<String, SiriSnapshot>();
+
+	// Newest snapshot waiting to be written for each key
+	private final Map<String, SiriSnapshot> pendingWrites = new HashMap<String, SiriSnapshot>();
+
+	// Last snapshot written (or waiting to be written) for each key in this run
+	private final Map<String, SiriSnapshot> lastWrites = new HashMap<String, SiriSnapshot>();
+
+	// Background thread for writes, created on the first write
+	private ExecutorService writer = null;
+
+	private boolean loadedAll = false;
+
+	// Statistics for the last loadAll()
+	private long lastLoadTime = 0;
+	private int lastLoadCount = 0;
+	private long lastLoadBytes = 0;
+
+	/**
+	 * Creates a new snapshot store that writes each key at most once per
+	 * DEFAULT_MIN_WRITE_INTERVAL
+	 * 
+	 * @param directory
+	 *            directory the snapshots are saved in (e.g., a "siri" folder
+	 *            under Context.getFilesDir()), which is created if it doesn't
+	 *            exist
+	 * @param maxAge
+	 *            snapshots older than this (in milliseconds) aren't loaded and
+	 *            are deleted, or 0 to keep snapshots of any age
+	 */
+	public SiriSnapshotStore(File directory, long maxAge) {
+		this(directory, maxAge, DEFAULT_MIN_WRITE_INTERVAL);
+	}
+
+	/**
+	 * Creates a new snapshot store
+	 * 
+	 * @param directory
+	 *            directory the snapshots are saved in (e.g., a "siri" folder
+	 *            under Context.getFilesDir()), which is created if it doesn't
+	 *            exist
+	 * @param maxAge
+	 *            snapshots older than this (in milliseconds) aren't loaded and
+	 *            are deleted, since vehicle positions that old are more
+	 *            misleading than useful, or 0 to keep snapshots of any age
+	 * @param minWriteInterval
+	 *            minimum time (in milliseconds) between writes for the same
+	 *            key - newer responses received in between are kept in memory
+	 *            only, or 0 to write every response with a new
+	 *            ResponseTimestamp
+	 */
+	public SiriSnapshotStore(File directory, long maxAge, long minWriteInterval) {
+		if (directory == null || maxAge < 0 || minWriteInterval < 0) {
+			throw new IllegalArgumentException(
+					"Directory must not be null and maxAge and minWriteInterval cannot be negative");
+		}
+		this.directory = directory;
+		this.maxAge = maxAge;
+		this.minWriteInterval = minWriteInterval;
+		this.mapper = getSmileMapper();
+	}
+
+	/**
+	 * Returns the shared Smile mapper, creating it if necessary
+	 */
+	private static ObjectMapper getSmileMapper() {
+		ObjectMapper m = sharedMapper;
+		if (m != null) {
+			return m;
+		}
+		synchronized (SiriSnapshotStore.class) {
+			if (sharedMapper == null) {
+				sharedMapper = createSmileMapper();
+			}
+			return sharedMapper;
+		}
+	}
+
+	/**
+	 * Creates a new Jackson ObjectMapper that writes and reads Siri objects
+	 * as Smile. It starts from SiriJacksonConfig.createSmileMapper(), so
+	 * snapshots use the same naming strategy and features as Smile responses,
+	 * and adds the settings needed to write them: the root wrapper that the
+	 * response mappers expect, no null values, and enums written the same way
+	 * they are read.
+	 * 
+	 * @return a new ObjectMapper for Smile snapshots
+	 */
+	public static ObjectMapper createSmileMapper() {
+		ObjectMapper m = SiriJacksonConfig.createSmileMapper();
+		// Most SIRI string values (operator, line, and stop IDs, timestamps)
+		// repeat from vehicle to vehicle
+		((SmileFactory) m.getFactory()).configure(
+				SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true);
+
+		m.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+		m.configure(SerializationFeature.WRAP_ROOT_VALUE, true);
+		m.configure(SerializationFeature.WRITE_ENUMS_USING_TO_STRING, true);
+		m.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+
+		return m;
+	}
+
+	/**
+	 * Loads every saved snapshot that isn't already in memory. The loaded
+	 * snapshots are marked stale.
+	 * 
+	 * This reads and decodes every file, so it should be called on a
+	 * background thread at startup.
+	 * 
+	 * @return the number of snapshots loaded
+	 */
+	public int loadAll() {
+		long startTime = System.nanoTime();
+		int count = 0;
+		long bytes = 0;
+
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.getName().endsWith(FILE_EXTENSION)) {
+					continue;
+				}
+				SiriSnapshot snapshot = readSnapshot(file, null);
+				if (snapshot == null) {
+					continue;
+				}
+				synchronized (this) {
+					if (!snapshots.containsKey(snapshot.getKey())) {
+						snapshots.put(snapshot.getKey(), snapshot);
+						count++;
+						bytes += file.length();
+					}
+				}
+			}
+		}
+
+		long loadTime = System.nanoTime() - startTime;
+		synchronized (this) {
+			loadedAll = true;
+			lastLoadTime = loadTime;
+			lastLoadCount = count;
+			lastLoadBytes = bytes;
+		}
+
+		Log.d(TAG, "Loaded " + count + " Siri snapshots (" + bytes
+				+ " bytes) in " + (loadTime / 1000000.0) + " ms.");
+		return count;
+	}
+
+	/**
+	 * Returns the snapshot for a request key. If loadAll() hasn't been called,
+	 * the snapshot for this key is loaded from local storage on the calling
+	 * thread.
+	 * 
+	 * @param key
+	 *            request key (e.g., the request URL)
+	 * @return the snapshot, which is stale if it was loaded from local
+	 *         storage, or null if there isn't one
+	 */
+	public SiriSnapshot get(String key) {
+		synchronized (this) {
+			SiriSnapshot snapshot = snapshots.get(key);
+			if (snapshot != null || loadedAll) {
+				return snapshot;
+			}
+		}
+
+		SiriSnapshot snapshot = readSnapshot(getFile(key), key);
+		if (snapshot == null) {
+			return null;
+		}
+		synchronized (this) {
+			// A fresh response may have arrived while we were reading
+			SiriSnapshot current = snapshots.get(key);
+			if (current != null) {
+				return current;
+			}
+			snapshots.put(key, snapshot);
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Saves the latest successful response for a request key. The snapshot in
+	 * memory is replaced right away, and the response is written to local
+	 * storage on a background thread, unless it has the same ResponseTimestamp
+	 * as the last response written for the key, or that write was less than
+	 * the minimum write interval ago.
+	 * 
+	 * The response must not be modified after it is passed in.
+	 * 
+	 * @param key
+	 *            request key (e.g., the request URL)
+	 * @param siri
+	 *            the response
+	 */
+	public void put(final String key, Siri siri) {
+		if (key == null || siri == null) {
+			throw new IllegalArgumentException("Key and response must not be null");
+		}
+		SiriSnapshot snapshot = new SiriSnapshot(key, siri,
+				System.currentTimeMillis(), false);
+
+		long responseTimestamp = SiriUtils.getResponseTimestamp(siri);
+
+		boolean scheduleWrite;
+		synchronized (this) {
+			snapshots.put(key, snapshot);
+
+			SiriSnapshot lastWrite = lastWrites.get(key);
+			if (lastWrite != null
+					&& (snapshot.getSavedTime() - lastWrite.getSavedTime() < minWriteInterval || (responseTimestamp != -1 && responseTimestamp == SiriUtils
+							.getResponseTimestamp(lastWrite.getSiri())))) {
+				// The file is recent enough for a cold start or fallback
+				return;
+			}
+			lastWrites.put(key, snapshot);
+
+			// If a write for this key is already waiting, it will pick up
+			// this newer snapshot instead
+			scheduleWrite = pendingWrites.put(key, snapshot) == null;
+		}
+
+		if (scheduleWrite) {
+			executeWrite(new Runnable() {
+				public void run() {
+					SiriSnapshot latest;
+					synchronized (SiriSnapshotStore.this) {
+						latest = pendingWrites.remove(key);
+					}
+					if (latest != null) {
+						writeSnapshot(latest);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Removes the snapshot for a request key from memory and local storage
+	 * 
+	 * @param key
+	 *            request key (e.g., the request URL)
+	 */
+	public void remove(final String key) {
+		synchronized (this) {
+			snapshots.remove(key);
+			pendingWrites.remove(key);
+			lastWrites.remove(key);
+		}
+		// After any write that is already running
+		executeWrite(new Runnable() {
+			public void run() {
+				getFile(key).delete();
+			}
+		});
+	}
+
+	/**
+	 * Removes all snapshots from memory and local storage
+	 */
+	public void clear() {
+		synchronized (this) {
+			snapshots.clear();
+			pendingWrites.clear();
+			lastWrites.clear();
+		}
+		executeWrite(new Runnable() {
+			public void run() {
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						if (file.getName().endsWith(FILE_EXTENSION)) {
+							file.delete();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for pending writes to finish and stops the background writer.
+	 * Snapshots put after this call are kept in memory only.
+	 * 
+	 * @param timeout
+	 *            maximum time (in milliseconds) to wait for pending writes
+	 * @return true if all pending writes finished
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public boolean shutdown(long timeout) throws InterruptedException {
+		ExecutorService w;
+		synchronized (this) {
+			if (writer == null) {
+				// Nothing was ever written - make sure nothing will be
+				writer = Executors.newSingleThreadExecutor();
+			}
+			w = writer;
+		}
+		w.shutdown();
+		return w.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the number of snapshots in memory
+	 * 
+	 * @return the number of snapshots in memory
+	 */
+	public synchronized int size() {
+		return snapshots.size();
+	}
+
+	/**
+	 * Returns how long the last loadAll() took (in nanoseconds)
+	 * 
+	 * @return how long the last loadAll() took, or 0 if it hasn't been called
+	 */
+	public synchronized long getLastLoadTime() {
+		return lastLoadTime;
+	}
+
+	/**
+	 * Returns the number of snapshots the last loadAll() loaded
+	 * 
+	 * @return the number of snapshots the last loadAll() loaded
+	 */
+	public synchronized int getLastLoadCount() {
+		return lastLoadCount;
+	}
+
+	/**
+	 * Returns the total size of the files the last loadAll() loaded
+	 * 
+	 * @return the total size of the files the last loadAll() loaded (in bytes)
+	 */
+	public synchronized long getLastLoadBytes() {
+		return lastLoadBytes;
+	}
+
+	/**
+	 * Runs a task on the background thread for writes, unless the store has
+	 * been shut down
+	 */
+	private void executeWrite(Runnable task) {
+		try {
+			getWriter().execute(task);
+		} catch (RejectedExecutionException e) {
+			// Shut down - keep changes in memory only
+		}
+	}
+
+	/**
+	 * Returns the background thread for writes, creating it if necessary
+	 */
+	private synchronized ExecutorService getWriter() {
+		if (writer == null) {
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "SiriSnapshotStore");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return writer;
+	}
+
+	/**
+	 * Encodes a response as Smile
+	 * 
+	 * @param siri
+	 *            the response
+	 * @return the Smile encoding of the response
+	 * @throws IOException
+	 *             if the response couldn't be encoded
+	 */
+	public byte[] encode(Siri siri) throws IOException {
+		return mapper.writeValueAsBytes(siri);
+	}
+
+	/**
+	 * Decodes a response encoded with encode()
+	 * 
+	 * @param data
+	 *            buffer holding the Smile encoding
+	 * @param offset
+	 *            offset of the encoding in the buffer
+	 * @param length
+	 *            length of the encoding
+	 * @return the response
+	 * @throws IOException
+	 *             if the response couldn't be decoded
+	 */
+	public Siri decode(byte[] data, int offset, int length) throws IOException {
+		return mapper.readValue(data, offset, length, Siri.class);
+	}
+
+	/**
+	 * Writes a snapshot to a temporary file, and renames it over the
+	 * snapshot file for its key once it has been synced.
+	 * 
+	 * The file holds a header (magic number, format version, key, saved time,
+	 * length and CRC32 of the payload) followed by the Smile payload.
+	 */
+	private void writeSnapshot(SiriSnapshot snapshot) {
+		File file = getFile(snapshot.getKey());
+		File tempFile = new File(directory, file.getName()
+				+ TEMP_FILE_EXTENSION);
+		FileOutputStream fileStream = null;
+		boolean success = false;
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Couldn't create " + directory);
+			}
+
+			byte[] payload = encode(snapshot.getSiri());
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, payload.length);
+
+			ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(header);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(snapshot.getKey());
+			out.writeLong(snapshot.getSavedTime());
+			out.writeInt(payload.length);
+			out.writeLong(crc.getValue());
+			out.flush();
+
+			fileStream = new FileOutputStream(tempFile);
+			header.writeTo(fileStream);
+			fileStream.write(payload);
+			fileStream.getFD().sync();
+			fileStream.close();
+			fileStream = null;
+
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Couldn't rename " + tempFile + " to "
+						+ file);
+			}
+			success = true;
+		} catch (IOException e) {
+			Log.e(TAG, "Couldn't save Siri snapshot for " + snapshot.getKey()
+					+ ": " + e);
+		} finally {
+			if (fileStream != null) {
+				try {
+					fileStream.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+			if (!success) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot file. Files that are corrupt, from a different format
+	 * version, or older than maxAge are deleted.
+	 * 
+	 * @param file
+	 *            the snapshot file
+	 * @param key
+	 *            the key the file should be for, or null to accept any key
+	 * @return the stale snapshot, or null if the file doesn't exist or
+	 *         couldn't be used
+	 */
+	private SiriSnapshot readSnapshot(File file, String key) {
+		if (!file.isFile()) {
+			return null;
+		}
+
+		DataInputStream in = null;
+		String problem = null;
+		SiriSnapshot snapshot = null;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), READ_BUFFER_SIZE));
+
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				problem = "unknown format";
+				return null;
+			}
+			String fileKey = in.readUTF();
+			if (key != null && !key.equals(fileKey)) {
+				// Different key with the same hash - leave it alone
+				return null;
+			}
+			long savedTime = in.readLong();
+			if (maxAge > 0 && System.currentTimeMillis() - savedTime > maxAge) {
+				problem = "older than " + maxAge + " ms";
+				return null;
+			}
+			int length = in.readInt();
+			long checksum = in.readLong();
+			if (length < 0 || length > file.length()) {
+				problem = "bad length " + length;
+				return null;
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, length);
+			if (crc.getValue() != checksum) {
+				problem = "checksum mismatch";
+				return null;
+			}
+
+			snapshot = new SiriSnapshot(fileKey, decode(payload, 0, length),
+					savedTime, true);
+		} catch (IOException e) {
+			problem = e.toString();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+			if (problem != null) {
+				Log.w(TAG, "Discarding Siri snapshot " + file.getName() + ": "
+						+ problem);
+				file.delete();
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns the snapshot file for a key - keys are usually URLs, so the file
+	 * name is a hash of the key
+	 */
+	private File getFile(String key) {
+		return new File(directory, hash(key) + FILE_EXTENSION);
+	}
+
+	private static String hash(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java and Android platform has SHA-1
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,13 +1,24 @@
 package edu.usf.cutr.siri.android.client.config;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
 
 import uk.org.siri.siri.Siri;
 
@@ -20,6 +31,8 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.dataformat.xml.JacksonXmlModule;
 import com.fasterxml.jackson.dataformat.xml.XmlFactory;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
@@ -28,25 +41,36 @@ import static edu.usf.cutr.siri.android.client.SiriRestClient.TAG;
 
 /**
  * This class holds a static instance of a Jackson ObjectMapper and ObjectReader
- * that are configured for parsing SIRI JSON responses, and a Jackson XmlMapper
- * for parsing SIRI XML responses.
+ * that are configured for parsing SIRI JSON responses, a Jackson XmlMapper
+ * for parsing SIRI XML responses, and ObjectMappers for the binary Smile and
+ * CBOR encodings of the JSON responses.
  * 
  * The ObjectMapper, ObjectReader, and XmlMapper are thread-safe after it is
  * configured: http://wiki.fasterxml.com/JacksonFAQThreadSafety
  * 
  * ...so we can configure it once here and then use it in multiple fragments.
  * 
+ * Once created, the static instances are returned without taking a lock.  To
+ * give a SiriRestClient its own, differently configured instances, create
+ * mappers with createObjectMapper() and createXmlMapper(), change their
+ * settings, and pass them in a SiriJacksonReaders.
+ * 
  * @author Sean J. Barbeau
  * 
  */
 public class SiriJacksonConfig {
 
-	// For JSON
-	private static ObjectMapper mapper = null;
-	private static ObjectReader reader = null;
+	// For JSON.  Volatile, so they can be read without a lock once they are
+	// set - they are only set once fully configured.
+	private static volatile ObjectMapper mapper = null;
+	private static volatile ObjectReader reader = null;
 
 	// For XML
-	private static XmlMapper xmlMapper = null;
+	private static volatile XmlMapper xmlMapper = null;
+
+	// For the binary Smile and CBOR formats
+	private static volatile ObjectMapper smileMapper = null;
+	private static volatile ObjectMapper cborMapper = null;
 
 	// For caching objects (ObjectMapper, ObjectReader, and XmlMapper) if
 	// desired
@@ -61,11 +85,56 @@ public class SiriJacksonConfig {
 
 	private static boolean usingCache = false;
 
-	// Constants for defining which object type to read/write from/to cache
-	private static final String OBJECT_READER = "ObjectReader";
-	private static final String OBJECT_MAPPER = "ObjectMapper";
-	private static final String XML_MAPPER = "XmlMapper";
+	/**
+	 * Constants for defining which object type to read/write from/to cache, and
+	 * to get the cold-start time for
+	 */
+	public static final String OBJECT_READER = "ObjectReader";
+	public static final String OBJECT_MAPPER = "ObjectMapper";
+	public static final String XML_MAPPER = "XmlMapper";
+	public static final String SMILE_MAPPER = "SmileMapper"; // Cold-start time only
+	public static final String CBOR_MAPPER = "CborMapper"; // Cold-start time only
 	private static final String CACHE_FILE_EXTENSION = ".cache";
+	private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	/**
+	 * Constants for how a Jackson object was obtained on cold start
+	 */
+	public static final int COLD_START_NONE = 0; // Not initialized yet
+	public static final int COLD_START_CACHE = 1; // Read from the cache
+	public static final int COLD_START_CREATED = 2; // Created and configured
+
+	/*
+	 * Cache file header. The serialized object is only read if the magic
+	 * number, format version, config version, and Jackson version all match
+	 * the running code, and the CRC32 of the payload matches the checksum.
+	 * Anything else is a stale or corrupt file, which is deleted so we don't
+	 * pay for it again on the next cold start.
+	 */
+	private static final int CACHE_MAGIC = 0x53495243; // "SIRC"
+	private static final int CACHE_FORMAT_VERSION = 2;
+
+	// Version of the Jackson configuration in this class - bump it whenever
+	// configureObjectMapper(), createXmlMapper(), or the naming strategy
+	// changes, so objects serialized with the old configuration aren't read
+	private static final int CACHE_CONFIG_VERSION = 1;
+
+	// Header is small, but the SIRI XmlMapper payload is ~100KB
+	private static final int CACHE_READ_BUFFER_SIZE = 8192;
+
+	// Cold-start time (in nanoseconds) and source of each object type, keyed
+	// by object type constant.  Guarded by the SiriJacksonConfig class lock.
+	private static final Map<String, Long> coldStartTimes = new HashMap<String, Long>();
+	private static final Map<String, Integer> coldStartSources = new HashMap<String, Integer>();
+
+	// Object types that are known to have an up-to-date cache file (read from
+	// or written to it by this process), so they don't need to be written
+	// again.  Guarded by the SiriJacksonConfig class lock.
+	private static final Set<String> cachedObjectTypes = new HashSet<String>();
+
+	// Object types being written to the cache right now, so only one thread
+	// writes each file.  Guarded by the SiriJacksonConfig class lock.
+	private static final Set<String> writingObjectTypes = new HashSet<String>();
 
 	// ThreadGroup is generally frowned upon to use in Java, but we need to
 	// create one here so we can set the stacksize of the cache reading/writing
@@ -151,6 +220,39 @@ public class SiriJacksonConfig {
 	public static long getLastCacheWriteTime() {
 		return cacheWriteEndTime - cacheWriteStartTime;
 	}
+
+	/**
+	 * Returns the amount of time it took to get the shared instance of the
+	 * given object type ready for the first time in this VM, either by reading
+	 * it from the cache or by creating it (in nanoseconds). Compare with
+	 * getColdStartSource() to see which path was taken.
+	 * 
+	 * @param objectType
+	 *            OBJECT_READER, OBJECT_MAPPER, XML_MAPPER, SMILE_MAPPER, or
+	 *            CBOR_MAPPER
+	 * @return the cold-start time for the object type in nanoseconds, or 0 if
+	 *         it hasn't been initialized yet
+	 */
+	public static synchronized long getColdStartTime(String objectType) {
+		Long time = coldStartTimes.get(objectType);
+		return time != null ? time : 0;
+	}
+
+	/**
+	 * Returns how the shared instance of the given object type was obtained
+	 * the first time in this VM
+	 * 
+	 * @param objectType
+	 *            OBJECT_READER, OBJECT_MAPPER, XML_MAPPER, SMILE_MAPPER, or
+	 *            CBOR_MAPPER
+	 * @return COLD_START_CACHE if it was read from the cache,
+	 *         COLD_START_CREATED if it was created, or COLD_START_NONE if it
+	 *         hasn't been initialized yet
+	 */
+	public static synchronized int getColdStartSource(String objectType) {
+		Integer source = coldStartSources.get(objectType);
+		return source != null ? source : COLD_START_NONE;
+	}
 	
 	/**
 	 * Gets the thread stack size used to write JSON-related Jackson objects
@@ -212,8 +314,15 @@ public class SiriJacksonConfig {
 	 * @deprecated
 	 * @return thread-safe ObjectMapper configured for SIRI JSON responses
 	 */
-	public synchronized static ObjectMapper getObjectMapperInstance() {
-		return initObjectMapper();
+	public static ObjectMapper getObjectMapperInstance() {
+		ObjectMapper m = mapper;
+		if (m != null) {
+			// Already initialized, no need to lock
+			return m;
+		}
+		synchronized (SiriJacksonConfig.class) {
+			return initObjectMapper();
+		}
 	}
 
 	/**
@@ -226,40 +335,53 @@ public class SiriJacksonConfig {
 	 * 
 	 * @return thread-safe ObjectMapper configured for SIRI JSON responses
 	 */
-	public synchronized static ObjectReader getObjectReaderInstance() {
-		if (reader == null) {
-			/**
-			 * We don't have a reference to an ObjectReader, so we need to read
-			 * from cache or instantiate a new one
-			 */
-			if (usingCache) {
-				reader = (ObjectReader) readFromCache(OBJECT_READER);
-
-				if (reader != null) {
-					// Successful read from the cache
-					return reader;
+	public static ObjectReader getObjectReaderInstance() {
+		ObjectReader r = reader;
+		if (r != null) {
+			// Already initialized, no need to lock
+			return r;
+		}
+		synchronized (SiriJacksonConfig.class) {
+			if (reader == null) {
+				long startTime = System.nanoTime();
+				/**
+				 * We don't have a reference to an ObjectReader, so we need to
+				 * read from cache or instantiate a new one
+				 */
+				if (usingCache) {
+					reader = (ObjectReader) readFromCache(OBJECT_READER);
+
+					if (reader != null) {
+						// Successful read from the cache
+						recordColdStart(OBJECT_READER, COLD_START_CACHE,
+								startTime);
+						return reader;
+					}
 				}
-			}
 
-			/**
-			 * If we reach this point then we're either not reading from the
-			 * cache, there was nothing in the cache to retrieve, or there was
-			 * an error reading from the cache.
-			 * 
-			 * Instantiate the object like normal.
-			 */
-			reader = initObjectMapper().reader(Siri.class);
+				/**
+				 * If we reach this point then we're either not reading from the
+				 * cache, there was nothing in the cache to retrieve, or there
+				 * was an error reading from the cache.
+				 * 
+				 * Instantiate the object like normal.
+				 */
+				reader = initObjectMapper().reader(Siri.class);
+				recordColdStart(OBJECT_READER, COLD_START_CREATED, startTime);
+			}
+			return reader;
 		}
-		return reader;
 	}
 
 	/**
-	 * Internal method used to init main ObjectMapper for JSON parsing
+	 * Internal method used to init main ObjectMapper for JSON parsing.  Must be
+	 * called while holding the SiriJacksonConfig class lock.
 	 * 
 	 * @return initialized ObjectMapper ready for JSON parsing
 	 */
 	private static ObjectMapper initObjectMapper() {
 		if (mapper == null) {
+			long startTime = System.nanoTime();
 			/**
 			 * We don't have a reference to an ObjectMapper, so we need to read
 			 * from cache or instantiate a new one
@@ -269,6 +391,7 @@ public class SiriJacksonConfig {
 
 				if (mapper != null) {
 					// Successful read from the cache
+					recordColdStart(OBJECT_MAPPER, COLD_START_CACHE, startTime);
 					return mapper;
 				}
 			}
@@ -280,46 +403,152 @@ public class SiriJacksonConfig {
 			 * 
 			 * Instantiate the object like normal.
 			 */
-			// Jackson configuration
-			mapper = new ObjectMapper();
-
-			mapper.configure(DeserializationFeature.UNWRAP_ROOT_VALUE, true);
-			mapper.configure(
-					DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-			mapper.configure(
-					DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT,
-					true);
-			mapper.configure(
-					DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY, true);
-			mapper.configure(DeserializationFeature.READ_ENUMS_USING_TO_STRING,
-					true);
-			mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,
-					false);
-
-			// Tell Jackson to expect the JSON in PascalCase, instead of
-			// camelCase
-			mapper.setPropertyNamingStrategy(new PropertyNamingStrategy.PascalCaseStrategy());
+			mapper = createObjectMapper();
+			recordColdStart(OBJECT_MAPPER, COLD_START_CREATED, startTime);
 		}
 		return mapper;
 	}
 
+	/**
+	 * Creates a new Jackson ObjectMapper configured to parse JSON responses
+	 * from a Mobile Siri API.  Unlike getObjectMapperInstance(), a new
+	 * instance is returned every time, so its settings can be changed without
+	 * affecting other clients (e.g., before passing it into a
+	 * SiriJacksonReaders).
+	 * 
+	 * @return a new ObjectMapper configured for SIRI JSON responses
+	 */
+	public static ObjectMapper createObjectMapper() {
+		return configureObjectMapper(new ObjectMapper());
+	}
+
+	/**
+	 * Applies the SIRI JSON configuration (features and naming strategy) to a
+	 * new ObjectMapper.  Used for JSON, and for the binary formats that encode
+	 * the same data model as JSON (Smile and CBOR), so all of them bind
+	 * responses the same way.
+	 * 
+	 * @param m
+	 *            new ObjectMapper to configure
+	 * @return the same ObjectMapper, configured for SIRI responses
+	 */
+	private static ObjectMapper configureObjectMapper(ObjectMapper m) {
+		// Jackson configuration
+		m.configure(DeserializationFeature.UNWRAP_ROOT_VALUE, true);
+		m.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+		m.configure(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT,
+				true);
+		m.configure(DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY, true);
+		m.configure(DeserializationFeature.READ_ENUMS_USING_TO_STRING, true);
+		m.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+		// Tell Jackson to expect the JSON in PascalCase, instead of
+		// camelCase
+		m.setPropertyNamingStrategy(new PropertyNamingStrategy.PascalCaseStrategy());
+
+		return m;
+	}
+
+	/**
+	 * Constructs a thread-safe instance of a Jackson ObjectMapper configured to
+	 * parse Smile (binary JSON) responses from a Mobile Siri API.
+	 * 
+	 * The binary mappers aren't written to the Jackson object cache - their
+	 * cold start is the same as the JSON ObjectMapper's without the cache.
+	 * 
+	 * @return thread-safe ObjectMapper configured for SIRI Smile responses
+	 */
+	public static ObjectMapper getSmileMapperInstance() {
+		ObjectMapper m = smileMapper;
+		if (m != null) {
+			// Already initialized, no need to lock
+			return m;
+		}
+		synchronized (SiriJacksonConfig.class) {
+			if (smileMapper == null) {
+				long startTime = System.nanoTime();
+				smileMapper = createSmileMapper();
+				recordColdStart(SMILE_MAPPER, COLD_START_CREATED, startTime);
+			}
+			return smileMapper;
+		}
+	}
+
+	/**
+	 * Creates a new Jackson ObjectMapper configured to parse Smile responses
+	 * from a Mobile Siri API, with the same features and naming strategy as
+	 * the JSON ObjectMapper.  Unlike getSmileMapperInstance(), a new instance
+	 * is returned every time.
+	 * 
+	 * @return a new ObjectMapper configured for SIRI Smile responses
+	 */
+	public static ObjectMapper createSmileMapper() {
+		return configureObjectMapper(new ObjectMapper(new SmileFactory()));
+	}
+
+	/**
+	 * Constructs a thread-safe instance of a Jackson ObjectMapper configured to
+	 * parse CBOR responses from a Mobile Siri API.
+	 * 
+	 * The binary mappers aren't written to the Jackson object cache - their
+	 * cold start is the same as the JSON ObjectMapper's without the cache.
+	 * 
+	 * @return thread-safe ObjectMapper configured for SIRI CBOR responses
+	 */
+	public static ObjectMapper getCborMapperInstance() {
+		ObjectMapper m = cborMapper;
+		if (m != null) {
+			// Already initialized, no need to lock
+			return m;
+		}
+		synchronized (SiriJacksonConfig.class) {
+			if (cborMapper == null) {
+				long startTime = System.nanoTime();
+				cborMapper = createCborMapper();
+				recordColdStart(CBOR_MAPPER, COLD_START_CREATED, startTime);
+			}
+			return cborMapper;
+		}
+	}
+
+	/**
+	 * Creates a new Jackson ObjectMapper configured to parse CBOR responses
+	 * from a Mobile Siri API, with the same features and naming strategy as
+	 * the JSON ObjectMapper.  Unlike getCborMapperInstance(), a new instance
+	 * is returned every time.
+	 * 
+	 * @return a new ObjectMapper configured for SIRI CBOR responses
+	 */
+	public static ObjectMapper createCborMapper() {
+		return configureObjectMapper(new ObjectMapper(new CBORFactory()));
+	}
+
 	/**
 	 * Constructs a thread-safe instance of a Jackson XmlMapper configured to
 	 * parse XML responses from a Mobile Siri API.
 	 * 
 	 * @return thread-safe ObjectMapper configured for SIRI XML responses
 	 */
-	public synchronized static ObjectMapper getXmlMapperInstance() {
-		return initXmlMapper();
+	public static ObjectMapper getXmlMapperInstance() {
+		XmlMapper m = xmlMapper;
+		if (m != null) {
+			// Already initialized, no need to lock
+			return m;
+		}
+		synchronized (SiriJacksonConfig.class) {
+			return initXmlMapper();
+		}
 	}
 
 	/**
-	 * Internal method used to init main XmlMapper for XML parsing
+	 * Internal method used to init main XmlMapper for XML parsing.  Must be
+	 * called while holding the SiriJacksonConfig class lock.
 	 * 
 	 * @return initialized XmlMapper ready for XML parsing
 	 */
 	private static XmlMapper initXmlMapper() {
 		if (xmlMapper == null) {
+			long startTime = System.nanoTime();
 			/**
 			 * We don't have a reference to an XmlMapper, so we need to read
 			 * from cache or instantiate a new one
@@ -329,6 +558,7 @@ public class SiriJacksonConfig {
 
 				if (xmlMapper != null) {
 					// Successful read from the cache
+					recordColdStart(XML_MAPPER, COLD_START_CACHE, startTime);
 					return xmlMapper;
 				}
 			}
@@ -339,72 +569,86 @@ public class SiriJacksonConfig {
 			 * an error reading from the cache. Instantiate the object like
 			 * normal.
 			 */
-
-			// Use Aalto StAX implementation explicitly
-			XmlFactory f = new XmlFactory(new InputFactoryImpl(),
-					new OutputFactoryImpl());
-
-			JacksonXmlModule module = new JacksonXmlModule();
-
-			/**
-			 * Tell Jackson that Lists are using "unwrapped" style (i.e., there
-			 * is no wrapper element for list). This fixes the error
-			 * "com.fasterxml.jackson.databind.JsonMappingException: Can not >>
-			 * instantiate value of type [simple type, class >>
-			 * uk.org.siri.siri.VehicleMonitoringDelivery] from JSON String; no
-			 * >> single-String constructor/factory method (through reference
-			 * chain: >> uk.org.siri.siri.Siri["ServiceDelivery"]->
-			 * uk.org.siri.siri.ServiceDel >>
-			 * ivery["VehicleMonitoringDelivery"])"
-			 * 
-			 * NOTE - This requires Jackson v2.1.
-			 */
-			module.setDefaultUseWrapper(false);
-
-			/**
-			 * Handles "xml:lang" attribute, which is used in SIRI
-			 * NaturalLanguage String, and looks like: <Description
-			 * xml:lang="EN">b/d 1:00pm until f/n. loc al and express buses run
-			 * w/delays & detours. POTUS visit in MANH. Allow additional travel
-			 * time Details at www.mta.info</Description>
-			 * 
-			 * Passing "Value" (to match expected name in XML to map,
-			 * considering naming strategy) will make things work. This is since
-			 * JAXB uses pseudo-property name of "value" for XML Text segments,
-			 * whereas Jackson by default uses "" (to avoid name collisions).
-			 * 
-			 * NOTE - This requires vJackson 2.1.
-			 * 
-			 * NOTE - This still requires a CustomPascalCaseStrategy to work.
-			 * Please see the CustomPascalCaseStrategy in this app that is used
-			 * below.
-			 */
-			module.setXMLTextElementName("Value");
-
-			xmlMapper = new XmlMapper(f, module);
-
-			xmlMapper.configure(
-					DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
-			xmlMapper.configure(
-					DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT,
-					true);
-			xmlMapper.configure(
-					DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY, true);
-			xmlMapper.configure(
-					DeserializationFeature.READ_ENUMS_USING_TO_STRING, true);
-
-			/**
-			 * Tell Jackson to expect the XML in PascalCase, instead of
-			 * camelCase NOTE: We need the CustomPascalStrategy here to handle
-			 * XML namespace attributes such as xml:lang. See the comments in
-			 * CustomPascalStrategy for details.
-			 */
-			xmlMapper.setPropertyNamingStrategy(new CustomPascalCaseStrategy());
+			xmlMapper = createXmlMapper();
+			recordColdStart(XML_MAPPER, COLD_START_CREATED, startTime);
 		}
 
 		return xmlMapper;
 	}
 
+	/**
+	 * Creates a new Jackson XmlMapper configured to parse XML responses from
+	 * a Mobile Siri API.  Unlike getXmlMapperInstance(), a new instance is
+	 * returned every time, so its settings can be changed without affecting
+	 * other clients (e.g., before passing it into a SiriJacksonReaders).
+	 * 
+	 * @return a new XmlMapper configured for SIRI XML responses
+	 */
+	public static XmlMapper createXmlMapper() {
+		// Use Aalto StAX implementation explicitly
+		XmlFactory f = new XmlFactory(new InputFactoryImpl(),
+				new OutputFactoryImpl());
+
+		JacksonXmlModule module = new JacksonXmlModule();
+
+		/**
+		 * Tell Jackson that Lists are using "unwrapped" style (i.e., there
+		 * is no wrapper element for list). This fixes the error
+		 * "com.fasterxml.jackson.databind.JsonMappingException: Can not >>
+		 * instantiate value of type [simple type, class >>
+		 * uk.org.siri.siri.VehicleMonitoringDelivery] from JSON String; no
+		 * >> single-String constructor/factory method (through reference
+		 * chain: >> uk.org.siri.siri.Siri["ServiceDelivery"]->
+		 * uk.org.siri.siri.ServiceDel >>
+		 * ivery["VehicleMonitoringDelivery"])"
+		 * 
+		 * NOTE - This requires Jackson v2.1.
+		 */
+		module.setDefaultUseWrapper(false);
+
+		/**
+		 * Handles "xml:lang" attribute, which is used in SIRI
+		 * NaturalLanguage String, and looks like: <Description
+		 * xml:lang="EN">b/d 1:00pm until f/n. loc al and express buses run
+		 * w/delays & detours. POTUS visit in MANH. Allow additional travel
+		 * time Details at www.mta.info</Description>
+		 * 
+		 * Passing "Value" (to match expected name in XML to map,
+		 * considering naming strategy) will make things work. This is since
+		 * JAXB uses pseudo-property name of "value" for XML Text segments,
+		 * whereas Jackson by default uses "" (to avoid name collisions).
+		 * 
+		 * NOTE - This requires vJackson 2.1.
+		 * 
+		 * NOTE - This still requires a CustomPascalCaseStrategy to work.
+		 * Please see the CustomPascalCaseStrategy in this app that is used
+		 * below.
+		 */
+		module.setXMLTextElementName("Value");
+
+		XmlMapper m = new XmlMapper(f, module);
+
+		m.configure(
+				DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
+		m.configure(
+				DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT,
+				true);
+		m.configure(
+				DeserializationFeature.USE_JAVA_ARRAY_FOR_JSON_ARRAY, true);
+		m.configure(
+				DeserializationFeature.READ_ENUMS_USING_TO_STRING, true);
+
+		/**
+		 * Tell Jackson to expect the XML in PascalCase, instead of
+		 * camelCase NOTE: We need the CustomPascalStrategy here to handle
+		 * XML namespace attributes such as xml:lang. See the comments in
+		 * CustomPascalStrategy for details.
+		 */
+		m.setPropertyNamingStrategy(new CustomPascalCaseStrategy());
+
+		return m;
+	}
+
 	/**
 	 * Forces the write of a ObjectMapper, ObjectReader, or XmlMapper to the app
 	 * cache. The cache is used to reduce the cold-start delay for Jackson
@@ -419,6 +663,9 @@ public class SiriJacksonConfig {
 	 * SiriRestClient automatically triggers a non-blocking cache write after it
 	 * finishes parsing a server response.
 	 * 
+	 * If the object type already has an up-to-date cache file (it was read from
+	 * or written to the cache earlier in this VM), nothing is written.
+	 * 
 	 * This method is non-blocking.
 	 * 
 	 * @param instance
@@ -439,6 +686,14 @@ public class SiriJacksonConfig {
 		}
 
 		if (isUsingCache()) {
+			synchronized (SiriJacksonConfig.class) {
+				String objectType = getObjectType(object);
+				if (cachedObjectTypes.contains(objectType)
+						|| writingObjectTypes.contains(objectType)) {
+					// Already in the cache, or being written
+					return;
+				}
+			}
 			Runnable runnable = new Runnable() {
 				public void run() {
 					writeToCache(object);
@@ -481,9 +736,9 @@ public class SiriJacksonConfig {
 		if (isUsingCache()) {
 			Runnable runnable = new Runnable() {
 				public void run() {
-					readFromCache(OBJECT_MAPPER);
-					readFromCache(OBJECT_READER);
-					readFromCache(XML_MAPPER);
+					readColdStartFromCache(OBJECT_MAPPER);
+					readColdStartFromCache(OBJECT_READER);
+					readColdStartFromCache(XML_MAPPER);
 				};
 			};
 			new Thread(cacheThreadGroup, runnable, "forceCacheRead", stackSize)
@@ -498,7 +753,91 @@ public class SiriJacksonConfig {
 	}
 
 	/**
-	 * Write the given object to Android internal storage for this app
+	 * Records the cold-start time and source for an object type.  Must be
+	 * called while holding the SiriJacksonConfig class lock.
+	 */
+	private static void recordColdStart(String objectType, int source,
+			long startTime) {
+		long time = System.nanoTime() - startTime;
+		coldStartTimes.put(objectType, time);
+		coldStartSources.put(objectType, source);
+
+		Log.d(TAG, "Cold start of " + objectType + " ("
+				+ (source == COLD_START_CACHE ? "cache" : "created") + ") took "
+				+ df.format(time / 1000000.0) + " ms.");
+	}
+
+	/**
+	 * Reads an object type from the cache ahead of its first use, recording
+	 * the cold-start time if the object wasn't already initialized
+	 * 
+	 * @param objectType
+	 *            object type constant
+	 */
+	private static synchronized void readColdStartFromCache(String objectType) {
+		if (getColdStartSource(objectType) != COLD_START_NONE) {
+			// Already initialized
+			return;
+		}
+		long startTime = System.nanoTime();
+		if (readFromCache(objectType) != null) {
+			recordColdStart(objectType, COLD_START_CACHE, startTime);
+		}
+	}
+
+	/**
+	 * Returns the object type constant for a Jackson object
+	 * 
+	 * @param object
+	 *            ObjectReader, ObjectMapper, or XmlMapper
+	 * @return the object type constant, or null if the object isn't one of
+	 *         the cached types
+	 */
+	private static String getObjectType(Object object) {
+		if (object instanceof XmlMapper) {
+			return XML_MAPPER;
+		} else if (object instanceof ObjectMapper) {
+			// ObjectMapper check must come after XmlMapper check,
+			// since XmlMapper is subclass of ObjectMapper
+			return OBJECT_MAPPER;
+		} else if (object instanceof ObjectReader) {
+			return OBJECT_READER;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the version string of the Jackson components needed to
+	 * deserialize the given object type.  A cached object written by a
+	 * different Jackson version isn't read.
+	 * 
+	 * @param objectType
+	 *            object type constant
+	 * @return the Jackson version string for the object type
+	 */
+	private static String getJacksonVersion(String objectType) {
+		String version = com.fasterxml.jackson.databind.cfg.PackageVersion.VERSION
+				.toString();
+		if (XML_MAPPER.equals(objectType)) {
+			version += "/"
+					+ com.fasterxml.jackson.dataformat.xml.PackageVersion.VERSION
+							.toString();
+		}
+		return version;
+	}
+
+	/**
+	 * Write the given object to Android internal storage for this app.
+	 * 
+	 * The object is serialized in memory, and then written with a header
+	 * (format version, config and Jackson versions, length, and CRC32
+	 * checksum) to a temporary file, which is renamed over the cache file
+	 * once it has been synced to disk.  An interrupted write therefore leaves
+	 * either the old cache file or the new one, never a partial file.
+	 * 
+	 * The class lock is only held to claim the object type and to rename the
+	 * file, not while serializing and syncing, so request threads that need
+	 * the lock (e.g., in forceCacheWrite()) don't wait for the disk.
 	 * 
 	 * @param object
 	 *            serializable object to be written to cache (ObjectReader,
@@ -506,74 +845,125 @@ public class SiriJacksonConfig {
 	 * @return true if object was successfully written to cache, false if it was
 	 *         not
 	 */
-	private synchronized static boolean writeToCache(Serializable object) {
+	private static boolean writeToCache(Serializable object) {
 
 		FileOutputStream fileStream = null;
-		ObjectOutputStream objectStream = null;
-		String fileName = "";
+		String objectType = getObjectType(object);
 		boolean success = false;
 
-		if (context != null) {
-			try {
-				if (object instanceof XmlMapper) {
-					fileName = XML_MAPPER + CACHE_FILE_EXTENSION;
-				} else if (object instanceof ObjectMapper) {
-					// ObjectMapper check must come after XmlMapper check,
-					// since XmlMapper is subclass of ObjectMapper
-					fileName = OBJECT_MAPPER + CACHE_FILE_EXTENSION;
-				} else if (object instanceof ObjectReader) {
-					fileName = OBJECT_READER + CACHE_FILE_EXTENSION;
-				}
+		if (objectType == null) {
+			Log.w(TAG, "Can't write " + object + " to cache - not a cached Jackson object type.");
+			return false;
+		}
+		
+		Context c;
+		synchronized (SiriJacksonConfig.class) {
+			if (cachedObjectTypes.contains(objectType)) {
+				// Another thread already wrote it
+				return true;
+			}
+			if (!writingObjectTypes.add(objectType)) {
+				// Another thread is writing it now
+				return false;
+			}
+			c = context;
+		}
+
+		if (c != null) {
+			String fileName = objectType + CACHE_FILE_EXTENSION;
+			File file = c.getFileStreamPath(fileName);
+			File tempFile = c.getFileStreamPath(fileName
+					+ TEMP_FILE_EXTENSION);
+			long writeStartTime = System.nanoTime();
 
-				cacheWriteStartTime = System.nanoTime();
-				fileStream = context.openFileOutput(fileName,
-						Context.MODE_PRIVATE);
-				objectStream = new ObjectOutputStream(fileStream);
+			try {
+				// Serialize to memory first, so the checksum can go in the
+				// header
+				ByteArrayOutputStream payload = new ByteArrayOutputStream(
+						CACHE_READ_BUFFER_SIZE);
+				ObjectOutputStream objectStream = new ObjectOutputStream(
+						payload);
 				objectStream.writeObject(object);
-				objectStream.flush();
+				objectStream.close();
+				byte[] bytes = payload.toByteArray();
+
+				CRC32 crc = new CRC32();
+				crc.update(bytes, 0, bytes.length);
+
+				fileStream = new FileOutputStream(tempFile);
+				DataOutputStream out = new DataOutputStream(fileStream);
+				out.writeInt(CACHE_MAGIC);
+				out.writeInt(CACHE_FORMAT_VERSION);
+				out.writeInt(CACHE_CONFIG_VERSION);
+				out.writeUTF(getJacksonVersion(objectType));
+				out.writeInt(bytes.length);
+				out.writeLong(crc.getValue());
+				out.write(bytes);
+				out.flush();
 				fileStream.getFD().sync();
-				cacheWriteEndTime = System.nanoTime();
+				fileStream.close();
+				fileStream = null;
+
+				synchronized (SiriJacksonConfig.class) {
+					// Atomically replace the old cache file, while no other
+					// thread is reading (and possibly deleting) it
+					if (!tempFile.renameTo(file)) {
+						throw new IOException("Couldn't rename " + tempFile
+								+ " to " + file);
+					}
+					cacheWriteStartTime = writeStartTime;
+					cacheWriteEndTime = System.nanoTime();
+					cachedObjectTypes.add(objectType);
+				}
 				success = true;
 
-				// Get size of serialized object
-				long fileSize = context.getFileStreamPath(fileName).length();
-
 				Log.d(TAG,
 						"Wrote "
 								+ fileName
 								+ " to cache ("
-								+ fileSize
+								+ file.length()
 								+ " bytes) in "
-								+ df.format(getLastCacheWriteTime() / 1000000.0)
+								+ df.format((System.nanoTime() - writeStartTime) / 1000000.0)
 								+ " ms.");
 			} catch (IOException e) {
-				// Reset timestamps to show there was an error
-				cacheWriteStartTime = 0;
-				cacheWriteEndTime = 0;
+				synchronized (SiriJacksonConfig.class) {
+					// Reset timestamps to show there was an error
+					cacheWriteStartTime = 0;
+					cacheWriteEndTime = 0;
+				}
 				Log.e(TAG, "Couldn't write Jackson object '" + fileName
 						+ "' to cache: " + e);
 			} finally {
 				try {
-					if (objectStream != null) {
-						objectStream.close();
-					}
 					if (fileStream != null) {
 						fileStream.close();
 					}
 				} catch (Exception e) {
 					Log.e(TAG, "Error closing file connections: " + e);
 				}
+				if (!success) {
+					tempFile.delete();
+				}
 			}
 		} else {
 			Log.w(TAG,
 					"Can't write to cache - no context provided.  If you want to use the cache, call SiriJacksonConfig.setUsingCache(true, context) with a reference to your context.");
 		}
 
+		synchronized (SiriJacksonConfig.class) {
+			writingObjectTypes.remove(objectType);
+		}
 		return success;
 	}
 
 	/**
-	 * Read the given object from Android internal storage for this app
+	 * Read the given object from Android internal storage for this app.
+	 * 
+	 * The header is checked before the object is deserialized.  A cache file
+	 * written with a different config or Jackson version, or with a checksum
+	 * that doesn't match its contents (e.g., from a write that was
+	 * interrupted before atomic renames were used), is deleted and treated as
+	 * a cache miss.
 	 * 
 	 * @param objectType
 	 *            object type, defined by class constant Strings, to retrieve
@@ -583,8 +973,7 @@ public class SiriJacksonConfig {
 	 */
 	private static synchronized Serializable readFromCache(String objectType) {
 
-		FileInputStream fileStream = null;
-		ObjectInputStream objectStream = null;
+		DataInputStream in = null;
 
 		// Holds object to be read from cache
 		Serializable object = null;
@@ -602,44 +991,102 @@ public class SiriJacksonConfig {
 		}
 
 		if (context != null) {
-			try {
-				String fileName = objectType + CACHE_FILE_EXTENSION;
+			String fileName = objectType + CACHE_FILE_EXTENSION;
+			File file = context.getFileStreamPath(fileName);
+
+			if (!file.exists()) {
+				Log.w(TAG, "Cache miss - Jackson object '" + objectType
+						+ "' does not exist in app cache.");
+				return null;
+			}
 
+			boolean invalid = false;
+			try {
 				cacheReadStartTime = System.nanoTime();
-				fileStream = context.openFileInput(fileName);
-				objectStream = new ObjectInputStream(fileStream);
+				in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(file), CACHE_READ_BUFFER_SIZE));
+
+				String mismatch = checkCacheHeader(in, objectType);
+				if (mismatch != null) {
+					invalid = true;
+					Log.w(TAG, "Discarding cached Jackson object '"
+							+ objectType + "': " + mismatch);
+					return null;
+				}
+
+				int length = in.readInt();
+				long checksum = in.readLong();
+				if (length < 0 || length > file.length()) {
+					invalid = true;
+					Log.w(TAG, "Discarding cached Jackson object '"
+							+ objectType + "': bad length " + length);
+					return null;
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+
+				CRC32 crc = new CRC32();
+				crc.update(bytes, 0, length);
+				if (crc.getValue() != checksum) {
+					invalid = true;
+					Log.w(TAG, "Discarding cached Jackson object '"
+							+ objectType + "': checksum mismatch");
+					return null;
+				}
+
+				ObjectInputStream objectStream = new ObjectInputStream(
+						new ByteArrayInputStream(bytes));
 				object = (Serializable) objectStream.readObject();
 				cacheReadEndTime = System.nanoTime();
 
-				// Get size of serialized object
-				long fileSize = context.getFileStreamPath(fileName).length();
+				if (!objectType.equals(getObjectType(object))) {
+					invalid = true;
+					object = null;
+					Log.w(TAG, "Discarding cached Jackson object '"
+							+ objectType + "': wrong object type");
+					return null;
+				}
 
 				Log.d(TAG,
-						"Read " + fileName + " from cache (" + fileSize
+						"Read " + fileName + " from cache (" + file.length()
 								+ " bytes) in "
 								+ df.format(getLastCacheReadTime() / 1000000.0)
 								+ " ms.");
-			} catch (FileNotFoundException e) {
-				Log.w(TAG, "Cache miss - Jackson object '" + objectType
-						+ "' does not exist in app cache: " + e);
-				return null;
+			} catch (EOFException e) {
+				// Truncated file
+				invalid = true;
+				Log.e(TAG, "Couldn't read Jackson object '" + objectType
+						+ "' from cache, file is truncated: " + e);
 			} catch (Exception e) {
-				// Reset timestamps to show there was an error
-				cacheReadStartTime = 0;
-				cacheReadEndTime = 0;
+				// A file with a valid header and checksum that still can't be
+				// deserialized won't deserialize next time either
+				invalid = true;
 				Log.e(TAG, "Couldn't read Jackson object '" + objectType
 						+ "' from cache: " + e);
 			} finally {
 				try {
-					if (objectStream != null) {
-						objectStream.close();
-					}
-					if (fileStream != null) {
-						fileStream.close();
+					if (in != null) {
+						in.close();
 					}
 				} catch (Exception e) {
 					Log.e(TAG, "Error closing cache file connections: " + e);
 				}
+				if (invalid) {
+					// Reset timestamps to show there was an error
+					cacheReadStartTime = 0;
+					cacheReadEndTime = 0;
+
+					// Don't pay for this file again on the next cold start -
+					// it will be rewritten after the next response is parsed
+					if (!file.delete()) {
+						Log.w(TAG, "Couldn't delete invalid cache file "
+								+ file);
+					}
+				}
+			}
+
+			if (object == null) {
+				return null;
 			}
 
 			// Keep reference to object we just read from cache
@@ -650,6 +1097,7 @@ public class SiriJacksonConfig {
 			} else if (object instanceof ObjectReader) {
 				reader = (ObjectReader) object;
 			}
+			cachedObjectTypes.add(objectType);
 
 			return object;
 		} else {
@@ -658,4 +1106,41 @@ public class SiriJacksonConfig {
 			return null;
 		}
 	}
+
+	/**
+	 * Reads the cache file header up to (not including) the payload length,
+	 * and checks it against the running code
+	 * 
+	 * @param in
+	 *            stream positioned at the start of the cache file
+	 * @param objectType
+	 *            object type constant the file should contain
+	 * @return null if the header matches, or a description of the mismatch if
+	 *         it doesn't
+	 * @throws IOException
+	 *             if the header couldn't be read
+	 */
+	private static String checkCacheHeader(DataInputStream in,
+			String objectType) throws IOException {
+		if (in.readInt() != CACHE_MAGIC) {
+			return "not a cache file (written by an older version?)";
+		}
+		int formatVersion = in.readInt();
+		if (formatVersion != CACHE_FORMAT_VERSION) {
+			return "cache format version " + formatVersion + ", expected "
+					+ CACHE_FORMAT_VERSION;
+		}
+		int configVersion = in.readInt();
+		if (configVersion != CACHE_CONFIG_VERSION) {
+			return "config version " + configVersion + ", expected "
+					+ CACHE_CONFIG_VERSION;
+		}
+		String jacksonVersion = in.readUTF();
+		String expectedJacksonVersion = getJacksonVersion(objectType);
+		if (!expectedJacksonVersion.equals(jacksonVersion)) {
+			return "Jackson version " + jacksonVersion + ", expected "
+					+ expectedJacksonVersion;
+		}
+		return null;
+	}
 }
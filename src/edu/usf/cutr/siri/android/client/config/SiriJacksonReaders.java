@@ -0,0 +1,186 @@
+package edu.usf.cutr.siri.android.client.config;
+
+import uk.org.siri.siri.Siri;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * The Jackson objects that a SiriRestClient uses to parse responses: an
+ * ObjectMapper and ObjectReader for JSON, an XmlMapper for XML, and
+ * ObjectMappers for Smile and CBOR.
+ * 
+ * Instances are immutable - all objects are created in the constructor and
+ * held in final fields, so they are safely published to every thread that
+ * sees the instance, and can be used without any locking. Two clients with
+ * different SiriJacksonReaders can use different deserialization settings.
+ * 
+ * The instance returned by getDefault() uses the shared static instances from
+ * SiriJacksonConfig (including the Jackson object cache, if it's turned on),
+ * which are only created the first time they are needed.
+ */
+public final class SiriJacksonReaders {
+
+	private static final SiriJacksonReaders DEFAULT = new SiriJacksonReaders();
+
+	// All null for the default instance, which uses SiriJacksonConfig instead
+	private final ObjectMapper objectMapper;
+	private final ObjectReader objectReader;
+	private final ObjectMapper xmlMapper;
+	private final ObjectMapper smileMapper;
+	private final ObjectMapper cborMapper;
+
+	/**
+	 * Creates the default instance
+	 */
+	private SiriJacksonReaders() {
+		this.objectMapper = null;
+		this.objectReader = null;
+		this.xmlMapper = null;
+		this.smileMapper = null;
+		this.cborMapper = null;
+	}
+
+	/**
+	 * Creates a new set of readers from the given mappers. The mappers must
+	 * not be reconfigured after they are passed in. New mappers with the
+	 * standard SIRI configuration are created for Smile and CBOR.
+	 * 
+	 * @param objectMapper
+	 *            mapper for JSON responses (e.g., from
+	 *            SiriJacksonConfig.createObjectMapper(), with any settings
+	 *            changed)
+	 * @param xmlMapper
+	 *            mapper for XML responses (e.g., from
+	 *            SiriJacksonConfig.createXmlMapper(), with any settings
+	 *            changed)
+	 */
+	public SiriJacksonReaders(ObjectMapper objectMapper, ObjectMapper xmlMapper) {
+		this(objectMapper, xmlMapper, SiriJacksonConfig.createSmileMapper(),
+				SiriJacksonConfig.createCborMapper());
+	}
+
+	/**
+	 * Creates a new set of readers from the given mappers. The mappers must
+	 * not be reconfigured after they are passed in.
+	 * 
+	 * @param objectMapper
+	 *            mapper for JSON responses (e.g., from
+	 *            SiriJacksonConfig.createObjectMapper(), with any settings
+	 *            changed)
+	 * @param xmlMapper
+	 *            mapper for XML responses (e.g., from
+	 *            SiriJacksonConfig.createXmlMapper(), with any settings
+	 *            changed)
+	 * @param smileMapper
+	 *            mapper for Smile responses (e.g., from
+	 *            SiriJacksonConfig.createSmileMapper(), with any settings
+	 *            changed)
+	 * @param cborMapper
+	 *            mapper for CBOR responses (e.g., from
+	 *            SiriJacksonConfig.createCborMapper(), with any settings
+	 *            changed)
+	 */
+	public SiriJacksonReaders(ObjectMapper objectMapper,
+			ObjectMapper xmlMapper, ObjectMapper smileMapper,
+			ObjectMapper cborMapper) {
+		if (objectMapper == null || xmlMapper == null || smileMapper == null
+				|| cborMapper == null) {
+			throw new IllegalArgumentException("Mappers must not be null");
+		}
+		this.objectMapper = objectMapper;
+		this.objectReader = objectMapper.reader(Siri.class);
+		this.xmlMapper = xmlMapper;
+		this.smileMapper = smileMapper;
+		this.cborMapper = cborMapper;
+	}
+
+	/**
+	 * Creates a new set of readers with the standard SIRI configuration, that
+	 * don't share any state with the static instances in SiriJacksonConfig
+	 * 
+	 * @return a new set of readers with the standard SIRI configuration
+	 */
+	public static SiriJacksonReaders create() {
+		return new SiriJacksonReaders(SiriJacksonConfig.createObjectMapper(),
+				SiriJacksonConfig.createXmlMapper(),
+				SiriJacksonConfig.createSmileMapper(),
+				SiriJacksonConfig.createCborMapper());
+	}
+
+	/**
+	 * Returns the default instance, which uses the static instances from
+	 * SiriJacksonConfig
+	 * 
+	 * @return the default instance
+	 */
+	public static SiriJacksonReaders getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns true if this is the default instance, which uses the static
+	 * instances (and Jackson object cache) from SiriJacksonConfig
+	 * 
+	 * @return true if this is the default instance
+	 */
+	public boolean isDefault() {
+		return this == DEFAULT;
+	}
+
+	/**
+	 * Returns the ObjectMapper for JSON responses.
+	 * 
+	 * According to Jackson Best Practices
+	 * (http://wiki.fasterxml.com/JacksonBestPracticesPerformance), the
+	 * ObjectReader (via getObjectReader()) should be used instead for
+	 * efficiency.
+	 * 
+	 * @return the ObjectMapper for JSON responses
+	 */
+	@SuppressWarnings("deprecation")
+	public ObjectMapper getObjectMapper() {
+		return objectMapper != null ? objectMapper : SiriJacksonConfig
+				.getObjectMapperInstance();
+	}
+
+	/**
+	 * Returns the ObjectReader for JSON responses
+	 * 
+	 * @return the ObjectReader for JSON responses
+	 */
+	public ObjectReader getObjectReader() {
+		return objectReader != null ? objectReader : SiriJacksonConfig
+				.getObjectReaderInstance();
+	}
+
+	/**
+	 * Returns the XmlMapper for XML responses
+	 * 
+	 * @return the XmlMapper for XML responses
+	 */
+	public ObjectMapper getXmlMapper() {
+		return xmlMapper != null ? xmlMapper : SiriJacksonConfig
+				.getXmlMapperInstance();
+	}
+
+	/**
+	 * Returns the ObjectMapper for Smile responses
+	 * 
+	 * @return the ObjectMapper for Smile responses
+	 */
+	public ObjectMapper getSmileMapper() {
+		return smileMapper != null ? smileMapper : SiriJacksonConfig
+				.getSmileMapperInstance();
+	}
+
+	/**
+	 * Returns the ObjectMapper for CBOR responses
+	 * 
+	 * @return the ObjectMapper for CBOR responses
+	 */
+	public ObjectMapper getCborMapper() {
+		return cborMapper != null ? cborMapper : SiriJacksonConfig
+				.getCborMapperInstance();
+	}
+}
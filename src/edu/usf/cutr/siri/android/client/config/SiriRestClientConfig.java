@@ -18,6 +18,18 @@ public class SiriRestClientConfig {
 	 */
 	public static final int RESPONSE_TYPE_XML = 1;
 
+	/**
+	 * Specifies that the request type be in Smile, the binary JSON format from
+	 * the Jackson project (http://wiki.fasterxml.com/SmileFormat)
+	 */
+	public static final int RESPONSE_TYPE_SMILE = 2;
+
+	/**
+	 * Specifies that the request type be in CBOR, the Concise Binary Object
+	 * Representation (RFC 7049)
+	 */
+	public static final int RESPONSE_TYPE_CBOR = 3;
+
 	/**
 	 * Specifies that the HTTP connection being used is the connection
 	 * embedded within Jackson (default setting)
@@ -28,6 +40,12 @@ public class SiriRestClientConfig {
 	 * defined by the Android HTTPURLConnection
 	 */
 	public static final int HTTP_CONNECTION_TYPE_ANDROID = 1;
+	/**
+	 * Specifies that the HTTP connection being used is a pooled keep-alive
+	 * connection, which is reused across requests to the same host (see
+	 * SiriConnectionPool)
+	 */
+	public static final int HTTP_CONNECTION_TYPE_POOLED = 2;
 
 	/**
 	 * Specifies that the Jackson object used for parsing JSON is the
@@ -40,17 +58,104 @@ public class SiriRestClientConfig {
 	 */
 	public static final int JACKSON_OBJECT_TYPE_MAPPER = 1;
 
+	/**
+	 * Specifies that requests over the rate limit wait for a token (up to the
+	 * maximum wait) before they are sent (default setting)
+	 */
+	public static final int RATE_LIMIT_POLICY_QUEUE = 0;
+	/**
+	 * Specifies that requests over the rate limit fail right away, without
+	 * being sent
+	 */
+	public static final int RATE_LIMIT_POLICY_SHED = 1;
+
 	// Holds the current selected values, based on the above constants
 	private int responseType;
 	private int httpConnectionType;
 	private int jacksonObjectType;
 
+	// Settings for HTTP_CONNECTION_TYPE_POOLED
+	private int maxIdleConnectionsPerHost = 5;
+	private long keepAliveDuration = 30000; // 30 seconds
+
+	// Timeouts (in milliseconds) for HTTP_CONNECTION_TYPE_ANDROID and
+	// HTTP_CONNECTION_TYPE_POOLED, 0 for no timeout
+	private int connectTimeout = 0;
+	private int readTimeout = 0;
+
+	// Request gzip/deflate compressed responses for HTTP_CONNECTION_TYPE_ANDROID
+	// and HTTP_CONNECTION_TYPE_POOLED
+	private boolean compressionEnabled = true;
+
+	// Settings for asynchronous requests
+	private int asyncThreadCount = 4;
+	private int maxAsyncRequests = 32;
+
+	// Max number of requests from one batch (e.g., makeStopMonRequests()) that
+	// are executing at once
+	private int maxConcurrentBatchRequests = 8;
+
+	// Settings for the in-memory response cache
+	private boolean responseCacheEnabled = false;
+	private long responseCacheTtl = 30000; // 30 seconds
+	private int responseCacheMaxEntries = 64;
+
+	// Share one fetch between concurrent identical requests
+	private boolean requestCoalescingEnabled = false;
+
+	// Polling of subscriptions by SiriPollingScheduler
+	private int pollingThreadCount = 2;
+	private long minPollingInterval = 10000; // 10 seconds
+	private long defaultPollingInterval = 30000; // 30 seconds
+	private long maxPollingInterval = 300000; // 5 minutes
+	private int pollingJitterPercent = 10;
+
+	// Warm-up of the Jackson deserializers when a SiriRestClient is created
+	private boolean warmupEnabled = false;
+	private int warmupReplayCount = 50;
+
+	// Retries of failed requests, with exponential backoff
+	private int maxRetries = 0;
+	private long retryInitialBackoff = 500; // milliseconds
+	private long retryMaxBackoff = 10000; // 10 seconds
+	private int retryJitterPercent = 50;
+
+	// Hedged requests, sent when the first request is slower than a
+	// percentile of recent request times
+	private boolean hedgingEnabled = false;
+	private double hedgingPercentile = 95;
+	private long minHedgingDelay = 50; // milliseconds
+
+	// Circuit breaker for each server base URL
+	private boolean circuitBreakerEnabled = false;
+	private int circuitBreakerWindowSize = 20;
+	private int circuitBreakerMinimumCalls = 10;
+	private int circuitBreakerFailureRateThreshold = 50; // percent
+	private int circuitBreakerSlowCallRateThreshold = 80; // percent
+	private long circuitBreakerSlowCallDuration = 5000; // 5 seconds
+	private long circuitBreakerOpenDuration = 30000; // 30 seconds
+	private int circuitBreakerHalfOpenCalls = 3;
+	private boolean circuitBreakerFallbackEnabled = true;
+
+	// Token-bucket rate limit for each developer key and endpoint
+	private boolean rateLimitEnabled = false;
+	private double rateLimitRequestsPerSecond = 1;
+	private int rateLimitBurst = 5;
+	private int rateLimitPolicy = RATE_LIMIT_POLICY_QUEUE;
+	private long rateLimitMaxWait = 10000; // 10 seconds
+
+	// Read response bodies into pooled buffers and parse them from a byte[]
+	private boolean responseBufferingEnabled = false;
+	private int responseBufferPoolSize = 4;
+	private int maxPooledResponseBufferSize = 1024 * 1024; // 1 MB
+
 	/**
 	 * Constructor used to set up the SiriRestClient with various options,
 	 * based on the constants defined in this class
 	 * 
 	 * @param responseType
-	 *            RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML
+	 *            RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML,
+	 *            RESPONSE_TYPE_SMILE for Smile, RESPONSE_TYPE_CBOR for CBOR
 	 * @param httpConnectionType
 	 *            HTTP_CONNECTION_TYPE_JACKSON to use the connection type
 	 *            internal to Jackson, HTTP_CONNECTION_TYPE_ANDROID to use
@@ -58,7 +163,7 @@ public class SiriRestClientConfig {
 	 */
 	public SiriRestClientConfig(int responseType) {
 
-		if (responseType > 1 || responseType < 0) {
+		if (responseType > RESPONSE_TYPE_CBOR || responseType < 0) {
 			throw new IllegalArgumentException(
 					"Input must be constants defined in this class");
 		}
@@ -77,7 +182,8 @@ public class SiriRestClientConfig {
 	 * 
 	 * @return HTTP_CONNECTION_TYPE_JACKSON for the connection type internal
 	 *         to Jackson, HTTP_CONNECTION_TYPE_ANDROID for the Android
-	 *         HTTPURLConnection
+	 *         HTTPURLConnection, HTTP_CONNECTION_TYPE_POOLED for a pooled
+	 *         keep-alive connection
 	 */
 	public int getHttpConnectionType() {
 		return httpConnectionType;
@@ -100,7 +206,8 @@ public class SiriRestClientConfig {
 	 * @param httpConnectionType
 	 *            HTTP_CONNECTION_TYPE_JACKSON for the connection type
 	 *            internal to Jackson, HTTP_CONNECTION_TYPE_ANDROID for the
-	 *            Android HTTPURLConnection
+	 *            Android HTTPURLConnection, HTTP_CONNECTION_TYPE_POOLED for a
+	 *            pooled keep-alive connection
 	 */
 	public void setHttpConnectionType(int httpConnectionType) {
 		this.httpConnectionType = httpConnectionType;
@@ -122,7 +229,8 @@ public class SiriRestClientConfig {
 	 * Sets the requested response type
 	 * 
 	 * @param responseType
-	 *            RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML
+	 *            RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML,
+	 *            RESPONSE_TYPE_SMILE for Smile, RESPONSE_TYPE_CBOR for CBOR
 	 */
 	public void setResponseType(int responseType) {
 		this.responseType = responseType;
@@ -131,10 +239,1098 @@ public class SiriRestClientConfig {
 	/**
 	 * Gets the requested response type
 	 * 
-	 * @return RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML
+	 * @return RESPONSE_TYPE_JSON for JSON, RESPONSE_TYPE_XML for XML,
+	 *         RESPONSE_TYPE_SMILE for Smile, RESPONSE_TYPE_CBOR for CBOR
 	 */
 	public int getResponseType() {
 		return responseType;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Returns the maximum number of idle keep-alive connections kept per host
+	 * when using HTTP_CONNECTION_TYPE_POOLED
+	 * 
+	 * @return the maximum number of idle keep-alive connections kept per host
+	 */
+	public int getMaxIdleConnectionsPerHost() {
+		return maxIdleConnectionsPerHost;
+	}
+
+	/**
+	 * Sets the maximum number of idle keep-alive connections kept per host
+	 * when using HTTP_CONNECTION_TYPE_POOLED
+	 * 
+	 * @param maxIdleConnectionsPerHost
+	 *            the maximum number of idle keep-alive connections kept per
+	 *            host
+	 */
+	public void setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+		this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) an idle keep-alive connection is kept
+	 * before it is closed when using HTTP_CONNECTION_TYPE_POOLED
+	 * 
+	 * @return the time (in milliseconds) an idle keep-alive connection is kept
+	 */
+	public long getKeepAliveDuration() {
+		return keepAliveDuration;
+	}
+
+	/**
+	 * Sets the time (in milliseconds) an idle keep-alive connection is kept
+	 * before it is closed when using HTTP_CONNECTION_TYPE_POOLED. This should
+	 * be shorter than the idle timeout of the server.
+	 * 
+	 * @param keepAliveDuration
+	 *            the time (in milliseconds) an idle keep-alive connection is
+	 *            kept
+	 */
+	public void setKeepAliveDuration(long keepAliveDuration) {
+		this.keepAliveDuration = keepAliveDuration;
+	}
+
+	/**
+	 * Returns the connect timeout (in milliseconds), or 0 for no timeout
+	 * 
+	 * @return the connect timeout (in milliseconds), or 0 for no timeout
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets the connect timeout (in milliseconds) used for
+	 * HTTP_CONNECTION_TYPE_ANDROID and HTTP_CONNECTION_TYPE_POOLED
+	 * 
+	 * @param connectTimeout
+	 *            the connect timeout (in milliseconds), or 0 for no timeout
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Returns the read timeout (in milliseconds), or 0 for no timeout
+	 * 
+	 * @return the read timeout (in milliseconds), or 0 for no timeout
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Sets the read timeout (in milliseconds) used for
+	 * HTTP_CONNECTION_TYPE_ANDROID and HTTP_CONNECTION_TYPE_POOLED
+	 * 
+	 * @param readTimeout
+	 *            the read timeout (in milliseconds), or 0 for no timeout
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Returns the number of threads in the default executor used for
+	 * asynchronous requests
+	 * 
+	 * @return the number of threads in the default executor used for
+	 *         asynchronous requests
+	 */
+	public int getAsyncThreadCount() {
+		return asyncThreadCount;
+	}
+
+	/**
+	 * Sets the number of threads in the default executor used for
+	 * asynchronous requests. This has no effect if the SiriRestClient is
+	 * given its own executor, or after the first asynchronous request is
+	 * made.
+	 * 
+	 * @param asyncThreadCount
+	 *            the number of threads in the default executor used for
+	 *            asynchronous requests
+	 */
+	public void setAsyncThreadCount(int asyncThreadCount) {
+		if (asyncThreadCount < 1) {
+			throw new IllegalArgumentException(
+					"asyncThreadCount must be 1 or greater");
+		}
+		this.asyncThreadCount = asyncThreadCount;
+	}
+
+	/**
+	 * Returns the maximum number of asynchronous requests that can be queued
+	 * or executing at once
+	 * 
+	 * @return the maximum number of asynchronous requests that can be queued
+	 *         or executing at once
+	 */
+	public int getMaxAsyncRequests() {
+		return maxAsyncRequests;
+	}
+
+	/**
+	 * Sets the maximum number of asynchronous requests that can be queued or
+	 * executing at once. Further asynchronous requests are rejected until
+	 * one finishes. This has no effect after the first asynchronous request is
+	 * made.
+	 * 
+	 * @param maxAsyncRequests
+	 *            the maximum number of asynchronous requests that can be
+	 *            queued or executing at once
+	 */
+	public void setMaxAsyncRequests(int maxAsyncRequests) {
+		if (maxAsyncRequests < 1) {
+			throw new IllegalArgumentException(
+					"maxAsyncRequests must be 1 or greater");
+		}
+		this.maxAsyncRequests = maxAsyncRequests;
+	}
+
+	/**
+	 * Returns the maximum number of requests from a single batch (e.g.,
+	 * SiriRestClient.makeStopMonRequests()) that are executed at once
+	 * 
+	 * @return the maximum number of requests from a single batch that are
+	 *         executed at once
+	 */
+	public int getMaxConcurrentBatchRequests() {
+		return maxConcurrentBatchRequests;
+	}
+
+	/**
+	 * Sets the maximum number of requests from a single batch (e.g.,
+	 * SiriRestClient.makeStopMonRequests()) that are executed at once. This
+	 * is also the number of threads of the executor that runs batches, which
+	 * is separate from the executor for asynchronous requests, so it isn't
+	 * limited by getAsyncThreadCount(). The number of threads doesn't change
+	 * after the first batch is made.
+	 * 
+	 * @param maxConcurrentBatchRequests
+	 *            the maximum number of requests from a single batch that are
+	 *            executed at once
+	 */
+	public void setMaxConcurrentBatchRequests(int maxConcurrentBatchRequests) {
+		if (maxConcurrentBatchRequests < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrentBatchRequests must be 1 or greater");
+		}
+		this.maxConcurrentBatchRequests = maxConcurrentBatchRequests;
+	}
+
+	/**
+	 * Returns true if parsed responses are cached in memory by request URL
+	 * 
+	 * @return true if parsed responses are cached in memory by request URL,
+	 *         false if they are not
+	 */
+	public boolean isResponseCacheEnabled() {
+		return responseCacheEnabled;
+	}
+
+	/**
+	 * Sets whether parsed responses are cached in memory by request URL. Cached
+	 * responses are served without contacting the server until their
+	 * ValidUntil time or the TTL passes, and then revalidated with a
+	 * conditional GET (for HTTP_CONNECTION_TYPE_ANDROID and
+	 * HTTP_CONNECTION_TYPE_POOLED).
+	 * 
+	 * @param responseCacheEnabled
+	 *            true if parsed responses should be cached, false if they
+	 *            should not
+	 */
+	public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+		this.responseCacheEnabled = responseCacheEnabled;
+	}
+
+	/**
+	 * Returns the maximum time (in milliseconds) a cached response is served
+	 * without contacting the server
+	 * 
+	 * @return the maximum time (in milliseconds) a cached response is served
+	 *         without contacting the server
+	 */
+	public long getResponseCacheTtl() {
+		return responseCacheTtl;
+	}
+
+	/**
+	 * Sets the maximum time (in milliseconds) a cached response is served
+	 * without contacting the server. Responses with an earlier ValidUntil time
+	 * expire at the ValidUntil time instead.
+	 * 
+	 * @param responseCacheTtl
+	 *            the maximum time (in milliseconds) a cached response is
+	 *            served without contacting the server
+	 */
+	public void setResponseCacheTtl(long responseCacheTtl) {
+		this.responseCacheTtl = responseCacheTtl;
+	}
+
+	/**
+	 * Returns the maximum number of responses held in the response cache
+	 * 
+	 * @return the maximum number of responses held in the response cache
+	 */
+	public int getResponseCacheMaxEntries() {
+		return responseCacheMaxEntries;
+	}
+
+	/**
+	 * Sets the maximum number of responses held in the response cache. The
+	 * least recently used response is evicted when the cache is full.
+	 * 
+	 * @param responseCacheMaxEntries
+	 *            the maximum number of responses held in the response cache
+	 */
+	public void setResponseCacheMaxEntries(int responseCacheMaxEntries) {
+		this.responseCacheMaxEntries = responseCacheMaxEntries;
+	}
+
+	/**
+	 * Returns true if gzip/deflate compressed responses are requested from the
+	 * server
+	 * 
+	 * @return true if gzip/deflate compressed responses are requested from the
+	 *         server, false if they are not
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * Sets whether gzip/deflate compressed responses are requested from the
+	 * server (via the Accept-Encoding header) and decompressed while parsing.
+	 * This applies to HTTP_CONNECTION_TYPE_ANDROID and
+	 * HTTP_CONNECTION_TYPE_POOLED - the Jackson HTTP connection doesn't support
+	 * compression. Default is true.
+	 * 
+	 * @param compressionEnabled
+	 *            true if compressed responses should be requested, false if
+	 *            they should not
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * Returns true if concurrent requests for the same URL share one fetch
+	 * 
+	 * @return true if concurrent requests for the same URL share one fetch,
+	 *         false if each request is sent to the server
+	 */
+	public boolean isRequestCoalescingEnabled() {
+		return requestCoalescingEnabled;
+	}
+
+	/**
+	 * Sets whether concurrent requests for the same URL share one fetch. If
+	 * true, a request made while an identical request is already in flight
+	 * waits for that request and gets the same Siri object (or error), instead
+	 * of sending its own request and parsing its own copy. Callers must
+	 * therefore not modify the returned Siri object. Default is false.
+	 * 
+	 * @param requestCoalescingEnabled
+	 *            true if concurrent requests for the same URL should share one
+	 *            fetch, false if each request should be sent to the server
+	 */
+	public void setRequestCoalescingEnabled(boolean requestCoalescingEnabled) {
+		this.requestCoalescingEnabled = requestCoalescingEnabled;
+	}
+
+
+	/**
+	 * Returns the number of threads used by a SiriPollingScheduler to poll
+	 * subscriptions
+	 * 
+	 * @return the number of threads used to poll subscriptions
+	 */
+	public int getPollingThreadCount() {
+		return pollingThreadCount;
+	}
+
+	/**
+	 * Sets the number of threads used by a SiriPollingScheduler to poll
+	 * subscriptions. Requests block the polling thread while they run, so
+	 * this limits how many subscriptions are fetched at the same time. Only
+	 * read when the scheduler is created. Default is 2.
+	 * 
+	 * @param pollingThreadCount
+	 *            the number of threads used to poll subscriptions
+	 */
+	public void setPollingThreadCount(int pollingThreadCount) {
+		if (pollingThreadCount < 1) {
+			throw new IllegalArgumentException(
+					"pollingThreadCount must be 1 or greater");
+		}
+		this.pollingThreadCount = pollingThreadCount;
+	}
+
+	/**
+	 * Returns the shortest time (in milliseconds) between two polls of the
+	 * same subscription
+	 * 
+	 * @return the shortest time (in milliseconds) between two polls of the
+	 *         same subscription
+	 */
+	public long getMinPollingInterval() {
+		return minPollingInterval;
+	}
+
+	/**
+	 * Sets the shortest time (in milliseconds) between two polls of the same
+	 * subscription, no matter how short the ValidUntil time in the response
+	 * is. Must not be greater than getMaxPollingInterval(). Default is 10
+	 * seconds.
+	 * 
+	 * @param minPollingInterval
+	 *            the shortest time (in milliseconds) between two polls of the
+	 *            same subscription
+	 */
+	public void setMinPollingInterval(long minPollingInterval) {
+		if (minPollingInterval < 1) {
+			throw new IllegalArgumentException(
+					"minPollingInterval must be 1 or greater");
+		}
+		if (minPollingInterval > maxPollingInterval) {
+			throw new IllegalArgumentException(
+					"minPollingInterval must not be greater than maxPollingInterval");
+		}
+		this.minPollingInterval = minPollingInterval;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) between two polls of a subscription
+	 * when the response doesn't have a ValidUntil time
+	 * 
+	 * @return the time (in milliseconds) between two polls when the response
+	 *         doesn't have a ValidUntil time
+	 */
+	public long getDefaultPollingInterval() {
+		return defaultPollingInterval;
+	}
+
+	/**
+	 * Sets the time (in milliseconds) between two polls of a subscription when
+	 * the response doesn't have a ValidUntil time. Default is 30 seconds.
+	 * 
+	 * @param defaultPollingInterval
+	 *            the time (in milliseconds) between two polls when the
+	 *            response doesn't have a ValidUntil time
+	 */
+	public void setDefaultPollingInterval(long defaultPollingInterval) {
+		if (defaultPollingInterval < 1) {
+			throw new IllegalArgumentException(
+					"defaultPollingInterval must be 1 or greater");
+		}
+		this.defaultPollingInterval = defaultPollingInterval;
+	}
+
+	/**
+	 * Returns the longest time (in milliseconds) between two polls of the same
+	 * subscription
+	 * 
+	 * @return the longest time (in milliseconds) between two polls of the
+	 *         same subscription
+	 */
+	public long getMaxPollingInterval() {
+		return maxPollingInterval;
+	}
+
+	/**
+	 * Sets the longest time (in milliseconds) between two polls of the same
+	 * subscription. Subscriptions that are failing, slow, or have no vehicles
+	 * back off up to this interval. Must not be less than
+	 * getMinPollingInterval(). Default is 5 minutes.
+	 * 
+	 * @param maxPollingInterval
+	 *            the longest time (in milliseconds) between two polls of the
+	 *            same subscription
+	 */
+	public void setMaxPollingInterval(long maxPollingInterval) {
+		if (maxPollingInterval < minPollingInterval) {
+			throw new IllegalArgumentException(
+					"maxPollingInterval must not be less than minPollingInterval");
+		}
+		this.maxPollingInterval = maxPollingInterval;
+	}
+
+	/**
+	 * Returns the maximum random adjustment of each polling interval, as a
+	 * percentage of the interval
+	 * 
+	 * @return the maximum random adjustment of each polling interval, as a
+	 *         percentage of the interval
+	 */
+	public int getPollingJitterPercent() {
+		return pollingJitterPercent;
+	}
+
+	/**
+	 * Sets the maximum random adjustment of each polling interval, as a
+	 * percentage of the interval. Each interval is lengthened or shortened by
+	 * a random amount up to this percentage, so subscriptions with the same
+	 * interval drift apart instead of all polling at the same moment. Use 0
+	 * for no jitter. Default is 10.
+	 * 
+	 * @param pollingJitterPercent
+	 *            the maximum random adjustment of each polling interval, as a
+	 *            percentage of the interval (0 to 100)
+	 */
+	public void setPollingJitterPercent(int pollingJitterPercent) {
+		if (pollingJitterPercent < 0 || pollingJitterPercent > 100) {
+			throw new IllegalArgumentException(
+					"pollingJitterPercent must be between 0 and 100");
+		}
+		this.pollingJitterPercent = pollingJitterPercent;
+	}
+
+	/**
+	 * Returns true if a SiriRestClient warms up its Jackson deserializers on a
+	 * background thread when it is created
+	 * 
+	 * @return true if a SiriRestClient warms up its Jackson deserializers when
+	 *         it is created
+	 */
+	public boolean isWarmupEnabled() {
+		return warmupEnabled;
+	}
+
+	/**
+	 * Sets whether a SiriRestClient warms up its Jackson deserializers on a
+	 * background thread when it is created, by parsing small embedded
+	 * responses (see SiriJacksonWarmup). This moves most of the cold-start
+	 * parse cost off the first real request. Default is false - the warm-up
+	 * can also be started with SiriRestClient.warmUp().
+	 * 
+	 * @param warmupEnabled
+	 *            true if a SiriRestClient should warm up its Jackson
+	 *            deserializers when it is created
+	 */
+	public void setWarmupEnabled(boolean warmupEnabled) {
+		this.warmupEnabled = warmupEnabled;
+	}
+
+	/**
+	 * Returns the number of times each embedded response is parsed during a
+	 * warm-up
+	 * 
+	 * @return the number of times each embedded response is parsed during a
+	 *         warm-up
+	 */
+	public int getWarmupReplayCount() {
+		return warmupReplayCount;
+	}
+
+	/**
+	 * Sets the number of times each embedded response is parsed during a
+	 * warm-up. The first parse builds the deserializers, and later parses
+	 * warm up the parsing code itself, so it is compiled before the first
+	 * real (and much larger) response is parsed. Each parse of the small
+	 * embedded responses is well under a millisecond once warm. Default is
+	 * 50.
+	 * 
+	 * @param warmupReplayCount
+	 *            the number of times each embedded response is parsed during
+	 *            a warm-up (at least 1)
+	 */
+	public void setWarmupReplayCount(int warmupReplayCount) {
+		this.warmupReplayCount = warmupReplayCount;
+	}
+
+	/**
+	 * Returns the maximum number of times a failed request is retried
+	 * 
+	 * @return the maximum number of times a failed request is retried
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Sets the maximum number of times a failed request is retried. Requests
+	 * that fail with an IOException are retried after an exponential backoff
+	 * (see setRetryInitialBackoff()), except when the request was cancelled,
+	 * the server answered 404 Not Found, or the response couldn't be parsed.
+	 * Default is 0 (no retries).
+	 * 
+	 * @param maxRetries
+	 *            the maximum number of times a failed request is retried
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) before the first retry of a failed
+	 * request
+	 * 
+	 * @return the time (in milliseconds) before the first retry
+	 */
+	public long getRetryInitialBackoff() {
+		return retryInitialBackoff;
+	}
+
+	/**
+	 * Sets the time (in milliseconds) before the first retry of a failed
+	 * request. The backoff doubles for each retry after that, up to the
+	 * maximum backoff. Default is 500 ms.
+	 * 
+	 * @param retryInitialBackoff
+	 *            the time (in milliseconds) before the first retry
+	 */
+	public void setRetryInitialBackoff(long retryInitialBackoff) {
+		this.retryInitialBackoff = retryInitialBackoff;
+	}
+
+	/**
+	 * Returns the maximum time (in milliseconds) between retries of a failed
+	 * request
+	 * 
+	 * @return the maximum time (in milliseconds) between retries
+	 */
+	public long getRetryMaxBackoff() {
+		return retryMaxBackoff;
+	}
+
+	/**
+	 * Sets the maximum time (in milliseconds) between retries of a failed
+	 * request. Default is 10 seconds.
+	 * 
+	 * @param retryMaxBackoff
+	 *            the maximum time (in milliseconds) between retries
+	 */
+	public void setRetryMaxBackoff(long retryMaxBackoff) {
+		this.retryMaxBackoff = retryMaxBackoff;
+	}
+
+	/**
+	 * Returns the maximum random reduction of each retry backoff, as a
+	 * percentage of the backoff
+	 * 
+	 * @return the maximum random reduction of each retry backoff, as a
+	 *         percentage of the backoff
+	 */
+	public int getRetryJitterPercent() {
+		return retryJitterPercent;
+	}
+
+	/**
+	 * Sets the maximum random reduction of each retry backoff, as a percentage
+	 * of the backoff. Jitter keeps many clients that failed at the same time
+	 * (e.g., during a server restart) from retrying in lockstep. Default is
+	 * 50.
+	 * 
+	 * @param retryJitterPercent
+	 *            the maximum random reduction of each retry backoff, as a
+	 *            percentage of the backoff (0 to 100)
+	 */
+	public void setRetryJitterPercent(int retryJitterPercent) {
+		this.retryJitterPercent = retryJitterPercent;
+	}
+
+	/**
+	 * Returns true if hedged requests are sent for slow requests
+	 * 
+	 * @return true if hedged requests are sent for slow requests
+	 */
+	public boolean isHedgingEnabled() {
+		return hedgingEnabled;
+	}
+
+	/**
+	 * Sets whether a second, identical request (a "hedge") is sent when a
+	 * request hasn't finished within the hedging percentile of recent request
+	 * times. Whichever response arrives first is used. This cuts the tail
+	 * latency caused by a single slow server replica or connection, at the
+	 * cost of a few extra requests. The connection of the slower copy is
+	 * closed once the other one finishes. At most getMaxAsyncRequests()
+	 * copies run at once - requests that don't fit aren't hedged. Default is
+	 * false.
+	 * 
+	 * @param hedgingEnabled
+	 *            true if hedged requests should be sent for slow requests
+	 */
+	public void setHedgingEnabled(boolean hedgingEnabled) {
+		this.hedgingEnabled = hedgingEnabled;
+	}
+
+	/**
+	 * Returns the percentile of recent request times after which a hedged
+	 * request is sent
+	 * 
+	 * @return the percentile of recent request times after which a hedged
+	 *         request is sent
+	 */
+	public double getHedgingPercentile() {
+		return hedgingPercentile;
+	}
+
+	/**
+	 * Sets the percentile of recent request times after which a hedged
+	 * request is sent. At 95, about 5% of requests are hedged. Default is 95.
+	 * 
+	 * @param hedgingPercentile
+	 *            the percentile of recent request times after which a hedged
+	 *            request is sent (0 to 100)
+	 */
+	public void setHedgingPercentile(double hedgingPercentile) {
+		this.hedgingPercentile = hedgingPercentile;
+	}
+
+	/**
+	 * Returns the minimum time (in milliseconds) before a hedged request is
+	 * sent
+	 * 
+	 * @return the minimum time (in milliseconds) before a hedged request is
+	 *         sent
+	 */
+	public long getMinHedgingDelay() {
+		return minHedgingDelay;
+	}
+
+	/**
+	 * Sets the minimum time (in milliseconds) before a hedged request is sent,
+	 * so very fast servers (e.g., on a LAN) aren't hedged on normal jitter.
+	 * Default is 50 ms.
+	 * 
+	 * @param minHedgingDelay
+	 *            the minimum time (in milliseconds) before a hedged request is
+	 *            sent
+	 */
+	public void setMinHedgingDelay(long minHedgingDelay) {
+		this.minHedgingDelay = minHedgingDelay;
+	}
+
+	/**
+	 * Returns true if requests go through a circuit breaker for each server
+	 * base URL
+	 * 
+	 * @return true if requests go through a circuit breaker for each server
+	 *         base URL
+	 */
+	public boolean isCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	/**
+	 * Sets whether requests go through a circuit breaker for each server base
+	 * URL (see SiriCircuitBreaker). When too many recent requests to a base URL
+	 * failed or were slow, the breaker opens and requests to it fail fast (or
+	 * are answered from the last cached response) for the open duration,
+	 * instead of each one waiting out the socket timeout. Streaming requests
+	 * (e.g., streamVehicleMonRequest()) count toward the breaker too, but
+	 * always fail with a SiriCircuitOpenException while it's open, since
+	 * there's no parsed response to fall back on. Default is false.
+	 * 
+	 * @param circuitBreakerEnabled
+	 *            true if requests should go through a circuit breaker
+	 */
+	public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	/**
+	 * Returns the number of recent requests the failure and slow request rates
+	 * of a circuit breaker are computed over
+	 * 
+	 * @return the number of recent requests the rates are computed over
+	 */
+	public int getCircuitBreakerWindowSize() {
+		return circuitBreakerWindowSize;
+	}
+
+	/**
+	 * Sets the number of recent requests the failure and slow request rates of
+	 * a circuit breaker are computed over. Default is 20.
+	 * 
+	 * @param circuitBreakerWindowSize
+	 *            the number of recent requests the rates are computed over
+	 */
+	public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+		this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+	}
+
+	/**
+	 * Returns the number of requests a circuit breaker needs before it can
+	 * open
+	 * 
+	 * @return the number of requests a circuit breaker needs before it can
+	 *         open
+	 */
+	public int getCircuitBreakerMinimumCalls() {
+		return circuitBreakerMinimumCalls;
+	}
+
+	/**
+	 * Sets the number of requests a circuit breaker needs (since it last
+	 * closed) before it can open, so a couple of failures right after startup
+	 * don't open it. Default is 10.
+	 * 
+	 * @param circuitBreakerMinimumCalls
+	 *            the number of requests a circuit breaker needs before it can
+	 *            open
+	 */
+	public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+		this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+	}
+
+	/**
+	 * Returns the percentage of failed requests at which a circuit breaker
+	 * opens
+	 * 
+	 * @return the percentage of failed requests at which a circuit breaker
+	 *         opens
+	 */
+	public int getCircuitBreakerFailureRateThreshold() {
+		return circuitBreakerFailureRateThreshold;
+	}
+
+	/**
+	 * Sets the percentage of failed requests at which a circuit breaker opens.
+	 * A request fails if the server can't be reached, times out, or returns an
+	 * error status (other than 404 Not Found). Default is 50.
+	 * 
+	 * @param circuitBreakerFailureRateThreshold
+	 *            the percentage of failed requests at which a circuit breaker
+	 *            opens (1 to 100)
+	 */
+	public void setCircuitBreakerFailureRateThreshold(
+			int circuitBreakerFailureRateThreshold) {
+		this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+	}
+
+	/**
+	 * Returns the percentage of slow requests at which a circuit breaker opens
+	 * 
+	 * @return the percentage of slow requests at which a circuit breaker opens
+	 */
+	public int getCircuitBreakerSlowCallRateThreshold() {
+		return circuitBreakerSlowCallRateThreshold;
+	}
+
+	/**
+	 * Sets the percentage of slow requests at which a circuit breaker opens
+	 * (see setCircuitBreakerSlowCallDuration()). Default is 80.
+	 * 
+	 * @param circuitBreakerSlowCallRateThreshold
+	 *            the percentage of slow requests at which a circuit breaker
+	 *            opens (1 to 100)
+	 */
+	public void setCircuitBreakerSlowCallRateThreshold(
+			int circuitBreakerSlowCallRateThreshold) {
+		this.circuitBreakerSlowCallRateThreshold = circuitBreakerSlowCallRateThreshold;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) after which a request counts as slow
+	 * for the circuit breaker
+	 * 
+	 * @return the time (in milliseconds) after which a request counts as slow
+	 */
+	public long getCircuitBreakerSlowCallDuration() {
+		return circuitBreakerSlowCallDuration;
+	}
+
+	/**
+	 * Sets the time (in milliseconds) after which a request counts as slow for
+	 * the circuit breaker, whether or not it succeeded. Default is 5 seconds.
+	 * 
+	 * @param circuitBreakerSlowCallDuration
+	 *            the time (in milliseconds) after which a request counts as
+	 *            slow
+	 */
+	public void setCircuitBreakerSlowCallDuration(
+			long circuitBreakerSlowCallDuration) {
+		this.circuitBreakerSlowCallDuration = circuitBreakerSlowCallDuration;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) a circuit breaker stays open before
+	 * letting trial requests through
+	 * 
+	 * @return the time (in milliseconds) a circuit breaker stays open
+	 */
+	public long getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	/**
+	 * Sets the time (in milliseconds) a circuit breaker stays open before
+	 * letting trial requests through. Default is 30 seconds.
+	 * 
+	 * @param circuitBreakerOpenDuration
+	 *            the time (in milliseconds) a circuit breaker stays open
+	 */
+	public void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+		this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+	}
+
+	/**
+	 * Returns the number of trial requests a half-open circuit breaker lets
+	 * through
+	 * 
+	 * @return the number of trial requests a half-open circuit breaker lets
+	 *         through
+	 */
+	public int getCircuitBreakerHalfOpenCalls() {
+		return circuitBreakerHalfOpenCalls;
+	}
+
+	/**
+	 * Sets the number of trial requests a half-open circuit breaker lets
+	 * through. If all of them succeed in time the breaker closes, and if any
+	 * of them fails or is slow it opens again. Default is 3.
+	 * 
+	 * @param circuitBreakerHalfOpenCalls
+	 *            the number of trial requests a half-open circuit breaker lets
+	 *            through
+	 */
+	public void setCircuitBreakerHalfOpenCalls(int circuitBreakerHalfOpenCalls) {
+		this.circuitBreakerHalfOpenCalls = circuitBreakerHalfOpenCalls;
+	}
+
+	/**
+	 * Returns true if requests rejected by an open circuit breaker are
+	 * answered from the last cached response
+	 * 
+	 * @return true if requests rejected by an open circuit breaker are
+	 *         answered from the last cached response
+	 */
+	public boolean isCircuitBreakerFallbackEnabled() {
+		return circuitBreakerFallbackEnabled;
+	}
+
+	/**
+	 * Sets whether requests rejected by an open circuit breaker are answered
+	 * from the last response for the same URL, even if it has expired - from
+	 * the response cache if it's enabled, or else from the client's
+	 * SiriSnapshotStore. If there is no cached response, or the fallback is
+	 * disabled, the request fails with a SiriCircuitOpenException. Default is
+	 * true.
+	 * 
+	 * @param circuitBreakerFallbackEnabled
+	 *            true if requests rejected by an open circuit breaker should
+	 *            be answered from the last cached response
+	 */
+	public void setCircuitBreakerFallbackEnabled(
+			boolean circuitBreakerFallbackEnabled) {
+		this.circuitBreakerFallbackEnabled = circuitBreakerFallbackEnabled;
+	}
+
+	/**
+	 * Returns true if requests are rate limited for each developer key and
+	 * endpoint
+	 * 
+	 * @return true if requests are rate limited for each developer key and
+	 *         endpoint
+	 */
+	public boolean isRateLimitEnabled() {
+		return rateLimitEnabled;
+	}
+
+	/**
+	 * Sets whether requests are rate limited for each developer key and
+	 * endpoint with a token bucket (see SiriRateLimiter), so the client stays
+	 * under the quota the SIRI provider enforces for each key (e.g., MTA Bus
+	 * Time) instead of being throttled or having the key banned. Every request
+	 * sent to the server needs a token, including retries. Default is false.
+	 * 
+	 * @param rateLimitEnabled
+	 *            true if requests should be rate limited
+	 */
+	public void setRateLimitEnabled(boolean rateLimitEnabled) {
+		this.rateLimitEnabled = rateLimitEnabled;
+	}
+
+	/**
+	 * Returns the number of requests per second allowed for each developer key
+	 * and endpoint
+	 * 
+	 * @return the number of requests per second allowed for each developer key
+	 *         and endpoint
+	 */
+	public double getRateLimitRequestsPerSecond() {
+		return rateLimitRequestsPerSecond;
+	}
+
+	/**
+	 * Sets the number of requests per second allowed for each developer key
+	 * and endpoint, which is the rate the token bucket is refilled at. Use a
+	 * fraction for quotas of less than one request per second (e.g., 1 / 30.0
+	 * for one request every 30 seconds). Default is 1.
+	 * 
+	 * @param rateLimitRequestsPerSecond
+	 *            the number of requests per second allowed for each developer
+	 *            key and endpoint
+	 */
+	public void setRateLimitRequestsPerSecond(double rateLimitRequestsPerSecond) {
+		if (!(rateLimitRequestsPerSecond > 0)) {
+			throw new IllegalArgumentException(
+					"rateLimitRequestsPerSecond must be greater than 0");
+		}
+		this.rateLimitRequestsPerSecond = rateLimitRequestsPerSecond;
+	}
+
+	/**
+	 * Returns the number of requests that may be sent at once for each
+	 * developer key and endpoint after a quiet period
+	 * 
+	 * @return the size of the token bucket
+	 */
+	public int getRateLimitBurst() {
+		return rateLimitBurst;
+	}
+
+	/**
+	 * Sets the number of requests that may be sent at once for each developer
+	 * key and endpoint after a quiet period, which is the size of the token
+	 * bucket. Default is 5.
+	 * 
+	 * @param rateLimitBurst
+	 *            the size of the token bucket
+	 */
+	public void setRateLimitBurst(int rateLimitBurst) {
+		if (rateLimitBurst < 1) {
+			throw new IllegalArgumentException(
+					"rateLimitBurst must be 1 or greater");
+		}
+		this.rateLimitBurst = rateLimitBurst;
+	}
+
+	/**
+	 * Returns what happens to requests over the rate limit
+	 * 
+	 * @return RATE_LIMIT_POLICY_QUEUE or RATE_LIMIT_POLICY_SHED
+	 */
+	public int getRateLimitPolicy() {
+		return rateLimitPolicy;
+	}
+
+	/**
+	 * Sets what happens to requests over the rate limit. With
+	 * RATE_LIMIT_POLICY_QUEUE, they wait their turn for a token, unless the
+	 * wait would be longer than the maximum wait. With RATE_LIMIT_POLICY_SHED,
+	 * or if the wait would be too long, they fail with a
+	 * SiriRateLimitException without being sent. Default is
+	 * RATE_LIMIT_POLICY_QUEUE.
+	 * 
+	 * @param rateLimitPolicy
+	 *            RATE_LIMIT_POLICY_QUEUE or RATE_LIMIT_POLICY_SHED
+	 */
+	public void setRateLimitPolicy(int rateLimitPolicy) {
+		if (rateLimitPolicy != RATE_LIMIT_POLICY_QUEUE
+				&& rateLimitPolicy != RATE_LIMIT_POLICY_SHED) {
+			throw new IllegalArgumentException(
+					"rateLimitPolicy must be RATE_LIMIT_POLICY_QUEUE or RATE_LIMIT_POLICY_SHED");
+		}
+		this.rateLimitPolicy = rateLimitPolicy;
+	}
+
+	/**
+	 * Returns the maximum time (in milliseconds) a request waits for a token
+	 * with RATE_LIMIT_POLICY_QUEUE
+	 * 
+	 * @return the maximum time (in milliseconds) a request waits for a token
+	 */
+	public long getRateLimitMaxWait() {
+		return rateLimitMaxWait;
+	}
+
+	/**
+	 * Sets the maximum time (in milliseconds) a request waits for a token with
+	 * RATE_LIMIT_POLICY_QUEUE. A request that would have to wait longer fails
+	 * right away instead, so the queue can't grow without bound when requests
+	 * are made faster than the rate limit. Default is 10 seconds.
+	 * 
+	 * @param rateLimitMaxWait
+	 *            the maximum time (in milliseconds) a request waits for a
+	 *            token
+	 */
+	public void setRateLimitMaxWait(long rateLimitMaxWait) {
+		this.rateLimitMaxWait = rateLimitMaxWait;
+	}
+
+	/**
+	 * Returns true if response bodies are read into pooled buffers and parsed
+	 * from a byte[]
+	 * 
+	 * @return true if response bodies are read into pooled buffers and parsed
+	 *         from a byte[], false if they are parsed from the stream
+	 */
+	public boolean isResponseBufferingEnabled() {
+		return responseBufferingEnabled;
+	}
+
+	/**
+	 * Sets whether response bodies are read into reusable buffers from a
+	 * SiriBufferPool (sized from the Content-Length response header when the
+	 * server sends it) and parsed from a byte[], instead of being parsed from
+	 * the response stream. Jackson parses a byte[] without copying it into
+	 * buffers of its own, and the buffers are reused across requests, so
+	 * there is less to allocate and garbage-collect for each response. The
+	 * whole (decompressed) body is held in memory while it's parsed.
+	 * 
+	 * Only used with HTTP_CONNECTION_TYPE_ANDROID and
+	 * HTTP_CONNECTION_TYPE_POOLED, since the Jackson HTTP connection reads the
+	 * response itself. Streaming requests (e.g.,
+	 * SiriRestClient.streamVehicleMonRequest()) always parse from the stream.
+	 * Default is false.
+	 * 
+	 * @param responseBufferingEnabled
+	 *            true if response bodies should be read into pooled buffers
+	 *            and parsed from a byte[]
+	 */
+	public void setResponseBufferingEnabled(boolean responseBufferingEnabled) {
+		this.responseBufferingEnabled = responseBufferingEnabled;
+	}
+
+	/**
+	 * Returns the maximum number of idle response buffers kept for reuse
+	 * 
+	 * @return the maximum number of idle response buffers kept for reuse
+	 */
+	public int getResponseBufferPoolSize() {
+		return responseBufferPoolSize;
+	}
+
+	/**
+	 * Sets the maximum number of idle response buffers kept for reuse when
+	 * response buffering is enabled. One buffer is in use for each request
+	 * being parsed, so this should be about the number of concurrent
+	 * requests. Default is 4.
+	 * 
+	 * @param responseBufferPoolSize
+	 *            the maximum number of idle response buffers kept for reuse
+	 */
+	public void setResponseBufferPoolSize(int responseBufferPoolSize) {
+		this.responseBufferPoolSize = responseBufferPoolSize;
+	}
+
+	/**
+	 * Returns the size (in bytes) of the largest response buffer kept for
+	 * reuse
+	 * 
+	 * @return the size (in bytes) of the largest response buffer kept for
+	 *         reuse
+	 */
+	public int getMaxPooledResponseBufferSize() {
+		return maxPooledResponseBufferSize;
+	}
+
+	/**
+	 * Sets the size (in bytes) of the largest response buffer kept for reuse
+	 * when response buffering is enabled. Larger responses are still buffered,
+	 * but their buffers are left to the garbage collector, so one unusually
+	 * large response doesn't hold on to memory. Default is 1 MB.
+	 * 
+	 * @param maxPooledResponseBufferSize
+	 *            the size (in bytes) of the largest response buffer kept for
+	 *            reuse
+	 */
+	public void setMaxPooledResponseBufferSize(int maxPooledResponseBufferSize) {
+		this.maxPooledResponseBufferSize = maxPooledResponseBufferSize;
+	}
+}
@@ -0,0 +1,312 @@
+package edu.usf.cutr.siri.android.client.delta;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import uk.org.siri.siri.FramedVehicleJourneyRef;
+import uk.org.siri.siri.LocationStructure;
+import uk.org.siri.siri.MonitoredVehicleJourney;
+import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.VehicleActivity;
+import uk.org.siri.siri.VehicleMonitoringDelivery;
+import edu.usf.cutr.siri.android.util.SiriUtils;
+
+/**
+ * Compares each VehicleMonitoring snapshot with the previous one, and reports
+ * only what changed: vehicles that appeared, vehicles that moved or changed
+ * status, and vehicles that disappeared. A vehicle whose RecordedAtTime is
+ * the only thing that changed isn't reported.
+ * 
+ * Vehicles are identified by their VehicleRef plus FramedVehicleJourneyRef
+ * (DataFrameRef and DatedVehicleJourneyRef), so a vehicle that starts a new
+ * trip is reported as the old trip being removed and the new trip being added.
+ * 
+ * Only the few fields that are compared (location, bearing, ProgressStatus,
+ * and RecordedAtTime) are kept between snapshots, not the previous Siri
+ * objects. Each update takes time linear in the number of vehicles in the
+ * previous and new snapshots.
+ * 
+ * Typical use is to pass every new response from a SiriPollingScheduler to
+ * update(), and forward the returned changes to a map or push channel.
+ * 
+ * This class is thread-safe.
+ */
+public class SiriDeltaEngine {
+
+	// Separates the parts of a vehicle key - can't appear in SIRI IDs
+	private static final char KEY_SEPARATOR = '\u001f';
+
+	// Vehicles in the last snapshot, keyed by VehicleRef and
+	// FramedVehicleJourneyRef
+	private final Map<String, TrackedVehicle> vehicles = new HashMap<String, TrackedVehicle>();
+
+	// Incremented for each snapshot, so vehicles that weren't seen in the
+	// latest one can be found without building a separate set
+	private int generation = 0;
+
+	// Number of VehicleActivity elements skipped because they had neither a
+	// VehicleRef nor a FramedVehicleJourneyRef
+	private long skippedCount = 0;
+
+	/**
+	 * Compares the VehicleActivity elements in all VehicleMonitoringDelivery
+	 * elements of the response with the previous snapshot, and makes them the
+	 * new snapshot
+	 * 
+	 * @param siri
+	 *            a VehicleMonitoring response
+	 * @return the changes since the previous snapshot, or an empty list if
+	 *         nothing changed or the response doesn't have a ServiceDelivery
+	 *         (in which case the previous snapshot is kept)
+	 */
+	public synchronized List<SiriVehicleChange> update(Siri siri) {
+		List<SiriVehicleChange> changes = new ArrayList<SiriVehicleChange>();
+
+		if (siri == null || siri.getServiceDelivery() == null) {
+			return changes;
+		}
+
+		generation++;
+
+		List<VehicleMonitoringDelivery> listVMD = siri.getServiceDelivery()
+				.getVehicleMonitoringDelivery();
+		if (listVMD != null) {
+			for (VehicleMonitoringDelivery vmd : listVMD) {
+				List<VehicleActivity> vaList = vmd.getVehicleActivity();
+				if (vaList != null) {
+					for (VehicleActivity va : vaList) {
+						compare(va, changes);
+					}
+				}
+			}
+		}
+
+		removeUnseen(changes);
+		return changes;
+	}
+
+	/**
+	 * Compares the given VehicleActivity elements with the previous snapshot,
+	 * and makes them the new snapshot. Can be used with the elements
+	 * collected from SiriRestClient.streamVehicleMonRequest().
+	 * 
+	 * @param activities
+	 *            all VehicleActivity elements of a VehicleMonitoring response
+	 * @return the changes since the previous snapshot, or an empty list if
+	 *         nothing changed
+	 */
+	public synchronized List<SiriVehicleChange> update(
+			Collection<VehicleActivity> activities) {
+		List<SiriVehicleChange> changes = new ArrayList<SiriVehicleChange>();
+
+		generation++;
+		for (VehicleActivity va : activities) {
+			compare(va, changes);
+		}
+		removeUnseen(changes);
+		return changes;
+	}
+
+	/**
+	 * Forgets the previous snapshot, so every vehicle in the next snapshot is
+	 * reported as added
+	 */
+	public synchronized void reset() {
+		vehicles.clear();
+	}
+
+	/**
+	 * Returns the number of vehicles in the last snapshot
+	 * 
+	 * @return the number of vehicles in the last snapshot
+	 */
+	public synchronized int getVehicleCount() {
+		return vehicles.size();
+	}
+
+	/**
+	 * Returns the number of VehicleActivity elements that were ignored because
+	 * they had neither a VehicleRef nor a FramedVehicleJourneyRef
+	 * 
+	 * @return the number of VehicleActivity elements that were ignored
+	 */
+	public synchronized long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Compares a single vehicle with the previous snapshot, and records it in
+	 * the new one
+	 */
+	private void compare(VehicleActivity va, List<SiriVehicleChange> changes) {
+		MonitoredVehicleJourney mvj = va.getMonitoredVehicleJourney();
+		if (mvj == null) {
+			skippedCount++;
+			return;
+		}
+
+		String vehicleRef = mvj.getVehicleRef() != null ? mvj.getVehicleRef()
+				.getValue() : null;
+		String dataFrameRef = null;
+		String datedVehicleJourneyRef = null;
+		FramedVehicleJourneyRef journey = mvj.getFramedVehicleJourneyRef();
+		if (journey != null) {
+			if (journey.getDataFrameRef() != null) {
+				dataFrameRef = journey.getDataFrameRef().getValue();
+			}
+			datedVehicleJourneyRef = journey.getDatedVehicleJourneyRef();
+		}
+
+		if (vehicleRef == null && datedVehicleJourneyRef == null) {
+			// Nothing to identify it by in the next snapshot
+			skippedCount++;
+			return;
+		}
+
+		String key = new StringBuilder().append(vehicleRef)
+				.append(KEY_SEPARATOR).append(dataFrameRef)
+				.append(KEY_SEPARATOR).append(datedVehicleJourneyRef)
+				.toString();
+
+		double latitude = Double.NaN;
+		double longitude = Double.NaN;
+		LocationStructure location = mvj.getVehicleLocation();
+		if (location != null) {
+			latitude = SiriUtils.toDouble(location.getLatitude());
+			longitude = SiriUtils.toDouble(location.getLongitude());
+		}
+		float bearing = (float) SiriUtils.toDouble(mvj.getBearing());
+		String progressStatus = getProgressStatus(mvj);
+		long recordedAtTime = SiriUtils.toMillis(va.getRecordedAtTime());
+
+		TrackedVehicle v = vehicles.get(key);
+		if (v == null) {
+			v = new TrackedVehicle(key, vehicleRef, dataFrameRef,
+					datedVehicleJourneyRef);
+			vehicles.put(key, v);
+			v.set(latitude, longitude, bearing, progressStatus,
+					recordedAtTime);
+			v.generation = generation;
+			changes.add(v.toChange(SiriVehicleChange.TYPE_ADDED,
+					SiriVehicleChange.FIELD_ALL, va));
+			return;
+		}
+
+		if (v.generation == generation) {
+			// Same vehicle listed twice in one response - keep the first
+			return;
+		}
+		v.generation = generation;
+
+		int changed = 0;
+		if (Double.compare(latitude, v.latitude) != 0
+				|| Double.compare(longitude, v.longitude) != 0) {
+			changed |= SiriVehicleChange.FIELD_LOCATION;
+		}
+		if (Float.compare(bearing, v.bearing) != 0) {
+			changed |= SiriVehicleChange.FIELD_BEARING;
+		}
+		if (progressStatus == null ? v.progressStatus != null
+				: !progressStatus.equals(v.progressStatus)) {
+			changed |= SiriVehicleChange.FIELD_PROGRESS_STATUS;
+		}
+		// A new RecordedAtTime alone (e.g., a vehicle reporting in again while
+		// parked at a layover) isn't an update, so the delta stays small.  The
+		// time is kept from the last update, and reported with the next one.
+		if (changed != 0 && recordedAtTime != v.recordedAtTime) {
+			changed |= SiriVehicleChange.FIELD_RECORDED_AT_TIME;
+		}
+
+		if (changed != 0) {
+			v.set(latitude, longitude, bearing, progressStatus,
+					recordedAtTime);
+			changes.add(v.toChange(SiriVehicleChange.TYPE_UPDATED, changed,
+					va));
+		}
+	}
+
+	/**
+	 * Removes the vehicles that weren't in the latest snapshot
+	 */
+	private void removeUnseen(List<SiriVehicleChange> changes) {
+		Iterator<TrackedVehicle> it = vehicles.values().iterator();
+		while (it.hasNext()) {
+			TrackedVehicle v = it.next();
+			if (v.generation != generation) {
+				it.remove();
+				changes.add(v.toChange(SiriVehicleChange.TYPE_REMOVED,
+						SiriVehicleChange.FIELD_ALL, null));
+			}
+		}
+	}
+
+	/**
+	 * Returns the ProgressStatus values as a single string, or null if there
+	 * aren't any
+	 */
+	private static String getProgressStatus(MonitoredVehicleJourney mvj) {
+		List<?> list = mvj.getProgressStatus();
+		if (list == null || list.isEmpty()) {
+			return null;
+		}
+		if (list.size() == 1) {
+			return String.valueOf(list.get(0));
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Object status : list) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(status);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The fields of a vehicle that are compared between snapshots
+	 */
+	private static class TrackedVehicle {
+
+		final String key;
+		final String vehicleRef;
+		final String dataFrameRef;
+		final String datedVehicleJourneyRef;
+
+		double latitude;
+		double longitude;
+		float bearing;
+		String progressStatus;
+		long recordedAtTime;
+
+		// Last snapshot this vehicle was seen in
+		int generation;
+
+		TrackedVehicle(String key, String vehicleRef, String dataFrameRef,
+				String datedVehicleJourneyRef) {
+			this.key = key;
+			this.vehicleRef = vehicleRef;
+			this.dataFrameRef = dataFrameRef;
+			this.datedVehicleJourneyRef = datedVehicleJourneyRef;
+		}
+
+		void set(double latitude, double longitude, float bearing,
+				String progressStatus, long recordedAtTime) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.bearing = bearing;
+			this.progressStatus = progressStatus;
+			this.recordedAtTime = recordedAtTime;
+		}
+
+		SiriVehicleChange toChange(int type, int changedFields,
+				VehicleActivity va) {
+			return new SiriVehicleChange(type, changedFields, key,
+					vehicleRef, dataFrameRef, datedVehicleJourneyRef, latitude, longitude,
+					bearing, progressStatus, recordedAtTime, va);
+		}
+	}
+}
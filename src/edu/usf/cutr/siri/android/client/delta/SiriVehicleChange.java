@@ -0,0 +1,238 @@
+package edu.usf.cutr.siri.android.client.delta;
+
+import uk.org.siri.siri.VehicleActivity;
+
+/**
+ * A change to a single vehicle between two VehicleMonitoring snapshots, as
+ * reported by the SiriDeltaEngine. Holds the identity of the vehicle, the
+ * kind of change, and the vehicle's current (or, for removed vehicles, last
+ * known) position and status.
+ */
+public final class SiriVehicleChange {
+
+	/**
+	 * The vehicle wasn't in the previous snapshot
+	 */
+	public static final int TYPE_ADDED = 0;
+
+	/**
+	 * The vehicle was in both snapshots, and at least one of the tracked
+	 * fields changed (see getChangedFields())
+	 */
+	public static final int TYPE_UPDATED = 1;
+
+	/**
+	 * The vehicle was in the previous snapshot, but isn't in this one
+	 */
+	public static final int TYPE_REMOVED = 2;
+
+	/**
+	 * VehicleLocation latitude or longitude changed
+	 */
+	public static final int FIELD_LOCATION = 1;
+
+	/**
+	 * Bearing changed
+	 */
+	public static final int FIELD_BEARING = 1 << 1;
+
+	/**
+	 * ProgressStatus changed (e.g., the vehicle went into or out of a layover)
+	 */
+	public static final int FIELD_PROGRESS_STATUS = 1 << 2;
+
+	/**
+	 * RecordedAtTime changed since the last update of the vehicle. Only set
+	 * together with another field, since a vehicle that reports in again
+	 * without moving or changing status isn't reported as updated.
+	 */
+	public static final int FIELD_RECORDED_AT_TIME = 1 << 3;
+
+	/**
+	 * All tracked fields - used for added and removed vehicles
+	 */
+	public static final int FIELD_ALL = FIELD_LOCATION | FIELD_BEARING
+			| FIELD_PROGRESS_STATUS | FIELD_RECORDED_AT_TIME;
+
+	private final int type;
+	private final int changedFields;
+	private final String key;
+	private final String vehicleRef;
+	private final String dataFrameRef;
+	private final String datedVehicleJourneyRef;
+	private final double latitude;
+	private final double longitude;
+	private final float bearing;
+	private final String progressStatus;
+	private final long recordedAtTime;
+	private final VehicleActivity vehicleActivity;
+
+	SiriVehicleChange(int type, int changedFields, String key,
+			String vehicleRef,
+			String dataFrameRef, String datedVehicleJourneyRef,
+			double latitude, double longitude, float bearing,
+			String progressStatus, long recordedAtTime,
+			VehicleActivity vehicleActivity) {
+		this.type = type;
+		this.changedFields = changedFields;
+		this.key = key;
+		this.vehicleRef = vehicleRef;
+		this.dataFrameRef = dataFrameRef;
+		this.datedVehicleJourneyRef = datedVehicleJourneyRef;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.bearing = bearing;
+		this.progressStatus = progressStatus;
+		this.recordedAtTime = recordedAtTime;
+		this.vehicleActivity = vehicleActivity;
+	}
+
+	/**
+	 * Returns the kind of change
+	 * 
+	 * @return TYPE_ADDED, TYPE_UPDATED, or TYPE_REMOVED
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the fields that changed, as a combination of the FIELD_*
+	 * constants
+	 * 
+	 * @return the fields that changed, or FIELD_ALL for added and removed
+	 *         vehicles
+	 */
+	public int getChangedFields() {
+		return changedFields;
+	}
+
+	/**
+	 * Returns true if the given field changed
+	 * 
+	 * @param field
+	 *            one of the FIELD_* constants
+	 * @return true if the given field changed
+	 */
+	public boolean hasChanged(int field) {
+		return (changedFields & field) != 0;
+	}
+
+	/**
+	 * Returns the key that identifies the vehicle across snapshots, made up
+	 * of the VehicleRef and FramedVehicleJourneyRef. Changes for the same
+	 * vehicle on the same trip always have equal keys.
+	 * 
+	 * @return the key that identifies the vehicle across snapshots
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the VehicleRef of the vehicle
+	 * 
+	 * @return the VehicleRef of the vehicle, or null if the response didn't
+	 *         include one
+	 */
+	public String getVehicleRef() {
+		return vehicleRef;
+	}
+
+	/**
+	 * Returns the DataFrameRef of the FramedVehicleJourneyRef the vehicle is
+	 * serving (i.e., the service date)
+	 * 
+	 * @return the DataFrameRef, or null if the response didn't include one
+	 */
+	public String getDataFrameRef() {
+		return dataFrameRef;
+	}
+
+	/**
+	 * Returns the DatedVehicleJourneyRef of the FramedVehicleJourneyRef the
+	 * vehicle is serving (i.e., the trip)
+	 * 
+	 * @return the DatedVehicleJourneyRef, or null if the response didn't
+	 *         include one
+	 */
+	public String getDatedVehicleJourneyRef() {
+		return datedVehicleJourneyRef;
+	}
+
+	/**
+	 * Returns the latitude of the vehicle
+	 * 
+	 * @return the latitude of the vehicle, or Double.NaN if it isn't known
+	 */
+	public double getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * Returns the longitude of the vehicle
+	 * 
+	 * @return the longitude of the vehicle, or Double.NaN if it isn't known
+	 */
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Returns the bearing of the vehicle
+	 * 
+	 * @return the bearing of the vehicle (in degrees), or Float.NaN if it
+	 *         isn't known
+	 */
+	public float getBearing() {
+		return bearing;
+	}
+
+	/**
+	 * Returns the ProgressStatus of the vehicle
+	 * 
+	 * @return the ProgressStatus of the vehicle, or null if there isn't one
+	 */
+	public String getProgressStatus() {
+		return progressStatus;
+	}
+
+	/**
+	 * Returns the RecordedAtTime of the vehicle
+	 * 
+	 * @return the RecordedAtTime of the vehicle (in milliseconds since the
+	 *         epoch), or -1 if it isn't known
+	 */
+	public long getRecordedAtTime() {
+		return recordedAtTime;
+	}
+
+	/**
+	 * Returns the VehicleActivity from the new snapshot
+	 * 
+	 * @return the VehicleActivity from the new snapshot, or null for removed
+	 *         vehicles
+	 */
+	public VehicleActivity getVehicleActivity() {
+		return vehicleActivity;
+	}
+
+	@Override
+	public String toString() {
+		String name;
+		switch (type) {
+		case TYPE_ADDED:
+			name = "added";
+			break;
+		case TYPE_UPDATED:
+			name = "updated";
+			break;
+		default:
+			name = "removed";
+			break;
+		}
+		return name + "[vehicleRef=" + vehicleRef + ", journey="
+				+ dataFrameRef + "/" + datedVehicleJourneyRef + ", fields="
+				+ Integer.toBinaryString(changedFields) + "]";
+	}
+}
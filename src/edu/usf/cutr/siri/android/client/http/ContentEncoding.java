@@ -0,0 +1,110 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Utility methods for HTTP content-encoding (i.e., compressed response
+ * bodies)
+ */
+public class ContentEncoding {
+
+	/**
+	 * Value for the Accept-Encoding request header - the encodings that
+	 * decode() can handle
+	 */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	// Buffer size for the decompressing streams. Large SIRI responses
+	// compress well, so use a bigger buffer than the 512 byte default.
+	private static final int BUFFER_SIZE = 8192;
+
+	// Private empty constructor since this object shouldn't be instantiated
+	private ContentEncoding() {
+	}
+
+	/**
+	 * Wraps the response body in a stream that decompresses it, based on the
+	 * Content-Encoding response header. Decompression is streamed, so the
+	 * whole body is never held in memory.
+	 * 
+	 * @param in
+	 *            response body as received from the server
+	 * @param contentEncoding
+	 *            value of the Content-Encoding response header, or null
+	 * @return the decompressed response body. Close it when done, to free the
+	 *         native memory used for decompression.
+	 * @throws IOException
+	 *             if the encoding isn't supported or the body isn't valid
+	 *             for the encoding
+	 */
+	public static InputStream decode(InputStream in, String contentEncoding)
+			throws IOException {
+		if (contentEncoding == null) {
+			return in;
+		}
+
+		String encoding = contentEncoding.trim().toLowerCase();
+
+		if (encoding.length() == 0 || encoding.equals("identity")) {
+			return in;
+		} else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		} else if (encoding.equals("deflate")) {
+			/*
+			 * "deflate" is supposed to be zlib-wrapped (RFC 1950), but some
+			 * servers send a raw deflate stream (RFC 1951) instead. Check for a
+			 * zlib header to tell them apart.
+			 */
+			PushbackInputStream pushback = new PushbackInputStream(in, 2);
+			byte[] header = new byte[2];
+			int n = 0;
+			int r;
+			while (n < 2 && (r = pushback.read(header, n, 2 - n)) != -1) {
+				n += r;
+			}
+			if (n > 0) {
+				pushback.unread(header, 0, n);
+			}
+			boolean zlib = n == 2 && isZlibHeader(header[0], header[1]);
+			return new EndingInflaterInputStream(pushback, new Inflater(!zlib));
+		} else {
+			throw new IOException("Unsupported Content-Encoding: "
+					+ contentEncoding);
+		}
+	}
+
+	/**
+	 * InflaterInputStream that ends its Inflater when closed.
+	 * InflaterInputStream only does that for an Inflater it created itself,
+	 * so otherwise the native zlib memory is held until finalization.
+	 */
+	private static class EndingInflaterInputStream extends InflaterInputStream {
+
+		EndingInflaterInputStream(InputStream in, Inflater inflater) {
+			super(in, inflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the two bytes are a valid zlib (RFC 1950) header
+	 */
+	private static boolean isZlibHeader(byte cmf, byte flg) {
+		int b0 = cmf & 0xFF;
+		int b1 = flg & 0xFF;
+		return (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+	}
+}
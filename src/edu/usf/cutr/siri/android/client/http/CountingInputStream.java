@@ -0,0 +1,75 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InputStream that adds the number of bytes read through it to a shared
+ * counter, so the SiriRestClient can track bytes received on the wire and
+ * after decompression
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private final AtomicLong counter;
+
+	// Bytes read through this stream only
+	private long count = 0;
+
+	/**
+	 * @param in
+	 *            stream to count
+	 * @param counter
+	 *            counter that bytes read are added to
+	 */
+	public CountingInputStream(InputStream in, AtomicLong counter) {
+		super(in);
+		this.counter = counter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int c = in.read();
+		if (c != -1) {
+			count++;
+			counter.incrementAndGet();
+		}
+		return c;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0) {
+			count += n;
+			counter.addAndGet(n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(n);
+		if (skipped > 0) {
+			count += skipped;
+			counter.addAndGet(skipped);
+		}
+		return skipped;
+	}
+
+	/**
+	 * Returns the number of bytes read through this stream (the shared
+	 * counter may include other streams)
+	 * 
+	 * @return the number of bytes read through this stream
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,436 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.usf.cutr.siri.android.client.http.SiriConnectionPool.PooledConnection;
+
+/**
+ * A response to a request made through the SiriConnectionPool.
+ *
+ * The body must be read from getInputStream() and then the response must be
+ * closed. If the body was read to the end (or only a small amount was left
+ * over, which is drained here), the underlying connection goes back to the
+ * pool for the next request. Otherwise the connection is closed.
+ */
+public class PooledHttpResponse implements SiriHttpResponse {
+
+	// Max number of unread body bytes we'll drain on close() to keep a
+	// connection alive. Jackson stops reading after the root value, so
+	// normally only trailing whitespace or the last chunk is left.
+	private static final int MAX_DRAIN_BYTES = 8192;
+
+	private final PooledConnection connection;
+	private final int statusCode;
+	private final String statusMessage;
+	private final Map<String, String> headers;
+	private final InputStream body;
+	private final boolean keepAlive;
+
+	private boolean closed = false;
+
+	// Time spent opening a new connection for this request (0 if reused)
+	private long connectTime = 0;
+
+	private PooledHttpResponse(PooledConnection connection, int statusCode,
+			String statusMessage, Map<String, String> headers,
+			InputStream body, boolean keepAlive) {
+		this.connection = connection;
+		this.statusCode = statusCode;
+		this.statusMessage = statusMessage;
+		this.headers = headers;
+		this.body = body;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Returns the HTTP status code of the response (e.g., 200)
+	 *
+	 * @return the HTTP status code of the response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Returns the HTTP status message of the response (e.g., "OK")
+	 *
+	 * @return the HTTP status message of the response
+	 */
+	public String getStatusMessage() {
+		return statusMessage;
+	}
+
+	/**
+	 * Returns the value of the given response header
+	 *
+	 * @param name
+	 *            case-insensitive name of the header
+	 * @return the value of the header, or null if it wasn't sent
+	 */
+	public String getHeader(String name) {
+		return headers.get(name.toLowerCase());
+	}
+
+	/**
+	 * Returns the time it took to open a new connection for this request, in
+	 * nanoseconds
+	 *
+	 * @return the time it took to open a new connection, or 0 if an idle
+	 *         connection from the pool was reused
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	void setConnectTime(long connectTime) {
+		this.connectTime = connectTime;
+	}
+
+	/**
+	 * Returns all response headers, keyed by lower-case header name
+	 *
+	 * @return all response headers, keyed by lower-case header name
+	 */
+	public Map<String, String> getHeaders() {
+		return Collections.unmodifiableMap(headers);
+	}
+
+	/**
+	 * Returns the response body. The stream reports end-of-stream at the end of
+	 * the body, not at the end of the connection.
+	 *
+	 * @return the response body
+	 * @throws FileNotFoundException
+	 *             if the server returned 404 or 410, as HttpURLConnection does
+	 * @throws IOException
+	 *             if the server returned any other status code that isn't 2xx
+	 *             or 304 (including a redirect that wasn't followed)
+	 */
+	public InputStream getInputStream() throws IOException {
+		if (statusCode == HttpURLConnection.HTTP_NOT_FOUND
+				|| statusCode == HttpURLConnection.HTTP_GONE) {
+			throw new FileNotFoundException("Server returned HTTP response code: "
+					+ statusCode + " " + statusMessage);
+		}
+		if ((statusCode < 200 || statusCode >= 300)
+				&& statusCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+			throw new IOException("Server returned HTTP response code: "
+					+ statusCode + " " + statusMessage);
+		}
+		return body;
+	}
+
+	/**
+	 * Releases the connection back to the pool if the body was consumed,
+	 * otherwise closes it
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+
+		if (keepAlive && drain()) {
+			connection.pool.release(connection);
+		} else {
+			connection.closeQuietly();
+		}
+	}
+
+	/**
+	 * Closes the connection without draining the body, so it's never returned
+	 * to the pool. Safe to call from another thread while the body is being
+	 * read - the reading thread then fails with an IOException.
+	 */
+	public void abort() {
+		synchronized (this) {
+			if (closed) {
+				// Already released, and possibly in use by another request
+				return;
+			}
+			closed = true;
+		}
+		connection.closeQuietly();
+	}
+
+	/**
+	 * Reads any small remainder of the body so the connection can be reused
+	 *
+	 * @return true if the end of the body was reached
+	 */
+	private boolean drain() {
+		try {
+			byte[] buffer = new byte[512];
+			int total = 0;
+			int n;
+			while ((n = body.read(buffer)) != -1) {
+				total += n;
+				if (total > MAX_DRAIN_BYTES) {
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the status line and headers from the connection, and sets up the
+	 * body stream based on the framing the server used
+	 */
+	static PooledHttpResponse read(PooledConnection connection)
+			throws IOException {
+		InputStream in = connection.in;
+
+		String statusLine = readLine(in);
+		if (statusLine == null) {
+			throw new EOFException("Connection closed before response");
+		}
+
+		// e.g., "HTTP/1.1 200 OK"
+		String[] parts = statusLine.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new IOException("Unexpected status line: " + statusLine);
+		}
+		int statusCode;
+		try {
+			statusCode = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Unexpected status line: " + statusLine);
+		}
+		String statusMessage = parts.length > 2 ? parts[2] : "";
+
+		Map<String, String> headers = new HashMap<String, String>();
+		String line;
+		while ((line = readLine(in)) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				String name = line.substring(0, colon).trim().toLowerCase();
+				String value = line.substring(colon + 1).trim();
+				String existing = headers.get(name);
+				headers.put(name, existing == null ? value : existing + ", "
+						+ value);
+			}
+		}
+		if (line == null) {
+			throw new EOFException("Connection closed while reading headers");
+		}
+
+		String connectionHeader = headers.get("connection");
+		boolean keepAlive;
+		if (parts[0].equals("HTTP/1.0")) {
+			keepAlive = connectionHeader != null
+					&& connectionHeader.equalsIgnoreCase("keep-alive");
+		} else {
+			keepAlive = connectionHeader == null
+					|| !connectionHeader.equalsIgnoreCase("close");
+		}
+
+		InputStream body;
+		String transferEncoding = headers.get("transfer-encoding");
+		String contentLength = headers.get("content-length");
+
+		if (statusCode == 204 || statusCode == 304
+				|| (statusCode >= 100 && statusCode < 200)) {
+			body = new FixedLengthInputStream(in, 0);
+		} else if (transferEncoding != null
+				&& transferEncoding.toLowerCase().contains("chunked")) {
+			body = new ChunkedInputStream(in);
+		} else if (contentLength != null) {
+			try {
+				body = new FixedLengthInputStream(in,
+						Long.parseLong(contentLength));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid Content-Length: "
+						+ contentLength);
+			}
+		} else {
+			// Body is delimited by the server closing the connection
+			body = in;
+			keepAlive = false;
+		}
+
+		return new PooledHttpResponse(connection, statusCode, statusMessage,
+				headers, body, keepAlive);
+	}
+
+	/**
+	 * Reads a CRLF-terminated ISO-8859-1 line
+	 *
+	 * @return the line without the line terminator, or null at end of stream
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length;
+				if (length > 0 && bytes[length - 1] == '\r') {
+					length--;
+				}
+				return new String(bytes, 0, length, "ISO-8859-1");
+			}
+			line.write(c);
+		}
+		return line.size() == 0 ? null : line.toString("ISO-8859-1");
+	}
+
+	/**
+	 * Body with a known Content-Length
+	 */
+	private static class FixedLengthInputStream extends InputStream {
+
+		private final InputStream in;
+		private long remaining;
+
+		FixedLengthInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int c = in.read();
+			if (c == -1) {
+				throw new EOFException("Unexpected end of response body");
+			}
+			remaining--;
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n == -1) {
+				throw new EOFException("Unexpected end of response body");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public void close() {
+			// The connection is managed by PooledHttpResponse.close()
+		}
+	}
+
+	/**
+	 * Body sent with "Transfer-Encoding: chunked"
+	 */
+	private static class ChunkedInputStream extends InputStream {
+
+		private final InputStream in;
+		private long chunkRemaining = 0;
+		private boolean started = false;
+		private boolean eof = false;
+
+		ChunkedInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!ensureChunk()) {
+				return -1;
+			}
+			int c = in.read();
+			if (c == -1) {
+				throw new EOFException("Unexpected end of chunked body");
+			}
+			chunkRemaining--;
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (!ensureChunk()) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+			if (n == -1) {
+				throw new EOFException("Unexpected end of chunked body");
+			}
+			chunkRemaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (eof) {
+				return 0;
+			}
+			return (int) Math.min(in.available(), chunkRemaining);
+		}
+
+		@Override
+		public void close() {
+			// The connection is managed by PooledHttpResponse.close()
+		}
+
+		/**
+		 * Moves to the next chunk if the current one has been consumed
+		 *
+		 * @return false if the last chunk has been read
+		 */
+		private boolean ensureChunk() throws IOException {
+			if (eof) {
+				return false;
+			}
+			if (chunkRemaining > 0) {
+				return true;
+			}
+			if (chunkRemaining == 0 && started) {
+				// CRLF that terminates the previous chunk
+				readLine(in);
+			}
+			started = true;
+
+			String sizeLine = readLine(in);
+			if (sizeLine == null) {
+				throw new EOFException("Unexpected end of chunked body");
+			}
+			int extension = sizeLine.indexOf(';');
+			if (extension != -1) {
+				sizeLine = sizeLine.substring(0, extension);
+			}
+			try {
+				chunkRemaining = Long.parseLong(sizeLine.trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + sizeLine);
+			}
+
+			if (chunkRemaining == 0) {
+				// Skip any trailers up to the final empty line
+				String trailer;
+				while ((trailer = readLine(in)) != null && trailer.length() > 0) {
+				}
+				eof = true;
+				return false;
+			}
+			return true;
+		}
+	}
+}
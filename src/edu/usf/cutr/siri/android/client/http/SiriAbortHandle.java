@@ -0,0 +1,83 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.InterruptedIOException;
+
+import edu.usf.cutr.siri.android.client.http.SiriConnectionPool.PooledConnection;
+
+/**
+ * Lets another thread stop a request that is in progress by closing its
+ * connection, since interrupting the thread doesn't stop a blocking socket
+ * read.
+ *
+ * The request registers its connection (or response) with the handle as soon
+ * as it has one. If abort() was already called, the connection is closed
+ * right away and the request fails with an InterruptedIOException.
+ *
+ * This class is thread-safe.
+ */
+public class SiriAbortHandle {
+
+	private PooledConnection connection = null;
+	private SiriHttpResponse response = null;
+	private boolean aborted = false;
+
+	/**
+	 * Registers the response of the request. Once it has been registered,
+	 * abort() calls SiriHttpResponse.abort().
+	 *
+	 * @param response
+	 *            the response, which may still be waiting for the status line
+	 *            and headers
+	 * @throws InterruptedIOException
+	 *             if the request has already been aborted (the response is
+	 *             aborted too)
+	 */
+	public synchronized void setResponse(SiriHttpResponse response)
+			throws InterruptedIOException {
+		this.connection = null;
+		this.response = response;
+		if (aborted) {
+			response.abort();
+			throw new InterruptedIOException("Request aborted");
+		}
+	}
+
+	/**
+	 * Registers a pooled connection that is about to be used for the request,
+	 * so the request can be aborted while waiting for the response headers
+	 */
+	synchronized void setConnection(PooledConnection connection)
+			throws InterruptedIOException {
+		this.response = null;
+		this.connection = connection;
+		if (aborted) {
+			connection.closeQuietly();
+			throw new InterruptedIOException("Request aborted");
+		}
+	}
+
+	/**
+	 * Returns true if abort() has been called
+	 *
+	 * @return true if abort() has been called
+	 */
+	public synchronized boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Closes the connection of the request, if it has one, or makes the
+	 * request fail as soon as it registers one. A response that has already
+	 * been closed normally isn't affected.
+	 */
+	public synchronized void abort() {
+		aborted = true;
+		// Under the lock, so a pooled connection can't be swapped for its
+		// response (and released to the pool) while it's being closed
+		if (response != null) {
+			response.abort();
+		} else if (connection != null) {
+			connection.closeQuietly();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small pool of byte arrays for reading whole response bodies into memory,
+ * so they can be parsed from a byte[] instead of an InputStream.
+ *
+ * Reading each response into a new array (or letting Jackson fill its own
+ * buffers from a stream) allocates memory in proportion to the response size
+ * on every request. SIRI clients usually poll the same few URLs, so the
+ * responses are about the same size every time, and the arrays from earlier
+ * responses can be reused. Buffer sizes are rounded up to a power of two so a
+ * buffer fits the next response even if it's a little bigger.
+ *
+ * This class is thread-safe.
+ */
+public class SiriBufferPool {
+
+	/**
+	 * Smallest buffer handed out, and the first buffer size used when the
+	 * length of the response isn't known
+	 */
+	public static final int MIN_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Largest first buffer allocated for an expected length, so a wrong or
+	 * hostile Content-Length can't allocate a huge array before any bytes
+	 * arrive - longer bodies grow the buffer as they are read
+	 */
+	public static final int MAX_INITIAL_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	// Idle buffers, in no particular order
+	private final LinkedList<byte[]> idleBuffers = new LinkedList<byte[]>();
+
+	private final int maxIdleBuffers;
+	private final int maxBufferSize;
+
+	// Used to track how often a buffer is reused
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Creates a new buffer pool
+	 *
+	 * @param maxIdleBuffers
+	 *            maximum number of idle buffers to keep
+	 * @param maxBufferSize
+	 *            size (in bytes) of the largest buffer to keep - larger
+	 *            buffers are still handed out, but aren't kept after they're
+	 *            released
+	 */
+	public SiriBufferPool(int maxIdleBuffers, int maxBufferSize) {
+		if (maxIdleBuffers < 0 || maxBufferSize < 0) {
+			throw new IllegalArgumentException(
+					"Pool size and buffer size cannot be negative");
+		}
+		this.maxIdleBuffers = maxIdleBuffers;
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	/**
+	 * Returns a buffer of at least the given size, reusing the smallest idle
+	 * buffer that is big enough if there is one. The contents of the buffer
+	 * are undefined.
+	 *
+	 * @param minSize
+	 *            minimum size (in bytes) of the buffer
+	 * @return a buffer of at least minSize bytes
+	 */
+	public byte[] acquire(int minSize) {
+		synchronized (this) {
+			byte[] best = null;
+			for (byte[] buffer : idleBuffers) {
+				if (buffer.length >= minSize
+						&& (best == null || buffer.length < best.length)) {
+					best = buffer;
+				}
+			}
+			if (best != null) {
+				// Arrays are equal only to themselves, so this removes this one
+				idleBuffers.remove(best);
+				hitCount.incrementAndGet();
+				return best;
+			}
+		}
+		missCount.incrementAndGet();
+		return new byte[getBufferSize(minSize)];
+	}
+
+	/**
+	 * Returns a buffer from acquire() to the pool. The buffer must not be used
+	 * after it has been released.
+	 *
+	 * @param buffer
+	 *            the buffer to return
+	 */
+	public void release(byte[] buffer) {
+		if (buffer.length > maxBufferSize) {
+			return;
+		}
+		synchronized (this) {
+			if (idleBuffers.size() < maxIdleBuffers) {
+				idleBuffers.add(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of the stream into a pooled buffer. The stream isn't
+	 * closed.
+	 *
+	 * @param in
+	 *            the stream to read
+	 * @param expectedLength
+	 *            number of bytes expected (e.g., from the Content-Length
+	 *            response header), or -1 if it isn't known. The first buffer is
+	 *            sized to fit it (up to the largest buffer the pool keeps, or
+	 *            MAX_INITIAL_BUFFER_SIZE if that is smaller), so the body is
+	 *            usually read without copying. If the stream turns out to be
+	 *            longer, the buffer grows.
+	 * @return the bytes read, which must be released when they're no longer
+	 *         needed
+	 * @throws IOException
+	 *             if the stream couldn't be read
+	 */
+	public SiriResponseBuffer readFully(InputStream in, int expectedLength)
+			throws IOException {
+		int initialSize = MIN_BUFFER_SIZE;
+		if (expectedLength >= 0) {
+			initialSize = Math.min(expectedLength, Math.max(MIN_BUFFER_SIZE,
+					Math.min(maxBufferSize, MAX_INITIAL_BUFFER_SIZE)));
+		}
+		byte[] buffer = acquire(initialSize);
+		int length = 0;
+		try {
+			while (true) {
+				if (length == expectedLength) {
+					// Don't wait for the end of the stream - a keep-alive
+					// connection may do extra work when it's reached
+					break;
+				}
+				if (length == buffer.length) {
+					// Check for the end of the stream before growing, since
+					// the Content-Length may have been exact
+					int b = in.read();
+					if (b == -1) {
+						break;
+					}
+					byte[] larger = acquire(buffer.length * 2);
+					System.arraycopy(buffer, 0, larger, 0, length);
+					release(buffer);
+					buffer = larger;
+					buffer[length++] = (byte) b;
+				}
+				int n = in.read(buffer, length, buffer.length - length);
+				if (n == -1) {
+					break;
+				}
+				length += n;
+			}
+		} catch (IOException e) {
+			release(buffer);
+			throw e;
+		} catch (RuntimeException e) {
+			release(buffer);
+			throw e;
+		}
+		return new SiriResponseBuffer(this, buffer, length);
+	}
+
+	/**
+	 * Drops all idle buffers, e.g. when the app is low on memory
+	 */
+	public synchronized void evictAll() {
+		idleBuffers.clear();
+	}
+
+	/**
+	 * Returns the number of idle buffers in the pool
+	 *
+	 * @return the number of idle buffers in the pool
+	 */
+	public synchronized int getIdleBufferCount() {
+		return idleBuffers.size();
+	}
+
+	/**
+	 * Returns the number of times an idle buffer was reused
+	 *
+	 * @return the number of times an idle buffer was reused
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of times a new buffer had to be allocated
+	 *
+	 * @return the number of times a new buffer had to be allocated
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the size of a new buffer for the given minimum size - the next
+	 * power of two, and at least MIN_BUFFER_SIZE
+	 */
+	static int getBufferSize(int minSize) {
+		if (minSize <= MIN_BUFFER_SIZE) {
+			return MIN_BUFFER_SIZE;
+		}
+		int size = Integer.highestOneBit(minSize);
+		if (size < minSize) {
+			// Don't overflow for sizes over 1 GB
+			size = size > Integer.MAX_VALUE / 2 ? minSize : size * 2;
+		}
+		return size;
+	}
+}
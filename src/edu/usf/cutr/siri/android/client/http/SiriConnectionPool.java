@@ -0,0 +1,537 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import android.util.Log;
+
+import static edu.usf.cutr.siri.android.client.SiriRestClient.TAG;
+
+/**
+ * A small HTTP/1.1 client that keeps idle keep-alive connections open so they
+ * can be reused across requests to the same host. The SiriRestClient polls the
+ * same vehicle monitoring and stop monitoring base URLs over and over, so
+ * reusing the socket avoids paying a TCP (and TLS) handshake on every request.
+ *
+ * Idle connections are bounded per host (scheme, host, and port), and
+ * connections that have been idle longer than the keep-alive duration are
+ * evicted the next time the pool is used.
+ *
+ * Only plain GET requests are supported, which is all a RESTful SIRI API
+ * needs. Proxies are not supported - use the Android HttpURLConnection if a
+ * proxy is required.
+ *
+ * This class is thread-safe.
+ */
+public class SiriConnectionPool {
+
+	private static final int DEFAULT_HTTP_PORT = 80;
+	private static final int DEFAULT_HTTPS_PORT = 443;
+
+	// Same limit as HttpURLConnection's default for http.maxRedirects
+	private static final int MAX_REDIRECTS = 20;
+
+	private static final int HTTP_TEMPORARY_REDIRECT = 307;
+	private static final int HTTP_PERMANENT_REDIRECT = 308;
+
+	// Idle connections, keyed by scheme://host:port. The most recently
+	// released connection is at the head of each list.
+	private final Map<String, LinkedList<PooledConnection>> idleConnections = new HashMap<String, LinkedList<PooledConnection>>();
+
+	private final int maxIdleConnectionsPerHost;
+	private final long keepAliveDuration;
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	// Used to track how often a request is served by an existing connection
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Creates a new connection pool
+	 *
+	 * @param maxIdleConnectionsPerHost
+	 *            maximum number of idle connections to keep open for each
+	 *            host
+	 * @param keepAliveDuration
+	 *            time (in milliseconds) an idle connection is kept before it
+	 *            is evicted
+	 * @param connectTimeout
+	 *            connect timeout (in milliseconds), or 0 for no timeout
+	 * @param readTimeout
+	 *            read timeout (in milliseconds), or 0 for no timeout
+	 */
+	public SiriConnectionPool(int maxIdleConnectionsPerHost,
+			long keepAliveDuration, int connectTimeout, int readTimeout) {
+		if (maxIdleConnectionsPerHost < 0 || keepAliveDuration < 0
+				|| connectTimeout < 0 || readTimeout < 0) {
+			throw new IllegalArgumentException(
+					"Pool size, keep-alive duration, and timeouts cannot be negative");
+		}
+		this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+		this.keepAliveDuration = keepAliveDuration;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Makes an HTTP GET request for the given URL, reusing an idle connection
+	 * to the same host if one is available.
+	 *
+	 * Redirects to a URL with the same scheme are followed, as
+	 * HttpURLConnection does by default. Any other redirect is returned to
+	 * the caller, and its getInputStream() throws an IOException.
+	 *
+	 * The caller must close() the returned response after reading its body so
+	 * the connection can be returned to the pool.
+	 *
+	 * @param url
+	 *            http or https URL to request
+	 * @param requestHeaders
+	 *            additional request headers, or null if there are none
+	 * @return the response from the server
+	 * @throws IOException
+	 *             if the request couldn't be made or the response couldn't be
+	 *             read
+	 */
+	public PooledHttpResponse get(URL url, Map<String, String> requestHeaders)
+			throws IOException {
+		return get(url, requestHeaders, null);
+	}
+
+	/**
+	 * Makes an HTTP GET request for the given URL, as get(URL, Map), that can
+	 * be aborted from another thread while it waits for the response
+	 *
+	 * @param url
+	 *            http or https URL to request
+	 * @param requestHeaders
+	 *            additional request headers, or null if there are none
+	 * @param abortHandle
+	 *            handle that is given the connection, and then the response,
+	 *            as soon as the request has them, or null
+	 * @return the response from the server
+	 * @throws IOException
+	 *             if the request couldn't be made, the response couldn't be
+	 *             read, or the request was aborted
+	 */
+	public PooledHttpResponse get(URL url, Map<String, String> requestHeaders,
+			SiriAbortHandle abortHandle) throws IOException {
+		for (int redirects = 0;; redirects++) {
+			PooledHttpResponse response = execute(url, requestHeaders,
+					abortHandle);
+			String location = response.getHeader("location");
+			if (!isRedirect(response.getStatusCode()) || location == null
+					|| redirects >= MAX_REDIRECTS) {
+				return response;
+			}
+
+			URL redirectUrl;
+			try {
+				redirectUrl = new URL(url, location);
+			} catch (MalformedURLException e) {
+				return response;
+			}
+			if (!redirectUrl.getProtocol().equalsIgnoreCase(url.getProtocol())) {
+				return response;
+			}
+
+			Log.d(TAG, "Following HTTP " + response.getStatusCode()
+					+ " redirect to " + redirectUrl);
+			response.close();
+			url = redirectUrl;
+		}
+	}
+
+	/**
+	 * Makes a single HTTP GET request, without following redirects
+	 */
+	private PooledHttpResponse execute(URL url,
+			Map<String, String> requestHeaders, SiriAbortHandle abortHandle)
+			throws IOException {
+		String protocol = url.getProtocol().toLowerCase();
+		if (!protocol.equals("http") && !protocol.equals("https")) {
+			throw new IllegalArgumentException(
+					"Only http and https URLs are supported: " + url);
+		}
+
+		String hostKey = getHostKey(url);
+
+		PooledConnection connection = acquire(hostKey);
+
+		if (connection != null) {
+			try {
+				hitCount.incrementAndGet();
+				return execute(connection, url, requestHeaders, abortHandle);
+			} catch (IOException e) {
+				if ((abortHandle != null && abortHandle.isAborted())
+						|| !isStaleConnectionFailure(connection, e)) {
+					// e.g., a read timeout from a slow server - the request
+					// may have reached it, so don't send it again
+					connection.closeQuietly();
+					throw e;
+				}
+				/*
+				 * The server closed the idle connection without us noticing.
+				 * Discard it and retry once on a fresh connection.
+				 */
+				Log.d(TAG, "Pooled connection to " + hostKey
+						+ " failed, retrying on a new connection: " + e);
+				connection.closeQuietly();
+				hitCount.decrementAndGet();
+			}
+		}
+
+		missCount.incrementAndGet();
+		long connectStart = System.nanoTime();
+		connection = connect(url, hostKey);
+		long connectTime = System.nanoTime() - connectStart;
+		try {
+			PooledHttpResponse response = execute(connection, url,
+					requestHeaders, abortHandle);
+			response.setConnectTime(connectTime);
+			return response;
+		} catch (IOException e) {
+			connection.closeQuietly();
+			throw e;
+		}
+	}
+
+	/**
+	 * Makes the request on a connection, registering the connection and then
+	 * the response with the abort handle
+	 */
+	private static PooledHttpResponse execute(PooledConnection connection,
+			URL url, Map<String, String> requestHeaders,
+			SiriAbortHandle abortHandle) throws IOException {
+		if (abortHandle == null) {
+			return connection.execute(url, requestHeaders);
+		}
+		abortHandle.setConnection(connection);
+		PooledHttpResponse response = connection.execute(url, requestHeaders);
+		abortHandle.setResponse(response);
+		return response;
+	}
+
+	/**
+	 * Returns the number of requests that reused an idle pooled connection
+	 *
+	 * @return the number of requests that reused an idle pooled connection
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of requests that had to open a new connection
+	 *
+	 * @return the number of requests that had to open a new connection
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns the number of idle connections currently held by the pool,
+	 * across all hosts
+	 *
+	 * @return the number of idle connections currently held by the pool
+	 */
+	public synchronized int getIdleConnectionCount() {
+		int count = 0;
+		for (LinkedList<PooledConnection> list : idleConnections.values()) {
+			count += list.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Closes and removes any idle connections that have exceeded the
+	 * keep-alive duration
+	 */
+	public void evictIdleConnections() {
+		LinkedList<PooledConnection> expired = new LinkedList<PooledConnection>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			Iterator<LinkedList<PooledConnection>> hosts = idleConnections
+					.values().iterator();
+			while (hosts.hasNext()) {
+				LinkedList<PooledConnection> list = hosts.next();
+				Iterator<PooledConnection> it = list.iterator();
+				while (it.hasNext()) {
+					PooledConnection c = it.next();
+					if (now - c.idleSince > keepAliveDuration) {
+						it.remove();
+						expired.add(c);
+					}
+				}
+				if (list.isEmpty()) {
+					hosts.remove();
+				}
+			}
+		}
+
+		for (PooledConnection c : expired) {
+			c.closeQuietly();
+		}
+	}
+
+	/**
+	 * Closes and removes all idle connections held by the pool
+	 */
+	public void evictAll() {
+		LinkedList<PooledConnection> all = new LinkedList<PooledConnection>();
+
+		synchronized (this) {
+			for (LinkedList<PooledConnection> list : idleConnections.values()) {
+				all.addAll(list);
+			}
+			idleConnections.clear();
+		}
+
+		for (PooledConnection c : all) {
+			c.closeQuietly();
+		}
+	}
+
+	/**
+	 * Takes the most recently used, still valid idle connection for the host
+	 * out of the pool
+	 *
+	 * @return an idle connection, or null if there isn't one
+	 */
+	private PooledConnection acquire(String hostKey) {
+		evictIdleConnections();
+
+		while (true) {
+			PooledConnection c;
+			synchronized (this) {
+				LinkedList<PooledConnection> list = idleConnections
+						.get(hostKey);
+				if (list == null || list.isEmpty()) {
+					return null;
+				}
+				c = list.removeFirst();
+			}
+			if (c.isReusable()) {
+				return c;
+			}
+			c.closeQuietly();
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool after its response body has been fully
+	 * consumed
+	 */
+	void release(PooledConnection connection) {
+		PooledConnection overflow = null;
+
+		synchronized (this) {
+			LinkedList<PooledConnection> list = idleConnections
+					.get(connection.hostKey);
+			if (list == null) {
+				list = new LinkedList<PooledConnection>();
+				idleConnections.put(connection.hostKey, list);
+			}
+			connection.idleSince = System.currentTimeMillis();
+			list.addFirst(connection);
+
+			if (list.size() > maxIdleConnectionsPerHost) {
+				overflow = list.removeLast();
+			}
+		}
+
+		if (overflow != null) {
+			overflow.closeQuietly();
+		}
+	}
+
+	/**
+	 * Opens a new connection (including the TLS handshake for https)
+	 */
+	private PooledConnection connect(URL url, String hostKey)
+			throws IOException {
+		boolean secure = url.getProtocol().equalsIgnoreCase("https");
+		String host = url.getHost();
+		int port = getPort(url);
+
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			socket.setSoTimeout(readTimeout);
+			socket.setTcpNoDelay(true);
+
+			if (secure) {
+				SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory
+						.getDefault()).createSocket(socket, host, port, true);
+				sslSocket.startHandshake();
+				if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(
+						host, sslSocket.getSession())) {
+					throw new IOException("Hostname '" + host
+							+ "' was not verified");
+				}
+				socket = sslSocket;
+			}
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+			throw e;
+		}
+
+		return new PooledConnection(this, hostKey, socket);
+	}
+
+	/**
+	 * Returns true if the request failed because the server had already
+	 * closed the reused connection: an error (other than a timeout) or EOF
+	 * while writing the request or waiting for the first byte of the
+	 * response.  Only these failures are safe to retry.
+	 */
+	private static boolean isStaleConnectionFailure(
+			PooledConnection connection, IOException e) {
+		return !connection.responseStarted
+				&& !(e instanceof InterruptedIOException);
+	}
+
+	private static boolean isRedirect(int statusCode) {
+		return statusCode == HttpURLConnection.HTTP_MOVED_PERM
+				|| statusCode == HttpURLConnection.HTTP_MOVED_TEMP
+				|| statusCode == HttpURLConnection.HTTP_SEE_OTHER
+				|| statusCode == HTTP_TEMPORARY_REDIRECT
+				|| statusCode == HTTP_PERMANENT_REDIRECT;
+	}
+
+	private static String getHostKey(URL url) {
+		return url.getProtocol().toLowerCase() + "://"
+				+ url.getHost().toLowerCase() + ":" + getPort(url);
+	}
+
+	private static int getPort(URL url) {
+		if (url.getPort() != -1) {
+			return url.getPort();
+		}
+		return url.getProtocol().equalsIgnoreCase("https") ? DEFAULT_HTTPS_PORT
+				: DEFAULT_HTTP_PORT;
+	}
+
+	/**
+	 * A single socket to a host that can be used for one request at a time
+	 */
+	static class PooledConnection {
+
+		final SiriConnectionPool pool;
+		final String hostKey;
+		final Socket socket;
+		final InputStream in;
+		final OutputStream out;
+
+		// Time this connection was returned to the pool
+		long idleSince;
+
+		// True once the first byte of the response to the current request
+		// has arrived.  Only used by the thread making the request.
+		boolean responseStarted = false;
+
+		PooledConnection(SiriConnectionPool pool, String hostKey, Socket socket)
+				throws IOException {
+			this.pool = pool;
+			this.hostKey = hostKey;
+			this.socket = socket;
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		/**
+		 * Writes the request and reads the response status line and headers
+		 */
+		PooledHttpResponse execute(URL url, Map<String, String> requestHeaders)
+				throws IOException {
+			responseStarted = false;
+			StringBuilder sb = new StringBuilder(256);
+
+			String file = url.getFile();
+			if (file == null || file.length() == 0) {
+				file = "/";
+			}
+
+			sb.append("GET ").append(file).append(" HTTP/1.1\r\n");
+			sb.append("Host: ").append(url.getHost());
+			if (url.getPort() != -1) {
+				sb.append(':').append(url.getPort());
+			}
+			sb.append("\r\n");
+			sb.append("Connection: keep-alive\r\n");
+
+			if (requestHeaders != null) {
+				for (Map.Entry<String, String> header : requestHeaders
+						.entrySet()) {
+					sb.append(header.getKey()).append(": ")
+							.append(header.getValue()).append("\r\n");
+				}
+			}
+			sb.append("\r\n");
+
+			out.write(sb.toString().getBytes("ISO-8859-1"));
+			out.flush();
+
+			// Wait for the first byte, so a connection the server closed
+			// while it was idle can be told apart from a slow response
+			in.mark(1);
+			if (in.read() == -1) {
+				throw new EOFException("Connection closed before response");
+			}
+			in.reset();
+			responseStarted = true;
+
+			return PooledHttpResponse.read(this);
+		}
+
+		/**
+		 * Returns true if the socket still appears to be usable
+		 */
+		boolean isReusable() {
+			if (socket.isClosed() || socket.isInputShutdown()
+					|| socket.isOutputShutdown()) {
+				return false;
+			}
+			try {
+				// Unread data on an idle connection means the server sent
+				// something unexpected (most likely a close), so don't reuse
+				return in.available() == 0;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		void closeQuietly() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An HTTP response from one of the connection types that the SiriRestClient
+ * manages itself (the Android HttpURLConnection or the SiriConnectionPool), so
+ * the client can look at the status and headers before parsing the body.
+ */
+public interface SiriHttpResponse {
+
+	/**
+	 * Returns the HTTP status code of the response (e.g., 200)
+	 * 
+	 * @return the HTTP status code of the response
+	 * @throws IOException
+	 *             if the response couldn't be read
+	 */
+	public int getStatusCode() throws IOException;
+
+	/**
+	 * Returns the value of the given response header
+	 * 
+	 * @param name
+	 *            case-insensitive name of the header
+	 * @return the value of the header, or null if it wasn't sent
+	 */
+	public String getHeader(String name);
+
+	/**
+	 * Returns the response body
+	 * 
+	 * @return the response body
+	 * @throws IOException
+	 *             if the server returned an error status code or the body
+	 *             couldn't be read
+	 */
+	public InputStream getInputStream() throws IOException;
+
+	/**
+	 * Releases the connection used for this response
+	 */
+	public void close();
+
+	/**
+	 * Closes the connection used for this response right away, without
+	 * reading the rest of the body or returning the connection to a pool. May
+	 * be called from another thread to stop a request that is blocked reading
+	 * the response, which then fails with an IOException.
+	 */
+	public void abort();
+}
@@ -0,0 +1,58 @@
+package edu.usf.cutr.siri.android.client.http;
+
+/**
+ * A response body read into a buffer from a SiriBufferPool. The bytes are
+ * getArray()[0] to getArray()[getLength() - 1] - the rest of the array is
+ * unused.
+ *
+ * Call release() once the body has been parsed, so the buffer can be reused.
+ */
+public class SiriResponseBuffer {
+
+	private final SiriBufferPool pool;
+
+	private byte[] array;
+
+	private final int length;
+
+	SiriResponseBuffer(SiriBufferPool pool, byte[] array, int length) {
+		this.pool = pool;
+		this.array = array;
+		this.length = length;
+	}
+
+	/**
+	 * Returns the array that holds the response body
+	 *
+	 * @return the array that holds the response body, which may be longer than
+	 *         the body
+	 * @throws IllegalStateException
+	 *             if the buffer has been released
+	 */
+	public byte[] getArray() {
+		if (array == null) {
+			throw new IllegalStateException("Buffer has been released");
+		}
+		return array;
+	}
+
+	/**
+	 * Returns the length of the response body
+	 *
+	 * @return the length (in bytes) of the response body
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the buffer to the pool. Calling this more than once has no
+	 * effect.
+	 */
+	public void release() {
+		if (array != null) {
+			pool.release(array);
+			array = null;
+		}
+	}
+}
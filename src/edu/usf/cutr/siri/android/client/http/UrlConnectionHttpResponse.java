@@ -0,0 +1,41 @@
+package edu.usf.cutr.siri.android.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * SiriHttpResponse backed by the Android HttpURLConnection
+ */
+public class UrlConnectionHttpResponse implements SiriHttpResponse {
+
+	private final HttpURLConnection urlConnection;
+
+	/**
+	 * @param urlConnection
+	 *            a connection with all request properties already set
+	 */
+	public UrlConnectionHttpResponse(HttpURLConnection urlConnection) {
+		this.urlConnection = urlConnection;
+	}
+
+	public int getStatusCode() throws IOException {
+		return urlConnection.getResponseCode();
+	}
+
+	public String getHeader(String name) {
+		return urlConnection.getHeaderField(name);
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return urlConnection.getInputStream();
+	}
+
+	public void close() {
+		urlConnection.disconnect();
+	}
+
+	public void abort() {
+		urlConnection.disconnect();
+	}
+}
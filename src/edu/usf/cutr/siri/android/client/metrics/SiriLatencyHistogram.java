@@ -0,0 +1,202 @@
+package edu.usf.cutr.siri.android.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram. Values are
+ * counted in log-linear buckets: values below 64 get their own bucket, and
+ * each power of two above that is split into 32 equal buckets, so any
+ * recorded value is reported within about 3% of its real value, while memory
+ * use stays small and fixed (under 8 KB).
+ * 
+ * The histogram doesn't care about units - the SiriRequestMetrics records
+ * microseconds. Values above getMaxTrackableValue() are counted as that value.
+ * 
+ * Recording is thread-safe and doesn't block. Percentiles read while other
+ * threads are recording are approximate, as they don't see a consistent
+ * snapshot of all buckets.
+ */
+public class SiriLatencyHistogram {
+
+	// Each power of two is split into 2^(SUB_BUCKET_BITS - 1) buckets
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+	// Largest value that can be tracked is 2^MAX_VALUE_BITS - 1 (over an
+	// hour, in microseconds)
+	private static final int MAX_VALUE_BITS = 32;
+	private static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+			+ (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+	private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxValue = new AtomicLong(0);
+
+	/**
+	 * Records a value
+	 * 
+	 * @param value
+	 *            value to record. Negative values are recorded as 0.
+	 */
+	public void recordValue(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > MAX_TRACKABLE_VALUE) {
+			value = MAX_TRACKABLE_VALUE;
+		}
+
+		counts.incrementAndGet(getBucketIndex(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+
+		long min;
+		while (value < (min = minValue.get())) {
+			if (minValue.compareAndSet(min, value)) {
+				break;
+			}
+		}
+		long max;
+		while (value > (max = maxValue.get())) {
+			if (maxValue.compareAndSet(max, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 * 
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the smallest value recorded
+	 * 
+	 * @return the smallest value recorded, or 0 if nothing has been recorded
+	 */
+	public long getMin() {
+		long min = minValue.get();
+		return min == Long.MAX_VALUE ? 0 : min;
+	}
+
+	/**
+	 * Returns the largest value recorded
+	 * 
+	 * @return the largest value recorded, or 0 if nothing has been recorded
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded
+	 * 
+	 * @return the mean of the values recorded, or 0 if nothing has been
+	 *         recorded
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Returns the value at the given percentile, i.e. the largest value (within
+	 * the precision of the histogram) that the given percentage of recorded
+	 * values are less than or equal to
+	 * 
+	 * @param percentile
+	 *            percentile from 0 to 100 (e.g., 99 for p99)
+	 * @return the value at the given percentile, or 0 if nothing has been
+	 *         recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException(
+					"Percentile must be between 0 and 100");
+		}
+
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(percentile / 100.0 * count);
+		if (target < 1) {
+			target = 1;
+		}
+
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				// Don't report past the largest value actually seen
+				return Math.min(getHighestValueInBucket(i), getMax());
+			}
+		}
+		// Only reached if other threads recorded values while we were reading
+		return getMax();
+	}
+
+	/**
+	 * Returns the largest value that can be tracked precisely. Larger values
+	 * are recorded as this value.
+	 * 
+	 * @return the largest value that can be tracked precisely
+	 */
+	public static long getMaxTrackableValue() {
+		return MAX_TRACKABLE_VALUE;
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded by other threads during the
+	 * reset may or may not be kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		minValue.set(Long.MAX_VALUE);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Returns the index of the bucket for a value between 0 and
+	 * MAX_TRACKABLE_VALUE
+	 */
+	static int getBucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		// Shift so the value falls in [SUB_BUCKET_HALF_COUNT, SUB_BUCKET_COUNT)
+		int shift = (63 - Long.numberOfLeadingZeros(value))
+				- (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+				+ (subBucket - SUB_BUCKET_HALF_COUNT);
+	}
+
+	/**
+	 * Returns the largest value that falls into the given bucket
+	 */
+	static long getHighestValueInBucket(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT
+				+ SUB_BUCKET_HALF_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
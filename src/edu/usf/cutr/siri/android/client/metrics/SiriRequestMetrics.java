@@ -0,0 +1,560 @@
+package edu.usf.cutr.siri.android.client.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.usf.cutr.siri.android.client.config.SiriRestClientConfig;
+
+/**
+ * Thread-safe registry of request metrics for a SiriRestClient. Latencies are
+ * kept in a SiriLatencyHistogram (in microseconds) for each phase of a
+ * request, broken down by endpoint (vehicle or stop monitoring) and response
+ * format (SiriRestClientConfig.RESPONSE_TYPE_*), along with request, error,
+ * and byte counters.
+ * 
+ * The phases of a request are:
+ * 
+ * PHASE_URL_BUILD - building and validating the request URL
+ * PHASE_CONNECT - getting a connection to the server (near zero when a pooled
+ * connection is reused)
+ * PHASE_TIME_TO_FIRST_BYTE - from sending the request until the response
+ * status and headers are received
+ * PHASE_PARSE - reading and parsing the response body
+ * PHASE_CACHE_WRITE - storing the response in the response cache and
+ * scheduling the Jackson object cache write
+ * PHASE_TOTAL - the whole request, from sending it until the response has been
+ * parsed and cached (successful requests only)
+ * PHASE_RATE_LIMIT_WAIT - waiting for a rate limiter token before the request
+ * is sent (zero when a token was available)
+ * 
+ * Requests that were retried after a failure, hedged requests (a second
+ * request sent because the first was slow), hedged requests that answered
+ * first, requests rejected by an open circuit breaker, and requests rejected
+ * by the rate limiter are also counted, along with the number of requests
+ * currently waiting for a rate limiter token.
+ * 
+ * When the Jackson HTTP connection is used, Jackson opens the connection
+ * itself, so connect and time to first byte can't be separated and are
+ * included in PHASE_PARSE.
+ * 
+ * Histograms are created the first time a value is recorded for them, so
+ * unused endpoint/format combinations don't take up memory.
+ */
+public class SiriRequestMetrics {
+
+	/**
+	 * SIRI VehicleMonitoring requests
+	 */
+	public static final int ENDPOINT_VEHICLE_MONITORING = 0;
+
+	/**
+	 * SIRI StopMonitoring requests
+	 */
+	public static final int ENDPOINT_STOP_MONITORING = 1;
+
+	public static final int PHASE_URL_BUILD = 0;
+	public static final int PHASE_CONNECT = 1;
+	public static final int PHASE_TIME_TO_FIRST_BYTE = 2;
+	public static final int PHASE_PARSE = 3;
+	public static final int PHASE_CACHE_WRITE = 4;
+	public static final int PHASE_TOTAL = 5;
+	public static final int PHASE_RATE_LIMIT_WAIT = 6;
+
+	private static final int ENDPOINT_COUNT = 2;
+	private static final int PHASE_COUNT = 7;
+
+	// Room for more response types than we have now, so the arrays don't need
+	// to change size when a format is added
+	private static final int MAX_FORMATS = 8;
+
+	private static final String[] ENDPOINT_NAMES = { "vehicle_monitoring",
+			"stop_monitoring" };
+
+	private static final String[] PHASE_NAMES = { "url_build", "connect",
+			"time_to_first_byte", "parse", "cache_write", "total",
+			"rate_limit_wait" };
+
+	// Percentiles reported in getSnapshot()
+	private static final double[] SNAPSHOT_PERCENTILES = { 50, 90, 99, 99.9 };
+	private static final String[] SNAPSHOT_PERCENTILE_NAMES = { "p50", "p90",
+			"p99", "p999" };
+
+	private final AtomicReferenceArray<SiriLatencyHistogram> histograms = new AtomicReferenceArray<SiriLatencyHistogram>(
+			ENDPOINT_COUNT * MAX_FORMATS * PHASE_COUNT);
+
+	private final AtomicLongArray requestCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray errorCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray bytesReceived = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray retryCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray hedgeCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray hedgeWinCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray shortCircuitCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	private final AtomicLongArray rateLimitedCounts = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+	// Current values, not totals, so they aren't cleared by reset()
+	private final AtomicLongArray rateLimitQueueLengths = new AtomicLongArray(
+			ENDPOINT_COUNT * MAX_FORMATS);
+
+	/**
+	 * Records the time taken by one phase of a request
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 * @param phase
+	 *            one of the PHASE_* constants
+	 * @param nanos
+	 *            time taken by the phase, in nanoseconds (e.g., from
+	 *            System.nanoTime())
+	 */
+	public void recordLatency(int endpoint, int format, int phase, long nanos) {
+		int index = getHistogramIndex(endpoint, format, phase);
+		SiriLatencyHistogram histogram = histograms.get(index);
+		if (histogram == null) {
+			histograms.compareAndSet(index, null, new SiriLatencyHistogram());
+			histogram = histograms.get(index);
+		}
+		histogram.recordValue(nanos / 1000);
+	}
+
+	/**
+	 * Counts a request that was sent to the server (i.e., not served from a
+	 * fresh cached response)
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordRequest(int endpoint, int format) {
+		requestCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Counts a request that failed
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordError(int endpoint, int format) {
+		errorCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Counts a retry of a failed request
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordRetry(int endpoint, int format) {
+		retryCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Counts a hedged request, sent because the first request for the same
+	 * URL was slow
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordHedge(int endpoint, int format) {
+		hedgeCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Counts a hedged request whose response was used, because it answered
+	 * before the first request
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordHedgeWin(int endpoint, int format) {
+		hedgeWinCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Counts a request that wasn't sent because the circuit breaker for its
+	 * base URL was open
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordShortCircuit(int endpoint, int format) {
+		shortCircuitCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Counts a request that wasn't sent because it was over the rate limit
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 */
+	public void recordRateLimited(int endpoint, int format) {
+		rateLimitedCounts.incrementAndGet(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Adds to the number of requests waiting for a rate limiter token. Call
+	 * with 1 when a request starts waiting, and with -1 when it's done.
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 * @param delta
+	 *            1 or -1
+	 */
+	public void addRateLimitQueueLength(int endpoint, int format, int delta) {
+		rateLimitQueueLengths.addAndGet(getCounterIndex(endpoint, format),
+				delta);
+	}
+
+	/**
+	 * Adds to the number of response body bytes received from the server
+	 * (before decompression)
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the request
+	 * @param bytes
+	 *            number of bytes received
+	 */
+	public void addBytesReceived(int endpoint, int format, long bytes) {
+		if (bytes > 0) {
+			bytesReceived.addAndGet(getCounterIndex(endpoint, format), bytes);
+		}
+	}
+
+	/**
+	 * Returns the latency histogram (in microseconds) for one phase of
+	 * requests to an endpoint in a format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @param phase
+	 *            one of the PHASE_* constants
+	 * @return the latency histogram, or null if nothing has been recorded for
+	 *         it yet
+	 */
+	public SiriLatencyHistogram getHistogram(int endpoint, int format,
+			int phase) {
+		return histograms.get(getHistogramIndex(endpoint, format, phase));
+	}
+
+	/**
+	 * Returns the latency (in microseconds) at the given percentile for one
+	 * phase of requests to an endpoint in a format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @param phase
+	 *            one of the PHASE_* constants
+	 * @param percentile
+	 *            percentile from 0 to 100 (e.g., 99 for p99)
+	 * @return the latency in microseconds, or 0 if nothing has been recorded
+	 */
+	public long getLatencyAtPercentile(int endpoint, int format, int phase,
+			double percentile) {
+		SiriLatencyHistogram histogram = getHistogram(endpoint, format, phase);
+		return histogram == null ? 0 : histogram
+				.getValueAtPercentile(percentile);
+	}
+
+	/**
+	 * Returns the number of requests sent to the server for an endpoint in a
+	 * format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of requests sent to the server
+	 */
+	public long getRequestCount(int endpoint, int format) {
+		return requestCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of failed requests for an endpoint in a format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of failed requests
+	 */
+	public long getErrorCount(int endpoint, int format) {
+		return errorCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of response body bytes received from the server for
+	 * an endpoint in a format. Only counted for the Android HttpURLConnection
+	 * and pooled connection types.
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of response body bytes received
+	 */
+	public long getBytesReceived(int endpoint, int format) {
+		return bytesReceived.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of retries of failed requests for an endpoint in a
+	 * format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of retries
+	 */
+	public long getRetryCount(int endpoint, int format) {
+		return retryCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of hedged requests sent for an endpoint in a format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of hedged requests sent
+	 */
+	public long getHedgeCount(int endpoint, int format) {
+		return hedgeCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of hedged requests that answered before the first
+	 * request, for an endpoint in a format
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of hedged requests whose response was used
+	 */
+	public long getHedgeWinCount(int endpoint, int format) {
+		return hedgeWinCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of requests for an endpoint in a format that weren't
+	 * sent because the circuit breaker was open
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of requests rejected by the circuit breaker
+	 */
+	public long getShortCircuitCount(int endpoint, int format) {
+		return shortCircuitCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of requests for an endpoint in a format that weren't
+	 * sent because they were over the rate limit
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of requests rejected by the rate limiter
+	 */
+	public long getRateLimitedCount(int endpoint, int format) {
+		return rateLimitedCounts.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns the number of requests for an endpoint in a format that are
+	 * waiting for a rate limiter token right now
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_* of the requests
+	 * @return the number of requests waiting for a rate limiter token
+	 */
+	public long getRateLimitQueueLength(int endpoint, int format) {
+		return rateLimitQueueLengths.get(getCounterIndex(endpoint, format));
+	}
+
+	/**
+	 * Returns all metrics that have been recorded as a flat map, for exporting
+	 * to a monitoring system. Keys are of the form
+	 * "endpoint.format.phase.stat", e.g.
+	 * "vehicle_monitoring.json.parse.p99", with latencies in microseconds, and
+	 * "endpoint.format.counter" for counters, e.g.
+	 * "stop_monitoring.xml.errors".
+	 * 
+	 * @return a map of metric names to values, in a stable order
+	 */
+	public Map<String, Long> getSnapshot() {
+		Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+
+		for (int endpoint = 0; endpoint < ENDPOINT_COUNT; endpoint++) {
+			for (int format = 0; format < MAX_FORMATS; format++) {
+				String prefix = ENDPOINT_NAMES[endpoint] + "."
+						+ getFormatName(format) + ".";
+
+				int counterIndex = getCounterIndex(endpoint, format);
+				long requests = requestCounts.get(counterIndex);
+				long errors = errorCounts.get(counterIndex);
+				long bytes = bytesReceived.get(counterIndex);
+				long shortCircuits = shortCircuitCounts.get(counterIndex);
+				long rateLimited = rateLimitedCounts.get(counterIndex);
+				long queueLength = rateLimitQueueLengths.get(counterIndex);
+				if (requests > 0 || errors > 0 || bytes > 0
+						|| shortCircuits > 0 || rateLimited > 0
+						|| queueLength > 0) {
+					snapshot.put(prefix + "requests", requests);
+					snapshot.put(prefix + "errors", errors);
+					snapshot.put(prefix + "bytes_received", bytes);
+					snapshot.put(prefix + "retries", retryCounts.get(counterIndex));
+					snapshot.put(prefix + "hedges", hedgeCounts.get(counterIndex));
+					snapshot.put(prefix + "hedge_wins",
+							hedgeWinCounts.get(counterIndex));
+					snapshot.put(prefix + "short_circuits", shortCircuits);
+					snapshot.put(prefix + "rate_limited", rateLimited);
+					snapshot.put(prefix + "rate_limit_queue", queueLength);
+				}
+
+				for (int phase = 0; phase < PHASE_COUNT; phase++) {
+					SiriLatencyHistogram histogram = histograms
+							.get(getHistogramIndex(endpoint, format, phase));
+					if (histogram == null) {
+						continue;
+					}
+					String phasePrefix = prefix + PHASE_NAMES[phase] + ".";
+					snapshot.put(phasePrefix + "count", histogram.getCount());
+					for (int i = 0; i < SNAPSHOT_PERCENTILES.length; i++) {
+						snapshot.put(phasePrefix + SNAPSHOT_PERCENTILE_NAMES[i],
+								histogram
+										.getValueAtPercentile(SNAPSHOT_PERCENTILES[i]));
+					}
+					snapshot.put(phasePrefix + "max", histogram.getMax());
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Clears all recorded metrics
+	 */
+	public void reset() {
+		for (int i = 0; i < histograms.length(); i++) {
+			SiriLatencyHistogram histogram = histograms.get(i);
+			if (histogram != null) {
+				histogram.reset();
+			}
+		}
+		for (int i = 0; i < requestCounts.length(); i++) {
+			requestCounts.set(i, 0);
+			errorCounts.set(i, 0);
+			bytesReceived.set(i, 0);
+			retryCounts.set(i, 0);
+			hedgeCounts.set(i, 0);
+			hedgeWinCounts.set(i, 0);
+			shortCircuitCounts.set(i, 0);
+			rateLimitedCounts.set(i, 0);
+		}
+	}
+
+	/**
+	 * Returns the name used for a phase in getSnapshot()
+	 * 
+	 * @param phase
+	 *            one of the PHASE_* constants
+	 * @return the name of the phase (e.g., "time_to_first_byte")
+	 */
+	public static String getPhaseName(int phase) {
+		checkRange(phase, PHASE_COUNT, "phase");
+		return PHASE_NAMES[phase];
+	}
+
+	/**
+	 * Returns the name used for an endpoint in getSnapshot()
+	 * 
+	 * @param endpoint
+	 *            ENDPOINT_VEHICLE_MONITORING or ENDPOINT_STOP_MONITORING
+	 * @return the name of the endpoint (e.g., "vehicle_monitoring")
+	 */
+	public static String getEndpointName(int endpoint) {
+		checkRange(endpoint, ENDPOINT_COUNT, "endpoint");
+		return ENDPOINT_NAMES[endpoint];
+	}
+
+	/**
+	 * Returns the name used for a response format in getSnapshot()
+	 * 
+	 * @param format
+	 *            SiriRestClientConfig.RESPONSE_TYPE_*
+	 * @return the name of the format (e.g., "json")
+	 */
+	public static String getFormatName(int format) {
+		switch (format) {
+		case SiriRestClientConfig.RESPONSE_TYPE_JSON:
+			return "json";
+		case SiriRestClientConfig.RESPONSE_TYPE_XML:
+			return "xml";
+		case SiriRestClientConfig.RESPONSE_TYPE_SMILE:
+			return "smile";
+		case SiriRestClientConfig.RESPONSE_TYPE_CBOR:
+			return "cbor";
+		default:
+			return "format" + format;
+		}
+	}
+
+	private static int getCounterIndex(int endpoint, int format) {
+		checkRange(endpoint, ENDPOINT_COUNT, "endpoint");
+		checkRange(format, MAX_FORMATS, "format");
+		return endpoint * MAX_FORMATS + format;
+	}
+
+	private static int getHistogramIndex(int endpoint, int format, int phase) {
+		checkRange(phase, PHASE_COUNT, "phase");
+		return getCounterIndex(endpoint, format) * PHASE_COUNT + phase;
+	}
+
+	private static void checkRange(int value, int count, String name) {
+		if (value < 0 || value >= count) {
+			throw new IllegalArgumentException("Invalid " + name + ": "
+					+ value);
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package edu.usf.cutr.siri.android.client.request;
+
+import java.nio.charset.Charset;
+
+/**
+ * Parameters shared by SIRI VehicleMonitoring and StopMonitoring requests.
+ *
+ * Requests are immutable. The query string is percent-encoded once, when the
+ * request is built, and the full URL is kept for the last base URL and file
+ * extension it was requested with, so polling the same request object again
+ * doesn't build (or hash) a new URL string. Two requests for the same endpoint
+ * with the same parameters are equal.
+ */
+public abstract class SiriMonitoringRequest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	/**
+	 * Detail level used if none is given
+	 */
+	public static final String DEFAULT_DETAIL_LEVEL = "normal";
+
+	private final String devKey;
+	private final String operatorRef;
+	private final String lineRef;
+	private final int directionRef;
+	private final String detailLevel;
+	private final int maximumNumberOfCallsOnwards;
+
+	// Percent-encoded query string, without the leading "?"
+	private final String query;
+
+	private final int hashCode;
+
+	// URL for the last base URL and file extension passed to getUrl()
+	private volatile CachedUrl cachedUrl = null;
+
+	SiriMonitoringRequest(int endpoint, String devKey, String operatorRef,
+			String lineRef, int directionRef, String detailLevel,
+			int maximumNumberOfCallsOnwards, String query) {
+		this.devKey = devKey;
+		this.operatorRef = operatorRef;
+		this.lineRef = lineRef;
+		this.directionRef = directionRef;
+		this.detailLevel = detailLevel;
+		this.maximumNumberOfCallsOnwards = maximumNumberOfCallsOnwards;
+		this.query = query;
+		this.hashCode = 31 * endpoint + query.hashCode();
+	}
+
+	/**
+	 * Returns the endpoint that this request is for
+	 *
+	 * @return SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING or
+	 *         SiriRequestMetrics.ENDPOINT_STOP_MONITORING
+	 */
+	public abstract int getEndpoint();
+
+	/**
+	 * Returns the developer API key
+	 *
+	 * @return the developer API key, or an empty string if it isn't used
+	 */
+	public String getDevKey() {
+		return devKey;
+	}
+
+	/**
+	 * Returns the GTFS agency ID to be monitored
+	 *
+	 * @return the GTFS agency ID to be monitored
+	 */
+	public String getOperatorRef() {
+		return operatorRef;
+	}
+
+	/**
+	 * Returns the GTFS route ID filter
+	 *
+	 * @return the GTFS route ID filter, or an empty string if it isn't used
+	 */
+	public String getLineRef() {
+		return lineRef;
+	}
+
+	/**
+	 * Returns the GTFS direction ID filter
+	 *
+	 * @return 0 or 1, or -1 if it isn't used
+	 */
+	public int getDirectionRef() {
+		return directionRef;
+	}
+
+	/**
+	 * Returns the VehicleMonitoringDetailLevel or StopMonitoringDetailLevel
+	 *
+	 * @return "calls" or "normal"
+	 */
+	public String getDetailLevel() {
+		return detailLevel;
+	}
+
+	/**
+	 * Returns the limit on the number of OnwardCall elements for each vehicle
+	 *
+	 * @return the limit on the number of OnwardCall elements, or -1 if there
+	 *         is no limit
+	 */
+	public int getMaximumNumberOfCallsOnwards() {
+		return maximumNumberOfCallsOnwards;
+	}
+
+	/**
+	 * Returns the percent-encoded query string for this request
+	 *
+	 * @return the query string, without the leading "?" (e.g.,
+	 *         "key=abc&OperatorRef=MTA%20NYCT&VehicleMonitoringDetailLevel=normal")
+	 */
+	public String getQueryString() {
+		return query;
+	}
+
+	/**
+	 * Returns the full URL for this request. The URL is kept, so calling this
+	 * again with the same base URL and file extension returns the same String
+	 * instance without building it again.
+	 *
+	 * @param baseUrl
+	 *            base URL for the endpoint, without the file extension (e.g.,
+	 *            http://bustime.mta.info/api/siri/vehicle-monitoring)
+	 * @param fileExtension
+	 *            file extension for the response type (e.g., "json")
+	 * @return the full URL for this request
+	 */
+	public String getUrl(String baseUrl, String fileExtension) {
+		CachedUrl c = cachedUrl;
+		if (c != null && c.baseUrl.equals(baseUrl)
+				&& c.fileExtension.equals(fileExtension)) {
+			return c.url;
+		}
+
+		StringBuilder sb = new StringBuilder(baseUrl.length()
+				+ fileExtension.length() + query.length() + 2);
+		sb.append(baseUrl).append('.').append(fileExtension).append('?')
+				.append(query);
+		String url = sb.toString();
+
+		// Benign race - another thread may build the same URL at the same time
+		cachedUrl = new CachedUrl(baseUrl, fileExtension, url);
+		return url;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || o.getClass() != getClass()) {
+			return false;
+		}
+		SiriMonitoringRequest other = (SiriMonitoringRequest) o;
+		// The encoded query string holds every parameter
+		return hashCode == other.hashCode && query.equals(other.query);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + query + "]";
+	}
+
+	/**
+	 * Returns the value of an optional String parameter, with null treated
+	 * as not used
+	 */
+	static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Checks the parameters shared by both requests, throwing an
+	 * IllegalArgumentException with the same messages as
+	 * SiriRestClient.makeVehicleMonRequest() and makeStopMonRequest()
+	 *
+	 * @param detailLevelName
+	 *            name of the detail level parameter, for the error message
+	 */
+	static void validate(String operatorRef, int directionRef,
+			String detailLevelName, String detailLevel,
+			int maximumNumberOfCallsOnwards) throws IllegalArgumentException {
+		if (operatorRef.equals("")) {
+			throw new IllegalArgumentException(
+					"OperatorRef is a required paramater and cannot be an emptry string");
+		}
+		if (directionRef != -1 && directionRef != 0 && directionRef != 1) {
+			throw new IllegalArgumentException(
+					"DirectionRef must be 0 or 1, or -1 if not to be used");
+		}
+		if (!detailLevel.equals("") && !detailLevel.equalsIgnoreCase("calls")
+				&& !detailLevel.equalsIgnoreCase("normal")) {
+			throw new IllegalArgumentException(detailLevelName
+					+ " must be 'calls' or 'normal'");
+		}
+		if (maximumNumberOfCallsOnwards != -1
+				&& maximumNumberOfCallsOnwards < 1) {
+			throw new IllegalArgumentException(
+					"MaximumNumberOfCallsOnwards must be 1 or greater, or -1 if not to be used");
+		}
+	}
+
+	/**
+	 * Appends "name=value" to a query string, with the value percent-encoded,
+	 * if the value is used
+	 */
+	static void appendParameter(StringBuilder sb, String name, String value) {
+		if (value.equals("")) {
+			return;
+		}
+		if (sb.length() > 0) {
+			sb.append('&');
+		}
+		sb.append(name).append('=');
+		percentEncode(sb, value);
+	}
+
+	/**
+	 * Appends "name=value" to a query string, if the value is used (i.e., not
+	 * -1)
+	 */
+	static void appendParameter(StringBuilder sb, String name, int value) {
+		if (value == -1) {
+			return;
+		}
+		if (sb.length() > 0) {
+			sb.append('&');
+		}
+		sb.append(name).append('=').append(value);
+	}
+
+	/**
+	 * Appends a value to a query string, percent-encoding every character
+	 * other than the RFC 3986 unreserved characters as UTF-8
+	 */
+	static void percentEncode(StringBuilder sb, String value) {
+		int length = value.length();
+		int i = 0;
+		// Most IDs don't need any encoding, so copy the unreserved prefix as is
+		while (i < length && isUnreserved(value.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			sb.append(value);
+			return;
+		}
+		sb.append(value, 0, i);
+
+		byte[] bytes = value.substring(i).getBytes(UTF_8);
+		for (byte b : bytes) {
+			char c = (char) (b & 0xFF);
+			if (isUnreserved(c)) {
+				sb.append(c);
+			} else {
+				sb.append('%').append(HEX_DIGITS[(b >> 4) & 0xF])
+						.append(HEX_DIGITS[b & 0xF]);
+			}
+		}
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')
+				|| (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_'
+				|| c == '~';
+	}
+
+	/**
+	 * A URL built for a base URL and file extension
+	 */
+	private static final class CachedUrl {
+		final String baseUrl;
+		final String fileExtension;
+		final String url;
+
+		CachedUrl(String baseUrl, String fileExtension, String url) {
+			this.baseUrl = baseUrl;
+			this.fileExtension = fileExtension;
+			this.url = url;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package edu.usf.cutr.siri.android.client.request;
+
+import edu.usf.cutr.siri.android.client.metrics.SiriRequestMetrics;
+
+/**
+ * An immutable SIRI StopMonitoring request, created with a Builder:
+ *
+ * <pre>
+ * StopMonitoringRequest request = new StopMonitoringRequest.Builder()
+ * 		.setDevKey(key).setOperatorRef(&quot;MTA NYCT&quot;)
+ * 		.setMonitoringRef(&quot;308209&quot;).build();
+ * Siri siri = client.makeStopMonRequest(request);
+ * </pre>
+ *
+ * Build a request once and pass the same object to the SiriRestClient on every
+ * poll - the query string is only encoded once. See
+ * SiriRestClient.makeStopMonRequest() for parameter details.
+ */
+public final class StopMonitoringRequest extends SiriMonitoringRequest {
+
+	private final String monitoringRef;
+
+	private StopMonitoringRequest(Builder b, String detailLevel,
+			String query) {
+		super(SiriRequestMetrics.ENDPOINT_STOP_MONITORING, b.devKey,
+				b.operatorRef, b.lineRef, b.directionRef, detailLevel,
+				b.maximumNumberOfCallsOnwards, query);
+		this.monitoringRef = b.monitoringRef;
+	}
+
+	@Override
+	public int getEndpoint() {
+		return SiriRequestMetrics.ENDPOINT_STOP_MONITORING;
+	}
+
+	/**
+	 * Returns the GTFS stop ID of the stop to be monitored
+	 *
+	 * @return the GTFS stop ID of the stop to be monitored
+	 */
+	public String getMonitoringRef() {
+		return monitoringRef;
+	}
+
+	/**
+	 * Builds a StopMonitoringRequest. A null or empty String parameter, or
+	 * -1 for an int parameter, means the parameter isn't used. OperatorRef
+	 * and MonitoringRef are required.
+	 */
+	public static final class Builder {
+
+		private String devKey = "";
+		private String operatorRef = "";
+		private String monitoringRef = "";
+		private String lineRef = "";
+		private int directionRef = -1;
+		private String stopMonitoringDetailLevel = "";
+		private int maximumNumberOfCallsOnwards = -1;
+
+		/**
+		 * Sets the developer API key
+		 *
+		 * @param devKey
+		 *            a developer API key
+		 * @return this builder
+		 */
+		public Builder setDevKey(String devKey) {
+			this.devKey = nullToEmpty(devKey);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS agency ID to be monitored (required)
+		 *
+		 * @param operatorRef
+		 *            the GTFS agency ID to be monitored
+		 * @return this builder
+		 */
+		public Builder setOperatorRef(String operatorRef) {
+			this.operatorRef = nullToEmpty(operatorRef);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS stop ID of the stop to be monitored (required)
+		 *
+		 * @param monitoringRef
+		 *            the GTFS stop ID of the stop to be monitored (e.g.,
+		 *            308214 for the stop at 5th Avenue and Union St towards
+		 *            Bay Ridge)
+		 * @return this builder
+		 */
+		public Builder setMonitoringRef(String monitoringRef) {
+			this.monitoringRef = nullToEmpty(monitoringRef);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS route ID filter
+		 *
+		 * @param lineRef
+		 *            a filter by GTFS route ID
+		 * @return this builder
+		 */
+		public Builder setLineRef(String lineRef) {
+			this.lineRef = nullToEmpty(lineRef);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS direction ID filter
+		 *
+		 * @param directionRef
+		 *            either 0 or 1, or -1 if not to be used
+		 * @return this builder
+		 */
+		public Builder setDirectionRef(int directionRef) {
+			this.directionRef = directionRef;
+			return this;
+		}
+
+		/**
+		 * Sets the StopMonitoringDetailLevel
+		 *
+		 * @param stopMonitoringDetailLevel
+		 *            "calls" or "normal" (default is normal)
+		 * @return this builder
+		 */
+		public Builder setStopMonitoringDetailLevel(
+				String stopMonitoringDetailLevel) {
+			this.stopMonitoringDetailLevel = nullToEmpty(stopMonitoringDetailLevel);
+			return this;
+		}
+
+		/**
+		 * Sets the limit on the number of OnwardCall elements for each
+		 * vehicle when StopMonitoringDetailLevel=calls
+		 *
+		 * @param maximumNumberOfCallsOnwards
+		 *            1 or greater, or -1 not to limit
+		 * @return this builder
+		 */
+		public Builder setMaximumNumberOfCallsOnwards(
+				int maximumNumberOfCallsOnwards) {
+			this.maximumNumberOfCallsOnwards = maximumNumberOfCallsOnwards;
+			return this;
+		}
+
+		/**
+		 * Validates the parameters and creates the request
+		 *
+		 * @return the request
+		 * @throws IllegalArgumentException
+		 *             if the required parameters aren't provided or any
+		 *             parameter is invalid
+		 */
+		public StopMonitoringRequest build() throws IllegalArgumentException {
+			validate(operatorRef, directionRef, "StopMonitoringDetailLevel",
+					stopMonitoringDetailLevel, maximumNumberOfCallsOnwards);
+			if (monitoringRef.equals("")) {
+				throw new IllegalArgumentException(
+						"MonitoringRef is a required paramater and cannot be an emptry string");
+			}
+
+			String detailLevel = stopMonitoringDetailLevel.equals("") ? DEFAULT_DETAIL_LEVEL
+					: stopMonitoringDetailLevel;
+
+			StringBuilder sb = new StringBuilder(128);
+			appendParameter(sb, "key", devKey);
+			appendParameter(sb, "OperatorRef", operatorRef);
+			appendParameter(sb, "MonitoringRef", monitoringRef);
+			appendParameter(sb, "LineRef", lineRef);
+			appendParameter(sb, "DirectionRef", directionRef);
+			appendParameter(sb, "StopMonitoringDetailLevel", detailLevel);
+			appendParameter(sb, "MaximumNumberOfCallsOnwards",
+					maximumNumberOfCallsOnwards);
+
+			return new StopMonitoringRequest(this, detailLevel,
+					sb.toString());
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package edu.usf.cutr.siri.android.client.request;
+
+import edu.usf.cutr.siri.android.client.metrics.SiriRequestMetrics;
+
+/**
+ * An immutable SIRI VehicleMonitoring request, created with a Builder:
+ *
+ * <pre>
+ * VehicleMonitoringRequest request = new VehicleMonitoringRequest.Builder()
+ * 		.setDevKey(key).setOperatorRef(&quot;MTA NYCT&quot;)
+ * 		.setLineRef(&quot;MTA NYCT_S40&quot;).build();
+ * Siri siri = client.makeVehicleMonRequest(request);
+ * </pre>
+ *
+ * Build a request once and pass the same object to the SiriRestClient on every
+ * poll - the query string is only encoded once. See
+ * SiriRestClient.makeVehicleMonRequest() for parameter details.
+ */
+public final class VehicleMonitoringRequest extends SiriMonitoringRequest {
+
+	private final String vehicleRef;
+
+	private VehicleMonitoringRequest(Builder b, String detailLevel,
+			String query) {
+		super(SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING, b.devKey,
+				b.operatorRef, b.lineRef, b.directionRef, detailLevel,
+				b.maximumNumberOfCallsOnwards, query);
+		this.vehicleRef = b.vehicleRef;
+	}
+
+	@Override
+	public int getEndpoint() {
+		return SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING;
+	}
+
+	/**
+	 * Returns the ID of the vehicle to be monitored
+	 *
+	 * @return the ID of the vehicle to be monitored, or an empty string if
+	 *         all vehicles are monitored
+	 */
+	public String getVehicleRef() {
+		return vehicleRef;
+	}
+
+	/**
+	 * Builds a VehicleMonitoringRequest. A null or empty String parameter, or
+	 * -1 for an int parameter, means the parameter isn't used. Only
+	 * OperatorRef is required.
+	 */
+	public static final class Builder {
+
+		private String devKey = "";
+		private String operatorRef = "";
+		private String vehicleRef = "";
+		private String lineRef = "";
+		private int directionRef = -1;
+		private String vehicleMonitoringDetailLevel = "";
+		private int maximumNumberOfCallsOnwards = -1;
+
+		/**
+		 * Sets the developer API key
+		 *
+		 * @param devKey
+		 *            a developer API key
+		 * @return this builder
+		 */
+		public Builder setDevKey(String devKey) {
+			this.devKey = nullToEmpty(devKey);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS agency ID to be monitored (required)
+		 *
+		 * @param operatorRef
+		 *            the GTFS agency ID to be monitored
+		 * @return this builder
+		 */
+		public Builder setOperatorRef(String operatorRef) {
+			this.operatorRef = nullToEmpty(operatorRef);
+			return this;
+		}
+
+		/**
+		 * Sets the ID of the vehicle to be monitored
+		 *
+		 * @param vehicleRef
+		 *            the ID of the vehicle to be monitored (e.g., 7560), or
+		 *            an empty string for all vehicles
+		 * @return this builder
+		 */
+		public Builder setVehicleRef(String vehicleRef) {
+			this.vehicleRef = nullToEmpty(vehicleRef);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS route ID filter
+		 *
+		 * @param lineRef
+		 *            a filter by GTFS route ID
+		 * @return this builder
+		 */
+		public Builder setLineRef(String lineRef) {
+			this.lineRef = nullToEmpty(lineRef);
+			return this;
+		}
+
+		/**
+		 * Sets the GTFS direction ID filter
+		 *
+		 * @param directionRef
+		 *            either 0 or 1, or -1 if not to be used
+		 * @return this builder
+		 */
+		public Builder setDirectionRef(int directionRef) {
+			this.directionRef = directionRef;
+			return this;
+		}
+
+		/**
+		 * Sets the VehicleMonitoringDetailLevel
+		 *
+		 * @param vehicleMonitoringDetailLevel
+		 *            "calls" or "normal" (default is normal)
+		 * @return this builder
+		 */
+		public Builder setVehicleMonitoringDetailLevel(
+				String vehicleMonitoringDetailLevel) {
+			this.vehicleMonitoringDetailLevel = nullToEmpty(vehicleMonitoringDetailLevel);
+			return this;
+		}
+
+		/**
+		 * Sets the limit on the number of OnwardCall elements for each
+		 * vehicle when VehicleMonitoringDetailLevel=calls
+		 *
+		 * @param maximumNumberOfCallsOnwards
+		 *            1 or greater, or -1 not to limit
+		 * @return this builder
+		 */
+		public Builder setMaximumNumberOfCallsOnwards(
+				int maximumNumberOfCallsOnwards) {
+			this.maximumNumberOfCallsOnwards = maximumNumberOfCallsOnwards;
+			return this;
+		}
+
+		/**
+		 * Validates the parameters and creates the request
+		 *
+		 * @return the request
+		 * @throws IllegalArgumentException
+		 *             if the required parameters aren't provided or any
+		 *             parameter is invalid
+		 */
+		public VehicleMonitoringRequest build() throws IllegalArgumentException {
+			validate(operatorRef, directionRef, "VehicleMonitoringDetailLevel",
+					vehicleMonitoringDetailLevel, maximumNumberOfCallsOnwards);
+
+			String detailLevel = vehicleMonitoringDetailLevel.equals("") ? DEFAULT_DETAIL_LEVEL
+					: vehicleMonitoringDetailLevel;
+
+			StringBuilder sb = new StringBuilder(128);
+			appendParameter(sb, "key", devKey);
+			appendParameter(sb, "OperatorRef", operatorRef);
+			appendParameter(sb, "VehicleRef", vehicleRef);
+			appendParameter(sb, "LineRef", lineRef);
+			appendParameter(sb, "DirectionRef", directionRef);
+			appendParameter(sb, "VehicleMonitoringDetailLevel", detailLevel);
+			appendParameter(sb, "MaximumNumberOfCallsOnwards",
+					maximumNumberOfCallsOnwards);
+
+			return new VehicleMonitoringRequest(this, detailLevel,
+					sb.toString());
+		}
+	}
+}
@@ -0,0 +1,513 @@
+package edu.usf.cutr.siri.android.client.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.VehicleActivity;
+import edu.usf.cutr.siri.android.client.delta.SiriDeltaEngine;
+import edu.usf.cutr.siri.android.client.delta.SiriVehicleChange;
+
+/**
+ * A spatial index of vehicle locations for "buses near me" (k-nearest) and
+ * map viewport (bounding box) queries, so they don't have to check the
+ * location of every vehicle in the fleet.
+ * 
+ * Vehicles are kept in a uniform grid of square latitude/longitude cells, and
+ * queries only look at the cells around the query point or inside the box.
+ * The index is maintained incrementally from SiriDeltaEngine changes - only
+ * vehicles that appeared, moved, or disappeared are touched, and moving a
+ * vehicle within its cell doesn't change the grid at all.
+ * 
+ * The cell size should be about the size of the smallest area that is
+ * usually queried. The default of 0.01 degrees (about 1.1 km north-south)
+ * works well for city bus fleets. Areas crossing the 180th meridian aren't
+ * supported.
+ * 
+ * This class is thread-safe. Queries from any number of threads run
+ * concurrently, and only wait while changes are being applied.
+ */
+public class SiriSpatialIndex {
+
+	/**
+	 * Default size of a grid cell, in degrees
+	 */
+	public static final double DEFAULT_CELL_SIZE = 0.01;
+
+	// Mean radius of the earth, in meters
+	private static final double EARTH_RADIUS = 6371008.8;
+
+	private final double cellSize;
+
+	// Grid cells that have at least one vehicle, keyed by row and column
+	private final Map<Long, Cell> cells = new HashMap<Long, Cell>();
+
+	// Vehicles in the grid, keyed by SiriVehicleChange.getKey()
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	// Rows and columns that have ever had a vehicle since the last clear(),
+	// so searches never walk empty parts of the world
+	private int minRow = Integer.MAX_VALUE;
+	private int maxRow = Integer.MIN_VALUE;
+	private int minCol = Integer.MAX_VALUE;
+	private int maxCol = Integer.MIN_VALUE;
+
+	// Used by update(Siri)
+	private final SiriDeltaEngine deltaEngine = new SiriDeltaEngine();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Creates an empty index with the default cell size
+	 */
+	public SiriSpatialIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Creates an empty index
+	 * 
+	 * @param cellSize
+	 *            size of a grid cell, in degrees
+	 */
+	public SiriSpatialIndex(double cellSize) {
+		if (!(cellSize > 0) || cellSize > 90) {
+			throw new IllegalArgumentException(
+					"Cell size must be more than 0 and at most 90 degrees");
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Updates the index with a VehicleMonitoring response, using an internal
+	 * SiriDeltaEngine to find what changed since the last response passed to
+	 * this method. If the changes are already being computed elsewhere, pass
+	 * them to apply() instead.
+	 * 
+	 * @param siri
+	 *            a VehicleMonitoring response with the whole fleet (or the
+	 *            whole area that is indexed)
+	 * @return the changes that were applied
+	 */
+	public List<SiriVehicleChange> update(Siri siri) {
+		lock.writeLock().lock();
+		try {
+			List<SiriVehicleChange> changes = deltaEngine.update(siri);
+			applyLocked(changes);
+			return changes;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Applies changes from a SiriDeltaEngine to the index
+	 * 
+	 * @param changes
+	 *            changes returned by SiriDeltaEngine.update()
+	 */
+	public void apply(List<SiriVehicleChange> changes) {
+		lock.writeLock().lock();
+		try {
+			applyLocked(changes);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all vehicles from the index
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			cells.clear();
+			entries.clear();
+			deltaEngine.reset();
+			minRow = Integer.MAX_VALUE;
+			maxRow = Integer.MIN_VALUE;
+			minCol = Integer.MAX_VALUE;
+			maxCol = Integer.MIN_VALUE;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of vehicles with a known location in the index
+	 * 
+	 * @return the number of vehicles in the index
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the vehicles inside a bounding box (e.g., the map viewport)
+	 * 
+	 * @param minLatitude
+	 *            southern edge of the box
+	 * @param minLongitude
+	 *            western edge of the box
+	 * @param maxLatitude
+	 *            northern edge of the box
+	 * @param maxLongitude
+	 *            eastern edge of the box
+	 * @return the vehicles inside the box (including its edges), in no
+	 *         particular order
+	 */
+	public List<VehicleActivity> getVehiclesInBoundingBox(double minLatitude,
+			double minLongitude, double maxLatitude, double maxLongitude) {
+		if (minLatitude > maxLatitude || minLongitude > maxLongitude) {
+			throw new IllegalArgumentException(
+					"Minimum latitude and longitude must not be more than maximum");
+		}
+
+		List<VehicleActivity> result = new ArrayList<VehicleActivity>();
+
+		lock.readLock().lock();
+		try {
+			int rowLo = Math.max(getRow(minLatitude), minRow);
+			int rowHi = Math.min(getRow(maxLatitude), maxRow);
+			int colLo = Math.max(getCol(minLongitude), minCol);
+			int colHi = Math.min(getCol(maxLongitude), maxCol);
+			if (rowLo > rowHi || colLo > colHi) {
+				return result;
+			}
+
+			long boxCells = (long) (rowHi - rowLo + 1) * (colHi - colLo + 1);
+			if (boxCells > cells.size()) {
+				// Box is bigger than the occupied area, so just check every
+				// occupied cell instead of looking up each cell of the box
+				for (Cell cell : cells.values()) {
+					cell.addInBox(minLatitude, minLongitude, maxLatitude,
+							maxLongitude, result);
+				}
+			} else {
+				for (int row = rowLo; row <= rowHi; row++) {
+					for (int col = colLo; col <= colHi; col++) {
+						Cell cell = cells.get(getCellKey(row, col));
+						if (cell != null) {
+							cell.addInBox(minLatitude, minLongitude,
+									maxLatitude, maxLongitude, result);
+						}
+					}
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the vehicles nearest to a point, closest first
+	 * 
+	 * @param latitude
+	 *            latitude of the point
+	 * @param longitude
+	 *            longitude of the point
+	 * @param k
+	 *            maximum number of vehicles to return
+	 * @param maxDistance
+	 *            maximum distance (in meters) from the point, or
+	 *            Double.POSITIVE_INFINITY for no limit
+	 * @return up to k vehicles within maxDistance of the point, closest
+	 *         first
+	 */
+	public List<VehicleActivity> getNearestVehicles(double latitude,
+			double longitude, int k, double maxDistance) {
+		if (k <= 0) {
+			return Collections.emptyList();
+		}
+
+		// Distances are compared in degrees of latitude, with longitude
+		// scaled down to match at this latitude
+		double cosLatitude = Math.cos(Math.toRadians(latitude));
+		double maxDegrees = Math.toDegrees(maxDistance / EARTH_RADIUS);
+		double maxDegreesSquared = maxDegrees * maxDegrees;
+		// Any vehicle outside the ring of cells r around the query point's
+		// cell is at least r times this far away
+		double ringDegrees = cellSize * Math.min(1, cosLatitude);
+
+		PriorityQueue<Candidate> nearest = new PriorityQueue<Candidate>(k,
+				FARTHEST_FIRST);
+
+		lock.readLock().lock();
+		try {
+			if (entries.isEmpty()) {
+				return Collections.emptyList();
+			}
+
+			int row0 = getRow(latitude);
+			int col0 = getCol(longitude);
+			int searched = 0;
+			int total = entries.size();
+
+			for (int r = 0;; r++) {
+				double ringDistance = (r - 1) * ringDegrees;
+				if (r > 0 && ringDistance * ringDistance > maxDegreesSquared) {
+					break;
+				}
+				if (nearest.size() == k && r > 0
+						&& nearest.peek().distance <= ringDistance * ringDistance) {
+					// Nothing further out can be closer than what we have
+					break;
+				}
+				if (row0 - r < minRow && row0 + r > maxRow
+						&& col0 - r < minCol && col0 + r > maxCol) {
+					// Ring is outside the occupied area on every side
+					break;
+				}
+
+				searched += searchRing(row0, col0, r, latitude, longitude,
+						cosLatitude, maxDegreesSquared, k, nearest);
+				if (searched == total) {
+					break;
+				}
+			}
+
+			Candidate[] sorted = nearest.toArray(new Candidate[nearest.size()]);
+			Arrays.sort(sorted, FARTHEST_FIRST);
+			List<VehicleActivity> result = new ArrayList<VehicleActivity>(
+					sorted.length);
+			for (int i = sorted.length - 1; i >= 0; i--) {
+				result.add(sorted[i].entry.vehicleActivity);
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks the vehicles in the cells exactly r cells away from (row0, col0)
+	 * 
+	 * @return the number of vehicles checked
+	 */
+	private int searchRing(int row0, int col0, int r, double latitude,
+			double longitude, double cosLatitude, double maxDegreesSquared,
+			int k, PriorityQueue<Candidate> nearest) {
+		int searched = 0;
+		int rowLo = Math.max(row0 - r, minRow);
+		int rowHi = Math.min(row0 + r, maxRow);
+		for (int row = rowLo; row <= rowHi; row++) {
+			if (row == row0 - r || row == row0 + r) {
+				// Top or bottom edge of the ring - every column
+				int colLo = Math.max(col0 - r, minCol);
+				int colHi = Math.min(col0 + r, maxCol);
+				for (int col = colLo; col <= colHi; col++) {
+					searched += searchCell(row, col, latitude, longitude,
+							cosLatitude, maxDegreesSquared, k, nearest);
+				}
+			} else {
+				// Left and right edges of the ring
+				if (col0 - r >= minCol) {
+					searched += searchCell(row, col0 - r, latitude, longitude,
+							cosLatitude, maxDegreesSquared, k, nearest);
+				}
+				if (col0 + r <= maxCol) {
+					searched += searchCell(row, col0 + r, latitude, longitude,
+							cosLatitude, maxDegreesSquared, k, nearest);
+				}
+			}
+		}
+		return searched;
+	}
+
+	private int searchCell(int row, int col, double latitude, double longitude,
+			double cosLatitude, double maxDegreesSquared, int k,
+			PriorityQueue<Candidate> nearest) {
+		Cell cell = cells.get(getCellKey(row, col));
+		if (cell == null) {
+			return 0;
+		}
+		for (int i = 0; i < cell.size; i++) {
+			Entry e = cell.entries[i];
+			double dLat = e.latitude - latitude;
+			double dLon = (e.longitude - longitude) * cosLatitude;
+			double distance = dLat * dLat + dLon * dLon;
+			if (distance > maxDegreesSquared) {
+				continue;
+			}
+			if (nearest.size() < k) {
+				nearest.add(new Candidate(e, distance));
+			} else if (distance < nearest.peek().distance) {
+				nearest.poll();
+				nearest.add(new Candidate(e, distance));
+			}
+		}
+		return cell.size;
+	}
+
+	/**
+	 * Applies changes while holding the write lock
+	 */
+	private void applyLocked(List<SiriVehicleChange> changes) {
+		for (SiriVehicleChange change : changes) {
+			String key = change.getKey();
+			Entry e = entries.get(key);
+
+			if (change.getType() == SiriVehicleChange.TYPE_REMOVED
+					|| Double.isNaN(change.getLatitude())
+					|| Double.isNaN(change.getLongitude())) {
+				// Gone, or we no longer know where it is
+				if (e != null) {
+					entries.remove(key);
+					removeFromCell(e);
+				}
+				continue;
+			}
+
+			if (e == null) {
+				e = new Entry();
+				entries.put(key, e);
+				e.latitude = change.getLatitude();
+				e.longitude = change.getLongitude();
+				e.vehicleActivity = change.getVehicleActivity();
+				addToCell(e);
+				continue;
+			}
+
+			e.vehicleActivity = change.getVehicleActivity();
+			if (change.hasChanged(SiriVehicleChange.FIELD_LOCATION)) {
+				e.latitude = change.getLatitude();
+				e.longitude = change.getLongitude();
+				long cellKey = getCellKey(getRow(e.latitude),
+						getCol(e.longitude));
+				if (cellKey != e.cell.key) {
+					removeFromCell(e);
+					addToCell(e);
+				}
+			}
+		}
+	}
+
+	private void addToCell(Entry e) {
+		int row = getRow(e.latitude);
+		int col = getCol(e.longitude);
+		long key = getCellKey(row, col);
+		Cell cell = cells.get(key);
+		if (cell == null) {
+			cell = new Cell(key);
+			cells.put(key, cell);
+			minRow = Math.min(minRow, row);
+			maxRow = Math.max(maxRow, row);
+			minCol = Math.min(minCol, col);
+			maxCol = Math.max(maxCol, col);
+		}
+		cell.add(e);
+	}
+
+	private void removeFromCell(Entry e) {
+		Cell cell = e.cell;
+		cell.remove(e);
+		if (cell.size == 0) {
+			cells.remove(cell.key);
+		}
+	}
+
+	private int getRow(double latitude) {
+		return (int) Math.floor(latitude / cellSize);
+	}
+
+	private int getCol(double longitude) {
+		return (int) Math.floor(longitude / cellSize);
+	}
+
+	private static long getCellKey(int row, int col) {
+		return ((long) row << 32) | (col & 0xffffffffL);
+	}
+
+	/**
+	 * A vehicle in the grid
+	 */
+	private static class Entry {
+		double latitude;
+		double longitude;
+		VehicleActivity vehicleActivity;
+
+		// Cell the vehicle is in, and its position in the cell
+		Cell cell;
+		int index;
+	}
+
+	/**
+	 * The vehicles in one grid cell, in an array so they can be removed in
+	 * constant time by moving the last vehicle into the gap
+	 */
+	private static class Cell {
+		final long key;
+		Entry[] entries = new Entry[4];
+		int size = 0;
+
+		Cell(long key) {
+			this.key = key;
+		}
+
+		void add(Entry e) {
+			if (size == entries.length) {
+				Entry[] grown = new Entry[size * 2];
+				System.arraycopy(entries, 0, grown, 0, size);
+				entries = grown;
+			}
+			e.cell = this;
+			e.index = size;
+			entries[size++] = e;
+		}
+
+		void remove(Entry e) {
+			Entry last = entries[--size];
+			entries[e.index] = last;
+			last.index = e.index;
+			entries[size] = null;
+			e.cell = null;
+		}
+
+		void addInBox(double minLatitude, double minLongitude,
+				double maxLatitude, double maxLongitude,
+				List<VehicleActivity> result) {
+			for (int i = 0; i < size; i++) {
+				Entry e = entries[i];
+				if (e.latitude >= minLatitude && e.latitude <= maxLatitude
+						&& e.longitude >= minLongitude
+						&& e.longitude <= maxLongitude) {
+					result.add(e.vehicleActivity);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A vehicle found by a nearest-vehicle search, with its (squared, scaled)
+	 * distance from the query point
+	 */
+	private static class Candidate {
+		final Entry entry;
+		final double distance;
+
+		Candidate(Entry entry, double distance) {
+			this.entry = entry;
+			this.distance = distance;
+		}
+	}
+
+	private static final Comparator<Candidate> FARTHEST_FIRST = new Comparator<Candidate>() {
+		public int compare(Candidate a, Candidate b) {
+			return Double.compare(b.distance, a.distance);
+		}
+	};
+}
@@ -0,0 +1,218 @@
+package edu.usf.cutr.siri.android.client.state;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import uk.org.siri.siri.MonitoredVehicleJourney;
+import uk.org.siri.siri.VehicleActivity;
+
+/**
+ * An immutable, indexed set of vehicles published by a SiriVehicleStore.
+ * 
+ * Vehicles are stored in a single array, and looked up through a primary
+ * index on VehicleRef and secondary indexes on LineRef, DirectionRef, and
+ * BlockRef. All lookups are constant time (plus the size of the result), and
+ * since a snapshot never changes once it has been published, any number of
+ * threads can read it without locking.
+ * 
+ * The VehicleActivity objects are the ones from the parsed responses, and
+ * must not be modified.
+ */
+public final class SiriVehicleSnapshot {
+
+	static final SiriVehicleSnapshot EMPTY = new SiriVehicleSnapshot(
+			new VehicleActivity[0], 0, 0);
+
+	private final VehicleActivity[] vehicles;
+
+	private final StringIntMap byVehicleRef;
+	private final VehicleIndex byLineRef;
+	private final VehicleIndex byDirectionRef;
+	private final VehicleIndex byBlockRef;
+
+	// LineRef of the vehicle at each position, for line + direction lookups
+	private final String[] lineRefs;
+
+	private final long version;
+	private final long timestamp;
+
+	/**
+	 * Builds the indexes for a set of vehicles
+	 * 
+	 * @param vehicles
+	 *            the vehicles, which is kept (not copied)
+	 * @param version
+	 *            number of snapshots the store has published before this one
+	 * @param timestamp
+	 *            time the snapshot was built (in milliseconds since the epoch)
+	 */
+	SiriVehicleSnapshot(VehicleActivity[] vehicles, long version,
+			long timestamp) {
+		this.vehicles = vehicles;
+		this.version = version;
+		this.timestamp = timestamp;
+
+		int n = vehicles.length;
+		byVehicleRef = new StringIntMap(n);
+		lineRefs = new String[n];
+		String[] directionRefs = new String[n];
+		String[] blockRefs = new String[n];
+
+		for (int i = 0; i < n; i++) {
+			MonitoredVehicleJourney mvj = vehicles[i]
+					.getMonitoredVehicleJourney();
+			if (mvj == null) {
+				continue;
+			}
+			if (mvj.getVehicleRef() != null
+					&& mvj.getVehicleRef().getValue() != null) {
+				// If a vehicle is listed twice, the first one wins
+				byVehicleRef.putIfAbsent(mvj.getVehicleRef().getValue(), i);
+			}
+			if (mvj.getLineRef() != null) {
+				lineRefs[i] = mvj.getLineRef().getValue();
+			}
+			if (mvj.getDirectionRef() != null) {
+				directionRefs[i] = mvj.getDirectionRef().getValue();
+			}
+			if (mvj.getBlockRef() != null) {
+				blockRefs[i] = mvj.getBlockRef().getValue();
+			}
+		}
+
+		byLineRef = new VehicleIndex(lineRefs);
+		byDirectionRef = new VehicleIndex(directionRefs);
+		byBlockRef = new VehicleIndex(blockRefs);
+	}
+
+	/**
+	 * Returns the vehicle with the given VehicleRef
+	 * 
+	 * @param vehicleRef
+	 *            the VehicleRef (e.g., "MTA NYCT_7560")
+	 * @return the vehicle, or null if it isn't in this snapshot
+	 */
+	public VehicleActivity getVehicle(String vehicleRef) {
+		if (vehicleRef == null) {
+			return null;
+		}
+		int i = byVehicleRef.get(vehicleRef);
+		return i == -1 ? null : vehicles[i];
+	}
+
+	/**
+	 * Returns the vehicles on the given line
+	 * 
+	 * @param lineRef
+	 *            the LineRef (e.g., "MTA NYCT_S40")
+	 * @return an unmodifiable list of the vehicles on the line, which is empty
+	 *         if there aren't any
+	 */
+	public List<VehicleActivity> getVehiclesOnLine(String lineRef) {
+		return byLineRef.get(lineRef, vehicles);
+	}
+
+	/**
+	 * Returns the vehicles with the given DirectionRef, on any line
+	 * 
+	 * @param directionRef
+	 *            the DirectionRef (e.g., "0" or "1")
+	 * @return an unmodifiable list of the vehicles with the DirectionRef,
+	 *         which is empty if there aren't any
+	 */
+	public List<VehicleActivity> getVehiclesInDirection(String directionRef) {
+		return byDirectionRef.get(directionRef, vehicles);
+	}
+
+	/**
+	 * Returns the vehicles on the given line going in the given direction
+	 * 
+	 * @param lineRef
+	 *            the LineRef (e.g., "MTA NYCT_S40")
+	 * @param directionRef
+	 *            the DirectionRef (e.g., "0" or "1")
+	 * @return an unmodifiable list of the vehicles on the line in the
+	 *         direction, which is empty if there aren't any
+	 */
+	public List<VehicleActivity> getVehiclesOnLine(String lineRef,
+			String directionRef) {
+		List<VehicleActivity> onLine = getVehiclesOnLine(lineRef);
+		if (onLine.isEmpty() || directionRef == null) {
+			return Collections.emptyList();
+		}
+
+		// A line has far fewer vehicles than a direction, so filter the line
+		VehicleActivity[] result = new VehicleActivity[onLine.size()];
+		int count = 0;
+		for (VehicleActivity va : onLine) {
+			MonitoredVehicleJourney mvj = va.getMonitoredVehicleJourney();
+			if (mvj.getDirectionRef() != null
+					&& directionRef.equals(mvj.getDirectionRef().getValue())) {
+				result[count++] = va;
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(result).subList(0,
+				count));
+	}
+
+	/**
+	 * Returns the vehicles on the given block
+	 * 
+	 * @param blockRef
+	 *            the BlockRef
+	 * @return an unmodifiable list of the vehicles on the block, which is
+	 *         empty if there aren't any
+	 */
+	public List<VehicleActivity> getVehiclesOnBlock(String blockRef) {
+		return byBlockRef.get(blockRef, vehicles);
+	}
+
+	/**
+	 * Returns all vehicles in this snapshot
+	 * 
+	 * @return an unmodifiable list of all vehicles in this snapshot
+	 */
+	public List<VehicleActivity> getVehicles() {
+		return Collections.unmodifiableList(Arrays.asList(vehicles));
+	}
+
+	/**
+	 * Returns the number of vehicles in this snapshot
+	 * 
+	 * @return the number of vehicles in this snapshot
+	 */
+	public int size() {
+		return vehicles.length;
+	}
+
+	/**
+	 * Returns the number of distinct lines in this snapshot
+	 * 
+	 * @return the number of distinct LineRefs in this snapshot
+	 */
+	public int getLineCount() {
+		return byLineRef.getKeyCount();
+	}
+
+	/**
+	 * Returns the number of snapshots the store published before this one,
+	 * which can be used to check whether anything changed since a snapshot
+	 * was last read
+	 * 
+	 * @return the version of this snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the time this snapshot was built
+	 * 
+	 * @return the time this snapshot was built (in milliseconds since the
+	 *         epoch)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
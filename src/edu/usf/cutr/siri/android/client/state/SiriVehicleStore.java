@@ -0,0 +1,218 @@
+package edu.usf.cutr.siri.android.client.state;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.org.siri.siri.Siri;
+import uk.org.siri.siri.VehicleActivity;
+import uk.org.siri.siri.VehicleMonitoringDelivery;
+import edu.usf.cutr.siri.android.client.SiriPollingListener;
+import edu.usf.cutr.siri.android.client.SiriSubscription;
+import edu.usf.cutr.siri.android.client.metrics.SiriRequestMetrics;
+
+/**
+ * Keeps the latest known state of every vehicle from VehicleMonitoring
+ * responses, indexed by VehicleRef, LineRef, DirectionRef, and BlockRef, so
+ * consumers can look up a bus or all buses on a line without scanning the
+ * VehicleActivity lists of each response.
+ * 
+ * Vehicles are ingested in sources - each source (e.g., one
+ * SiriSubscription per line) replaces only its own vehicles, so responses for
+ * different lines can arrive at different times. Each ingest builds a new
+ * immutable SiriVehicleSnapshot of all sources and publishes it atomically,
+ * so readers always see either all or none of a response, and never need to
+ * lock. Get the snapshot once with getSnapshot() and make all related lookups
+ * on it to see a consistent state.
+ * 
+ * The store can be added as a SiriPollingListener to a SiriPollingScheduler,
+ * in which case each subscription is a source. Failed polls keep the last
+ * vehicles of the subscription.
+ * 
+ * This class is thread-safe. Ingests are serialized with each other, but
+ * never block readers.
+ */
+public class SiriVehicleStore implements SiriPollingListener {
+
+	// Source for vehicles ingested without one
+	private static final Object DEFAULT_SOURCE = new Object();
+
+	// Vehicles of each source, in the order the sources were first ingested.
+	// Only accessed while holding the lock on this object.
+	private final Map<Object, VehicleActivity[]> sources = new LinkedHashMap<Object, VehicleActivity[]>();
+
+	private volatile SiriVehicleSnapshot snapshot = SiriVehicleSnapshot.EMPTY;
+
+	/**
+	 * Returns the latest snapshot of all vehicles. Never blocks.
+	 * 
+	 * @return the latest snapshot of all vehicles
+	 */
+	public SiriVehicleSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the vehicle with the given VehicleRef in the latest snapshot.
+	 * Use getSnapshot() instead to make several related lookups.
+	 * 
+	 * @param vehicleRef
+	 *            the VehicleRef (e.g., "MTA NYCT_7560")
+	 * @return the vehicle, or null if it isn't in the latest snapshot
+	 */
+	public VehicleActivity getVehicle(String vehicleRef) {
+		return snapshot.getVehicle(vehicleRef);
+	}
+
+	/**
+	 * Returns the vehicles on the given line in the latest snapshot. Use
+	 * getSnapshot() instead to make several related lookups.
+	 * 
+	 * @param lineRef
+	 *            the LineRef (e.g., "MTA NYCT_S40")
+	 * @return an unmodifiable list of the vehicles on the line, which is empty
+	 *         if there aren't any
+	 */
+	public List<VehicleActivity> getVehiclesOnLine(String lineRef) {
+		return snapshot.getVehiclesOnLine(lineRef);
+	}
+
+	/**
+	 * Replaces all vehicles with the ones in a VehicleMonitoring response.
+	 * Use this when the response covers the whole fleet.
+	 * 
+	 * @param siri
+	 *            a VehicleMonitoring response
+	 * @return the new snapshot
+	 */
+	public SiriVehicleSnapshot ingest(Siri siri) {
+		return ingest(DEFAULT_SOURCE, siri);
+	}
+
+	/**
+	 * Replaces the vehicles from a source with the ones in a VehicleMonitoring
+	 * response
+	 * 
+	 * @param source
+	 *            identifies where the response came from (e.g., the
+	 *            SiriSubscription for a line)
+	 * @param siri
+	 *            a VehicleMonitoring response. If it doesn't have a
+	 *            ServiceDelivery, the vehicles from the source are kept.
+	 * @return the new snapshot
+	 */
+	public SiriVehicleSnapshot ingest(Object source, Siri siri) {
+		if (siri == null || siri.getServiceDelivery() == null) {
+			return snapshot;
+		}
+
+		List<VehicleActivity> activities = new ArrayList<VehicleActivity>();
+		List<VehicleMonitoringDelivery> listVMD = siri.getServiceDelivery()
+				.getVehicleMonitoringDelivery();
+		if (listVMD != null) {
+			for (VehicleMonitoringDelivery vmd : listVMD) {
+				if (vmd.getVehicleActivity() != null) {
+					activities.addAll(vmd.getVehicleActivity());
+				}
+			}
+		}
+		return ingest(source, activities);
+	}
+
+	/**
+	 * Replaces the vehicles from a source with the given VehicleActivity
+	 * elements. Can be used with the elements collected from
+	 * SiriRestClient.streamVehicleMonRequest().
+	 * 
+	 * @param source
+	 *            identifies where the vehicles came from (e.g., the
+	 *            SiriSubscription for a line)
+	 * @param activities
+	 *            all vehicles from the source
+	 * @return the new snapshot
+	 */
+	public SiriVehicleSnapshot ingest(Object source,
+			Collection<VehicleActivity> activities) {
+		VehicleActivity[] vehicles = new VehicleActivity[activities.size()];
+		int n = 0;
+		for (VehicleActivity va : activities) {
+			if (va != null && va.getMonitoredVehicleJourney() != null) {
+				vehicles[n++] = va;
+			}
+		}
+		if (n < vehicles.length) {
+			VehicleActivity[] trimmed = new VehicleActivity[n];
+			System.arraycopy(vehicles, 0, trimmed, 0, n);
+			vehicles = trimmed;
+		}
+
+		synchronized (this) {
+			sources.put(source, vehicles);
+			return publish();
+		}
+	}
+
+	/**
+	 * Removes the vehicles from a source (e.g., when a line is no longer
+	 * being polled)
+	 * 
+	 * @param source
+	 *            the source passed to ingest()
+	 * @return the new snapshot
+	 */
+	public synchronized SiriVehicleSnapshot remove(Object source) {
+		if (sources.remove(source) == null) {
+			return snapshot;
+		}
+		return publish();
+	}
+
+	/**
+	 * Removes all vehicles
+	 */
+	public synchronized void clear() {
+		sources.clear();
+		publish();
+	}
+
+	/**
+	 * Ingests the response for a vehicle monitoring subscription (stop
+	 * monitoring subscriptions are ignored)
+	 */
+	public void onResponse(SiriSubscription subscription, Siri siri) {
+		if (subscription.getEndpoint() == SiriRequestMetrics.ENDPOINT_VEHICLE_MONITORING) {
+			ingest(subscription, siri);
+		}
+	}
+
+	/**
+	 * Keeps the last vehicles for the subscription
+	 */
+	public void onError(SiriSubscription subscription, Exception e) {
+	}
+
+	/**
+	 * Builds and publishes a snapshot of the vehicles from all sources. Must
+	 * be called while holding the lock on this object.
+	 */
+	private SiriVehicleSnapshot publish() {
+		int total = 0;
+		for (VehicleActivity[] vehicles : sources.values()) {
+			total += vehicles.length;
+		}
+
+		VehicleActivity[] all = new VehicleActivity[total];
+		int offset = 0;
+		for (VehicleActivity[] vehicles : sources.values()) {
+			System.arraycopy(vehicles, 0, all, offset, vehicles.length);
+			offset += vehicles.length;
+		}
+
+		SiriVehicleSnapshot s = new SiriVehicleSnapshot(all,
+				snapshot.getVersion() + 1, System.currentTimeMillis());
+		snapshot = s;
+		return s;
+	}
+}
@@ -0,0 +1,96 @@
+package edu.usf.cutr.siri.android.client.state;
+
+/**
+ * A minimal open-addressing hash map from String keys to int values, used for
+ * the indexes of a SiriVehicleSnapshot. Keys and values are kept in two flat
+ * arrays instead of one entry object (and one boxed Integer) per key.
+ * 
+ * The map is filled once while a snapshot is built and then only read, so it
+ * doesn't support removal or resizing - the capacity is fixed by the maximum
+ * number of keys passed to the constructor. It isn't thread-safe while it's
+ * being filled, but can be read from any number of threads once it has been
+ * safely published.
+ */
+final class StringIntMap {
+
+	private final String[] keys;
+	private final int[] values;
+	private final int mask;
+	private int size = 0;
+
+	/**
+	 * Creates an empty map
+	 * 
+	 * @param maxKeys
+	 *            the maximum number of keys that will be added
+	 */
+	StringIntMap(int maxKeys) {
+		// Keep the load factor at or below 0.5 so probe sequences stay short
+		int capacity = Integer.highestOneBit(Math.max(maxKeys, 1) * 2 - 1) << 1;
+		keys = new String[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Returns the value for the key
+	 * 
+	 * @param key
+	 *            the key to look up
+	 * @return the value for the key, or -1 if there isn't one
+	 */
+	int get(String key) {
+		int i = hash(key) & mask;
+		String k;
+		while ((k = keys[i]) != null) {
+			if (k.equals(key)) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the key with the value, unless the key is already in the map
+	 * 
+	 * @param key
+	 *            the key to add
+	 * @param value
+	 *            the value for the key (0 or more)
+	 * @return the existing value for the key, or -1 if the key was added
+	 */
+	int putIfAbsent(String key, int value) {
+		int i = hash(key) & mask;
+		String k;
+		while ((k = keys[i]) != null) {
+			if (k.equals(key)) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		if (size == mask) {
+			// Always leave one empty slot so get() terminates
+			throw new IllegalStateException("Map is full");
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		return -1;
+	}
+
+	/**
+	 * Returns the number of keys in the map
+	 * 
+	 * @return the number of keys in the map
+	 */
+	int size() {
+		return size;
+	}
+
+	private static int hash(String key) {
+		// Spread the high bits, since only the low bits pick the slot
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
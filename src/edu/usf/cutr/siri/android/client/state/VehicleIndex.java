@@ -0,0 +1,133 @@
+package edu.usf.cutr.siri.android.client.state;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+import uk.org.siri.siri.VehicleActivity;
+
+/**
+ * A secondary index of a SiriVehicleSnapshot that maps a key (e.g., LineRef)
+ * to the positions of all vehicles with that key.
+ * 
+ * The positions for all keys are stored back to back in a single int array,
+ * with a second array holding where each key's positions start, so the whole
+ * index is two int arrays plus the key map no matter how many keys there are.
+ * 
+ * Instances are immutable once built.
+ */
+final class VehicleIndex {
+
+	private final StringIntMap groups;
+
+	// Positions of the vehicles in group g are
+	// positions[offsets[g]] to positions[offsets[g + 1] - 1]
+	private final int[] offsets;
+	private final int[] positions;
+
+	/**
+	 * Builds an index
+	 * 
+	 * @param keys
+	 *            the key of the vehicle at each position, or null for
+	 *            vehicles that shouldn't be indexed
+	 */
+	VehicleIndex(String[] keys) {
+		int n = keys.length;
+		groups = new StringIntMap(n);
+
+		// First pass - assign a group to each key and count its vehicles
+		int[] groupOfPosition = new int[n];
+		int[] counts = new int[n + 1];
+		int groupCount = 0;
+		for (int i = 0; i < n; i++) {
+			if (keys[i] == null) {
+				groupOfPosition[i] = -1;
+				continue;
+			}
+			int g = groups.putIfAbsent(keys[i], groupCount);
+			if (g == -1) {
+				g = groupCount++;
+			}
+			groupOfPosition[i] = g;
+			counts[g]++;
+		}
+
+		// Second pass - turn the counts into start offsets and fill in the
+		// positions, which keeps them in snapshot order within each group
+		offsets = new int[groupCount + 1];
+		for (int g = 0; g < groupCount; g++) {
+			offsets[g + 1] = offsets[g] + counts[g];
+		}
+		positions = new int[offsets[groupCount]];
+		int[] next = counts;
+		System.arraycopy(offsets, 0, next, 0, groupCount);
+		for (int i = 0; i < n; i++) {
+			int g = groupOfPosition[i];
+			if (g != -1) {
+				positions[next[g]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the vehicles with the key
+	 * 
+	 * @param key
+	 *            the key to look up
+	 * @param vehicles
+	 *            the vehicles of the snapshot, by position
+	 * @return an unmodifiable list of the vehicles with the key, which is
+	 *         empty if there aren't any
+	 */
+	List<VehicleActivity> get(String key, VehicleActivity[] vehicles) {
+		int g = key == null ? -1 : groups.get(key);
+		if (g == -1) {
+			return Collections.emptyList();
+		}
+		return new PositionList(vehicles, positions, offsets[g],
+				offsets[g + 1]);
+	}
+
+	/**
+	 * Returns the number of distinct keys in the index
+	 * 
+	 * @return the number of distinct keys in the index
+	 */
+	int getKeyCount() {
+		return groups.size();
+	}
+
+	/**
+	 * Read-only view of the vehicles at a range of positions
+	 */
+	private static class PositionList extends AbstractList<VehicleActivity> {
+
+		private final VehicleActivity[] vehicles;
+		private final int[] positions;
+		private final int from;
+		private final int to;
+
+		PositionList(VehicleActivity[] vehicles, int[] positions, int from,
+				int to) {
+			this.vehicles = vehicles;
+			this.positions = positions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public VehicleActivity get(int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", size: " + (to - from));
+			}
+			return vehicles[positions[from + index]];
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+	}
+}
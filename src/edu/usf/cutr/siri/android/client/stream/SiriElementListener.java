@@ -0,0 +1,22 @@
+package edu.usf.cutr.siri.android.client.stream;
+
+/**
+ * Listener that receives SIRI elements (e.g., VehicleActivity) one at a time
+ * while a response is being parsed by the SiriStreamingParser
+ * 
+ * @param <T>
+ *            type of the SIRI element
+ */
+public interface SiriElementListener<T> {
+
+	/**
+	 * Called for each element as soon as it has been parsed. The parser keeps
+	 * no reference to the element after this method returns.
+	 * 
+	 * @param element
+	 *            the parsed element
+	 * @return true to continue parsing, false to stop parsing the rest of the
+	 *         response
+	 */
+	public boolean onElement(T element);
+}
@@ -0,0 +1,127 @@
+package edu.usf.cutr.siri.android.client.stream;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fields of a SIRI element (e.g., VehicleActivity) that should be kept
+ * when parsing with SiriStreamingParser.readProjectedElements(). Fields are
+ * given as paths of SIRI element names separated by ".", relative to the
+ * element being parsed, for example
+ * "MonitoredVehicleJourney.VehicleLocation.Latitude".
+ * 
+ * Everything that isn't on one of the paths (e.g., OnwardCalls,
+ * MonitoredCall.Extensions.Distances, SituationRef) is skipped at the token
+ * level without creating any objects for it.
+ * 
+ * Instances are immutable and can be shared between threads.
+ */
+public final class SiriProjection {
+
+	/**
+	 * Identity, line, location, and bearing of a vehicle in a VehicleActivity
+	 * - what's needed to show vehicles on a map
+	 */
+	public static final SiriProjection VEHICLE_POSITION = new SiriProjection(
+			Arrays.asList("MonitoredVehicleJourney.VehicleRef",
+					"MonitoredVehicleJourney.LineRef",
+					"MonitoredVehicleJourney.DirectionRef",
+					"MonitoredVehicleJourney.VehicleLocation.Latitude",
+					"MonitoredVehicleJourney.VehicleLocation.Longitude",
+					"MonitoredVehicleJourney.Bearing", "RecordedAtTime"));
+
+	private final Set<String> paths;
+
+	// Root of the tree of path segments
+	private final Node root = new Node(null);
+
+	/**
+	 * Creates a projection
+	 * 
+	 * @param paths
+	 *            paths of the fields to keep, relative to the element being
+	 *            parsed (e.g., "MonitoredVehicleJourney.LineRef")
+	 */
+	public SiriProjection(Collection<String> paths) {
+		if (paths.isEmpty()) {
+			throw new IllegalArgumentException("At least one path is required");
+		}
+		Set<String> set = new LinkedHashSet<String>();
+		for (String path : paths) {
+			if (path == null || path.length() == 0 || path.startsWith(".")
+					|| path.endsWith(".") || path.contains("..")) {
+				throw new IllegalArgumentException("Invalid path: " + path);
+			}
+			set.add(path);
+		}
+		this.paths = Collections.unmodifiableSet(set);
+
+		for (String path : this.paths) {
+			Node node = root;
+			for (String name : path.split("\\.")) {
+				Node child = node.children.get(name);
+				if (child == null) {
+					child = new Node(node.path == null ? name : node.path
+							+ "." + name);
+					node.children.put(name, child);
+				}
+				node = child;
+			}
+			node.selected = true;
+		}
+	}
+
+	/**
+	 * Creates a projection
+	 * 
+	 * @param paths
+	 *            paths of the fields to keep, relative to the element being
+	 *            parsed (e.g., "MonitoredVehicleJourney.LineRef")
+	 * @return the projection
+	 */
+	public static SiriProjection of(String... paths) {
+		return new SiriProjection(Arrays.asList(paths));
+	}
+
+	/**
+	 * Returns the paths of the fields that are kept
+	 * 
+	 * @return the paths of the fields that are kept, in the order they were
+	 *         given
+	 */
+	public Set<String> getPaths() {
+		return paths;
+	}
+
+	Node getRoot() {
+		return root;
+	}
+
+	@Override
+	public String toString() {
+		return "SiriProjection" + paths;
+	}
+
+	/**
+	 * One segment of one or more paths
+	 */
+	static final class Node {
+
+		// Full path to this node, which is the key in the parsed records
+		final String path;
+
+		final Map<String, Node> children = new HashMap<String, Node>();
+
+		// True if a path ends here, so the value here is kept
+		boolean selected = false;
+
+		Node(String path) {
+			this.path = path;
+		}
+	}
+}
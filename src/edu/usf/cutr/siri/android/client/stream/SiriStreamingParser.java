@@ -0,0 +1,399 @@
+package edu.usf.cutr.siri.android.client.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.org.siri.siri.MonitoredStopVisit;
+import uk.org.siri.siri.VehicleActivity;
+import edu.usf.cutr.siri.android.client.stream.SiriProjection.Node;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Parses a SIRI response one element at a time using the Jackson token stream,
+ * instead of binding the entire Siri object tree at once.
+ * 
+ * For example, for a vehicle monitoring response the parser walks the tokens
+ * until it reaches a VehicleActivity, binds just that VehicleActivity to a
+ * POJO, hands it to a listener, and then moves on to the next one. Peak memory
+ * is then one VehicleActivity instead of the whole fleet, and the first
+ * vehicle is available as soon as it has been received.
+ * 
+ * Elements are bound using the same ObjectMapper configuration (naming
+ * strategy, deserialization features) as normal parsing. Everything outside
+ * the requested elements (e.g., ResponseTimestamp) is skipped.
+ * 
+ * This works for both JSON and XML. For XML, pass in the XmlMapper from
+ * SiriJacksonConfig - its parser walks the Aalto StAX stream incrementally,
+ * where each repeated element (e.g., each <MonitoredStopVisit>) shows up as
+ * its own field, and binding each element with the XmlMapper keeps the
+ * CustomPascalCaseStrategy and xml:lang handling. Only the current element is
+ * held in memory, instead of the whole document.
+ * 
+ * When only a few fields of each element are needed, readProjectedElements()
+ * skips binding altogether and returns just the fields in a SiriProjection,
+ * skipping every other subtree at the token level.
+ * 
+ * This class is thread-safe.
+ */
+public class SiriStreamingParser {
+
+	/**
+	 * Name of the VehicleActivity element in a vehicle monitoring response
+	 */
+	public static final String VEHICLE_ACTIVITY = "VehicleActivity";
+
+	/**
+	 * Name of the MonitoredStopVisit element in a stop monitoring response
+	 */
+	public static final String MONITORED_STOP_VISIT = "MonitoredStopVisit";
+
+	private final ObjectMapper mapper;
+
+	// Readers for each element type, created on first use
+	private final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+	/**
+	 * Creates a new streaming parser
+	 * 
+	 * @param mapper
+	 *            configured mapper used to bind each element (e.g., from
+	 *            SiriJacksonConfig.getObjectMapperInstance() for JSON, or
+	 *            SiriJacksonConfig.getXmlMapperInstance() for XML)
+	 */
+	public SiriStreamingParser(ObjectMapper mapper) {
+		this.mapper = mapper;
+	}
+
+	/**
+	 * Parses the VehicleActivity elements in a vehicle monitoring response
+	 * 
+	 * @param in
+	 *            the response body. The stream is closed when parsing ends.
+	 * @param listener
+	 *            listener that receives each VehicleActivity
+	 * @return the number of VehicleActivity elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public int readVehicleActivities(InputStream in,
+			SiriElementListener<VehicleActivity> listener) throws IOException {
+		return readElements(in, VEHICLE_ACTIVITY, VehicleActivity.class,
+				listener);
+	}
+
+	/**
+	 * Parses the MonitoredStopVisit elements in a stop monitoring response
+	 * 
+	 * @param in
+	 *            the response body. The stream is closed when parsing ends.
+	 * @param listener
+	 *            listener that receives each MonitoredStopVisit
+	 * @return the number of MonitoredStopVisit elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public int readMonitoredStopVisits(InputStream in,
+			SiriElementListener<MonitoredStopVisit> listener)
+			throws IOException {
+		return readElements(in, MONITORED_STOP_VISIT, MonitoredStopVisit.class,
+				listener);
+	}
+
+	/**
+	 * Parses all elements with the given name in a SIRI response, binding each
+	 * one to the given type
+	 * 
+	 * @param in
+	 *            the response body. The stream is closed when parsing ends.
+	 * @param elementName
+	 *            name of the element (e.g., "VehicleActivity")
+	 * @param type
+	 *            SIRI POJO class for the element
+	 * @param listener
+	 *            listener that receives each element
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public <T> int readElements(InputStream in, String elementName,
+			Class<T> type, SiriElementListener<T> listener) throws IOException {
+		JsonParser parser = mapper.getFactory().createParser(in);
+		try {
+			return readElements(parser, elementName, type, listener);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Parses all elements with the given name from a parser, binding each one
+	 * to the given type
+	 * 
+	 * @param parser
+	 *            parser created by the same kind of factory as the mapper
+	 *            (i.e., a JSON parser for a JSON mapper)
+	 * @param elementName
+	 *            name of the element (e.g., "VehicleActivity")
+	 * @param type
+	 *            SIRI POJO class for the element
+	 * @param listener
+	 *            listener that receives each element
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public <T> int readElements(JsonParser parser, String elementName,
+			Class<T> type, SiriElementListener<T> listener) throws IOException {
+		final ObjectReader reader = getReader(type);
+		return readElements(parser, elementName, new ElementReader<T>() {
+			T read(JsonParser parser) throws IOException {
+				return reader.readValue(parser);
+			}
+		}, listener);
+	}
+
+	/**
+	 * Parses only the fields of the VehicleActivity elements in a vehicle
+	 * monitoring response that are in the projection
+	 * 
+	 * @param in
+	 *            the response body. The stream is closed when parsing ends.
+	 * @param projection
+	 *            the fields to keep, relative to VehicleActivity (e.g.,
+	 *            SiriProjection.VEHICLE_POSITION)
+	 * @param listener
+	 *            listener that receives the fields of each VehicleActivity
+	 * @return the number of VehicleActivity elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public int readProjectedVehicleActivities(InputStream in,
+			SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IOException {
+		return readProjectedElements(in, VEHICLE_ACTIVITY, projection,
+				listener);
+	}
+
+	/**
+	 * Parses only the fields of the elements with the given name in a SIRI
+	 * response that are in the projection, instead of binding each element
+	 * to a POJO. Everything else is skipped at the token level, so no strings
+	 * or objects are created for it.
+	 * 
+	 * Each element is passed to the listener as a map from the projection's
+	 * paths to the text of the values at those paths (e.g.,
+	 * "MonitoredVehicleJourney.VehicleLocation.Latitude" -> "40.595936").
+	 * Paths that aren't in the element are left out of the map. If a path
+	 * appears more than once in an element (e.g., a repeated XML element),
+	 * the first value is kept. For an element with attributes in XML (e.g.,
+	 * xml:lang), the element's text is kept.
+	 * 
+	 * @param in
+	 *            the response body. The stream is closed when parsing ends.
+	 * @param elementName
+	 *            name of the element (e.g., "VehicleActivity")
+	 * @param projection
+	 *            the fields to keep, relative to the element
+	 * @param listener
+	 *            listener that receives the fields of each element
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public int readProjectedElements(InputStream in, String elementName,
+			SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IOException {
+		JsonParser parser = mapper.getFactory().createParser(in);
+		try {
+			return readProjectedElements(parser, elementName, projection,
+					listener);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Parses only the fields of the elements with the given name that are in
+	 * the projection, from a parser. See readProjectedElements(InputStream,
+	 * String, SiriProjection, SiriElementListener).
+	 * 
+	 * @param parser
+	 *            parser created by the same kind of factory as the mapper
+	 *            (i.e., a JSON parser for a JSON mapper)
+	 * @param elementName
+	 *            name of the element (e.g., "VehicleActivity")
+	 * @param projection
+	 *            the fields to keep, relative to the element
+	 * @param listener
+	 *            listener that receives the fields of each element
+	 * @return the number of elements passed to the listener
+	 * @throws IOException
+	 *             if the response couldn't be read or parsed
+	 */
+	public int readProjectedElements(JsonParser parser, String elementName,
+			SiriProjection projection,
+			SiriElementListener<Map<String, String>> listener)
+			throws IOException {
+		final Node root = projection.getRoot();
+		final int expectedSize = projection.getPaths().size();
+		return readElements(parser, elementName,
+				new ElementReader<Map<String, String>>() {
+					Map<String, String> read(JsonParser parser)
+							throws IOException {
+						Map<String, String> record = new HashMap<String, String>(
+								expectedSize * 2);
+						readProjectedObject(parser, root, record);
+						return record;
+					}
+				}, listener);
+	}
+
+	/**
+	 * Finds each element with the given name and passes what the element
+	 * reader makes of it to the listener
+	 */
+	private <T> int readElements(JsonParser parser, String elementName,
+			ElementReader<T> reader, SiriElementListener<T> listener)
+			throws IOException {
+		int count = 0;
+
+		JsonToken token;
+		while ((token = parser.nextToken()) != null) {
+			if (token != JsonToken.FIELD_NAME
+					|| !elementName.equals(parser.getCurrentName())) {
+				continue;
+			}
+
+			token = parser.nextToken();
+
+			if (token == JsonToken.START_ARRAY) {
+				// List of elements (JSON, or XML with wrapping)
+				while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+					if (token == null) {
+						return count;
+					}
+					if (token != JsonToken.START_OBJECT) {
+						parser.skipChildren();
+						continue;
+					}
+					T element = reader.read(parser);
+					count++;
+					if (!listener.onElement(element)) {
+						return count;
+					}
+				}
+			} else if (token == JsonToken.START_OBJECT) {
+				// Single element (e.g., each repeated, unwrapped XML element)
+				T element = reader.read(parser);
+				count++;
+				if (!listener.onElement(element)) {
+					return count;
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the fields of an object that are in the projection, skipping
+	 * everything else. The parser must be positioned at the START_OBJECT
+	 * token, and is left at the matching END_OBJECT token.
+	 */
+	private static void readProjectedObject(JsonParser parser,
+			Node node, Map<String, String> record)
+			throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			Node child = node.children.get(name);
+			token = parser.nextToken();
+
+			if (child == null) {
+				if (name.length() == 0 && node.selected
+						&& token.isScalarValue()) {
+					// Text of an XML element that also has attributes
+					putValue(parser, token, node, record);
+				} else {
+					// Not wanted - skip the whole subtree without binding it
+					parser.skipChildren();
+				}
+			} else {
+				readProjectedValue(parser, token, child, record);
+			}
+		}
+		if (token != JsonToken.END_OBJECT) {
+			throw new JsonParseException("Unexpected token " + token,
+					parser.getCurrentLocation());
+		}
+	}
+
+	/**
+	 * Reads a value whose path is in the projection (or is a prefix of a path
+	 * in the projection)
+	 */
+	private static void readProjectedValue(JsonParser parser, JsonToken token,
+			Node node, Map<String, String> record)
+			throws IOException {
+		if (token == JsonToken.START_OBJECT) {
+			readProjectedObject(parser, node, record);
+		} else if (token == JsonToken.START_ARRAY) {
+			// e.g., a JSON list of elements - keep the first value for each path
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				if (token == null) {
+					throw new JsonParseException("Unexpected end of input",
+							parser.getCurrentLocation());
+				}
+				readProjectedValue(parser, token, node, record);
+			}
+		} else if (node.selected) {
+			putValue(parser, token, node, record);
+		}
+	}
+
+	private static void putValue(JsonParser parser, JsonToken token,
+			Node node, Map<String, String> record)
+			throws IOException {
+		if (token != JsonToken.VALUE_NULL && !record.containsKey(node.path)) {
+			record.put(node.path, parser.getText());
+		}
+	}
+
+	/**
+	 * Reads a single element, with the parser positioned at its START_OBJECT
+	 * token
+	 */
+	private static abstract class ElementReader<T> {
+		abstract T read(JsonParser parser) throws IOException;
+	}
+
+	/**
+	 * Returns a reader that binds a single element of the given type. The root
+	 * value isn't wrapped (unlike the Siri root element), so
+	 * UNWRAP_ROOT_VALUE is turned off.
+	 */
+	private ObjectReader getReader(Class<?> type) {
+		ObjectReader reader = readers.get(type);
+		if (reader == null) {
+			reader = mapper.reader(type).without(
+					DeserializationFeature.UNWRAP_ROOT_VALUE);
+			ObjectReader existing = readers.putIfAbsent(type, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+}
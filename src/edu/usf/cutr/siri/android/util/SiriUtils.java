@@ -22,6 +22,8 @@ import static edu.usf.cutr.siri.android.client.SiriRestClient.TAG;
  * Java imports
  */
 
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -307,4 +309,119 @@ public class SiriUtils {
     	Log.i(TAG, "------------------------------------------");
 	}
 
+	/**
+	 * Returns the earliest ValidUntil time of the vehicle monitoring and stop
+	 * monitoring deliveries in a Siri object
+	 * 
+	 * @param siri response from Mobile SIRI API
+	 * @return the earliest ValidUntil time (in milliseconds since the epoch), or
+	 *         -1 if the response doesn't include a ValidUntil time
+	 */
+	public static long getValidUntil(Siri siri){
+		long validUntil = -1;
+		
+		if(siri == null || siri.getServiceDelivery() == null){
+			return validUntil;
+		}
+		
+		List<VehicleMonitoringDelivery> listVMD = siri.getServiceDelivery().getVehicleMonitoringDelivery();
+		if(listVMD != null){
+			for(VehicleMonitoringDelivery vmd : listVMD){
+				validUntil = earliest(validUntil, toMillis(vmd.getValidUntil()));
+			}
+		}
+		
+		List<StopMonitoringDelivery> listSMD = siri.getServiceDelivery().getStopMonitoringDelivery();
+		if(listSMD != null){
+			for(StopMonitoringDelivery smd : listSMD){
+				validUntil = earliest(validUntil, toMillis(smd.getValidUntil()));
+			}
+		}
+		
+		return validUntil;
+	}
+	
+	/**
+	 * Returns the ResponseTimestamp of a Siri object, which is the time the
+	 * server produced the response (by the server's clock)
+	 * 
+	 * @param siri response from Mobile SIRI API
+	 * @return the ResponseTimestamp of the ServiceDelivery, or the earliest
+	 *         ResponseTimestamp of the vehicle monitoring and stop monitoring
+	 *         deliveries if the ServiceDelivery doesn't have one (in
+	 *         milliseconds since the epoch), or -1 if there isn't one
+	 */
+	public static long getResponseTimestamp(Siri siri){
+		if(siri == null || siri.getServiceDelivery() == null){
+			return -1;
+		}
+		
+		long responseTimestamp = toMillis(siri.getServiceDelivery().getResponseTimestamp());
+		if(responseTimestamp != -1){
+			return responseTimestamp;
+		}
+		
+		List<VehicleMonitoringDelivery> listVMD = siri.getServiceDelivery().getVehicleMonitoringDelivery();
+		if(listVMD != null){
+			for(VehicleMonitoringDelivery vmd : listVMD){
+				responseTimestamp = earliest(responseTimestamp, toMillis(vmd.getResponseTimestamp()));
+			}
+		}
+		
+		List<StopMonitoringDelivery> listSMD = siri.getServiceDelivery().getStopMonitoringDelivery();
+		if(listSMD != null){
+			for(StopMonitoringDelivery smd : listSMD){
+				responseTimestamp = earliest(responseTimestamp, toMillis(smd.getResponseTimestamp()));
+			}
+		}
+		
+		return responseTimestamp;
+	}
+	
+	/**
+	 * Converts a SIRI timestamp (e.g., ValidUntil, ResponseTimestamp) to
+	 * milliseconds since the epoch
+	 * 
+	 * @param timestamp SIRI timestamp
+	 * @return the timestamp in milliseconds since the epoch, or -1 if the
+	 *         timestamp is null or isn't a recognized type
+	 */
+	public static long toMillis(Object timestamp){
+		if(timestamp instanceof Date){
+			return ((Date) timestamp).getTime();
+		}
+		if(timestamp instanceof Calendar){
+			return ((Calendar) timestamp).getTimeInMillis();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Converts a SIRI number (e.g., VehicleLocation latitude and longitude,
+	 * Bearing) to a double
+	 * 
+	 * @param number SIRI number
+	 * @return the number as a double, or Double.NaN if the number is null or
+	 *         isn't a recognized type
+	 */
+	public static double toDouble(Object number){
+		if(number instanceof Number){
+			return ((Number) number).doubleValue();
+		}
+		return Double.NaN;
+	}
+	
+	/**
+	 * Returns the earlier of two times, ignoring times that are -1
+	 */
+	private static long earliest(long a, long b){
+		if(a == -1){
+			return b;
+		}
+		if(b == -1){
+			return a;
+		}
+		return Math.min(a, b);
+	}
+
 }